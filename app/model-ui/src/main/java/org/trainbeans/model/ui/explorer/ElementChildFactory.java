@@ -16,18 +16,29 @@
 package org.trainbeans.model.ui.explorer;
 
 import java.beans.IntrospectionException;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.List;
 import org.openide.nodes.ChildFactory;
 import org.openide.nodes.Node;
 import org.openide.util.Exceptions;
+import org.openide.util.WeakListeners;
 import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.ElementPage;
+import org.trainbeans.model.api.ElementsChangeEvent;
 import org.trainbeans.model.api.Model;
 
 /**
  *
  * @author rhwood
  */
-public final class ElementChildFactory extends ChildFactory<Element> {
+public final class ElementChildFactory extends ChildFactory<Element>
+        implements PropertyChangeListener {
+
+    /**
+     * The number of elements fetched from the model at a time.
+     */
+    static final int PAGE_SIZE = 0x100;
 
     /**
      * The model containing the elements that this factory can create.
@@ -37,6 +48,11 @@ public final class ElementChildFactory extends ChildFactory<Element> {
      * The class or element that this factory can create.
      */
     private final Class<? extends Element> elementClass;
+    /**
+     * The name after which the next page of elements starts; null to start
+     * with the first element.
+     */
+    private String next;
 
     /**
      * Create the factory for the given model and class.
@@ -48,12 +64,41 @@ public final class ElementChildFactory extends ChildFactory<Element> {
             final Class<? extends Element> clazz) {
         model = bean;
         elementClass = clazz;
+        model.addPropertyChangeListener(ElementsChangeEvent.ELEMENTS,
+                WeakListeners.propertyChange(this, ElementsChangeEvent.ELEMENTS,
+                        model));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Refreshes the keys if elements of the class this factory creates were
+     * added to or removed from the model.
+     */
+    @Override
+    public void propertyChange(final PropertyChangeEvent evt) {
+        if (evt instanceof ElementsChangeEvent
+                && ((ElementsChangeEvent) evt).affects(elementClass)) {
+            refresh(false);
+        }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Adds one page of elements at a time, so that the explorer can show the
+     * elements already fetched from a large model while fetching the rest.
+     */
     @Override
     protected boolean createKeys(final List<Element> list) {
-        list.addAll(model.getAll(elementClass));
-        return true;
+        if (list.isEmpty()) {
+            next = null;
+        }
+        ElementPage<? extends Element> page
+                = model.getPage(elementClass, next, PAGE_SIZE);
+        list.addAll(page.getElements());
+        next = page.getNextKey();
+        return !page.hasNext();
     }
 
     @Override
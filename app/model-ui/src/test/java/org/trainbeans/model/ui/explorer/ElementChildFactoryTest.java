@@ -21,6 +21,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.openide.nodes.Children;
 import org.openide.util.lookup.Lookups;
 import org.trainbeans.model.api.Element;
 import org.trainbeans.model.api.Turnout;
@@ -53,6 +54,35 @@ class ElementChildFactoryTest {
                         .toArray(new Element[0]));
     }
 
+    @Test
+    void testCreateKeys_Paged() {
+        for (int i = 0; i < ElementChildFactory.PAGE_SIZE * 2; i++) {
+            model.create(Turnout.class, "IT" + i);
+        }
+        List<Element> list = new ArrayList<>();
+        assertThat(factory.createKeys(list)).isFalse();
+        assertThat(list).hasSize(ElementChildFactory.PAGE_SIZE);
+        assertThat(factory.createKeys(list)).isFalse();
+        assertThat(factory.createKeys(list)).isTrue();
+        assertThat(list).containsExactlyElementsOf(model.getAll(Turnout.class));
+        // a new list starts over
+        list = new ArrayList<>();
+        assertThat(factory.createKeys(list)).isFalse();
+        assertThat(list).hasSize(ElementChildFactory.PAGE_SIZE);
+        Children children = Children.create(factory, false);
+        assertThat(children.getNodes(true)).hasSize(ElementChildFactory.PAGE_SIZE * 2 + 2);
+    }
+
+    @Test
+    void testPropertyChange() {
+        Children children = Children.create(factory, false);
+        assertThat(children.getNodes(true)).hasSize(2);
+        Turnout turnout = model.create(Turnout.class, "baz");
+        assertThat(children.getNodes(true)).hasSize(3);
+        model.remove(turnout);
+        assertThat(children.getNodes(true)).hasSize(2);
+    }
+
     @Test
     void testCreateNodeForKey() {
         assertThat(factory.createNodeForKey(model.get(Turnout.class, "foo")))
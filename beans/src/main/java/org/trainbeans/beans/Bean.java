@@ -15,9 +15,12 @@
  */
 package org.trainbeans.beans;
 
+import java.beans.IndexedPropertyChangeEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.beans.PropertyChangeSupport;
+import java.beans.PropertyChangeListenerProxy;
+import java.util.EventListener;
+import java.util.concurrent.Executor;
 
 /**
  *
@@ -26,11 +29,30 @@ import java.beans.PropertyChangeSupport;
 public abstract class Bean implements PropertyChangeProvider {
 
     /**
-     * Supporting class that manages {@link PropertyChangeListeners} and
-     * {@link PropertyChangeEvent} propagation.
+     * The registered {@link PropertyChangeListener}s. Events are delivered
+     * without locking, so listeners can be notified from any thread without
+     * contending with each other or with threads adding or removing
+     * listeners.
      */
-    private final PropertyChangeSupport propertyChangeSupport
-            = new PropertyChangeSupport(this);
+    private final ListenerRegistry<PropertyChangeListener>
+            propertyChangeListeners = new ListenerRegistry<>(
+                    PropertyChangeListener[]::new,
+                    PropertyChangeListenerProxy::new);
+    /**
+     * The registered {@link IntPropertyChangeListener}s,
+     * {@link LongPropertyChangeListener}s,
+     * {@link BooleanPropertyChangeListener}s, and
+     * {@link EnumPropertyChangeListener}s, all of which listen to named
+     * properties.
+     */
+    private final ListenerRegistry<EventListener> primitiveListeners
+            = new ListenerRegistry<>(EventListener[]::new,
+                    (name, listener) -> listener);
+    /**
+     * The queue of events delivered asynchronously; null if events are
+     * delivered synchronously.
+     */
+    private volatile EventQueue eventQueue;
 
     /**
      * {@inheritDoc}
@@ -38,7 +60,14 @@ public abstract class Bean implements PropertyChangeProvider {
     @Override
     public <P extends PropertyChangeProvider> P addPropertyChangeListener(
             final PropertyChangeListener listener) {
-        propertyChangeSupport.addPropertyChangeListener(listener);
+        if (listener instanceof PropertyChangeListenerProxy) {
+            PropertyChangeListenerProxy proxy
+                    = (PropertyChangeListenerProxy) listener;
+            propertyChangeListeners.add(proxy.getPropertyName(),
+                    proxy.getListener());
+        } else {
+            propertyChangeListeners.add(listener);
+        }
         return getSelf();
     }
 
@@ -48,7 +77,7 @@ public abstract class Bean implements PropertyChangeProvider {
     @Override
     public <P extends PropertyChangeProvider> P addPropertyChangeListener(
             final String propertyName, final PropertyChangeListener listener) {
-        propertyChangeSupport.addPropertyChangeListener(propertyName, listener);
+        propertyChangeListeners.add(propertyName, listener);
         return getSelf();
     }
 
@@ -58,7 +87,14 @@ public abstract class Bean implements PropertyChangeProvider {
     @Override
     public <P extends PropertyChangeProvider> P removePropertyChangeListener(
             final PropertyChangeListener listener) {
-        propertyChangeSupport.removePropertyChangeListener(listener);
+        if (listener instanceof PropertyChangeListenerProxy) {
+            PropertyChangeListenerProxy proxy
+                    = (PropertyChangeListenerProxy) listener;
+            propertyChangeListeners.remove(proxy.getPropertyName(),
+                    proxy.getListener());
+        } else {
+            propertyChangeListeners.remove(listener);
+        }
         return getSelf();
     }
 
@@ -68,8 +104,7 @@ public abstract class Bean implements PropertyChangeProvider {
     @Override
     public <P extends PropertyChangeProvider> P removePropertyChangeListener(
             final String propertyName, final PropertyChangeListener listener) {
-        propertyChangeSupport.removePropertyChangeListener(propertyName,
-                listener);
+        propertyChangeListeners.remove(propertyName, listener);
         return getSelf();
     }
 
@@ -78,7 +113,7 @@ public abstract class Bean implements PropertyChangeProvider {
      */
     @Override
     public PropertyChangeListener[] getPropertyChangeListeners() {
-        return propertyChangeSupport.getPropertyChangeListeners();
+        return propertyChangeListeners.getListeners();
     }
 
     /**
@@ -87,7 +122,7 @@ public abstract class Bean implements PropertyChangeProvider {
     @Override
     public PropertyChangeListener[] getPropertyChangeListeners(
             final String propertyName) {
-        return propertyChangeSupport.getPropertyChangeListeners(propertyName);
+        return propertyChangeListeners.getListeners(propertyName);
     }
 
     /**
@@ -95,20 +130,257 @@ public abstract class Bean implements PropertyChangeProvider {
      */
     @Override
     public boolean hasListeners(final String propertyName) {
-        return propertyChangeSupport.hasListeners(propertyName);
+        return propertyChangeListeners.hasListeners(propertyName)
+                || primitiveListeners.hasListeners(propertyName);
+    }
+
+    /**
+     * Add a listener to changes of an {@code int} property that is notified
+     * without a {@link PropertyChangeEvent} being created. The listener is
+     * always notified on the thread firing the change, before any
+     * {@link PropertyChangeListener}s. If the same listener is added multiple
+     * times, it is notified multiple times.
+     *
+     * @param <P> the return type
+     * @param propertyName the name of the property to listen to
+     * @param listener the listener to add; if null, no action is taken
+     * @return this object
+     */
+    public <P extends PropertyChangeProvider> P
+            addIntPropertyChangeListener(final String propertyName,
+                    final IntPropertyChangeListener listener) {
+        primitiveListeners.add(propertyName, listener);
+        return getSelf();
+    }
+
+    /**
+     * Remove the first instance of a listener to changes of an {@code int}
+     * property.
+     *
+     * @param <P> the return type
+     * @param propertyName the name of the property listened to
+     * @param listener the listener to remove; if null or not previously
+     * added, no action is taken
+     * @return this object
+     */
+    public <P extends PropertyChangeProvider> P
+            removeIntPropertyChangeListener(final String propertyName,
+                    final IntPropertyChangeListener listener) {
+        primitiveListeners.remove(propertyName, listener);
+        return getSelf();
+    }
+
+    /**
+     * Add a listener to changes of a {@code long} property that is notified
+     * without a {@link PropertyChangeEvent} being created. The listener is
+     * always notified on the thread firing the change, before any
+     * {@link PropertyChangeListener}s. If the same listener is added multiple
+     * times, it is notified multiple times.
+     *
+     * @param <P> the return type
+     * @param propertyName the name of the property to listen to
+     * @param listener the listener to add; if null, no action is taken
+     * @return this object
+     */
+    public <P extends PropertyChangeProvider> P
+            addLongPropertyChangeListener(final String propertyName,
+                    final LongPropertyChangeListener listener) {
+        primitiveListeners.add(propertyName, listener);
+        return getSelf();
+    }
+
+    /**
+     * Remove the first instance of a listener to changes of a {@code long}
+     * property.
+     *
+     * @param <P> the return type
+     * @param propertyName the name of the property listened to
+     * @param listener the listener to remove; if null or not previously
+     * added, no action is taken
+     * @return this object
+     */
+    public <P extends PropertyChangeProvider> P
+            removeLongPropertyChangeListener(final String propertyName,
+                    final LongPropertyChangeListener listener) {
+        primitiveListeners.remove(propertyName, listener);
+        return getSelf();
+    }
+
+    /**
+     * Add a listener to changes of a {@code boolean} property that is notified
+     * without a {@link PropertyChangeEvent} being created. The listener is
+     * always notified on the thread firing the change, before any
+     * {@link PropertyChangeListener}s. If the same listener is added multiple
+     * times, it is notified multiple times.
+     *
+     * @param <P> the return type
+     * @param propertyName the name of the property to listen to
+     * @param listener the listener to add; if null, no action is taken
+     * @return this object
+     */
+    public <P extends PropertyChangeProvider> P
+            addBooleanPropertyChangeListener(final String propertyName,
+                    final BooleanPropertyChangeListener listener) {
+        primitiveListeners.add(propertyName, listener);
+        return getSelf();
+    }
+
+    /**
+     * Remove the first instance of a listener to changes of a {@code boolean}
+     * property.
+     *
+     * @param <P> the return type
+     * @param propertyName the name of the property listened to
+     * @param listener the listener to remove; if null or not previously
+     * added, no action is taken
+     * @return this object
+     */
+    public <P extends PropertyChangeProvider> P
+            removeBooleanPropertyChangeListener(final String propertyName,
+                    final BooleanPropertyChangeListener listener) {
+        primitiveListeners.remove(propertyName, listener);
+        return getSelf();
+    }
+
+    /**
+     * Add a listener to changes of an enum property that is notified
+     * without a {@link PropertyChangeEvent} being created. The listener is
+     * always notified on the thread firing the change, before any
+     * {@link PropertyChangeListener}s. If the same listener is added multiple
+     * times, it is notified multiple times.
+     *
+     * @param <P> the return type
+     * @param propertyName the name of the property to listen to
+     * @param listener the listener to add; if null, no action is taken
+     * @return this object
+     */
+    public <P extends PropertyChangeProvider> P
+            addEnumPropertyChangeListener(final String propertyName,
+                    final EnumPropertyChangeListener listener) {
+        primitiveListeners.add(propertyName, listener);
+        return getSelf();
+    }
+
+    /**
+     * Remove the first instance of a listener to changes of an enum
+     * property.
+     *
+     * @param <P> the return type
+     * @param propertyName the name of the property listened to
+     * @param listener the listener to remove; if null or not previously
+     * added, no action is taken
+     * @return this object
+     */
+    public <P extends PropertyChangeProvider> P
+            removeEnumPropertyChangeListener(final String propertyName,
+                    final EnumPropertyChangeListener listener) {
+        primitiveListeners.remove(propertyName, listener);
+        return getSelf();
+    }
+
+    /**
+     * Set the executor that delivers property change events to listeners.
+     * When set, events are delivered in the order they were fired by at
+     * most one task at a time on executor, so that the thread firing an event
+     * does not wait for listeners; an executor creating a virtual thread per
+     * task is well suited to this. Events fired before changing the executor
+     * may be delivered after events fired after changing it. Vetoable changes
+     * are always checked synchronously, and
+     * {@link SynchronousPropertyChangeListener}s and primitive listeners are
+     * always notified synchronously.
+     *
+     * @param executor the executor or null to deliver events synchronously
+     * on the thread firing them
+     */
+    public void setEventExecutor(final Executor executor) {
+        setEventExecutor(executor, false);
     }
 
     /**
-     * Notify all listeners of a property change event.
+     * Set the executor that delivers property change events to listeners,
+     * optionally conflating events. When conflating, an event for a property
+     * that has an event waiting for delivery replaces the waiting event, so
+     * listeners are notified once of the change from the old value of the
+     * waiting event to the new value of the latest event, and are not
+     * notified if those values are equal. This bounds the work done by
+     * listeners when a property changes rapidly. Indexed property changes and
+     * changes without a property name are not conflated.
+     *
+     * @param executor the executor or null to deliver events synchronously
+     * on the thread firing them
+     * @param conflate true to conflate events for the same property; ignored
+     * if executor is null
+     * @see #setEventExecutor(Executor)
+     */
+    public void setEventExecutor(final Executor executor,
+            final boolean conflate) {
+        eventQueue = executor != null
+                ? new EventQueue(executor, this::deliverQueued, conflate)
+                : null;
+    }
+
+    /**
+     * Get the executor that delivers property change events to listeners.
+     *
+     * @return the executor or null if events are delivered synchronously
+     */
+    public Executor getEventExecutor() {
+        EventQueue queue = eventQueue;
+        return queue != null ? queue.getExecutor() : null;
+    }
+
+    /**
+     * Check if property change events for the same property are conflated.
+     *
+     * @return true if events are delivered by an executor and conflated;
+     * false otherwise
+     */
+    public boolean isConflatingEvents() {
+        EventQueue queue = eventQueue;
+        return queue != null && queue.isConflating();
+    }
+
+    /**
+     * Get the number of property change events fired but not yet delivered
+     * to listeners by the executor, counting conflated events as one.
+     *
+     * @return the number of events; always zero if events are delivered
+     * synchronously
+     */
+    public int getPendingEventCount() {
+        EventQueue queue = eventQueue;
+        return queue != null ? queue.getPending() : 0;
+    }
+
+    /**
+     * Notify all listeners of a property change event. Does not notify if
+     * {@link PropertyChangeEvent#getOldValue()} is not null and equals
+     * {@link PropertyChangeEvent#getNewValue()}.
      *
      * @param event the property change event to pass in the notification
+     * @see #setEventExecutor(Executor)
      */
     protected void firePropertyChange(final PropertyChangeEvent event) {
-        propertyChangeSupport.firePropertyChange(event);
+        Object oldValue = event.getOldValue();
+        Object newValue = event.getNewValue();
+        if (oldValue == null || newValue == null
+                || !oldValue.equals(newValue)) {
+            EventQueue queue = eventQueue;
+            if (queue != null) {
+                deliver(event, true);
+                queue.post(event);
+            } else {
+                deliver(event);
+            }
+        }
     }
 
     /**
-     * Notify all listeners of a property change event.
+     * Notify all listeners of a property change event. Does not notify if
+     * oldValue is not null and equals newValue. Creates a
+     * {@link PropertyChangeEvent} only if there are listeners to the
+     * property, so firing a change to a property no one listens to costs
+     * nothing beyond the comparison of the values.
      *
      * @param propertyName the name of the changed property
      * @param oldValue the old value
@@ -116,12 +388,20 @@ public abstract class Bean implements PropertyChangeProvider {
      */
     protected void firePropertyChange(final String propertyName,
             final Object oldValue, final Object newValue) {
-        propertyChangeSupport.firePropertyChange(propertyName,
-                oldValue, newValue);
+        if ((oldValue == null || newValue == null
+                || !oldValue.equals(newValue))
+                && propertyChangeListeners.hasListeners(propertyName)) {
+            firePropertyChange(new PropertyChangeEvent(this, propertyName,
+                    oldValue, newValue));
+        }
     }
 
     /**
-     * Notify all listeners of a property change event.
+     * Notify all listeners of a property change event. Notifies
+     * {@link IntPropertyChangeListener}s without boxing the values, and
+     * creates a {@link PropertyChangeEvent} only if there are
+     * {@link PropertyChangeListener}s to notify. Does not notify if oldValue
+     * equals newValue.
      *
      * @param propertyName the name of the changed property
      * @param oldValue the old value
@@ -129,12 +409,55 @@ public abstract class Bean implements PropertyChangeProvider {
      */
     protected void firePropertyChange(final String propertyName,
             final int oldValue, final int newValue) {
-        propertyChangeSupport.firePropertyChange(propertyName,
-                oldValue, newValue);
+        if (oldValue != newValue) {
+            for (EventListener listener
+                    : primitiveListeners.getNamed(propertyName)) {
+                if (listener instanceof IntPropertyChangeListener) {
+                    ((IntPropertyChangeListener) listener).intPropertyChange(
+                            this, propertyName, oldValue, newValue);
+                }
+            }
+            if (propertyChangeListeners.hasListeners(propertyName)) {
+                firePropertyChange(propertyName, Integer.valueOf(oldValue),
+                        Integer.valueOf(newValue));
+            }
+        }
+    }
+
+    /**
+     * Notify all listeners of a property change event. Notifies
+     * {@link LongPropertyChangeListener}s without boxing the values, and
+     * creates a {@link PropertyChangeEvent} only if there are
+     * {@link PropertyChangeListener}s to notify. Does not notify if oldValue
+     * equals newValue.
+     *
+     * @param propertyName the name of the changed property
+     * @param oldValue the old value
+     * @param newValue the new value
+     */
+    protected void firePropertyChange(final String propertyName,
+            final long oldValue, final long newValue) {
+        if (oldValue != newValue) {
+            for (EventListener listener
+                    : primitiveListeners.getNamed(propertyName)) {
+                if (listener instanceof LongPropertyChangeListener) {
+                    ((LongPropertyChangeListener) listener).longPropertyChange(
+                            this, propertyName, oldValue, newValue);
+                }
+            }
+            if (propertyChangeListeners.hasListeners(propertyName)) {
+                firePropertyChange(propertyName, Long.valueOf(oldValue),
+                        Long.valueOf(newValue));
+            }
+        }
     }
 
     /**
-     * Notify all listeners of a property change event.
+     * Notify all listeners of a property change event. Notifies
+     * {@link BooleanPropertyChangeListener}s without boxing the values, and
+     * creates a {@link PropertyChangeEvent} only if there are
+     * {@link PropertyChangeListener}s to notify. Does not notify if oldValue
+     * equals newValue.
      *
      * @param propertyName the name of the changed property
      * @param oldValue the old value
@@ -142,12 +465,55 @@ public abstract class Bean implements PropertyChangeProvider {
      */
     protected void firePropertyChange(final String propertyName,
             final boolean oldValue, final boolean newValue) {
-        propertyChangeSupport.firePropertyChange(propertyName,
-                oldValue, newValue);
+        if (oldValue != newValue) {
+            for (EventListener listener
+                    : primitiveListeners.getNamed(propertyName)) {
+                if (listener instanceof BooleanPropertyChangeListener) {
+                    ((BooleanPropertyChangeListener) listener)
+                            .booleanPropertyChange(this, propertyName,
+                                    oldValue, newValue);
+                }
+            }
+            if (propertyChangeListeners.hasListeners(propertyName)) {
+                firePropertyChange(propertyName, Boolean.valueOf(oldValue),
+                        Boolean.valueOf(newValue));
+            }
+        }
     }
 
     /**
-     * Notify all listeners of an indexed property change.
+     * Notify all listeners of a property change event. Notifies
+     * {@link EnumPropertyChangeListener}s with the ordinals of the values,
+     * and creates a {@link PropertyChangeEvent} only if there are
+     * {@link PropertyChangeListener}s to notify. Does not notify if oldValue
+     * is not null and is newValue.
+     *
+     * @param propertyName the name of the changed property
+     * @param oldValue the old value; may be null
+     * @param newValue the new value; may be null
+     */
+    protected void firePropertyChange(final String propertyName,
+            final Enum<?> oldValue, final Enum<?> newValue) {
+        if (oldValue == null || oldValue != newValue) {
+            for (EventListener listener
+                    : primitiveListeners.getNamed(propertyName)) {
+                if (listener instanceof EnumPropertyChangeListener) {
+                    ((EnumPropertyChangeListener) listener).enumPropertyChange(
+                            this, propertyName, ordinal(oldValue),
+                            ordinal(newValue));
+                }
+            }
+            if (propertyChangeListeners.hasListeners(propertyName)) {
+                firePropertyChange(propertyName, (Object) oldValue,
+                        (Object) newValue);
+            }
+        }
+    }
+
+    /**
+     * Notify all listeners of an indexed property change. Creates an
+     * {@link IndexedPropertyChangeEvent} only if there are listeners to the
+     * property.
      *
      * @param propertyName the name of the property
      * @param index the index in the property that changed
@@ -156,8 +522,12 @@ public abstract class Bean implements PropertyChangeProvider {
      */
     protected void fireIndexedPropertyChange(final String propertyName,
             final int index, final Object oldValue, final Object newValue) {
-        propertyChangeSupport.fireIndexedPropertyChange(propertyName,
-                index, oldValue, newValue);
+        if ((oldValue == null || newValue == null
+                || !oldValue.equals(newValue))
+                && propertyChangeListeners.hasListeners(propertyName)) {
+            firePropertyChange(new IndexedPropertyChangeEvent(this,
+                    propertyName, oldValue, newValue, index));
+        }
     }
 
     /**
@@ -170,8 +540,11 @@ public abstract class Bean implements PropertyChangeProvider {
      */
     protected void fireIndexedPropertyChange(final String propertyName,
             final int index, final int oldValue, final int newValue) {
-        propertyChangeSupport.fireIndexedPropertyChange(propertyName,
-                index, oldValue, newValue);
+        if (oldValue != newValue
+                && propertyChangeListeners.hasListeners(propertyName)) {
+            fireIndexedPropertyChange(propertyName, index,
+                    Integer.valueOf(oldValue), Integer.valueOf(newValue));
+        }
     }
 
     /**
@@ -184,7 +557,74 @@ public abstract class Bean implements PropertyChangeProvider {
      */
     protected void fireIndexedPropertyChange(final String propertyName,
             final int index, final boolean oldValue, final boolean newValue) {
-        propertyChangeSupport.fireIndexedPropertyChange(propertyName,
-                index, oldValue, newValue);
+        if (oldValue != newValue
+                && propertyChangeListeners.hasListeners(propertyName)) {
+            fireIndexedPropertyChange(propertyName, index,
+                    Boolean.valueOf(oldValue), Boolean.valueOf(newValue));
+        }
+    }
+
+    /**
+     * Deliver a property change event to the listeners to all properties and
+     * to the named property.
+     *
+     * @param event the event
+     */
+    private void deliver(final PropertyChangeEvent event) {
+        for (PropertyChangeListener listener
+                : propertyChangeListeners.getCommon()) {
+            listener.propertyChange(event);
+        }
+        for (PropertyChangeListener listener
+                : propertyChangeListeners.getNamed(event.getPropertyName())) {
+            listener.propertyChange(event);
+        }
+    }
+
+    /**
+     * Deliver a queued property change event to the listeners that are not
+     * {@link SynchronousPropertyChangeListener}s.
+     *
+     * @param event the event
+     */
+    private void deliverQueued(final PropertyChangeEvent event) {
+        deliver(event, false);
+    }
+
+    /**
+     * Deliver a property change event to either the listeners that are
+     * {@link SynchronousPropertyChangeListener}s or the other listeners, to
+     * all properties and to the named property.
+     *
+     * @param event the event
+     * @param synchronous true to deliver to synchronous listeners; false to
+     * deliver to other listeners
+     */
+    private void deliver(final PropertyChangeEvent event,
+            final boolean synchronous) {
+        for (PropertyChangeListener listener
+                : propertyChangeListeners.getCommon()) {
+            if ((listener instanceof SynchronousPropertyChangeListener)
+                    == synchronous) {
+                listener.propertyChange(event);
+            }
+        }
+        for (PropertyChangeListener listener
+                : propertyChangeListeners.getNamed(event.getPropertyName())) {
+            if ((listener instanceof SynchronousPropertyChangeListener)
+                    == synchronous) {
+                listener.propertyChange(event);
+            }
+        }
+    }
+
+    /**
+     * Get the ordinal of an enum constant.
+     *
+     * @param value the constant; may be null
+     * @return the ordinal or -1 if value is null
+     */
+    private static int ordinal(final Enum<?> value) {
+        return value != null ? value.ordinal() : -1;
     }
 }
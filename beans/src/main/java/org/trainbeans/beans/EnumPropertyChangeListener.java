@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.beans;
+
+import java.util.EventListener;
+
+/**
+ * A listener to changes of an enum property of a {@link Bean}, notified
+ * without a {@link java.beans.PropertyChangeEvent} being created or the
+ * values being boxed. The values are passed as their {@link Enum#ordinal()}
+ * so that one listener type serves properties of any enum type.
+ *
+ * @author rhwood
+ * @see Bean#addEnumPropertyChangeListener
+ */
+@FunctionalInterface
+public interface EnumPropertyChangeListener extends EventListener {
+
+    /**
+     * Called when the property changes.
+     *
+     * @param source the bean whose property changed
+     * @param propertyName the name of the property
+     * @param oldOrdinal the ordinal of the old value, or -1 if null
+     * @param newOrdinal the ordinal of the new value, or -1 if null
+     */
+    void enumPropertyChange(Object source, String propertyName, int oldOrdinal,
+            int newOrdinal);
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.beans;
+
+import java.beans.PropertyChangeEvent;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A queue of {@link PropertyChangeEvent}s from one source, delivered in the
+ * order they were posted by at most one task at a time on an
+ * {@link Executor}.
+ *
+ * A conflating queue holds at most one pending event for each named property.
+ * An event for a property with a pending event replaces the pending event,
+ * keeping its place in the queue and its old value, so listeners see the net
+ * change since the last delivered event. If the net change is from a value to
+ * an equal value, no event is delivered. Only events that are exactly
+ * {@link PropertyChangeEvent}s with a property name are conflated. Events
+ * without a property name, {@link java.beans.IndexedPropertyChangeEvent}s,
+ * and other subclasses, which carry more than an old and a new value, are
+ * never conflated, and an event for a property that is not conflated ends
+ * the conflation of earlier events for that property, so events are always
+ * delivered in order.
+ *
+ * @author rhwood
+ */
+final class EventQueue implements Runnable {
+
+    /**
+     * Logger for listeners that throw.
+     */
+    private static final Logger LOG
+            = Logger.getLogger(EventQueue.class.getName());
+    /**
+     * The executor delivering events.
+     */
+    private final Executor executor;
+    /**
+     * Delivers an event to listeners.
+     */
+    private final Consumer<PropertyChangeEvent> delivery;
+    /**
+     * True if events for the same property are conflated.
+     */
+    private final boolean conflating;
+    /**
+     * The entry in the queue that later events for each named property are
+     * conflated into, if conflating.
+     */
+    private final Map<String, Entry> latest = new HashMap<>();
+    /**
+     * The events not yet delivered.
+     */
+    private final Queue<Entry> events = new ConcurrentLinkedQueue<>();
+    /**
+     * The number of events posted and not yet delivered. A task is
+     * delivering events whenever this is not zero.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Create a queue that does not conflate events.
+     *
+     * @param eventExecutor the executor delivering events
+     * @param eventDelivery delivers an event to listeners
+     */
+    EventQueue(final Executor eventExecutor,
+            final Consumer<PropertyChangeEvent> eventDelivery) {
+        this(eventExecutor, eventDelivery, false);
+    }
+
+    /**
+     * Create a queue.
+     *
+     * @param eventExecutor the executor delivering events
+     * @param eventDelivery delivers an event to listeners
+     * @param conflate true if events for the same property are conflated
+     */
+    EventQueue(final Executor eventExecutor,
+            final Consumer<PropertyChangeEvent> eventDelivery,
+            final boolean conflate) {
+        executor = eventExecutor;
+        delivery = eventDelivery;
+        conflating = conflate;
+    }
+
+    /**
+     * Get the executor delivering events.
+     *
+     * @return the executor
+     */
+    Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Check if events for the same property are conflated.
+     *
+     * @return true if conflating; false otherwise
+     */
+    boolean isConflating() {
+        return conflating;
+    }
+
+    /**
+     * Get the number of events posted and not yet delivered, counting
+     * conflated events as one.
+     *
+     * @return the number of events
+     */
+    int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Post an event for delivery, starting a task to deliver it unless one
+     * is already delivering events. If the executor rejects the task, events
+     * are delivered on the calling thread.
+     *
+     * @param event the event
+     */
+    void post(final PropertyChangeEvent event) {
+        Entry entry = new Entry(event, isConflatable(event));
+        String name = event.getPropertyName();
+        if (conflating && name != null) {
+            synchronized (latest) {
+                if (entry.conflatable) {
+                    Entry waiting = latest.get(name);
+                    if (waiting != null) {
+                        PropertyChangeEvent merged = new PropertyChangeEvent(
+                                event.getSource(), name,
+                                waiting.event.getOldValue(),
+                                event.getNewValue());
+                        merged.setPropagationId(event.getPropagationId());
+                        waiting.event = merged;
+                        return;
+                    }
+                    latest.put(name, entry);
+                } else {
+                    // later events must not be delivered before this one
+                    latest.remove(name);
+                }
+            }
+        }
+        events.add(entry);
+        if (pending.getAndIncrement() == 0) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                run();
+            }
+        }
+    }
+
+    /**
+     * Deliver events until none are pending. An exception thrown by a
+     * listener is logged and does not prevent delivery of later events.
+     */
+    @Override
+    public void run() {
+        do {
+            try {
+                Entry entry = events.poll();
+                PropertyChangeEvent event = entry.event;
+                if (entry.conflatable) {
+                    synchronized (latest) {
+                        event = entry.event;
+                        latest.remove(event.getPropertyName(), entry);
+                    }
+                    Object oldValue = event.getOldValue();
+                    if (oldValue == null
+                            || !oldValue.equals(event.getNewValue())) {
+                        delivery.accept(event);
+                    }
+                } else {
+                    delivery.accept(event);
+                }
+            } catch (RuntimeException ex) {
+                LOG.log(Level.WARNING, null, ex);
+            }
+        } while (pending.decrementAndGet() != 0);
+    }
+
+    /**
+     * Check if an event can be conflated with other events.
+     *
+     * @param event the event
+     * @return true if this queue is conflating and event has a property name
+     * and is exactly a PropertyChangeEvent
+     */
+    private boolean isConflatable(final PropertyChangeEvent event) {
+        return conflating && event.getPropertyName() != null
+                && event.getClass() == PropertyChangeEvent.class;
+    }
+
+    /**
+     * An event in the queue.
+     */
+    private static final class Entry {
+
+        /**
+         * The event; replaced by the net change if later events are
+         * conflated into this entry. Only accessed while holding the map of
+         * latest entries if conflatable.
+         */
+        private PropertyChangeEvent event;
+        /**
+         * True if later events can be conflated into this entry.
+         */
+        private final boolean conflatable;
+
+        /**
+         * Create an entry.
+         *
+         * @param posted the posted event
+         * @param canConflate true if later events can be conflated into
+         * this entry
+         */
+        Entry(final PropertyChangeEvent posted, final boolean canConflate) {
+            event = posted;
+            conflatable = canConflate;
+        }
+    }
+}
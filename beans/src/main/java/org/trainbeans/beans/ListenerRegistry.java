@@ -0,0 +1,227 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.beans;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EventListener;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+
+/**
+ * A registry of listeners to all properties and to named properties.
+ *
+ * The listeners are held in arrays that are replaced, never modified, when
+ * listeners are added or removed, so that listeners can be notified without
+ * locking or copying. Adding and removing listeners is synchronized.
+ *
+ * @param <L> the type of listener
+ * @author rhwood
+ */
+final class ListenerRegistry<L extends EventListener> {
+
+    /**
+     * Creates arrays of listeners.
+     */
+    private final IntFunction<L[]> arrays;
+    /**
+     * Wraps a listener to a named property in a proxy.
+     */
+    private final BiFunction<String, L, L> proxies;
+    /**
+     * The empty array.
+     */
+    private final L[] none;
+    /**
+     * The listeners to all properties.
+     */
+    private volatile L[] common;
+    /**
+     * The listeners to each named property; never contains an empty array.
+     */
+    private volatile Map<String, L[]> named = Collections.emptyMap();
+
+    /**
+     * Create a registry.
+     *
+     * @param newArray creates an array of listeners of a given length
+     * @param newProxy wraps a listener to a named property in a proxy
+     */
+    ListenerRegistry(final IntFunction<L[]> newArray,
+            final BiFunction<String, L, L> newProxy) {
+        arrays = newArray;
+        proxies = newProxy;
+        none = newArray.apply(0);
+        common = none;
+    }
+
+    /**
+     * Add a listener to all properties.
+     *
+     * @param listener the listener; if null no action is taken
+     */
+    synchronized void add(final L listener) {
+        if (listener != null) {
+            common = append(common, listener);
+        }
+    }
+
+    /**
+     * Add a listener to a named property.
+     *
+     * @param name the property name; if null no action is taken
+     * @param listener the listener; if null no action is taken
+     */
+    synchronized void add(final String name, final L listener) {
+        if (name != null && listener != null) {
+            Map<String, L[]> copy = new HashMap<>(named);
+            copy.put(name, append(copy.getOrDefault(name, none), listener));
+            named = copy;
+        }
+    }
+
+    /**
+     * Remove the first instance of a listener to all properties.
+     *
+     * @param listener the listener; if null or not added no action is taken
+     */
+    synchronized void remove(final L listener) {
+        if (listener != null) {
+            common = without(common, listener);
+        }
+    }
+
+    /**
+     * Remove the first instance of a listener to a named property.
+     *
+     * @param name the property name; if null no action is taken
+     * @param listener the listener; if null or not added no action is taken
+     */
+    synchronized void remove(final String name, final L listener) {
+        L[] current = name != null ? named.get(name) : null;
+        if (current != null && listener != null) {
+            L[] result = without(current, listener);
+            if (result != current) {
+                Map<String, L[]> copy = new HashMap<>(named);
+                if (result.length == 0) {
+                    copy.remove(name);
+                } else {
+                    copy.put(name, result);
+                }
+                named = copy;
+            }
+        }
+    }
+
+    /**
+     * Get all listeners. Listeners to named properties are wrapped in proxies.
+     *
+     * @return a new array of listeners
+     */
+    L[] getListeners() {
+        L[] all = common;
+        Map<String, L[]> map = named;
+        int size = all.length;
+        for (L[] listeners : map.values()) {
+            size += listeners.length;
+        }
+        L[] result = Arrays.copyOf(all, size);
+        int i = all.length;
+        for (Map.Entry<String, L[]> entry : map.entrySet()) {
+            for (L listener : entry.getValue()) {
+                result[i++] = proxies.apply(entry.getKey(), listener);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the listeners to a named property, not including the listeners to
+     * all properties.
+     *
+     * @param name the property name
+     * @return a new array of listeners; empty if name is null
+     */
+    L[] getListeners(final String name) {
+        return getNamed(name).clone();
+    }
+
+    /**
+     * Check if there are listeners to all properties or to a named property.
+     *
+     * @param name the property name; if null only listeners to all properties
+     * are checked
+     * @return true if there are listeners; false otherwise
+     */
+    boolean hasListeners(final String name) {
+        return common.length != 0 || (name != null && named.containsKey(name));
+    }
+
+    /**
+     * Get the listeners to all properties, without copying them.
+     *
+     * @return the listeners, which must not be modified
+     */
+    L[] getCommon() {
+        return common;
+    }
+
+    /**
+     * Get the listeners to a named property, without copying them.
+     *
+     * @param name the property name
+     * @return the listeners, which must not be modified; empty if name is
+     * null
+     */
+    L[] getNamed(final String name) {
+        return name != null ? named.getOrDefault(name, none) : none;
+    }
+
+    /**
+     * Create an array with a listener appended.
+     *
+     * @param listeners the listeners
+     * @param listener the listener to append
+     * @return the new array
+     */
+    private L[] append(final L[] listeners, final L listener) {
+        L[] result = Arrays.copyOf(listeners, listeners.length + 1);
+        result[listeners.length] = listener;
+        return result;
+    }
+
+    /**
+     * Create an array without the first instance of a listener.
+     *
+     * @param listeners the listeners
+     * @param listener the listener to remove
+     * @return the new array, or listeners if listener is not in listeners
+     */
+    private L[] without(final L[] listeners, final L listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listener.equals(listeners[i])) {
+                L[] result = arrays.apply(listeners.length - 1);
+                System.arraycopy(listeners, 0, result, 0, i);
+                System.arraycopy(listeners, i + 1, result, i,
+                        result.length - i);
+                return result;
+            }
+        }
+        return listeners;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.beans;
+
+import java.util.EventListener;
+
+/**
+ * A listener to changes of a {@code long} property of a {@link Bean}, notified
+ * without a {@link java.beans.PropertyChangeEvent} being created or the
+ * values being boxed.
+ *
+ * @author rhwood
+ * @see Bean#addLongPropertyChangeListener
+ */
+@FunctionalInterface
+public interface LongPropertyChangeListener extends EventListener {
+
+    /**
+     * Called when the property changes.
+     *
+     * @param source the bean whose property changed
+     * @param propertyName the name of the property
+     * @param oldValue the old value
+     * @param newValue the new value
+     */
+    void longPropertyChange(Object source, String propertyName, long oldValue,
+            long newValue);
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.beans;
+
+import java.beans.PropertyChangeListener;
+
+/**
+ * A {@link PropertyChangeListener} that is always notified on the thread
+ * firing the event, before the firing method returns, even if the
+ * {@link Bean} delivers events to other listeners with an executor. Listeners
+ * that maintain state that must reflect a change as soon as it is made, such
+ * as the indexes of a model containing the bean, implement this interface.
+ * Events delivered to these listeners are never conflated.
+ *
+ * @author rhwood
+ * @see Bean#setEventExecutor(java.util.concurrent.Executor)
+ */
+public interface SynchronousPropertyChangeListener
+        extends PropertyChangeListener {
+}
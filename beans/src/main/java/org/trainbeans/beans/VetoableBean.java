@@ -18,7 +18,7 @@ package org.trainbeans.beans;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyVetoException;
 import java.beans.VetoableChangeListener;
-import java.beans.VetoableChangeSupport;
+import java.beans.VetoableChangeListenerProxy;
 
 /**
  *
@@ -28,11 +28,12 @@ public abstract class VetoableBean extends Bean
         implements VetoableChangeProvider {
 
     /**
-     * Supporting class that manages {@link VetoableChangeListeners} and
-     * {@link PropertyChangeEvent} propagation.
+     * The registered {@link VetoableChangeListener}s.
      */
-    private final VetoableChangeSupport vetoableChangeSupport
-            = new VetoableChangeSupport(this);
+    private final ListenerRegistry<VetoableChangeListener>
+            vetoableChangeListeners = new ListenerRegistry<>(
+                    VetoableChangeListener[]::new,
+                    VetoableChangeListenerProxy::new);
 
     /**
      * {@inheritDoc}
@@ -40,7 +41,14 @@ public abstract class VetoableBean extends Bean
     @Override
     public <P extends VetoableChangeProvider> P addVetoableChangeListener(
             final VetoableChangeListener listener) {
-        vetoableChangeSupport.addVetoableChangeListener(listener);
+        if (listener instanceof VetoableChangeListenerProxy) {
+            VetoableChangeListenerProxy proxy
+                    = (VetoableChangeListenerProxy) listener;
+            vetoableChangeListeners.add(proxy.getPropertyName(),
+                    proxy.getListener());
+        } else {
+            vetoableChangeListeners.add(listener);
+        }
         return getSelf();
     }
 
@@ -50,7 +58,7 @@ public abstract class VetoableBean extends Bean
     @Override
     public <P extends VetoableChangeProvider> P addVetoableChangeListener(
             final String propertyName, final VetoableChangeListener listener) {
-        vetoableChangeSupport.addVetoableChangeListener(propertyName, listener);
+        vetoableChangeListeners.add(propertyName, listener);
         return getSelf();
     }
 
@@ -59,7 +67,7 @@ public abstract class VetoableBean extends Bean
      */
     @Override
     public VetoableChangeListener[] getVetoableChangeListeners() {
-        return vetoableChangeSupport.getVetoableChangeListeners();
+        return vetoableChangeListeners.getListeners();
     }
 
     /**
@@ -68,7 +76,7 @@ public abstract class VetoableBean extends Bean
     @Override
     public VetoableChangeListener[] getVetoableChangeListeners(
             final String propertyName) {
-        return vetoableChangeSupport.getVetoableChangeListeners(propertyName);
+        return vetoableChangeListeners.getListeners(propertyName);
     }
 
     /**
@@ -77,7 +85,14 @@ public abstract class VetoableBean extends Bean
     @Override
     public <P extends VetoableChangeProvider> P removeVetoableChangeListener(
             final VetoableChangeListener listener) {
-        vetoableChangeSupport.removeVetoableChangeListener(listener);
+        if (listener instanceof VetoableChangeListenerProxy) {
+            VetoableChangeListenerProxy proxy
+                    = (VetoableChangeListenerProxy) listener;
+            vetoableChangeListeners.remove(proxy.getPropertyName(),
+                    proxy.getListener());
+        } else {
+            vetoableChangeListeners.remove(listener);
+        }
         return getSelf();
     }
 
@@ -87,8 +102,7 @@ public abstract class VetoableBean extends Bean
     @Override
     public <P extends VetoableChangeProvider> P removeVetoableChangeListener(
             final String propertyName, final VetoableChangeListener listener) {
-        vetoableChangeSupport.removeVetoableChangeListener(propertyName,
-                listener);
+        vetoableChangeListeners.remove(propertyName, listener);
         return getSelf();
     }
 
@@ -102,10 +116,35 @@ public abstract class VetoableBean extends Bean
      */
     @Override
     public boolean hasListeners(final String propertyName) {
-        return vetoableChangeSupport.hasListeners(propertyName)
+        return vetoableChangeListeners.hasListeners(propertyName)
                 || super.hasListeners(propertyName);
     }
 
+    /**
+     * Notify {@link VetoableChangeListener}s of a change that can be vetoed
+     * without notifying any {@link java.beans.PropertyChangeListener}s. A
+     * subclass can use this to check a change before making it, and then call
+     * {@link #firePropertyChange(String, Object, Object)} once the change is
+     * made, so that PropertyChangeListeners are notified only once and only
+     * after the change. Does not notify if oldValue is not null and equals
+     * newValue.
+     *
+     * @param propertyName the name of the property
+     * @param oldValue the old value
+     * @param newValue the new value
+     * @throws PropertyVetoException if the event is vetoed
+     */
+    protected void checkVetoableChange(final String propertyName,
+            final Object oldValue, final Object newValue)
+            throws PropertyVetoException {
+        if ((oldValue == null || newValue == null
+                || !oldValue.equals(newValue))
+                && vetoableChangeListeners.hasListeners(propertyName)) {
+            checkVetoableChange(new PropertyChangeEvent(this, propertyName,
+                    oldValue, newValue));
+        }
+    }
+
     /**
      * Notify listeners of a change that can be vetoed. Calls
      * {@link #firePropertyChange(PropertyChangeEvent)} to notify any interested
@@ -118,8 +157,13 @@ public abstract class VetoableBean extends Bean
      */
     protected void fireVetoableChange(final PropertyChangeEvent event)
             throws PropertyVetoException {
-        vetoableChangeSupport.fireVetoableChange(event);
-        firePropertyChange(event);
+        Object oldValue = event.getOldValue();
+        Object newValue = event.getNewValue();
+        if (oldValue == null || newValue == null
+                || !oldValue.equals(newValue)) {
+            checkVetoableChange(event);
+            firePropertyChange(event);
+        }
     }
 
     /**
@@ -127,6 +171,8 @@ public abstract class VetoableBean extends Bean
      * {@link #firePropertyChange(String, Object, Object)} to notify any
      * interested {@link java.beans.PropertyChangeListener}s if the event is not
      * vetoed. Does not notify if oldValue is not null and equals newValue.
+     * Creates a {@link PropertyChangeEvent} only if there are listeners to the
+     * property.
      *
      * @param propertyName the name of the property
      * @param oldValue the old value
@@ -136,9 +182,15 @@ public abstract class VetoableBean extends Bean
     protected void fireVetoableChange(final String propertyName,
             final Object oldValue, final Object newValue)
             throws PropertyVetoException {
-        vetoableChangeSupport.fireVetoableChange(propertyName,
-                oldValue, newValue);
-        firePropertyChange(propertyName, oldValue, newValue);
+        if (oldValue == null || newValue == null
+                || !oldValue.equals(newValue)) {
+            if (vetoableChangeListeners.hasListeners(propertyName)) {
+                fireVetoableChange(new PropertyChangeEvent(this, propertyName,
+                        oldValue, newValue));
+            } else {
+                firePropertyChange(propertyName, oldValue, newValue);
+            }
+        }
     }
 
     /**
@@ -155,9 +207,14 @@ public abstract class VetoableBean extends Bean
     protected void fireVetoableChange(final String propertyName,
             final int oldValue, final int newValue)
             throws PropertyVetoException {
-        vetoableChangeSupport.fireVetoableChange(propertyName,
-                oldValue, newValue);
-        firePropertyChange(propertyName, oldValue, newValue);
+        if (oldValue != newValue) {
+            if (vetoableChangeListeners.hasListeners(propertyName)) {
+                checkVetoableChange(new PropertyChangeEvent(this,
+                        propertyName, Integer.valueOf(oldValue),
+                        Integer.valueOf(newValue)));
+            }
+            firePropertyChange(propertyName, oldValue, newValue);
+        }
     }
 
     /**
@@ -174,8 +231,62 @@ public abstract class VetoableBean extends Bean
     protected void fireVetoableChange(final String propertyName,
             final boolean oldValue, final boolean newValue)
             throws PropertyVetoException {
-        vetoableChangeSupport.fireVetoableChange(propertyName,
-                oldValue, newValue);
-        firePropertyChange(propertyName, oldValue, newValue);
+        if (oldValue != newValue) {
+            if (vetoableChangeListeners.hasListeners(propertyName)) {
+                checkVetoableChange(new PropertyChangeEvent(this,
+                        propertyName, Boolean.valueOf(oldValue),
+                        Boolean.valueOf(newValue)));
+            }
+            firePropertyChange(propertyName, oldValue, newValue);
+        }
+    }
+
+    /**
+     * Notify {@link VetoableChangeListener}s of a change that can be vetoed.
+     * If a listener vetoes the change, the listeners already notified are
+     * notified of a change reverting to the old value, ignoring any further
+     * vetoes, before the veto is thrown.
+     *
+     * @param event the event that can be vetoed
+     * @throws PropertyVetoException if the event is vetoed
+     */
+    private void checkVetoableChange(final PropertyChangeEvent event)
+            throws PropertyVetoException {
+        VetoableChangeListener[] common = vetoableChangeListeners.getCommon();
+        VetoableChangeListener[] named
+                = vetoableChangeListeners.getNamed(event.getPropertyName());
+        int size = common.length + named.length;
+        for (int current = 0; current < size; current++) {
+            try {
+                get(common, named, current).vetoableChange(event);
+            } catch (PropertyVetoException veto) {
+                PropertyChangeEvent revert = new PropertyChangeEvent(
+                        event.getSource(), event.getPropertyName(),
+                        event.getNewValue(), event.getOldValue());
+                for (int i = 0; i < current; i++) {
+                    try {
+                        get(common, named, i).vetoableChange(revert);
+                    } catch (PropertyVetoException ex) {
+                        // ignore vetoes of the revert
+                    }
+                }
+                throw veto;
+            }
+        }
+    }
+
+    /**
+     * Get a listener from the concatenation of two arrays of listeners.
+     *
+     * @param first the first array
+     * @param second the second array
+     * @param index the index of the listener in the concatenation
+     * @return the listener
+     */
+    private static VetoableChangeListener get(
+            final VetoableChangeListener[] first,
+            final VetoableChangeListener[] second, final int index) {
+        return index < first.length ? first[index]
+                : second[index - first.length];
     }
 }
@@ -15,8 +15,13 @@
  */
 package org.trainbeans.beans;
 
+import java.beans.IndexedPropertyChangeEvent;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeListenerProxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -238,4 +243,219 @@ class BeanTest {
         assertThat(heard).isEqualTo(1);
     }
 
+    @Test
+    void testAddPropertyChangeListener_Proxy() {
+        bean.addPropertyChangeListener(new PropertyChangeListenerProxy("foo", listener));
+        assertThat(bean.getPropertyChangeListeners("foo")).containsExactly(listener);
+        bean.firePropertyChange("bar", 0, 1);
+        assertThat(heard).isZero();
+        bean.firePropertyChange("foo", 0, 1);
+        assertThat(heard).isEqualTo(1);
+        bean.removePropertyChangeListener(new PropertyChangeListenerProxy("foo", listener));
+        assertThat(bean.getPropertyChangeListeners()).isEmpty();
+    }
+
+    @Test
+    void testFirePropertyChange_Named() {
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        bean.addPropertyChangeListener("foo", events::add);
+        bean.addPropertyChangeListener(listener);
+        bean.firePropertyChange("bar", 0, 1);
+        assertThat(heard).isEqualTo(1);
+        assertThat(events).isEmpty();
+        bean.fireIndexedPropertyChange("foo", 2, 0, 1);
+        assertThat(heard).isEqualTo(2);
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0)).isInstanceOf(IndexedPropertyChangeEvent.class);
+        assertThat(events.get(0).getSource()).isSameAs(bean);
+        assertThat(((IndexedPropertyChangeEvent) events.get(0)).getIndex()).isEqualTo(2);
+        assertThat(events.get(0).getNewValue()).isEqualTo(1);
+    }
+
+    @Test
+    void testSetEventExecutor() {
+        List<Runnable> tasks = new ArrayList<>();
+        Executor executor = tasks::add;
+        bean.addPropertyChangeListener(listener);
+        assertThat(bean.getEventExecutor()).isNull();
+        assertThat(bean.getPendingEventCount()).isZero();
+        bean.setEventExecutor(executor);
+        assertThat(bean.getEventExecutor()).isSameAs(executor);
+        bean.firePropertyChange("foo", 0, 1);
+        bean.firePropertyChange("foo", 1, 1);
+        bean.firePropertyChange("foo", 1, 2);
+        assertThat(heard).isZero();
+        assertThat(bean.getPendingEventCount()).isEqualTo(2);
+        assertThat(tasks).hasSize(1);
+        tasks.get(0).run();
+        assertThat(heard).isEqualTo(2);
+        assertThat(bean.getPendingEventCount()).isZero();
+        bean.setEventExecutor(null);
+        assertThat(bean.getEventExecutor()).isNull();
+        bean.firePropertyChange("foo", 2, 3);
+        assertThat(heard).isEqualTo(3);
+        assertThat(tasks).hasSize(1);
+    }
+
+    @Test
+    void testSetEventExecutor_Synchronous() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<Object> synchronous = new ArrayList<>();
+        bean.addPropertyChangeListener(listener);
+        bean.addPropertyChangeListener("foo", (SynchronousPropertyChangeListener) evt -> synchronous.add(evt.getNewValue()));
+        bean.setEventExecutor(tasks::add, true);
+        bean.firePropertyChange("foo", 0, 1);
+        bean.firePropertyChange("foo", 1, 2);
+        // synchronous listeners are notified of every change before fire returns
+        assertThat(synchronous).containsExactly(1, 2);
+        assertThat(heard).isZero();
+        tasks.get(0).run();
+        assertThat(heard).isEqualTo(1);
+        assertThat(synchronous).hasSize(2);
+    }
+
+    @Test
+    void testSetEventExecutor_Conflating() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        bean.addPropertyChangeListener(events::add);
+        assertThat(bean.isConflatingEvents()).isFalse();
+        bean.setEventExecutor(tasks::add, true);
+        assertThat(bean.isConflatingEvents()).isTrue();
+        bean.firePropertyChange("foo", 0, 1);
+        bean.firePropertyChange("foo", 1, 2);
+        bean.firePropertyChange("foo", 2, 3);
+        assertThat(bean.getPendingEventCount()).isEqualTo(1);
+        tasks.get(0).run();
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).getOldValue()).isEqualTo(0);
+        assertThat(events.get(0).getNewValue()).isEqualTo(3);
+        bean.setEventExecutor(tasks::add);
+        assertThat(bean.isConflatingEvents()).isFalse();
+        bean.setEventExecutor(null, true);
+        assertThat(bean.isConflatingEvents()).isFalse();
+    }
+
+    @Test
+    void testIntPropertyChangeListener() {
+        List<Object> values = new ArrayList<>();
+        IntPropertyChangeListener primitive = (source, name, oldValue, newValue) -> {
+            assertThat(source).isSameAs(bean);
+            assertThat(name).isEqualTo("foo");
+            values.add(oldValue);
+            values.add(newValue);
+        };
+        assertThat((Object) bean.addIntPropertyChangeListener("foo", primitive)).isEqualTo(bean);
+        assertThat(bean.hasListeners("foo")).isTrue();
+        assertThat(bean.hasListeners("bar")).isFalse();
+        assertThat(bean.getPropertyChangeListeners()).isEmpty();
+        bean.firePropertyChange("foo", 1, 2);
+        bean.firePropertyChange("foo", 2, 2);
+        bean.firePropertyChange("bar", 2, 3);
+        bean.firePropertyChange("foo", 2L, 3L);
+        assertThat(values).containsExactly(1, 2);
+        bean.addPropertyChangeListener("foo", listener);
+        bean.firePropertyChange("foo", 3, 4);
+        assertThat(values).containsExactly(1, 2, 3, 4);
+        assertThat(heard).isEqualTo(1);
+        assertThat((Object) bean.removeIntPropertyChangeListener("foo", primitive)).isEqualTo(bean);
+        bean.firePropertyChange("foo", 4, 5);
+        assertThat(values).hasSize(4);
+        assertThat(heard).isEqualTo(2);
+    }
+
+    @Test
+    void testLongPropertyChangeListener() {
+        List<Long> values = new ArrayList<>();
+        LongPropertyChangeListener primitive = (source, name, oldValue, newValue) -> values.add(newValue);
+        bean.addLongPropertyChangeListener("foo", primitive);
+        bean.addPropertyChangeListener(listener);
+        bean.firePropertyChange("foo", 1L, 0x100000000L);
+        bean.firePropertyChange("foo", 1L, 1L);
+        bean.firePropertyChange("foo", 1, 2);
+        assertThat(values).containsExactly(0x100000000L);
+        assertThat(heard).isEqualTo(2);
+        bean.removeLongPropertyChangeListener("foo", primitive);
+        assertThat(bean.hasListeners("foo")).isTrue();
+        bean.removePropertyChangeListener(listener);
+        assertThat(bean.hasListeners("foo")).isFalse();
+    }
+
+    @Test
+    void testBooleanPropertyChangeListener() {
+        List<Boolean> values = new ArrayList<>();
+        BooleanPropertyChangeListener primitive = (source, name, oldValue, newValue) -> values.add(newValue);
+        bean.addBooleanPropertyChangeListener("foo", primitive);
+        bean.firePropertyChange("foo", false, true);
+        bean.firePropertyChange("foo", true, true);
+        assertThat(values).containsExactly(true);
+        bean.removeBooleanPropertyChangeListener("foo", primitive);
+        bean.firePropertyChange("foo", true, false);
+        assertThat(values).containsExactly(true);
+    }
+
+    @Test
+    void testEnumPropertyChangeListener() {
+        List<Integer> values = new ArrayList<>();
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        EnumPropertyChangeListener primitive = (source, name, oldOrdinal, newOrdinal) -> {
+            values.add(oldOrdinal);
+            values.add(newOrdinal);
+        };
+        bean.addEnumPropertyChangeListener("foo", primitive);
+        bean.addPropertyChangeListener("foo", events::add);
+        bean.firePropertyChange("foo", null, Thread.State.RUNNABLE);
+        bean.firePropertyChange("foo", Thread.State.RUNNABLE, Thread.State.RUNNABLE);
+        bean.firePropertyChange("foo", Thread.State.RUNNABLE, Thread.State.NEW);
+        assertThat(values).containsExactly(-1, Thread.State.RUNNABLE.ordinal(),
+                Thread.State.RUNNABLE.ordinal(), Thread.State.NEW.ordinal());
+        assertThat(events).hasSize(2);
+        assertThat(events.get(1).getOldValue()).isEqualTo(Thread.State.RUNNABLE);
+        assertThat(events.get(1).getNewValue()).isEqualTo(Thread.State.NEW);
+        // both null is a change, as for other objects
+        bean.firePropertyChange("foo", (Enum<?>) null, (Enum<?>) null);
+        assertThat(values).hasSize(6).endsWith(-1, -1);
+        assertThat(events).hasSize(3);
+        bean.removeEnumPropertyChangeListener("foo", primitive);
+        bean.firePropertyChange("foo", Thread.State.NEW, null);
+        assertThat(values).hasSize(6);
+        assertThat(events).hasSize(4);
+    }
+
+    @Test
+    void testFirePropertyChange_NoListeners() {
+        List<PropertyChangeEvent> created = new ArrayList<>();
+        Bean counting = new Bean() {
+            @Override
+            public Bean getSelf() {
+                return this;
+            }
+
+            @Override
+            protected void firePropertyChange(PropertyChangeEvent event) {
+                created.add(event);
+                super.firePropertyChange(event);
+            }
+        };
+        // no events are created for properties without listeners
+        counting.firePropertyChange("foo", new Object(), new Object());
+        counting.firePropertyChange("foo", 0, 1);
+        counting.firePropertyChange("foo", 0L, 1L);
+        counting.firePropertyChange("foo", false, true);
+        counting.firePropertyChange("foo", Thread.State.NEW, Thread.State.RUNNABLE);
+        counting.fireIndexedPropertyChange("foo", 0, new Object(), new Object());
+        counting.fireIndexedPropertyChange("foo", 0, 0, 1);
+        counting.fireIndexedPropertyChange("foo", 0, false, true);
+        counting.addPropertyChangeListener("bar", listener);
+        counting.addIntPropertyChangeListener("foo", (source, name, oldValue, newValue) -> heard++);
+        counting.firePropertyChange("foo", new Object(), new Object());
+        counting.firePropertyChange("foo", 0, 1);
+        assertThat(created).isEmpty();
+        assertThat(heard).isEqualTo(1);
+        counting.addPropertyChangeListener("foo", listener);
+        counting.firePropertyChange("foo", new Object(), new Object());
+        counting.fireIndexedPropertyChange("foo", 0, 0, 1);
+        assertThat(created).hasSize(2);
+        assertThat(heard).isEqualTo(3);
+    }
 }
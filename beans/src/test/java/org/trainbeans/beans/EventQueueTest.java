@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.beans;
+
+import java.beans.IndexedPropertyChangeEvent;
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author rhwood
+ */
+class EventQueueTest {
+
+    @Test
+    void testPost() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<PropertyChangeEvent> delivered = new ArrayList<>();
+        EventQueue queue = new EventQueue(tasks::add, delivered::add);
+        PropertyChangeEvent first = new PropertyChangeEvent(this, "foo", 0, 1);
+        PropertyChangeEvent second = new PropertyChangeEvent(this, "foo", 1, 2);
+        queue.post(first);
+        queue.post(second);
+        // one task delivers both events in order
+        assertThat(tasks).hasSize(1);
+        assertThat(queue.getPending()).isEqualTo(2);
+        assertThat(delivered).isEmpty();
+        tasks.get(0).run();
+        assertThat(delivered).containsExactly(first, second);
+        assertThat(queue.getPending()).isZero();
+        queue.post(first);
+        assertThat(tasks).hasSize(2);
+    }
+
+    @Test
+    void testPost_ListenerThrows() {
+        List<PropertyChangeEvent> delivered = new ArrayList<>();
+        EventQueue queue = new EventQueue(Runnable::run, event -> {
+            delivered.add(event);
+            if (event.getNewValue().equals(1)) {
+                throw new IllegalStateException();
+            }
+        });
+        queue.post(new PropertyChangeEvent(this, "foo", 0, 1));
+        queue.post(new PropertyChangeEvent(this, "foo", 1, 2));
+        assertThat(delivered).hasSize(2);
+        assertThat(queue.getPending()).isZero();
+    }
+
+    @Test
+    void testPost_Rejected() {
+        List<PropertyChangeEvent> delivered = new ArrayList<>();
+        EventQueue queue = new EventQueue(task -> {
+            throw new RejectedExecutionException();
+        }, delivered::add);
+        queue.post(new PropertyChangeEvent(this, "foo", 0, 1));
+        assertThat(delivered).hasSize(1);
+        assertThat(queue.getPending()).isZero();
+    }
+
+    @Test
+    void testPost_Ordered() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Object> delivered = Collections.synchronizedList(new ArrayList<>());
+        EventQueue queue = new EventQueue(executor, event -> delivered.add(event.getNewValue()));
+        List<Object> expected = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            queue.post(new PropertyChangeEvent(this, "foo", i, i + 1));
+            expected.add(i + 1);
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(delivered).isEqualTo(expected);
+    }
+
+    @Test
+    void testPost_Conflating() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<PropertyChangeEvent> delivered = new ArrayList<>();
+        EventQueue queue = new EventQueue(tasks::add, delivered::add, true);
+        assertThat(queue.isConflating()).isTrue();
+        queue.post(new PropertyChangeEvent(this, "foo", 0, 1));
+        queue.post(new PropertyChangeEvent(this, "bar", 0, 1));
+        queue.post(new PropertyChangeEvent(this, "foo", 1, 2));
+        queue.post(new PropertyChangeEvent(this, "foo", 2, 3));
+        queue.post(new PropertyChangeEvent(this, null, null, null));
+        queue.post(new IndexedPropertyChangeEvent(this, "baz", 0, 1, 0));
+        queue.post(new IndexedPropertyChangeEvent(this, "baz", 1, 2, 0));
+        assertThat(queue.getPending()).isEqualTo(5);
+        assertThat(tasks).hasSize(1);
+        tasks.get(0).run();
+        assertThat(queue.getPending()).isZero();
+        assertThat(delivered).hasSize(5);
+        // conflated events keep the place of the first event
+        assertThat(delivered.get(0).getPropertyName()).isEqualTo("foo");
+        assertThat(delivered.get(0).getOldValue()).isEqualTo(0);
+        assertThat(delivered.get(0).getNewValue()).isEqualTo(3);
+        assertThat(delivered.get(0).getSource()).isSameAs(this);
+        assertThat(delivered.get(1).getPropertyName()).isEqualTo("bar");
+        assertThat(delivered.get(2).getPropertyName()).isNull();
+        assertThat(delivered.get(3)).isInstanceOf(IndexedPropertyChangeEvent.class);
+        assertThat(delivered.get(4)).isInstanceOf(IndexedPropertyChangeEvent.class);
+        // events after delivery are not conflated with delivered events
+        queue.post(new PropertyChangeEvent(this, "foo", 3, 4));
+        tasks.get(1).run();
+        assertThat(delivered.get(5).getOldValue()).isEqualTo(3);
+    }
+
+    @Test
+    void testPost_ConflatingSubclass() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<PropertyChangeEvent> delivered = new ArrayList<>();
+        EventQueue queue = new EventQueue(tasks::add, delivered::add, true);
+        PropertyChangeEvent first = new PropertyChangeEvent(this, "foo", 0, 1);
+        first.setPropagationId("first");
+        PropertyChangeEvent second = new ListEvent(this, "foo", Collections.singletonList(1));
+        PropertyChangeEvent third = new ListEvent(this, "foo", Collections.singletonList(2));
+        queue.post(first);
+        queue.post(second);
+        queue.post(third);
+        queue.post(new PropertyChangeEvent(this, "foo", 1, 2));
+        PropertyChangeEvent last = new PropertyChangeEvent(this, "foo", 2, 3);
+        last.setPropagationId("last");
+        queue.post(last);
+        assertThat(queue.getPending()).isEqualTo(4);
+        tasks.get(0).run();
+        // subclasses are delivered unchanged and in order
+        assertThat(delivered).hasSize(4);
+        assertThat(delivered.get(0)).isSameAs(first);
+        assertThat(delivered.get(1)).isSameAs(second);
+        assertThat(delivered.get(2)).isSameAs(third);
+        // plain events after a subclass are conflated only with each other
+        assertThat(delivered.get(3).getOldValue()).isEqualTo(1);
+        assertThat(delivered.get(3).getNewValue()).isEqualTo(3);
+        assertThat(delivered.get(3).getPropagationId()).isEqualTo("last");
+    }
+
+    @Test
+    void testPost_ConflatedToNoChange() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<PropertyChangeEvent> delivered = new ArrayList<>();
+        EventQueue queue = new EventQueue(tasks::add, delivered::add, true);
+        queue.post(new PropertyChangeEvent(this, "foo", 0, 1));
+        queue.post(new PropertyChangeEvent(this, "foo", 1, 0));
+        assertThat(queue.getPending()).isEqualTo(1);
+        tasks.get(0).run();
+        assertThat(delivered).isEmpty();
+        assertThat(queue.getPending()).isZero();
+    }
+
+    @Test
+    void testPost_ConflatingConcurrent() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<PropertyChangeEvent> delivered = Collections.synchronizedList(new ArrayList<>());
+        EventQueue queue = new EventQueue(executor, delivered::add, true);
+        for (int i = 0; i < 10000; i++) {
+            queue.post(new PropertyChangeEvent(this, "foo", i, i + 1));
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(delivered).isNotEmpty().hasSizeLessThanOrEqualTo(10000);
+        // delivered events form an unbroken chain of changes
+        Object value = 0;
+        for (PropertyChangeEvent event : delivered) {
+            assertThat(event.getOldValue()).isEqualTo(value);
+            value = event.getNewValue();
+        }
+        assertThat(value).isEqualTo(10000);
+    }
+
+    private static class ListEvent extends PropertyChangeEvent {
+
+        private static final long serialVersionUID = 1L;
+
+        ListEvent(Object source, String name, List<Integer> values) {
+            super(source, name, Collections.emptyList(), values);
+        }
+    }
+}
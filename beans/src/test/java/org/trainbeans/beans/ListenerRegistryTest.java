@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.beans;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeListenerProxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author rhwood
+ */
+class ListenerRegistryTest {
+
+    private ListenerRegistry<PropertyChangeListener> registry;
+    private PropertyChangeListener listener;
+    private PropertyChangeListener other;
+
+    @BeforeEach
+    void setUp() {
+        registry = new ListenerRegistry<>(PropertyChangeListener[]::new, PropertyChangeListenerProxy::new);
+        listener = (PropertyChangeEvent evt) -> {
+            // nothing to do
+        };
+        other = (PropertyChangeEvent evt) -> {
+            // nothing to do
+        };
+    }
+
+    @Test
+    void testAdd() {
+        registry.add(null);
+        registry.add("foo", null);
+        registry.add(null, listener);
+        assertThat(registry.getListeners()).isEmpty();
+        registry.add(listener);
+        registry.add("foo", other);
+        registry.add("foo", listener);
+        assertThat(registry.getCommon()).containsExactly(listener);
+        assertThat(registry.getNamed("foo")).containsExactly(other, listener);
+        assertThat(registry.getNamed("bar")).isEmpty();
+        assertThat(registry.getNamed(null)).isEmpty();
+        PropertyChangeListener[] all = registry.getListeners();
+        assertThat(all).hasSize(3);
+        assertThat(all[0]).isSameAs(listener);
+        assertThat(all[1]).isInstanceOf(PropertyChangeListenerProxy.class);
+        assertThat(((PropertyChangeListenerProxy) all[1]).getPropertyName()).isEqualTo("foo");
+        assertThat(((PropertyChangeListenerProxy) all[1]).getListener()).isSameAs(other);
+    }
+
+    @Test
+    void testRemove() {
+        registry.add(listener);
+        registry.add(other);
+        registry.add(listener);
+        registry.add("foo", listener);
+        registry.add("foo", listener);
+        registry.remove(null);
+        registry.remove("foo", null);
+        registry.remove(null, listener);
+        registry.remove("bar", listener);
+        assertThat(registry.getListeners()).hasSize(5);
+        registry.remove(listener);
+        assertThat(registry.getCommon()).containsExactly(other, listener);
+        registry.remove("foo", listener);
+        assertThat(registry.getNamed("foo")).containsExactly(listener);
+        registry.remove("foo", listener);
+        assertThat(registry.getNamed("foo")).isEmpty();
+        assertThat(registry.getListeners()).containsExactly(other, listener);
+    }
+
+    @Test
+    void testGetListeners_String() {
+        registry.add("foo", listener);
+        PropertyChangeListener[] copy = registry.getListeners("foo");
+        copy[0] = other;
+        assertThat(registry.getListeners("foo")).containsExactly(listener);
+        assertThat(registry.getListeners(null)).isEmpty();
+    }
+
+    @Test
+    void testHasListeners() {
+        assertThat(registry.hasListeners(null)).isFalse();
+        assertThat(registry.hasListeners("foo")).isFalse();
+        registry.add("foo", listener);
+        assertThat(registry.hasListeners(null)).isFalse();
+        assertThat(registry.hasListeners("foo")).isTrue();
+        assertThat(registry.hasListeners("bar")).isFalse();
+        registry.add(listener);
+        assertThat(registry.hasListeners(null)).isTrue();
+        assertThat(registry.hasListeners("bar")).isTrue();
+    }
+
+    @Test
+    void testSnapshot() {
+        registry.add(listener);
+        PropertyChangeListener[] common = registry.getCommon();
+        registry.add(other);
+        registry.remove(listener);
+        // arrays already obtained are never modified
+        assertThat(common).containsExactly(listener);
+        assertThat(registry.getCommon()).containsExactly(other);
+    }
+
+    @Test
+    void testConcurrentModification() throws InterruptedException {
+        AtomicInteger heard = new AtomicInteger();
+        PropertyChangeListener counter = evt -> heard.incrementAndGet();
+        registry.add(counter);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread modifier = new Thread(() -> {
+            for (int i = 0; i < 1000; i++) {
+                registry.add("foo", listener);
+                registry.remove("foo", listener);
+            }
+            done.countDown();
+        });
+        modifier.start();
+        PropertyChangeEvent event = new PropertyChangeEvent(this, "foo", 0, 1);
+        int fired = 0;
+        while (done.getCount() > 0) {
+            for (PropertyChangeListener l : registry.getCommon()) {
+                l.propertyChange(event);
+            }
+            for (PropertyChangeListener l : registry.getNamed("foo")) {
+                l.propertyChange(event);
+            }
+            fired++;
+        }
+        modifier.join();
+        assertThat(heard.get()).isEqualTo(fired);
+        assertThat(registry.getNamed("foo")).isEmpty();
+    }
+}
@@ -19,6 +19,8 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyVetoException;
 import java.beans.VetoableChangeListener;
+import java.util.ArrayList;
+import java.util.List;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
 import static org.assertj.core.api.Assertions.catchThrowableOfType;
@@ -257,6 +259,25 @@ class VetoableBeanTest {
         assertThat(passed).isEqualTo(1);
     }
 
+    @Test
+    void testCheckVetoableChange() throws Exception {
+        bean.addVetoableChangeListener(vetoer);
+        bean.addPropertyChangeListener(listener);
+        // vetoable listeners are notified, property listeners are not
+        bean.checkVetoableChange("foo", "old", "new");
+        assertThat(passed).isEqualTo(1);
+        assertThat(vetoed).isZero();
+        assertThat(heard).isZero();
+        // same objects do not get fired
+        bean.checkVetoableChange("foo", "old", "old");
+        assertThat(passed).isEqualTo(1);
+        // veto is thrown
+        assertThatCode(() -> bean.checkVetoableChange("veto", "old", "new")).isInstanceOf(PropertyVetoException.class);
+        assertThat(vetoed).isEqualTo(1);
+        assertThat(passed).isEqualTo(1);
+        assertThat(heard).isZero();
+    }
+
     @Test
     void testHasListeners() {
         // test pass through
@@ -286,4 +307,47 @@ class VetoableBeanTest {
         assertThat(bean.hasListeners("foo")).isTrue();
     }
 
+    @Test
+    void testFireVetoableChange_Revert() {
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        bean.addVetoableChangeListener(events::add);
+        bean.addVetoableChangeListener("veto", vetoer);
+        bean.addPropertyChangeListener(listener);
+        assertThatCode(() -> bean.fireVetoableChange("veto", "old", "new")).isInstanceOf(PropertyVetoException.class);
+        // listeners notified before the veto are notified of the revert
+        assertThat(events).hasSize(2);
+        assertThat(events.get(1).getOldValue()).isEqualTo("new");
+        assertThat(events.get(1).getNewValue()).isEqualTo("old");
+        assertThat(vetoed).isEqualTo(1);
+        assertThat(heard).isZero();
+    }
+
+    @Test
+    void testFireVetoableChange_PrimitiveListeners() throws Exception {
+        List<Object> values = new ArrayList<>();
+        bean.addIntPropertyChangeListener("foo", (source, name, oldValue, newValue) -> values.add(newValue));
+        bean.addBooleanPropertyChangeListener("veto", (source, name, oldValue, newValue) -> values.add(newValue));
+        bean.addVetoableChangeListener(vetoer);
+        bean.fireVetoableChange("foo", 1, 2);
+        assertThat(values).containsExactly(2);
+        assertThat(passed).isEqualTo(1);
+        assertThatCode(() -> bean.fireVetoableChange("veto", true, false)).isInstanceOf(PropertyVetoException.class);
+        assertThat(values).containsExactly(2);
+        bean.removeVetoableChangeListener(vetoer);
+        bean.fireVetoableChange("veto", true, false);
+        assertThat(values).containsExactly(2, false);
+    }
+
+    @Test
+    void testFireVetoableChange_NoVetoableListeners() throws Exception {
+        bean.fireVetoableChange("veto", "old", "new");
+        bean.checkVetoableChange("veto", "old", "new");
+        assertThat(heard).isZero();
+        bean.addPropertyChangeListener(listener);
+        bean.fireVetoableChange("veto", "old", "new");
+        bean.fireVetoableChange("veto", 1, 2);
+        bean.fireVetoableChange("veto", true, false);
+        assertThat(heard).isEqualTo(3);
+        assertThat(vetoed).isZero();
+    }
 }
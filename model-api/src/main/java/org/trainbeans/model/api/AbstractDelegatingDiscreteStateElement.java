@@ -32,9 +32,16 @@ public abstract class AbstractDelegatingDiscreteStateElement<S extends DiscreteS
         implements DelegatingElement<E, D>, DiscreteStateElement<S> {
 
     /**
-     * The state if not handled by a delegate.
+     * The state if held by this element, or the {@link PackedStateStore}
+     * holding the state, so that an element bound to a store is only a
+     * handle to its slot in the store.
      */
-    private S state;
+    private Object state;
+    /**
+     * The slot in the store holding the state; ignored if this element holds
+     * its own state.
+     */
+    private int slot;
     /**
      * The delegate; if not null, most property access defers to the delegate.
      */
@@ -79,6 +86,13 @@ public abstract class AbstractDelegatingDiscreteStateElement<S extends DiscreteS
         return name;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Vetoable change listeners are asked to approve the change before the
+     * name is changed, and property change listeners are notified once, after
+     * the name is changed.
+     */
     @Override
     public final <T extends Element> T
             setName(final String newName) {
@@ -88,7 +102,7 @@ public abstract class AbstractDelegatingDiscreteStateElement<S extends DiscreteS
         }
         String oldName = this.name;
         try {
-            fireVetoableChange("name", oldName, newName);
+            checkVetoableChange("name", oldName, newName);
         } catch (PropertyVetoException ex) {
             throw new IllegalStateException();
         }
@@ -102,7 +116,7 @@ public abstract class AbstractDelegatingDiscreteStateElement<S extends DiscreteS
      */
     @Override
     public S getState() {
-        return delegate != null ? delegate.getState() : state;
+        return delegate != null ? delegate.getState() : getNonDelegatedState();
     }
 
     /**
@@ -110,7 +124,9 @@ public abstract class AbstractDelegatingDiscreteStateElement<S extends DiscreteS
      */
     @Override
     public S getRequestedState() {
-        return delegate != null ? delegate.getRequestedState() : state;
+        return delegate != null
+                ? delegate.getRequestedState()
+                : getNonDelegatedState();
     }
 
     /**
@@ -119,25 +135,48 @@ public abstract class AbstractDelegatingDiscreteStateElement<S extends DiscreteS
     @Override
     public <T extends DiscreteStateElement> T
             setState(final S newState) {
-        S oldState = state;
-        state = newState;
+        S oldState = getNonDelegatedState();
+        setNonDelegatedState(newState);
         if (delegate != null) {
             delegate.setState(newState);
         } else {
-            firePropertyChange("state", oldState, newState);
+            fireStateChange(oldState, newState);
         }
         return getSelf();
     }
 
+    /**
+     * Restore a saved state without requesting it from any delegate. If this
+     * element has a delegate, only the state held by this element is set, and
+     * the delegate continues to provide the state; otherwise this is the same
+     * as {@link #setState(DiscreteState)}.
+     *
+     * @param newState the saved state
+     */
+    public final void restoreState(final S newState) {
+        if (delegate != null) {
+            setNonDelegatedState(newState);
+        } else {
+            setState(newState);
+        }
+    }
+
     /**
      * Propagate PropertyChangeEvents from the delegate as if they are changes
-     * to this object.
+     * to this object. Events are not propagated if nothing listens to the
+     * property on this object. Changes to the state are propagated to
+     * {@link org.trainbeans.beans.EnumPropertyChangeListener}s as well,
+     * without the propagation ID of the event.
      *
      * @param evt {@inheritDoc}
      */
     @Override
     public void propertyChange(final PropertyChangeEvent evt) {
-        if (delegate == evt.getSource()) {
+        if (delegate == evt.getSource() && "state".equals(evt.getPropertyName())
+                && isEnum(evt.getOldValue()) && isEnum(evt.getNewValue())) {
+            fireStateChange(evt.getOldValue(), evt.getNewValue());
+        } else if (delegate == evt.getSource()
+                && hasListeners(evt.getPropertyName())) {
             PropertyChangeEvent propagation = new PropertyChangeEvent(this,
                     evt.getPropertyName(),
                     evt.getOldValue(),
@@ -147,14 +186,92 @@ public abstract class AbstractDelegatingDiscreteStateElement<S extends DiscreteS
         }
     }
 
+    /**
+     * Notify listeners of a change in the state. If the states are enum
+     * constants, as a {@link DiscreteState} should be,
+     * {@link org.trainbeans.beans.EnumPropertyChangeListener}s are notified
+     * and a {@link PropertyChangeEvent} is created only if there are
+     * {@link java.beans.PropertyChangeListener}s to notify.
+     *
+     * @param oldState the old state
+     * @param newState the new state
+     */
+    private void fireStateChange(final Object oldState, final Object newState) {
+        if (isEnum(oldState) && isEnum(newState)) {
+            firePropertyChange("state", (Enum<?>) oldState, (Enum<?>) newState);
+        } else {
+            firePropertyChange("state", oldState, newState);
+        }
+    }
+
+    /**
+     * Check if a state can be passed to an
+     * {@link org.trainbeans.beans.EnumPropertyChangeListener}.
+     *
+     * @param value the state
+     * @return true if value is null or an enum constant; false otherwise
+     */
+    private static boolean isEnum(final Object value) {
+        return value == null || value instanceof Enum;
+    }
+
+    /**
+     * Get the store holding the state of this element.
+     *
+     * @return the store or null if this element holds its own state
+     */
+    @SuppressWarnings("unchecked")
+    public PackedStateStore<S> getStateStore() {
+        return state instanceof PackedStateStore
+                ? (PackedStateStore<S>) state
+                : null;
+    }
+
+    /**
+     * Move the state of this element into a store, or back into this element.
+     * The state is unchanged, so listeners are not notified. A
+     * {@link Model} that owns a store can use this to bind elements to the
+     * store when the elements are put into the model.
+     *
+     * @param newStore the store to hold the state or null for this element
+     * to hold its own state
+     * @throws IllegalArgumentException if newStore cannot hold the state of
+     * this element
+     */
+    public final void setStateStore(final PackedStateStore<S> newStore) {
+        PackedStateStore<S> store = getStateStore();
+        if (newStore == store) {
+            return;
+        }
+        S current = getNonDelegatedState();
+        if (newStore != null) {
+            if (!newStore.accepts(current)) {
+                throw new IllegalArgumentException();
+            }
+            int newSlot = newStore.allocate();
+            newStore.set(newSlot, current);
+            if (store != null) {
+                store.free(slot);
+            }
+            state = newStore;
+            slot = newSlot;
+        } else {
+            store.free(slot);
+            state = current;
+        }
+    }
+
     /**
      * Get the state, bypassing any assigned delegate.
      *
      * @return the state
      */
     // package protected for unit testing
-    DiscreteState getNonDelegatedState() {
-        return state;
+    @SuppressWarnings("unchecked")
+    S getNonDelegatedState() {
+        return state instanceof PackedStateStore
+                ? ((PackedStateStore<S>) state).get(slot)
+                : (S) state;
     }
 
     /**
@@ -164,7 +281,12 @@ public abstract class AbstractDelegatingDiscreteStateElement<S extends DiscreteS
      * @param newState the new state
      */
     // package protected for unit testing
+    @SuppressWarnings("unchecked")
     void setNonDelegatedState(final S newState) {
-        this.state = newState;
+        if (state instanceof PackedStateStore) {
+            ((PackedStateStore<S>) state).set(slot, newState);
+        } else {
+            this.state = newState;
+        }
     }
 }
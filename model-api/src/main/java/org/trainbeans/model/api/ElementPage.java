@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A page of the elements in a {@link Model}, sorted by name, as returned by
+ * {@link Model#getPage(Class, String, int)}.
+ *
+ * Pages are resumed from the name of the last element in the previous page,
+ * not from a position, so elements added to or removed from the model between
+ * pages do not cause later pages to skip or repeat elements. An element added
+ * with a name before the resume key is not in any later page.
+ *
+ * @author rhwood
+ * @param <T> the type of element
+ */
+public final class ElementPage<T extends Element> {
+
+    /**
+     * The elements in this page.
+     */
+    private final List<T> elements;
+    /**
+     * The key to resume from; null if this is the last page.
+     */
+    private final String next;
+
+    /**
+     * Create a page.
+     *
+     * @param pageElements the elements in this page, sorted by name
+     * @param nextKey the name to resume after to get the next page, or null
+     * if this is the last page
+     */
+    public ElementPage(final List<? extends T> pageElements,
+            final String nextKey) {
+        elements = Collections.unmodifiableList(new ArrayList<>(pageElements));
+        next = nextKey;
+    }
+
+    /**
+     * Create a page from the elements in an iterator.
+     *
+     * @param <T> the type of element
+     * @param iterator the elements sorted by name, starting with the first
+     * element in the page
+     * @param size the maximum number of elements in the page
+     * @return the page; if iterator has more than size elements, the page has
+     * a next key
+     */
+    public static <T extends Element> ElementPage<T> of(
+            final Iterator<? extends T> iterator, final int size) {
+        List<T> list = new ArrayList<>(size);
+        while (list.size() < size && iterator.hasNext()) {
+            list.add(iterator.next());
+        }
+        String key = null;
+        if (!list.isEmpty() && iterator.hasNext()) {
+            key = list.get(list.size() - 1).getName();
+        }
+        return new ElementPage<>(list, key);
+    }
+
+    /**
+     * Get the lowest name that can be in a page resumed after a key, for use
+     * as the inclusive lower bound of a range of names.
+     *
+     * @param after the key, which is excluded from the page; may be null
+     * @return the lowest name greater than after, or null if after is null
+     */
+    public static String getStart(final String after) {
+        return after == null ? null : after + Character.MIN_VALUE;
+    }
+
+    /**
+     * Get the elements in this page.
+     *
+     * @return an unmodifiable list of elements sorted by name
+     */
+    public List<T> getElements() {
+        return elements;
+    }
+
+    /**
+     * Get the key to pass to {@link Model#getPage(Class, String, int)} to
+     * get the next page.
+     *
+     * @return the name of the last element in this page, or null if this is
+     * the last page
+     */
+    public String getNextKey() {
+        return next;
+    }
+
+    /**
+     * Test if there is a page after this page.
+     *
+     * @return true if there may be more elements; false otherwise
+     */
+    public boolean hasNext() {
+        return next != null;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.api;
+
+import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A change in the membership of a {@link Model}. The property name of this
+ * event is {@value #ELEMENTS}, the old value is the list of removed elements,
+ * and the new value is the list of added elements.
+ *
+ * A single event may describe any number of added and removed elements, so
+ * that a bulk change to a model can be described with one event.
+ *
+ * @author rhwood
+ */
+public final class ElementsChangeEvent extends PropertyChangeEvent {
+
+    /**
+     * The property name of an ElementsChangeEvent.
+     */
+    public static final String ELEMENTS = "elements";
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The added elements.
+     */
+    private final List<Element> added;
+    /**
+     * The removed elements.
+     */
+    private final List<Element> removed;
+    /**
+     * The concrete classes of all added and removed elements.
+     */
+    private final Set<Class<? extends Element>> classes;
+
+    /**
+     * Create an event.
+     *
+     * @param model the model that changed
+     * @param addedElements the elements added to model
+     * @param removedElements the elements removed from model
+     */
+    public ElementsChangeEvent(final Model model,
+            final Collection<? extends Element> addedElements,
+            final Collection<? extends Element> removedElements) {
+        super(model, ELEMENTS, null, null);
+        added = Collections.unmodifiableList(new ArrayList<>(addedElements));
+        removed = Collections.unmodifiableList(
+                new ArrayList<>(removedElements));
+        Set<Class<? extends Element>> set = new HashSet<>();
+        added.forEach(element -> set.add(element.getClass()));
+        removed.forEach(element -> set.add(element.getClass()));
+        classes = Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the model that changed
+     */
+    @Override
+    public Model getSource() {
+        return (Model) super.getSource();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the removed elements
+     */
+    @Override
+    public List<Element> getOldValue() {
+        return removed;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the added elements
+     */
+    @Override
+    public List<Element> getNewValue() {
+        return added;
+    }
+
+    /**
+     * Get the added elements.
+     *
+     * @return an unmodifiable list of the added elements
+     */
+    public List<Element> getAdded() {
+        return added;
+    }
+
+    /**
+     * Get the added elements of a specific type.
+     *
+     * @param <T> the type of element
+     * @param type the type of element
+     * @return a list of the added elements of type
+     */
+    public <T extends Element> List<T> getAdded(final Class<T> type) {
+        return filter(added, type);
+    }
+
+    /**
+     * Get the removed elements.
+     *
+     * @return an unmodifiable list of the removed elements
+     */
+    public List<Element> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Get the removed elements of a specific type.
+     *
+     * @param <T> the type of element
+     * @param type the type of element
+     * @return a list of the removed elements of type
+     */
+    public <T extends Element> List<T> getRemoved(final Class<T> type) {
+        return filter(removed, type);
+    }
+
+    /**
+     * Get the concrete classes of the added and removed elements.
+     *
+     * @return an unmodifiable set of classes
+     */
+    public Set<Class<? extends Element>> getElementClasses() {
+        return classes;
+    }
+
+    /**
+     * Test if any added or removed element is of a specific type. This does
+     * not need to test each element, so listeners interested in only one type
+     * of element can use this to cheaply ignore other changes.
+     *
+     * @param type the type of element
+     * @return true if any element of type was added or removed; false
+     * otherwise
+     */
+    public boolean affects(final Class<? extends Element> type) {
+        return classes.stream().anyMatch(type::isAssignableFrom);
+    }
+
+    /**
+     * Get the elements of a specific type from a list.
+     *
+     * @param <T> the type of element
+     * @param list the list of elements
+     * @param type the type of element
+     * @return the elements of type in list
+     */
+    private static <T extends Element> List<T> filter(final List<Element> list,
+            final Class<T> type) {
+        return list.stream()
+                .filter(type::isInstance)
+                .map(type::cast)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.api;
+
+/**
+ * A {@link Model} that assigns a handle to each element it contains, so that
+ * the states of elements can be read and written by handle without looking up
+ * elements by name, hashing or comparing names, or boxing states.
+ *
+ * Models that cannot maintain stable handles do not implement this
+ * interface; test for it with {@code instanceof} before using handles.
+ *
+ * @author rhwood
+ */
+public interface HandleModel extends Model {
+
+    /**
+     * Get the handle of an element in the model. A handle is a small integer
+     * that identifies an element for as long as the element is in the model,
+     * and that can be used to get and set the state of the element without
+     * looking up the element by name. Once an element is removed from the
+     * model, its handle may be reused for another element.
+     *
+     * @param element the element
+     * @return the handle or -1 if element is not in the model
+     */
+    int getHandle(Element element);
+
+    /**
+     * Get the element with a handle.
+     *
+     * @param handle the handle
+     * @return the element
+     * @throws IllegalArgumentException if no element in the model has handle
+     */
+    Element getElement(int handle);
+
+    /**
+     * Get the state of the {@link DiscreteStateElement} with a handle as the
+     * ordinal of the state in its enum.
+     *
+     * @param handle the handle
+     * @return the ordinal, or -1 if the element has no state, a null state,
+     * or a state that is not an enum
+     * @throws IllegalArgumentException if no element in the model has handle
+     */
+    int getState(int handle);
+
+    /**
+     * Set the state of the {@link DiscreteStateElement} with a handle to the
+     * state with an ordinal in the enum of the state of the element.
+     *
+     * @param handle the handle
+     * @param ordinal the ordinal of the state
+     * @throws IllegalArgumentException if no element in the model has handle,
+     * the element does not have a state that is an enum, or ordinal is not an
+     * ordinal of that enum
+     */
+    void setState(int handle, int ordinal);
+}
@@ -18,7 +18,16 @@ package org.trainbeans.model.api;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyVetoException;
 import java.beans.VetoableChangeListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 import org.openide.util.Lookup;
 import org.openide.util.NbBundle;
 import org.trainbeans.beans.PropertyChangeProvider;
@@ -29,6 +38,9 @@ import org.trainbeans.beans.PropertyChangeProvider;
  * A Model has one constraint against the Elements it contains: no two Elements
  * may have the same name.
  *
+ * A Model notifies its listeners of changes to the Elements it contains with
+ * an {@link ElementsChangeEvent}.
+ *
  * @author Randall Wood
  */
 public interface Model extends PropertyChangeProvider, VetoableChangeListener {
@@ -78,6 +90,137 @@ public interface Model extends PropertyChangeProvider, VetoableChangeListener {
      */
     <T extends Element> Set<T> getAll(Class<T> type);
 
+    /**
+     * Get the elements of a specific type with names in a range from the
+     * model, sorted by name. Names are compared by their natural order.
+     *
+     * @param <T> the type of element
+     * @param type the type of element
+     * @param from the lowest name in the range, inclusive; null if the range
+     * has no lower bound
+     * @param to the highest name in the range, exclusive; null if the range
+     * has no upper bound
+     * @return a sorted set of elements; this set is empty if there are no
+     * matching elements
+     * @throws IllegalArgumentException if from is greater than to
+     */
+    default <T extends Element> Set<T> getRange(Class<T> type, String from,
+            String to) {
+        if (from != null && to != null && from.compareTo(to) > 0) {
+            throw new IllegalArgumentException();
+        }
+        Set<T> range = new LinkedHashSet<>();
+        getAll(type).stream()
+                .filter(element -> from == null
+                        || element.getName().compareTo(from) >= 0)
+                .filter(element -> to == null
+                        || element.getName().compareTo(to) < 0)
+                .sorted(Comparator.comparing(Element::getName))
+                .forEach(range::add);
+        return range;
+    }
+
+    /**
+     * Get a page of the elements of a specific type from the model, sorted by
+     * name. To fetch every element a page at a time, pass null as the key for
+     * the first page, and the {@link ElementPage#getNextKey() next key} of
+     * each page for the page that follows it.
+     *
+     * @param <T> the type of element
+     * @param type the type of element
+     * @param after the name after which the page starts, exclusive; null to
+     * start with the first element
+     * @param size the maximum number of elements in the page
+     * @return the page
+     * @throws IllegalArgumentException if size is less than 1
+     */
+    default <T extends Element> ElementPage<T> getPage(Class<T> type,
+            String after, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException();
+        }
+        return ElementPage.of(getRange(type, ElementPage.getStart(after),
+                null).iterator(), size);
+    }
+
+    /**
+     * Get the elements of a specific type with names starting with a prefix
+     * from the model, sorted by name.
+     *
+     * @param <T> the type of element
+     * @param type the type of element
+     * @param prefix the prefix
+     * @return a sorted set of elements; this set is empty if there are no
+     * matching elements
+     */
+    default <T extends Element> Set<T> getByPrefix(Class<T> type,
+            String prefix) {
+        // the lowest name greater than every name starting with prefix is
+        // prefix with trailing maximum characters removed and the new last
+        // character incremented
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        String to = null;
+        if (end > 0) {
+            to = prefix.substring(0, end - 1)
+                    + (char) (prefix.charAt(end - 1) + 1);
+        }
+        return getRange(type, prefix, to);
+    }
+
+    /**
+     * Get the elements of a specific type that are in a state from the model,
+     * sorted by name.
+     *
+     * @param <S> the type of state
+     * @param <T> the type of element
+     * @param type the type of element
+     * @param state the state
+     * @return a sorted set of elements; this set is empty if there are no
+     * matching elements
+     */
+    default <S extends DiscreteState, T extends DiscreteStateElement<S>> Set<T>
+            getByState(Class<T> type, S state) {
+        Set<T> matches = new LinkedHashSet<>();
+        getAll(type).stream()
+                .filter(element -> state.equals(element.getState()))
+                .sorted(Comparator.comparing(Element::getName))
+                .forEach(matches::add);
+        return matches;
+    }
+
+    /**
+     * Count the elements of a specific type that are in a state in the model.
+     *
+     * @param <S> the type of state
+     * @param <T> the type of element
+     * @param type the type of element
+     * @param state the state
+     * @return the number of matching elements
+     */
+    default <S extends DiscreteState, T extends DiscreteStateElement<S>> int
+            countByState(Class<T> type, S state) {
+        return getByState(type, state).size();
+    }
+
+    /**
+     * Get a stream of the elements of a specific type that match a filter,
+     * sorted by name. Implementations may evaluate the stream lazily, so that
+     * a query that stops early, such as one limited to the first few matches,
+     * does not visit every element, and need not cache the elements visited.
+     *
+     * @param <T> the type of element
+     * @param type the type of element
+     * @param filter the filter
+     * @return a stream of the matching elements
+     */
+    default <T extends Element> Stream<T> stream(Class<T> type,
+            Predicate<? super T> filter) {
+        return getRange(type, null, null).stream().filter(filter);
+    }
+
     /**
      * Get an element of a specific type from the model.
      *
@@ -135,6 +278,90 @@ public interface Model extends PropertyChangeProvider, VetoableChangeListener {
      */
     <T extends Element, M extends Model> M put(T element);
 
+    /**
+     * Put existing elements into the model. All names are checked before any
+     * element is put into the model, so if this throws, the model is
+     * unchanged. Implementations may notify listeners of the addition with a
+     * single {@link ElementsChangeEvent} instead of notifying listeners for
+     * each element.
+     *
+     * The default implementation puts the elements one at a time after
+     * checking their names, and removes the elements already put if a
+     * concurrent change makes putting any element fail. Implementations that
+     * can be changed concurrently should check and put every element while
+     * holding their locks, so no other change can be seen part way through.
+     *
+     * @param <M> the return type
+     * @param elements the elements
+     * @throws IllegalStateException if an element with the same name as any
+     * of elements already exists, or if any two of elements have the same name
+     * @return this object
+     */
+    default <M extends Model> M putAll(
+            Collection<? extends Element> elements) {
+        Set<String> names = new HashSet<>();
+        for (Element element : elements) {
+            if (!names.add(element.getName())
+                    || get(Element.class, element.getName()) != null) {
+                throw new IllegalStateException();
+            }
+        }
+        List<Element> put = new ArrayList<>(elements.size());
+        try {
+            for (Element element : elements) {
+                put(element);
+                put.add(element);
+            }
+        } catch (RuntimeException ex) {
+            put.forEach(this::remove);
+            throw ex;
+        }
+        return getSelf();
+    }
+
+    /**
+     * Create elements in the model. If the type is a {@link DelegatingElement}
+     * and the lookup contains a {@link Delegate}, every element will use that
+     * Delegate. All names are checked before any element is put into the
+     * model, so if this throws, the model is unchanged.
+     *
+     * Implementations should create every element before putting any into
+     * the model, and then put them with {@link #putAll(Collection)}. The
+     * default implementation can only create elements with
+     * {@link #create(Class, String, Lookup)}, which puts each element into
+     * the model, so it removes the elements already created if creating any
+     * element fails.
+     *
+     * @param <T> the type of element
+     * @param type the type of element
+     * @param names the names of the elements
+     * @param lookup a container of additional services for the factory
+     * @return the newly created elements, in the order of names
+     * @throws IllegalArgumentException if any name is blank and lookup does
+     * not contain a Delegate; if no
+     * {@link org.trainbeans.model.spi.ElementFactory} for type exists in model
+     * @throws IllegalStateException if an element with any of names already
+     * exists, or if any name is in names more than once
+     */
+    default <T extends Element> List<T> createAll(Class<T> type,
+            Collection<String> names, Lookup lookup) {
+        Set<String> unique = new HashSet<>();
+        for (String name : names) {
+            if (!unique.add(name)
+                    || (name != null && get(Element.class, name) != null)) {
+                throw new IllegalStateException();
+            }
+        }
+        List<T> created = new ArrayList<>(names.size());
+        try {
+            names.forEach(name -> created.add(create(type, name, lookup)));
+        } catch (RuntimeException ex) {
+            created.forEach(this::remove);
+            throw ex;
+        }
+        return created;
+    }
+
     /**
      * Remove an element from the model. It is not an error if the element does
      * not exist in the model, nor is it an error to attempt to remove a null
@@ -147,6 +374,43 @@ public interface Model extends PropertyChangeProvider, VetoableChangeListener {
      */
     <T extends Element, M extends Model> M remove(T element);
 
+    /**
+     * Make a batch of changes to the model. Implementations may notify
+     * listeners of all elements added and removed by changes with a single
+     * {@link ElementsChangeEvent} when changes completes instead of notifying
+     * listeners of each addition and removal. Batches may be nested; listeners
+     * are notified when the outermost batch completes.
+     *
+     * @param changes the changes to make
+     */
+    default void batch(Runnable changes) {
+        changes.run();
+    }
+
+    /**
+     * Set the states of many {@link DiscreteStateElement}s in the model, such
+     * as when setting a yard ladder or resetting the layout. All elements are
+     * checked before any state is set. Implementations may set states in
+     * parallel, notifying the listeners of each element on other threads, and
+     * may notify listeners to the model of all changed states with a single
+     * {@link StatesChangeEvent} when every state is set.
+     *
+     * @param states the new state of each element
+     * @throws IllegalArgumentException if any element is not a
+     * DiscreteStateElement in the model
+     */
+    default void applyStates(
+            Map<? extends Element, ? extends DiscreteState> states) {
+        states.keySet().forEach(element -> {
+            if (!(element instanceof DiscreteStateElement)
+                    || get(Element.class, element.getName()) != element) {
+                throw new IllegalArgumentException();
+            }
+        });
+        batch(() -> states.forEach((element, state)
+                -> ((DiscreteStateElement) element).setState(state)));
+    }
+
     /**
      * Get the set of element classes that have factories allowing them to be
      * created.
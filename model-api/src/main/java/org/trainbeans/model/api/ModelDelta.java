@@ -0,0 +1,237 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.openide.util.Lookup;
+
+/**
+ * The differences between two versions of a {@link Model}: the elements
+ * added, removed, and renamed, and the elements whose state changed. Removed
+ * elements and renamed elements are identified by their names in the older
+ * version, and elements whose state changed by their names in the newer
+ * version.
+ *
+ * @author rhwood
+ */
+public final class ModelDelta {
+
+    /**
+     * The added elements.
+     */
+    private final List<Element> added;
+    /**
+     * The names of the removed elements.
+     */
+    private final List<String> removed;
+    /**
+     * The new name of each renamed element, keyed by its old name.
+     */
+    private final Map<String, String> renamed;
+    /**
+     * The new state of each element whose state changed, keyed by name.
+     */
+    private final Map<String, DiscreteState> states;
+
+    /**
+     * Create a delta.
+     *
+     * @param addedElements the added elements
+     * @param removedNames the names of the removed elements
+     * @param renamedNames the new name of each renamed element, keyed by its
+     * old name
+     * @param changedStates the new state of each element whose state changed,
+     * keyed by its new name
+     */
+    public ModelDelta(final Collection<? extends Element> addedElements,
+            final Collection<String> removedNames,
+            final Map<String, String> renamedNames,
+            final Map<String, ? extends DiscreteState> changedStates) {
+        added = Collections.unmodifiableList(new ArrayList<>(addedElements));
+        removed = Collections.unmodifiableList(new ArrayList<>(removedNames));
+        renamed = Collections.unmodifiableMap(
+                new LinkedHashMap<>(renamedNames));
+        states = Collections.unmodifiableMap(
+                new LinkedHashMap<>(changedStates));
+    }
+
+    /**
+     * Compute the differences between two models by comparing every element
+     * in both, in time proportional to the size of the models. Since elements
+     * in different models are matched by name, a renamed element is reported
+     * as removed and added.
+     *
+     * @param base the older model
+     * @param working the newer model
+     * @return the changes that make base match working
+     */
+    public static ModelDelta between(final Model base, final Model working) {
+        Map<String, Element> before = new HashMap<>();
+        base.getAll(Element.class)
+                .forEach(element -> before.put(element.getName(), element));
+        List<Element> addedElements = new ArrayList<>();
+        Map<String, DiscreteState> changedStates = new LinkedHashMap<>();
+        for (Element element : working.getAll(Element.class)) {
+            Element old = before.remove(element.getName());
+            if (old == null || !old.getClass().equals(element.getClass())) {
+                if (old != null) {
+                    before.put(old.getName(), old);
+                }
+                addedElements.add(element);
+            } else if (element instanceof DiscreteStateElement
+                    && !Objects.equals(getState(old), getState(element))) {
+                changedStates.put(element.getName(), getState(element));
+            }
+        }
+        return new ModelDelta(addedElements, before.keySet(),
+                Collections.emptyMap(), changedStates);
+    }
+
+    /**
+     * Get the added elements. These are the elements in the newer model.
+     *
+     * @return an unmodifiable list of the added elements
+     */
+    public List<Element> getAdded() {
+        return added;
+    }
+
+    /**
+     * Get the names of the removed elements.
+     *
+     * @return an unmodifiable list of names
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Get the renamed elements.
+     *
+     * @return an unmodifiable map of new names keyed by old names
+     */
+    public Map<String, String> getRenamed() {
+        return renamed;
+    }
+
+    /**
+     * Get the elements whose state changed. Added elements are not included.
+     *
+     * @return an unmodifiable map of new states keyed by element name
+     */
+    public Map<String, DiscreteState> getStateChanges() {
+        return states;
+    }
+
+    /**
+     * Test if there are no differences.
+     *
+     * @return true if nothing was added, removed, renamed, or changed state
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && renamed.isEmpty()
+                && states.isEmpty();
+    }
+
+    /**
+     * Apply these changes to a model in a single {@link Model#batch}. Removed
+     * elements are removed first, then renamed elements are renamed, then
+     * added elements are created with the factories of the model and given
+     * the name and state of the added element, and finally states are
+     * changed. Elements not in the model are not removed, renamed, or
+     * changed. The delegates of added elements are not copied.
+     *
+     * @param target the model to change
+     * @throws IllegalArgumentException if target has no factory for an added
+     * element
+     * @throws IllegalStateException if an added or renamed element has the
+     * name of an element already in target; changes made before this is
+     * thrown are not undone
+     */
+    public void applyTo(final Model target) {
+        target.batch(() -> {
+            removed.forEach(name -> {
+                Element element = target.get(Element.class, name);
+                if (element != null) {
+                    target.remove(element);
+                }
+            });
+            rename(target);
+            added.forEach(element -> {
+                Element copy = target.create(element.getClass(),
+                        element.getName(), Lookup.EMPTY);
+                if (copy instanceof DiscreteStateElement) {
+                    ((DiscreteStateElement) copy).setState(getState(element));
+                }
+            });
+            states.forEach((name, state) -> {
+                DiscreteStateElement element
+                        = target.get(DiscreteStateElement.class, name);
+                if (element != null) {
+                    element.setState(state);
+                }
+            });
+        });
+    }
+
+    /**
+     * Rename elements in a model. If an element is renamed to the old name of
+     * another renamed element, all elements are first given temporary names
+     * so that renames can be swapped.
+     *
+     * @param target the model
+     */
+    private void rename(final Model target) {
+        Map<Element, String> elements = new LinkedHashMap<>();
+        renamed.forEach((oldName, newName) -> {
+            Element element = target.get(Element.class, oldName);
+            if (element != null) {
+                elements.put(element, newName);
+            }
+        });
+        if (!Collections.disjoint(renamed.keySet(), renamed.values())) {
+            int i = 0;
+            for (Element element : elements.keySet()) {
+                String temporary;
+                do {
+                    temporary = "\u0000" + i++;
+                } while (target.get(Element.class, temporary) != null);
+                element.setName(temporary);
+            }
+        }
+        elements.forEach(Element::setName);
+    }
+
+    /**
+     * Get the state of an element.
+     *
+     * @param element the element
+     * @return the state or null if element has no state
+     */
+    private static DiscreteState getState(final Element element) {
+        if (element instanceof DiscreteStateElement) {
+            return ((DiscreteStateElement<?>) element).getState();
+        }
+        return null;
+    }
+}
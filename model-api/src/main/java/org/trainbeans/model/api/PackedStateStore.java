@@ -0,0 +1,389 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.api;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Storage for the states of many {@link DiscreteStateElement}s, packed one
+ * byte per element. Each element bound to the store is allocated a slot, and
+ * its state is kept in that slot as the index of the state in the list of
+ * states the store was created with.
+ *
+ * The slots are kept in fixed size pages, either arrays on the heap or
+ * direct {@link ByteBuffer}s off the heap. Since the states of all bound
+ * elements are contiguous within each page, counting the elements in a state
+ * does not need to visit any element.
+ *
+ * Getting and setting the states of different slots is safe from any number
+ * of threads at once, without locking, so elements bound to one store can be
+ * set in parallel. Pages are never moved once created, so allocating a slot
+ * grows the store by adding a page, never by copying slots, and cannot lose
+ * a concurrent set. Allocating and freeing slots are serialized with each
+ * other, but not with getting or setting. A slot must not be set while it is
+ * being freed, and setting the state of one slot from several threads at
+ * once has no defined order.
+ *
+ * Getting and setting a slot are plain reads and writes of a single byte, so
+ * they do not establish any happens-before ordering of their own: a state
+ * set by one thread is only guaranteed to be seen by a get on another thread
+ * if the threads synchronize after the set, for example through a lock, a
+ * volatile variable, or handing a task to an executor. Until then a get may
+ * return an earlier state. Counting reads each slot the same way, so a count
+ * taken while slots are set is not a snapshot of any one time.
+ *
+ * @author rhwood
+ * @param <S> the type of state
+ */
+public final class PackedStateStore<S extends DiscreteState> {
+
+    /**
+     * The value of a slot with a null state.
+     */
+    private static final byte NULL = 0;
+    /**
+     * The value of a freed slot.
+     */
+    private static final byte FREE = (byte) 0xFF;
+    /**
+     * The maximum number of states a store can hold.
+     */
+    private static final int MAX_STATES = 0xFF - 1;
+    /**
+     * The mask to convert a slot value to an unsigned integer.
+     */
+    private static final int UNSIGNED = 0xFF;
+    /**
+     * The number of bits of a slot selecting its position in a page.
+     */
+    private static final int PAGE_BITS = 12;
+    /**
+     * The number of slots in a page.
+     */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    /**
+     * The mask selecting the position of a slot in a page.
+     */
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    /**
+     * The states, in the order they are indexed.
+     */
+    private final S[] states;
+    /**
+     * True if slots are stored off the heap.
+     */
+    private final boolean direct;
+    /**
+     * The pages of slots if on the heap; null if direct. Replaced with a
+     * longer copy, sharing the same pages, when the store grows.
+     */
+    private volatile byte[][] arrays;
+    /**
+     * The pages of slots if direct; null if on the heap. Replaced with a
+     * longer copy, sharing the same pages, when the store grows.
+     */
+    private volatile ByteBuffer[] buffers;
+    /**
+     * The number of slots ever allocated; slots at or above this index have
+     * never been used.
+     */
+    private volatile int limit;
+    /**
+     * Stack of slots that have been freed and can be allocated again.
+     * Guarded by this.
+     */
+    private int[] free = new int[0];
+    /**
+     * The number of slots on the stack of freed slots. Guarded by this.
+     */
+    private int freed;
+
+    /**
+     * Create a store on the heap.
+     *
+     * @param storeStates the states that can be stored; for an enum, this
+     * should be its values
+     * @throws IllegalArgumentException if there are more than 254 states
+     */
+    public PackedStateStore(final S[] storeStates) {
+        this(storeStates, 0, false);
+    }
+
+    /**
+     * Create a store.
+     *
+     * @param storeStates the states that can be stored; for an enum, this
+     * should be its values
+     * @param capacity the initial number of slots, rounded up to a whole
+     * number of pages
+     * @param offHeap true to store slots in direct buffers off the heap;
+     * false to store slots in arrays on the heap
+     * @throws IllegalArgumentException if there are more than 254 states or
+     * capacity is negative
+     */
+    public PackedStateStore(final S[] storeStates, final int capacity,
+            final boolean offHeap) {
+        if (storeStates.length > MAX_STATES || capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        states = Arrays.copyOf(storeStates, storeStates.length);
+        direct = offHeap;
+        int pages = (capacity + PAGE_MASK) >>> PAGE_BITS;
+        if (direct) {
+            buffers = new ByteBuffer[pages];
+            for (int i = 0; i < pages; i++) {
+                buffers[i] = ByteBuffer.allocateDirect(PAGE_SIZE);
+            }
+        } else {
+            arrays = new byte[pages][PAGE_SIZE];
+        }
+    }
+
+    /**
+     * Test if a state can be stored in this store.
+     *
+     * @param state the state
+     * @return true if state is null or is one of the states of this store;
+     * false otherwise
+     */
+    public boolean accepts(final DiscreteState state) {
+        return state == null || indexOf(state) != -1;
+    }
+
+    /**
+     * Allocate a slot with a null state.
+     *
+     * @return the slot
+     */
+    public synchronized int allocate() {
+        int slot;
+        if (freed > 0) {
+            slot = free[--freed];
+        } else {
+            slot = limit;
+            if (slot >= capacity()) {
+                grow();
+            }
+            limit = slot + 1;
+        }
+        write(slot, NULL);
+        return slot;
+    }
+
+    /**
+     * Free a slot so it can be allocated again.
+     *
+     * @param slot the slot
+     * @throws IndexOutOfBoundsException if slot has never been allocated
+     * @throws IllegalStateException if slot is already free
+     */
+    public synchronized void free(final int slot) {
+        if (read(slot) == FREE) {
+            throw new IllegalStateException();
+        }
+        write(slot, FREE);
+        if (freed == free.length) {
+            free = Arrays.copyOf(free, Math.max(1, freed * 2));
+        }
+        free[freed++] = slot;
+    }
+
+    /**
+     * Get the state in a slot.
+     *
+     * @param slot the slot
+     * @return the state; null if the state is null or slot is free
+     * @throws IndexOutOfBoundsException if slot has never been allocated
+     */
+    public S get(final int slot) {
+        int value = read(slot) & UNSIGNED;
+        return value == NULL || value == (FREE & UNSIGNED)
+                ? null
+                : states[value - 1];
+    }
+
+    /**
+     * Set the state in a slot.
+     *
+     * @param slot the slot
+     * @param state the state; may be null
+     * @throws IllegalArgumentException if state is not one of the states of
+     * this store
+     * @throws IndexOutOfBoundsException if slot has never been allocated
+     * @throws IllegalStateException if slot is free
+     */
+    public void set(final int slot, final S state) {
+        byte value = NULL;
+        if (state != null) {
+            int index = indexOf(state);
+            if (index == -1) {
+                throw new IllegalArgumentException();
+            }
+            value = (byte) (index + 1);
+        }
+        if (read(slot) == FREE) {
+            throw new IllegalStateException();
+        }
+        write(slot, value);
+    }
+
+    /**
+     * Count the allocated slots in a state. This scans every slot ever
+     * allocated without visiting any element.
+     *
+     * @param state the state; may be null
+     * @return the number of slots in state
+     */
+    public int count(final S state) {
+        int index = state == null ? -1 : indexOf(state);
+        if (state != null && index == -1) {
+            return 0;
+        }
+        byte value = (byte) (index + 1);
+        int count = 0;
+        int end = limit;
+        if (direct) {
+            ByteBuffer[] pages = buffers;
+            for (int base = 0; base < end; base += PAGE_SIZE) {
+                ByteBuffer page = pages[base >>> PAGE_BITS];
+                int length = Math.min(PAGE_SIZE, end - base);
+                for (int i = 0; i < length; i++) {
+                    if (page.get(i) == value) {
+                        count++;
+                    }
+                }
+            }
+        } else {
+            byte[][] pages = arrays;
+            for (int base = 0; base < end; base += PAGE_SIZE) {
+                byte[] page = pages[base >>> PAGE_BITS];
+                int length = Math.min(PAGE_SIZE, end - base);
+                for (int i = 0; i < length; i++) {
+                    if (page[i] == value) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of allocated slots.
+     *
+     * @return the number of slots allocated and not freed
+     */
+    public synchronized int size() {
+        return limit - freed;
+    }
+
+    /**
+     * Test if slots are stored off the heap.
+     *
+     * @return true if stored in a direct buffer; false if stored in an array
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Get the index of a state in the states of this store.
+     *
+     * @param state the state
+     * @return the index or -1 if state is not in this store
+     */
+    private int indexOf(final DiscreteState state) {
+        // the states of an enum are usually in ordinal order
+        if (state instanceof Enum) {
+            int ordinal = ((Enum<?>) state).ordinal();
+            if (ordinal < states.length && states[ordinal] == state) {
+                return ordinal;
+            }
+        }
+        for (int i = 0; i < states.length; i++) {
+            if (states[i].equals(state)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check that a slot has been allocated.
+     *
+     * @param slot the slot
+     * @throws IndexOutOfBoundsException if slot has never been allocated
+     */
+    private void checkSlot(final int slot) {
+        if (slot < 0 || slot >= limit) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    /**
+     * Read a slot.
+     *
+     * @param slot the slot
+     * @return the value in slot
+     */
+    private byte read(final int slot) {
+        checkSlot(slot);
+        return direct
+                ? buffers[slot >>> PAGE_BITS].get(slot & PAGE_MASK)
+                : arrays[slot >>> PAGE_BITS][slot & PAGE_MASK];
+    }
+
+    /**
+     * Write a slot.
+     *
+     * @param slot the slot
+     * @param value the value
+     */
+    private void write(final int slot, final byte value) {
+        if (direct) {
+            buffers[slot >>> PAGE_BITS].put(slot & PAGE_MASK, value);
+        } else {
+            arrays[slot >>> PAGE_BITS][slot & PAGE_MASK] = value;
+        }
+    }
+
+    /**
+     * Get the number of slots that can be allocated without growing.
+     *
+     * @return the capacity
+     */
+    private int capacity() {
+        return (direct ? buffers.length : arrays.length) << PAGE_BITS;
+    }
+
+    /**
+     * Add a page to this store. The pages already in the store are not
+     * moved, so slots set while growing are not lost. The caller must hold
+     * the lock on this.
+     */
+    private void grow() {
+        if (direct) {
+            ByteBuffer[] grown = Arrays.copyOf(buffers, buffers.length + 1);
+            grown[buffers.length] = ByteBuffer.allocateDirect(PAGE_SIZE);
+            buffers = grown;
+        } else {
+            byte[][] grown = Arrays.copyOf(arrays, arrays.length + 1);
+            grown[arrays.length] = new byte[PAGE_SIZE];
+            arrays = grown;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.api;
+
+import java.beans.PropertyChangeEvent;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A change in the states of elements in a {@link Model}. The property name of
+ * this event is {@value #STATES}, the old value is the map of the old state of
+ * each changed element, and the new value is the map of the new state of each
+ * changed element.
+ *
+ * A single event describes every state changed by a bulk operation such as
+ * {@link Model#applyStates(Map)}, so that listeners interested in the model as
+ * a whole need not listen to each element.
+ *
+ * @author rhwood
+ */
+public final class StatesChangeEvent extends PropertyChangeEvent {
+
+    /**
+     * The property name of a StatesChangeEvent.
+     */
+    public static final String STATES = "states";
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * The old states.
+     */
+    private final Map<Element, DiscreteState> oldStates;
+    /**
+     * The new states.
+     */
+    private final Map<Element, DiscreteState> newStates;
+
+    /**
+     * Create an event.
+     *
+     * @param model the model that changed
+     * @param oldValues the old state of each changed element
+     * @param newValues the new state of each changed element
+     */
+    public StatesChangeEvent(final Model model,
+            final Map<? extends Element, ? extends DiscreteState> oldValues,
+            final Map<? extends Element, ? extends DiscreteState> newValues) {
+        super(model, STATES, null, null);
+        oldStates = Collections.unmodifiableMap(
+                new LinkedHashMap<>(oldValues));
+        newStates = Collections.unmodifiableMap(
+                new LinkedHashMap<>(newValues));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the model that changed
+     */
+    @Override
+    public Model getSource() {
+        return (Model) super.getSource();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return an unmodifiable map of old states keyed by element
+     */
+    @Override
+    public Map<Element, DiscreteState> getOldValue() {
+        return oldStates;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return an unmodifiable map of new states keyed by element
+     */
+    @Override
+    public Map<Element, DiscreteState> getNewValue() {
+        return newStates;
+    }
+
+    /**
+     * Get the elements whose state changed.
+     *
+     * @return an unmodifiable set of elements
+     */
+    public Set<Element> getElements() {
+        return newStates.keySet();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.api;
+
+/**
+ * A {@link Model} that tracks its changes with a version, so that the changes
+ * since an earlier version can be retrieved without comparing the model to a
+ * copy of itself.
+ *
+ * Models that do not track changes do not implement this interface; test for
+ * it with {@code instanceof}, and use {@link ModelDelta#between(Model, Model)}
+ * to compare copies of other models.
+ *
+ * @author rhwood
+ */
+public interface VersionedModel extends Model {
+
+    /**
+     * Get the version of the model. The version increases with every change
+     * to the membership of the model and every change to the name or state of
+     * an element in the model.
+     *
+     * @return the version
+     */
+    long getVersion();
+
+    /**
+     * Get the changes to the model since a version. The changes are
+     * coalesced, so an element added and then removed since the version is
+     * not in the delta, and an element renamed more than once is renamed once
+     * in the delta. Getting the changes takes time proportional to the number
+     * of changes since the version, not the size of the model.
+     *
+     * @param since the version, as returned by {@link #getVersion()}
+     * @return the changes
+     * @throws IllegalArgumentException if since is greater than the current
+     * version
+     * @throws IllegalStateException if the changes since the version are no
+     * longer retained; use {@link ModelDelta#between(Model, Model)} instead
+     */
+    ModelDelta getChanges(long since);
+}
@@ -17,6 +17,8 @@ package org.trainbeans.model.api;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyVetoException;
+import java.util.ArrayList;
+import java.util.List;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -81,6 +83,25 @@ abstract class AbstractDelegatingDiscreteStateElementTest<E extends AbstractDele
         assertThatThrownBy(() -> element.setName("test")).isInstanceOf(IllegalStateException.class);
     }
 
+    @Test
+    void testSetName_Events() {
+        element.setDelegate(null);
+        element.setName("test");
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        element.addPropertyChangeListener("name", events::add);
+        element.setName("renamed");
+        // listeners are notified once, after the element is renamed
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).getOldValue()).isEqualTo("test");
+        assertThat(events.get(0).getNewValue()).isEqualTo("renamed");
+        element.addVetoableChangeListener(evt -> {
+            throw new PropertyVetoException("test", evt);
+        });
+        assertThatThrownBy(() -> element.setName("vetoed")).isInstanceOf(IllegalStateException.class);
+        assertThat(events).hasSize(1);
+        assertThat(element.getName()).isEqualTo("renamed");
+    }
+
     @Test
     void testPropertyChange() {
         PropertyChangeEvent event = new PropertyChangeEvent(delegate, "foo", 1, 2);
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author rhwood
+ */
+class ElementPageTest {
+
+    @Test
+    void testConstructor() {
+        Turnout turnout = new Turnout().setName("foo");
+        List<Turnout> list = new ArrayList<>();
+        list.add(turnout);
+        ElementPage<Turnout> page = new ElementPage<>(list, "foo");
+        list.clear();
+        assertThat(page.getElements()).containsExactly(turnout);
+        assertThat(page.getNextKey()).isEqualTo("foo");
+        assertThat(page.hasNext()).isTrue();
+        assertThatCode(() -> page.getElements().clear()).isInstanceOf(UnsupportedOperationException.class);
+        assertThat(new ElementPage<>(Collections.emptyList(), null).hasNext()).isFalse();
+    }
+
+    @Test
+    void testOf() {
+        Turnout foo = new Turnout().setName("foo");
+        Turnout bar = new Turnout().setName("bar");
+        List<Turnout> list = Arrays.asList(bar, foo);
+        ElementPage<Turnout> page = ElementPage.of(list.iterator(), 1);
+        assertThat(page.getElements()).containsExactly(bar);
+        assertThat(page.getNextKey()).isEqualTo("bar");
+        page = ElementPage.of(list.iterator(), 2);
+        assertThat(page.getElements()).containsExactly(bar, foo);
+        assertThat(page.hasNext()).isFalse();
+        assertThat(ElementPage.of(Collections.<Turnout>emptyIterator(), 2).getElements()).isEmpty();
+    }
+
+    @Test
+    void testGetStart() {
+        assertThat(ElementPage.getStart(null)).isNull();
+        assertThat(ElementPage.getStart("foo")).isGreaterThan("foo").isLessThan("foo0");
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.api;
+
+import java.util.Arrays;
+import java.util.Collections;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author rhwood
+ */
+class ElementsChangeEventTest {
+
+    private ModelTest.ModelImpl model;
+    private TestElementImpl element;
+    private Turnout turnout;
+    private ElementsChangeEvent event;
+
+    @BeforeEach
+    void setUp() {
+        model = new ModelTest().new ModelImpl();
+        element = new TestElementImpl().setName("foo");
+        turnout = new Turnout();
+        turnout.setName("bar");
+        event = new ElementsChangeEvent(model, Arrays.asList(element), Arrays.asList(turnout));
+    }
+
+    @Test
+    void testGetters() {
+        assertThat(event.getPropertyName()).isEqualTo(ElementsChangeEvent.ELEMENTS);
+        assertThat(event.getSource()).isEqualTo(model);
+        assertThat(event.getNewValue()).isEqualTo(event.getAdded()).containsExactly(element);
+        assertThat(event.getOldValue()).isEqualTo(event.getRemoved()).containsExactly(turnout);
+        assertThatCode(() -> event.getAdded().clear()).isInstanceOf(UnsupportedOperationException.class);
+        assertThatCode(() -> event.getRemoved().clear()).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    void testGetAdded_Class() {
+        assertThat(event.getAdded(TestElementImpl.class)).containsExactly(element);
+        assertThat(event.getAdded(Turnout.class)).isEmpty();
+        assertThat(event.getAdded(Element.class)).containsExactly(element);
+    }
+
+    @Test
+    void testGetRemoved_Class() {
+        assertThat(event.getRemoved(TestElementImpl.class)).isEmpty();
+        assertThat(event.getRemoved(Turnout.class)).containsExactly(turnout);
+        assertThat(event.getRemoved(Element.class)).containsExactly(turnout);
+    }
+
+    @Test
+    void testGetElementClasses() {
+        assertThat(event.getElementClasses()).containsExactlyInAnyOrder(TestElementImpl.class, Turnout.class);
+        assertThat(new ElementsChangeEvent(model, Collections.emptyList(), Collections.emptyList()).getElementClasses()).isEmpty();
+    }
+
+    @Test
+    void testAffects() {
+        assertThat(event.affects(Element.class)).isTrue();
+        assertThat(event.affects(Turnout.class)).isTrue();
+        assertThat(event.affects(DiscreteStateElement.class)).isTrue();
+        event = new ElementsChangeEvent(model, Arrays.asList(element), Collections.emptyList());
+        assertThat(event.affects(TestElementImpl.class)).isTrue();
+        assertThat(event.affects(DiscreteStateElement.class)).isFalse();
+        assertThat(event.affects(Turnout.class)).isFalse();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.entry;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author rhwood
+ */
+class ModelDeltaTest {
+
+    @Test
+    void testConstructor() {
+        Turnout turnout = new Turnout().setName("foo");
+        List<Element> added = new ArrayList<>();
+        added.add(turnout);
+        Map<String, String> renamed = new HashMap<>();
+        renamed.put("bar", "baz");
+        ModelDelta delta = new ModelDelta(added, Collections.singleton("qux"), renamed,
+                Collections.singletonMap("baz", Turnout.State.THROWN));
+        // changes to the arguments are not reflected
+        added.clear();
+        renamed.clear();
+        assertThat(delta.getAdded()).containsExactly(turnout);
+        assertThat(delta.getRemoved()).containsExactly("qux");
+        assertThat(delta.getRenamed()).containsExactly(entry("bar", "baz"));
+        assertThat(delta.getStateChanges()).containsExactly(entry("baz", Turnout.State.THROWN));
+        assertThat(delta.isEmpty()).isFalse();
+        assertThatCode(() -> delta.getAdded().clear()).isInstanceOf(UnsupportedOperationException.class);
+        assertThatCode(() -> delta.getRenamed().clear()).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    void testIsEmpty() {
+        assertThat(new ModelDelta(Collections.emptyList(), Collections.emptyList(),
+                Collections.emptyMap(), Collections.emptyMap()).isEmpty()).isTrue();
+        assertThat(new ModelDelta(Collections.emptyList(), Collections.singleton("foo"),
+                Collections.emptyMap(), Collections.emptyMap()).isEmpty()).isFalse();
+    }
+}
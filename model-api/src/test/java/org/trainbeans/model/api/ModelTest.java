@@ -17,8 +17,13 @@ package org.trainbeans.model.api;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyVetoException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
@@ -65,6 +70,142 @@ class ModelTest {
         assertThat(element.getName()).isEqualTo("foo");
     }
 
+    @Test
+    void testPutAll() {
+        TestElementImpl foo = new TestElementImpl().setName("foo");
+        TestElementImpl bar = new TestElementImpl().setName("bar");
+        assertThat((Object) model.putAll(Arrays.asList(foo, bar))).isEqualTo(model);
+        assertThat(model.put).containsExactly(foo, bar);
+        model.put.clear();
+        // duplicate names in collection
+        assertThatCode(() -> model.putAll(Arrays.asList(foo, new TestElementImpl().setName("foo"))))
+                .isInstanceOf(IllegalStateException.class);
+        // name in use in model
+        model.create(TestElementImpl.class, "baz");
+        assertThatCode(() -> model.putAll(Arrays.asList(foo, new TestElementImpl().setName("baz"))))
+                .isInstanceOf(IllegalStateException.class);
+        // nothing is put if any name fails
+        assertThat(model.put).isEmpty();
+        // elements already put are removed if putting any element fails
+        assertThatCode(() -> model.putAll(Arrays.asList(foo, new TestElementImpl().setName(" "))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(model.put).isEmpty();
+    }
+
+    @Test
+    void testCreateAll() {
+        List<TestElementImpl> created = model.createAll(TestElementImpl.class, Arrays.asList("foo", "bar"), null);
+        assertThat(created).extracting(Element::getName).containsExactly("foo", "bar");
+        assertThat(model.getAll(TestElementImpl.class)).containsExactlyInAnyOrderElementsOf(created);
+        // duplicate names in collection
+        assertThatCode(() -> model.createAll(TestElementImpl.class, Arrays.asList("baz", "baz"), null))
+                .isInstanceOf(IllegalStateException.class);
+        // name in use in model
+        assertThatCode(() -> model.createAll(TestElementImpl.class, Arrays.asList("baz", "foo"), null))
+                .isInstanceOf(IllegalStateException.class);
+        // nothing is created if any name fails
+        assertThat(model.getAll(TestElementImpl.class)).hasSize(2);
+        // elements already created are removed if creating any element fails
+        assertThatCode(() -> model.createAll(TestElementImpl.class, Arrays.asList("baz", " "), null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(model.getAll(TestElementImpl.class)).hasSize(2);
+        // no factory for type
+        assertThatCode(() -> model.createAll(Element.class, Arrays.asList("baz"), null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testGetRange() {
+        TestElementImpl foo = model.create(TestElementImpl.class, "foo");
+        TestElementImpl bar = model.create(TestElementImpl.class, "bar");
+        TestElementImpl baz = model.create(TestElementImpl.class, "baz");
+        assertThat(model.getRange(TestElementImpl.class, "bar", "foo")).containsExactly(bar, baz);
+        assertThat(model.getRange(TestElementImpl.class, "baz", null)).containsExactly(baz, foo);
+        assertThat(model.getRange(TestElementImpl.class, null, "baz")).containsExactly(bar);
+        assertThat(model.getRange(TestElementImpl.class, null, null)).containsExactly(bar, baz, foo);
+        assertThat(model.getRange(TestElementImpl.class, "qux", "quz")).isEmpty();
+        assertThatCode(() -> model.getRange(TestElementImpl.class, "foo", "bar"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testGetByPrefix() {
+        TestElementImpl foo = model.create(TestElementImpl.class, "foo");
+        TestElementImpl bar = model.create(TestElementImpl.class, "bar");
+        TestElementImpl baz = model.create(TestElementImpl.class, "baz");
+        TestElementImpl max = model.create(TestElementImpl.class, "b" + Character.MAX_VALUE);
+        assertThat(model.getByPrefix(TestElementImpl.class, "ba")).containsExactly(bar, baz);
+        assertThat(model.getByPrefix(TestElementImpl.class, "b")).containsExactly(bar, baz, max);
+        assertThat(model.getByPrefix(TestElementImpl.class, "b" + Character.MAX_VALUE)).containsExactly(max);
+        assertThat(model.getByPrefix(TestElementImpl.class, "")).containsExactly(bar, baz, max, foo);
+        assertThat(model.getByPrefix(TestElementImpl.class, "qux")).isEmpty();
+    }
+
+    @Test
+    void testGetByState() {
+        Turnout foo = new Turnout().setName("foo");
+        Turnout bar = new Turnout().setName("bar");
+        Turnout baz = new Turnout().setName("baz");
+        foo.setState(Turnout.State.THROWN);
+        baz.setState(Turnout.State.THROWN);
+        model.elements.addAll(Arrays.asList(foo, bar, baz));
+        assertThat(model.getByState(Turnout.class, Turnout.State.THROWN)).containsExactly(baz, foo);
+        assertThat(model.getByState(Turnout.class, Turnout.State.UNKNOWN)).containsExactly(bar);
+        assertThat(model.getByState(Turnout.class, Turnout.State.CLOSED)).isEmpty();
+        assertThat(model.countByState(Turnout.class, Turnout.State.THROWN)).isEqualTo(2);
+        assertThat(model.countByState(Turnout.class, Turnout.State.CLOSED)).isZero();
+    }
+
+    @Test
+    void testGetPage() {
+        TestElementImpl foo = model.create(TestElementImpl.class, "foo");
+        TestElementImpl bar = model.create(TestElementImpl.class, "bar");
+        TestElementImpl baz = model.create(TestElementImpl.class, "baz");
+        ElementPage<TestElementImpl> page = model.getPage(TestElementImpl.class, null, 2);
+        assertThat(page.getElements()).containsExactly(bar, baz);
+        page = model.getPage(TestElementImpl.class, page.getNextKey(), 2);
+        assertThat(page.getElements()).containsExactly(foo);
+        assertThat(page.hasNext()).isFalse();
+        assertThatCode(() -> model.getPage(TestElementImpl.class, null, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testStream() {
+        TestElementImpl foo = model.create(TestElementImpl.class, "foo");
+        TestElementImpl bar = model.create(TestElementImpl.class, "bar");
+        model.create(TestElementImpl.class, "baz");
+        assertThat(model.stream(TestElementImpl.class, element -> !element.getName().equals("baz")))
+                .containsExactly(bar, foo);
+    }
+
+    @Test
+    void testApplyStates() {
+        Turnout turnout = new Turnout().setName("foo");
+        model.elements.add(turnout);
+        TestElementImpl element = model.create(TestElementImpl.class, "bar");
+        // elements without state are rejected before any state is set
+        Map<Element, DiscreteState> states = new LinkedHashMap<>();
+        states.put(turnout, Turnout.State.THROWN);
+        states.put(element, Turnout.State.THROWN);
+        assertThatCode(() -> model.applyStates(states)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(turnout.getState()).isNotEqualTo(Turnout.State.THROWN);
+        // elements not in the model are rejected
+        assertThatCode(() -> model.applyStates(Collections.singletonMap(new Turnout().setName("foo"), Turnout.State.THROWN)))
+                .isInstanceOf(IllegalArgumentException.class);
+        model.applyStates(Collections.singletonMap(turnout, Turnout.State.THROWN));
+        assertThat(turnout.getState()).isEqualTo(Turnout.State.THROWN);
+    }
+
+    @Test
+    void testBatch() {
+        // default runs changes immediately
+        model.batch(() -> model.create(TestElementImpl.class, "foo"));
+        assertThat(model.get(TestElementImpl.class, "foo")).isNotNull();
+        assertThatCode(() -> model.batch(() -> {
+            throw new IllegalStateException();
+        })).isInstanceOf(IllegalStateException.class);
+    }
+
     @Test
     void testVetoableChange() {
         // test the vetoableChange throws if PropertyChangeEvent has property
@@ -101,6 +242,7 @@ class ModelTest {
 
         Lookup last = Lookup.EMPTY;
         Set<Element> elements = new HashSet<>();
+        List<Element> put = new ArrayList<>();
         ElementFactoryImpl factory = new ElementFactoryImpl();
         
         @Override
@@ -108,6 +250,9 @@ class ModelTest {
             last = lookup;
             // do not use factory in test model
             if (TestElementImpl.class.equals(type)) {
+                if (name != null && name.trim().isEmpty()) {
+                    throw new IllegalArgumentException();
+                }
                 TestElementImpl impl = factory.create(name, lookup);
                 elements.add(impl);
                 return (T) impl;
@@ -142,13 +287,18 @@ class ModelTest {
 
         @Override
         public <T extends Element, M extends Model> M put(T element) {
-            // no effect
+            // only record
+            if (element.getName().trim().isEmpty()) {
+                throw new IllegalArgumentException();
+            }
+            put.add(element);
             return (M) getSelf();
         }
 
         @Override
         public <T extends Element, M extends Model> M remove(T element) {
-            // no effect
+            elements.remove(element);
+            put.remove(element);
             return (M) getSelf();
         }
 
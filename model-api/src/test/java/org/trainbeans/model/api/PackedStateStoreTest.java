@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ *
+ * @author rhwood
+ */
+class PackedStateStoreTest {
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testAllocateAndFree(boolean direct) {
+        PackedStateStore<Turnout.State> store = new PackedStateStore<>(Turnout.State.values(), 1, direct);
+        assertThat(store.isDirect()).isEqualTo(direct);
+        assertThat(store.size()).isZero();
+        int slot1 = store.allocate();
+        // initial capacity is rounded up to a whole page
+        int slot2 = store.allocate();
+        assertThat(slot1).isNotEqualTo(slot2);
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.get(slot1)).isNull();
+        store.set(slot2, Turnout.State.THROWN);
+        store.free(slot2);
+        assertThat(store.size()).isEqualTo(1);
+        // freed slots are reused with a null state
+        assertThat(store.allocate()).isEqualTo(slot2);
+        assertThat(store.get(slot2)).isNull();
+        assertThatCode(() -> store.free(2)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatCode(() -> store.get(-1)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatCode(() -> store.set(2, null)).isInstanceOf(IndexOutOfBoundsException.class);
+        // freed slots cannot be freed or set again
+        store.free(slot1);
+        assertThat(store.get(slot1)).isNull();
+        assertThatCode(() -> store.free(slot1)).isInstanceOf(IllegalStateException.class);
+        assertThatCode(() -> store.set(slot1, Turnout.State.THROWN)).isInstanceOf(IllegalStateException.class);
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.count(null)).isEqualTo(1);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testConcurrentSetAndAllocate(boolean direct) throws Exception {
+        PackedStateStore<Turnout.State> store = new PackedStateStore<>(Turnout.State.values(), 0, direct);
+        int[] slots = new int[1000];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = store.allocate();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < 3; t++) {
+                int offset = t;
+                writers.add(executor.submit(() -> {
+                    for (int round = 0; round < 100; round++) {
+                        Turnout.State state = Turnout.State.values()[round % Turnout.State.values().length];
+                        for (int i = offset; i < slots.length; i += 3) {
+                            store.set(slots[i], state);
+                        }
+                    }
+                }));
+            }
+            // growing the store while other slots are set loses no writes
+            Future<?> allocator = executor.submit(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    store.allocate();
+                }
+            });
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+            allocator.get();
+        } finally {
+            executor.shutdown();
+        }
+        Turnout.State last = Turnout.State.values()[99 % Turnout.State.values().length];
+        for (int slot : slots) {
+            assertThat(store.get(slot)).isEqualTo(last);
+        }
+        assertThat(store.count(last)).isEqualTo(slots.length);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testGetAndSet(boolean direct) {
+        PackedStateStore<Turnout.State> store = new PackedStateStore<>(Turnout.State.values(), 0, direct);
+        int slot = store.allocate();
+        for (Turnout.State state : Turnout.State.values()) {
+            store.set(slot, state);
+            assertThat(store.get(slot)).isEqualTo(state);
+        }
+        store.set(slot, null);
+        assertThat(store.get(slot)).isNull();
+        // grow with contents, across pages
+        store.set(slot, Turnout.State.CLOSED);
+        int last = slot;
+        for (int i = 0; i < 10000; i++) {
+            last = store.allocate();
+            store.set(last, Turnout.State.THROWN);
+        }
+        assertThat(store.get(slot)).isEqualTo(Turnout.State.CLOSED);
+        assertThat(store.get(last)).isEqualTo(Turnout.State.THROWN);
+        assertThat(store.count(Turnout.State.THROWN)).isEqualTo(10000);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testCount(boolean direct) {
+        PackedStateStore<Turnout.State> store = new PackedStateStore<>(Turnout.State.values(), 0, direct);
+        for (int i = 0; i < 10; i++) {
+            store.set(store.allocate(), i % 2 == 0 ? Turnout.State.THROWN : Turnout.State.CLOSED);
+        }
+        int slot = store.allocate();
+        assertThat(store.count(Turnout.State.THROWN)).isEqualTo(5);
+        assertThat(store.count(Turnout.State.CLOSED)).isEqualTo(5);
+        assertThat(store.count(Turnout.State.UNKNOWN)).isZero();
+        assertThat(store.count(null)).isEqualTo(1);
+        store.free(slot);
+        store.free(0);
+        assertThat(store.count(null)).isZero();
+        assertThat(store.count(Turnout.State.THROWN)).isEqualTo(4);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testAccepts(boolean direct) {
+        // states need not be in ordinal order
+        PackedStateStore<Turnout.State> store = new PackedStateStore<>(new Turnout.State[]{Turnout.State.THROWN, Turnout.State.CLOSED}, 0, direct);
+        assertThat(store.accepts(Turnout.State.THROWN)).isTrue();
+        assertThat(store.accepts(Turnout.State.CLOSED)).isTrue();
+        assertThat(store.accepts(Turnout.State.UNKNOWN)).isFalse();
+        assertThat(store.accepts(null)).isTrue();
+        int slot = store.allocate();
+        store.set(slot, Turnout.State.CLOSED);
+        assertThat(store.get(slot)).isEqualTo(Turnout.State.CLOSED);
+        assertThat(store.count(Turnout.State.UNKNOWN)).isZero();
+        assertThatCode(() -> store.set(slot, Turnout.State.UNKNOWN)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void testConstructor(boolean direct) {
+        assertThatCode(() -> new PackedStateStore<>(new DiscreteState[255], 0, direct)).isInstanceOf(IllegalArgumentException.class);
+        assertThatCode(() -> new PackedStateStore<>(Turnout.State.values(), -1, direct)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
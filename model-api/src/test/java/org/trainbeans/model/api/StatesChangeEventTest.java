@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.api;
+
+import java.util.HashMap;
+import java.util.Map;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.entry;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author rhwood
+ */
+class StatesChangeEventTest {
+
+    @Test
+    void testConstructor() {
+        ModelTest.ModelImpl model = new ModelTest().new ModelImpl();
+        Turnout turnout = new Turnout().setName("foo");
+        Map<Turnout, Turnout.State> oldStates = new HashMap<>();
+        oldStates.put(turnout, Turnout.State.CLOSED);
+        Map<Turnout, Turnout.State> newStates = new HashMap<>();
+        newStates.put(turnout, Turnout.State.THROWN);
+        StatesChangeEvent event = new StatesChangeEvent(model, oldStates, newStates);
+        // changes to the arguments are not reflected
+        oldStates.clear();
+        newStates.clear();
+        assertThat(event.getSource()).isEqualTo(model);
+        assertThat(event.getPropertyName()).isEqualTo(StatesChangeEvent.STATES);
+        assertThat(event.getOldValue()).containsExactly(entry(turnout, Turnout.State.CLOSED));
+        assertThat(event.getNewValue()).containsExactly(entry(turnout, Turnout.State.THROWN));
+        assertThat(event.getElements()).containsExactly(turnout);
+        assertThatCode(() -> event.getNewValue().clear()).isInstanceOf(UnsupportedOperationException.class);
+    }
+}
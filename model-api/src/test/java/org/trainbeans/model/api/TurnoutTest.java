@@ -16,6 +16,7 @@
 package org.trainbeans.model.api;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -91,6 +92,57 @@ class TurnoutTest extends AbstractDelegatingDiscreteStateElementTest<Turnout, Tu
         assertThat(lastEvent.getNewValue()).isEqualTo(Turnout.State.THROWN);
     }
 
+    @Test
+    void testRestoreState() {
+        // without a delegate, the same as setting the state
+        element.restoreState(Turnout.State.CLOSED);
+        assertThat(element.getState()).isEqualTo(Turnout.State.CLOSED);
+        assertThat(lastEvent.getNewValue()).isEqualTo(Turnout.State.CLOSED);
+        // with a delegate, the delegate is not asked to change
+        element.setDelegate(delegate);
+        lastEvent = null;
+        element.restoreState(Turnout.State.THROWN);
+        assertThat(element.getNonDelegatedState()).isEqualTo(Turnout.State.THROWN);
+        assertThat(delegate.getRequestedState()).isEqualTo(Turnout.State.UNKNOWN);
+        assertThat(lastEvent).isNull();
+    }
+
+    @Test
+    void testSetStateStore() {
+        PackedStateStore<Turnout.State> store = new PackedStateStore<>(Turnout.State.values());
+        element.setState(Turnout.State.CLOSED);
+        element.setStateStore(store);
+        assertThat(element.getStateStore()).isEqualTo(store);
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(element.getState()).isEqualTo(Turnout.State.CLOSED);
+        assertThat(store.count(Turnout.State.CLOSED)).isEqualTo(1);
+        // state is set in the store
+        lastEvent = null;
+        element.setState(Turnout.State.THROWN);
+        assertThat(lastEvent.getOldValue()).isEqualTo(Turnout.State.CLOSED);
+        assertThat(lastEvent.getNewValue()).isEqualTo(Turnout.State.THROWN);
+        assertThat(store.count(Turnout.State.THROWN)).isEqualTo(1);
+        assertThat(store.count(Turnout.State.CLOSED)).isZero();
+        assertThat(element.getRequestedState()).isEqualTo(Turnout.State.THROWN);
+        // moving to another store frees the slot
+        PackedStateStore<Turnout.State> other = new PackedStateStore<>(Turnout.State.values(), 0, true);
+        element.setStateStore(other);
+        assertThat(store.size()).isZero();
+        assertThat(other.count(Turnout.State.THROWN)).isEqualTo(1);
+        assertThat(element.getState()).isEqualTo(Turnout.State.THROWN);
+        // unbinding keeps the state
+        element.setStateStore(null);
+        assertThat(other.size()).isZero();
+        assertThat(element.getStateStore()).isNull();
+        assertThat(element.getState()).isEqualTo(Turnout.State.THROWN);
+        element.setStateStore(null);
+        assertThat(element.getStateStore()).isNull();
+        // store that cannot hold the state
+        PackedStateStore<Turnout.State> closed = new PackedStateStore<>(new Turnout.State[]{Turnout.State.CLOSED});
+        assertThatCode(() -> element.setStateStore(closed)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(element.getStateStore()).isNull();
+    }
+
     private static class TestTurnoutDelegate extends AbstractDiscreteStateDelegate<Turnout.State, Turnout> implements TurnoutDelegate {
 
         TestTurnoutDelegate() {
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+/**
+ * The policy for the cache of sets of elements by requested type kept by a
+ * {@link DefaultModel}. Place a policy in the lookup used to create the model
+ * to use it; without one, the cache is unbounded.
+ *
+ * A cache can hold at most a maximum number of types, evicting the least
+ * recently used type to make room, and can hold its sets through soft
+ * references, so that the garbage collector can evict sets when memory is
+ * low. An evicted set is rebuilt the next time its type is requested.
+ *
+ * @author rhwood
+ */
+public final class CachePolicy {
+
+    /**
+     * The maximum number of types cached.
+     */
+    private final int maximum;
+    /**
+     * True if cached sets are softly referenced.
+     */
+    private final boolean soft;
+
+    /**
+     * Create a policy.
+     *
+     * @param maximumTypes the maximum number of types cached
+     * @param softReferences true if cached sets are softly referenced
+     */
+    private CachePolicy(final int maximumTypes, final boolean softReferences) {
+        maximum = maximumTypes;
+        soft = softReferences;
+    }
+
+    /**
+     * Get a policy that caches every requested type until the model is
+     * discarded.
+     *
+     * @return the policy
+     */
+    public static CachePolicy unbounded() {
+        return new CachePolicy(Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Get a policy that caches at most a number of types, evicting the least
+     * recently requested type when another type is cached.
+     *
+     * @param maximumTypes the maximum number of types cached
+     * @return the policy
+     * @throws IllegalArgumentException if maximumTypes is less than 1
+     */
+    public static CachePolicy leastRecentlyUsed(final int maximumTypes) {
+        if (maximumTypes < 1) {
+            throw new IllegalArgumentException();
+        }
+        return new CachePolicy(maximumTypes, false);
+    }
+
+    /**
+     * Get a policy that caches every requested type through soft references,
+     * so that the garbage collector can evict cached sets when memory is low.
+     *
+     * @return the policy
+     */
+    public static CachePolicy softReferences() {
+        return new CachePolicy(Integer.MAX_VALUE, true);
+    }
+
+    /**
+     * Get a policy that caches at most a number of types through soft
+     * references, evicting the least recently requested type when another
+     * type is cached.
+     *
+     * @param maximumTypes the maximum number of types cached
+     * @return the policy
+     * @throws IllegalArgumentException if maximumTypes is less than 1
+     */
+    public static CachePolicy softReferences(final int maximumTypes) {
+        if (maximumTypes < 1) {
+            throw new IllegalArgumentException();
+        }
+        return new CachePolicy(maximumTypes, true);
+    }
+
+    /**
+     * Get the maximum number of types cached.
+     *
+     * @return the maximum or {@link Integer#MAX_VALUE} if unbounded
+     */
+    public int getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * Test if cached sets are softly referenced.
+     *
+     * @return true if the garbage collector can evict cached sets
+     */
+    public boolean isSoft() {
+        return soft;
+    }
+}
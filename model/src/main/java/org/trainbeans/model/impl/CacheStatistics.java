@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+/**
+ * An immutable snapshot of the counters of the cache of sets of elements by
+ * requested type kept by a {@link DefaultModel}. Counters accumulate from the
+ * creation of the model, so the effect of a workload is the difference
+ * between the statistics taken before and after it.
+ *
+ * @author rhwood
+ */
+public final class CacheStatistics {
+
+    /**
+     * The number of requests answered from the cache.
+     */
+    private final long hits;
+    /**
+     * The number of requests for a type not in the cache.
+     */
+    private final long misses;
+    /**
+     * The number of sets built and added to the cache.
+     */
+    private final long rebuilds;
+    /**
+     * The total time spent building sets, in nanoseconds.
+     */
+    private final long rebuildNanos;
+    /**
+     * The number of sets evicted from the cache.
+     */
+    private final long evictions;
+    /**
+     * The number of types in the cache.
+     */
+    private final int size;
+
+    /**
+     * Create statistics.
+     *
+     * @param hitCount the number of requests answered from the cache
+     * @param missCount the number of requests for a type not in the cache
+     * @param rebuildCount the number of sets built
+     * @param rebuildTime the total time spent building sets, in nanoseconds
+     * @param evictionCount the number of sets evicted
+     * @param types the number of types in the cache
+     */
+    CacheStatistics(final long hitCount, final long missCount,
+            final long rebuildCount, final long rebuildTime,
+            final long evictionCount, final int types) {
+        hits = hitCount;
+        misses = missCount;
+        rebuilds = rebuildCount;
+        rebuildNanos = rebuildTime;
+        evictions = evictionCount;
+        size = types;
+    }
+
+    /**
+     * Get the number of requests answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Get the number of requests for a type not in the cache. Some misses are
+     * answered from the index of the model without building a set.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Get the fraction of requests answered from the cache.
+     *
+     * @return the hit rate, or 1 if there were no requests
+     */
+    public double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 1 : (double) hits / requests;
+    }
+
+    /**
+     * Get the number of sets built and added to the cache.
+     *
+     * @return the number of rebuilds
+     */
+    public long getRebuildCount() {
+        return rebuilds;
+    }
+
+    /**
+     * Get the total time spent building sets.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getRebuildNanos() {
+        return rebuildNanos;
+    }
+
+    /**
+     * Get the number of sets evicted from the cache by its policy or by the
+     * garbage collector.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Get the number of types in the cache when these statistics were taken.
+     * This may include types whose sets have been collected but not yet
+     * evicted.
+     *
+     * @return the number of types
+     */
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{hits=" + hits + ", misses=" + misses
+                + ", rebuilds=" + rebuilds + ", rebuildNanos=" + rebuildNanos
+                + ", evictions=" + evictions + ", size=" + size + "}";
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.trainbeans.model.api.DiscreteState;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.ModelDelta;
+
+/**
+ * A log of the changes to a model, each stamped with the version of the model
+ * after the change. Only the most recent changes are retained.
+ *
+ * @author rhwood
+ */
+final class ChangeLog {
+
+    /**
+     * The default number of changes retained.
+     */
+    static final int DEFAULT_CAPACITY = 0x10000;
+    /**
+     * The maximum number of changes retained.
+     */
+    private final int capacity;
+    /**
+     * The retained changes, oldest first.
+     */
+    private final List<Change> changes = new ArrayList<>();
+    /**
+     * The current version.
+     */
+    private long version;
+
+    /**
+     * Create a log retaining the default number of changes.
+     */
+    ChangeLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a log.
+     *
+     * @param maximum the maximum number of changes to retain
+     */
+    ChangeLog(final int maximum) {
+        capacity = maximum;
+    }
+
+    /**
+     * Get the current version.
+     *
+     * @return the version
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Record an added element.
+     *
+     * @param element the element
+     */
+    void added(final Element element) {
+        add(new Change(Kind.ADDED, element, element.getName(), null, null,
+                null));
+    }
+
+    /**
+     * Record a removed element.
+     *
+     * @param element the element
+     * @param name the name of element when removed
+     */
+    void removed(final Element element, final String name) {
+        add(new Change(Kind.REMOVED, element, name, null, null, null));
+    }
+
+    /**
+     * Record a renamed element.
+     *
+     * @param element the element
+     * @param oldName the old name
+     * @param newName the new name
+     */
+    void renamed(final Element element, final String oldName,
+            final String newName) {
+        add(new Change(Kind.RENAMED, element, newName, oldName, null, null));
+    }
+
+    /**
+     * Record a change in the state of an element.
+     *
+     * @param element the element
+     * @param name the name of the element
+     * @param oldState the old state
+     * @param newState the new state
+     */
+    void stateChanged(final Element element, final String name,
+            final DiscreteState oldState, final DiscreteState newState) {
+        add(new Change(Kind.STATE, element, name, null, oldState,
+                newState));
+    }
+
+    /**
+     * Get the coalesced changes since a version, in time proportional to the
+     * number of changes since the version.
+     *
+     * @param since the version
+     * @return the changes
+     * @throws IllegalArgumentException if since is greater than the current
+     * version
+     * @throws IllegalStateException if changes since are no longer retained
+     */
+    ModelDelta since(final long since) {
+        if (since > version) {
+            throw new IllegalArgumentException();
+        }
+        long oldest = version - changes.size();
+        if (since < oldest) {
+            throw new IllegalStateException();
+        }
+        Map<Element, Summary> summaries = new LinkedHashMap<>();
+        for (Change change : changes.subList((int) (since - oldest),
+                changes.size())) {
+            Summary summary = summaries.computeIfAbsent(change.element,
+                    e -> new Summary(change));
+            summary.apply(change);
+        }
+        List<Element> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        Map<String, String> renamed = new LinkedHashMap<>();
+        Map<String, DiscreteState> states = new LinkedHashMap<>();
+        summaries.forEach((element, summary) -> {
+            if (summary.existed && !summary.exists) {
+                removed.add(summary.originalName);
+            } else if (!summary.existed && summary.exists) {
+                added.add(element);
+            } else if (summary.existed) {
+                if (!summary.originalName.equals(summary.name)) {
+                    renamed.put(summary.originalName, summary.name);
+                }
+                if (summary.stateChanged && !Objects.equals(
+                        summary.originalState, summary.state)) {
+                    states.put(summary.name, summary.state);
+                }
+            }
+        });
+        return new ModelDelta(added, removed, renamed, states);
+    }
+
+    /**
+     * Record a change, discarding the oldest half of the retained changes if
+     * more than the maximum are retained.
+     *
+     * @param change the change
+     */
+    private void add(final Change change) {
+        version++;
+        changes.add(change);
+        if (changes.size() > capacity) {
+            changes.subList(0, changes.size() / 2).clear();
+        }
+    }
+
+    /**
+     * The kinds of change to an element.
+     */
+    private enum Kind {
+        /**
+         * The element was added.
+         */
+        ADDED,
+        /**
+         * The element was removed.
+         */
+        REMOVED,
+        /**
+         * The element was renamed.
+         */
+        RENAMED,
+        /**
+         * The state of the element changed.
+         */
+        STATE
+    }
+
+    /**
+     * A change to an element.
+     */
+    private static final class Change {
+
+        /**
+         * The kind of change.
+         */
+        private final Kind kind;
+        /**
+         * The element.
+         */
+        private final Element element;
+        /**
+         * The name of the element after the change.
+         */
+        private final String name;
+        /**
+         * The name of the element before the change if renamed; null
+         * otherwise.
+         */
+        private final String oldName;
+        /**
+         * The state of the element before the change if the state changed.
+         */
+        private final DiscreteState oldState;
+        /**
+         * The state of the element after the change if the state changed.
+         */
+        private final DiscreteState newState;
+
+        /**
+         * Create a change.
+         *
+         * @param changeKind the kind of change
+         * @param changed the element
+         * @param newName the name after the change
+         * @param previousName the name before the change or null
+         * @param previousState the state before the change
+         * @param state the state after the change
+         */
+        Change(final Kind changeKind, final Element changed,
+                final String newName, final String previousName,
+                final DiscreteState previousState, final DiscreteState state) {
+            kind = changeKind;
+            element = changed;
+            name = newName;
+            oldName = previousName;
+            oldState = previousState;
+            newState = state;
+        }
+    }
+
+    /**
+     * The net effect of all changes to an element since a version.
+     */
+    private static final class Summary {
+
+        /**
+         * True if the element was in the model at the version.
+         */
+        private final boolean existed;
+        /**
+         * The name of the element at the version.
+         */
+        private final String originalName;
+        /**
+         * True if the element is in the model now.
+         */
+        private boolean exists;
+        /**
+         * The current name of the element.
+         */
+        private String name;
+        /**
+         * True if the state of the element changed.
+         */
+        private boolean stateChanged;
+        /**
+         * The state of the element at the version, if the state changed.
+         */
+        private DiscreteState originalState;
+        /**
+         * The current state of the element, if the state changed.
+         */
+        private DiscreteState state;
+
+        /**
+         * Create a summary starting from the first change to an element.
+         *
+         * @param first the first change
+         */
+        Summary(final Change first) {
+            existed = first.kind != Kind.ADDED;
+            originalName = first.oldName != null ? first.oldName : first.name;
+            exists = existed;
+        }
+
+        /**
+         * Apply a change to the summary.
+         *
+         * @param change the change
+         */
+        void apply(final Change change) {
+            if (change.kind == Kind.STATE) {
+                if (!stateChanged) {
+                    stateChanged = true;
+                    originalState = change.oldState;
+                }
+                state = change.newState;
+            } else if (change.kind != Kind.RENAMED) {
+                exists = change.kind == Kind.ADDED;
+            }
+            name = change.name;
+        }
+    }
+}
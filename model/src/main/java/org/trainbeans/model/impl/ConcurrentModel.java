@@ -0,0 +1,551 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyVetoException;
+import java.beans.VetoableChangeListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.StreamSupport;
+import org.openide.util.Lookup;
+import org.trainbeans.beans.Bean;
+import org.trainbeans.beans.SynchronousPropertyChangeListener;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.ElementPage;
+import org.trainbeans.model.api.ElementsChangeEvent;
+import org.trainbeans.model.api.Model;
+import org.trainbeans.model.spi.ElementFactory;
+
+/**
+ * A thread-safe implementation of a Model.
+ *
+ * Lookups with {@link #get(Class, String)} never block. Changes to the
+ * membership of the model are serialized per name using striped locks, so
+ * changes to elements with different names rarely contend. Creating, putting,
+ * and removing an element take effect atomically. Renaming an element takes
+ * effect when the new name is reserved as the rename is checked for vetoes;
+ * from then until the rename completes, the element can be found by both its
+ * old and new names, but is never absent from the model. Concurrent renames
+ * of the same element are vetoed while a rename is in progress.
+ *
+ * Listeners are notified of each element put or removed with an
+ * {@link ElementsChangeEvent}; batches of changes are not coalesced.
+ *
+ * @author rhwood
+ */
+public final class ConcurrentModel extends Bean implements Model,
+        SynchronousPropertyChangeListener, VetoableChangeListener {
+
+    /**
+     * Number of locks used to serialize changes to names; must be a power of
+     * two.
+     */
+    private static final int STRIPES = 64;
+    /**
+     * Number of times {@link #getRange(Class, String, String)} reads the
+     * index while it keeps changing before returning a weakly consistent
+     * result.
+     */
+    private static final int OPTIMISTIC_READS = 2;
+    /**
+     * Map of factories to be used to create elements, keyed by the Class the
+     * factory can create. This is not modified after construction.
+     */
+    @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+    private final Map<Class<? extends Element>, ElementFactory<? extends Element>> factories;
+    /**
+     * Map of elements, keyed by name.
+     */
+    private final ConcurrentNavigableMap<String, Element> elements
+            = new ConcurrentSkipListMap<>();
+    /**
+     * Index of elements keyed by name for each concrete class of element in
+     * the model.
+     */
+    @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+    private final ConcurrentMap<Class<? extends Element>, ConcurrentNavigableMap<String, Element>> index
+            = new ConcurrentHashMap<>();
+    /**
+     * The names of the elements in the model, and the names reserved by
+     * elements being renamed. While reserved, the element is indexed under
+     * both its old and new names.
+     */
+    private final Names names;
+    /**
+     * Locks serializing changes to the elements with a name, selected by the
+     * hash of the name.
+     */
+    private final Object[] locks = new Object[STRIPES];
+    /**
+     * The snapshot returned by {@link #getAll(Class)} for each requested type,
+     * valid while the version of the type is unchanged.
+     */
+    private final ConcurrentMap<Class<?>, CachedSet> snapshots
+            = new ConcurrentHashMap<>();
+    /**
+     * The number of changes to the names of the elements of each concrete
+     * class in the model; incremented after every change takes effect, so a
+     * change to elements of one class does not invalidate snapshots of
+     * unrelated classes.
+     */
+    @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+    private final ConcurrentMap<Class<? extends Element>, AtomicLong> versions
+            = new ConcurrentHashMap<>();
+
+    /**
+     * Create a model.
+     *
+     * @param lookup the container with the
+     * {@link ElementFactory ElementFactories} to use to create {@link Element}s
+     */
+    public ConcurrentModel(final Lookup lookup) {
+        @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+        Map<Class<? extends Element>, ElementFactory<? extends Element>> map
+                = new HashMap<>();
+        lookup.lookupAll(ElementFactory.class)
+                .forEach(factory
+                        -> map.put(factory.getElementClass(), factory));
+        factories = Collections.unmodifiableMap(map);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        names = new Names();
+    }
+
+    @Override
+    public <T extends Element> T create(final Class<T> type,
+            final String name,
+            final Lookup lookup) {
+        if (name != null && elements.containsKey(name)) {
+            throw new IllegalStateException();
+        }
+        if (factories.get(type) == null) {
+            throw new IllegalArgumentException();
+        }
+        T element = (T) factories.get(type).create(name, lookup);
+        put(element);
+        return element;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The returned set is read as by
+     * {@link #getRange(Class, String, String)}, and is not changed by later
+     * changes to the model. The set is cached until elements of type next
+     * change, so repeated calls without intervening changes to elements of
+     * type return the same set without rebuilding it.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Element> Set<T> getAll(final Class<T> type) {
+        long current = getVersion(type);
+        CachedSet cached = snapshots.get(type);
+        if (cached != null && cached.modification == current) {
+            return (Set<T>) cached.set;
+        }
+        Set<T> set = getRange(type, null, null);
+        snapshots.put(type, new CachedSet(current, set));
+        return set;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The returned set is not changed by later changes to the model. The
+     * index is read without locking, and read again if elements of type
+     * changed while it was read. If elements of type are not changed while
+     * the index is read, the set is a snapshot of the model. Otherwise the
+     * set is weakly consistent: it contains every element of type that was
+     * neither renamed nor removed while the index was read, contains no
+     * element twice, and may or may not contain elements that were added,
+     * removed, or renamed while the index was read. Reading never blocks
+     * changes to the model.
+     */
+    @Override
+    public <T extends Element> Set<T> getRange(final Class<T> type,
+            final String from, final String to) {
+        if (from != null && to != null && from.compareTo(to) > 0) {
+            throw new IllegalArgumentException();
+        }
+        Set<T> set = null;
+        for (int i = 0; i < OPTIMISTIC_READS; i++) {
+            long before = getVersion(type);
+            set = readRange(type, from, to);
+            if (getVersion(type) == before) {
+                break;
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Read a range of the index. If the model changes while the index is
+     * read, the result may not match the model at any one time.
+     *
+     * @param <T> the type of element
+     * @param type the type of element
+     * @param from the first name, inclusive; null for the first element
+     * @param to the last name, exclusive; null for the last element
+     * @return the elements in the range
+     */
+    private <T extends Element> Set<T> readRange(final Class<T> type,
+            final String from, final String to) {
+        ElementSet<T> set = new ElementSet<>();
+        // elements being renamed are indexed under two names
+        Set<Element> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        index.forEach((clazz, map) -> {
+            if (type.isAssignableFrom(clazz)) {
+                SortedMaps.subMap(map, from, to).forEach((name, element) -> {
+                    if (seen.add(element)) {
+                        set.index(name, (T) element);
+                    }
+                });
+            }
+        });
+        return set.snapshot();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The page is read directly from the index of the model in time
+     * proportional to size. Elements added or removed while the page is read
+     * may or may not be in the page.
+     */
+    @Override
+    public <T extends Element> ElementPage<T> getPage(final Class<T> type,
+            final String after, final int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException();
+        }
+        List<SortedMap<String, T>> maps = new ArrayList<>();
+        index.forEach((clazz, map) -> {
+            if (type.isAssignableFrom(clazz)) {
+                maps.add(SortedMaps.subMap((SortedMap<String, T>) map,
+                        ElementPage.getStart(after), null));
+            }
+        });
+        // elements being renamed are indexed under two names
+        Set<Element> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        return ElementPage.of(StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(SortedMaps.merge(maps),
+                        Spliterator.ORDERED), false)
+                .filter(seen::add)
+                .iterator(), size);
+    }
+
+    @Override
+    public <T extends Element> T get(final Class<T> type, final String name) {
+        Element element = elements.get(name);
+        if (type.isInstance(element)) {
+            return (T) element;
+        }
+        return null;
+    }
+
+    @Override
+    public <T extends Element> T getOrCreate(final Class<T> type,
+            final String name,
+            final Lookup lookup) {
+        T element = get(type, name);
+        if (element != null) {
+            return element;
+        }
+        try {
+            return create(type, name, lookup);
+        } catch (IllegalStateException ex) {
+            // possibly created by another thread since checked
+            element = get(type, name);
+            if (element == null) {
+                throw ex;
+            }
+            return element;
+        }
+    }
+
+    @Override
+    public ConcurrentModel put(final Element element) {
+        if (!names.add(element)) {
+            throw new IllegalStateException();
+        }
+        fireElementsChange(Collections.singletonList(element),
+                Collections.emptyList());
+        return getSelf();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The locks for all the names are held while the names are checked and
+     * the elements put, so other threads see either none or all of the
+     * elements. Listeners are notified of the addition with a single
+     * {@link ElementsChangeEvent}.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <M extends Model> M putAll(
+            final Collection<? extends Element> added) {
+        if (!names.addAll(added)) {
+            throw new IllegalStateException();
+        }
+        if (!added.isEmpty()) {
+            fireElementsChange(new ArrayList<>(added),
+                    Collections.emptyList());
+        }
+        return (M) getSelf();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Every element is created before any is put into the model with
+     * {@link #putAll(Collection)}.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Element> List<T> createAll(final Class<T> type,
+            final Collection<String> newNames, final Lookup lookup) {
+        ElementFactory<? extends Element> factory = factories.get(type);
+        if (factory == null) {
+            throw new IllegalArgumentException();
+        }
+        List<T> created = new ArrayList<>(newNames.size());
+        newNames.forEach(name -> created.add((T) factory.create(name,
+                lookup)));
+        putAll(created);
+        return created;
+    }
+
+    @Override
+    public ConcurrentModel remove(final Element element) {
+        if (element != null && names.remove(element)) {
+            fireElementsChange(Collections.emptyList(),
+                    Collections.singletonList(element));
+        }
+        return getSelf();
+    }
+
+    @Override
+    public Set<Class<? extends Element>> getCreatableClasses() {
+        return factories.keySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Reserves the new name for the renamed element if no other element has
+     * that name, or releases a reserved name if the rename was vetoed by
+     * another listener. A rename is also vetoed if another rename of the same
+     * element is in progress.
+     */
+    @Override
+    public void vetoableChange(final PropertyChangeEvent evt)
+            throws PropertyVetoException {
+        names.reserve(evt);
+    }
+
+    @Override
+    public void propertyChange(final PropertyChangeEvent evt) {
+        names.commit(evt);
+    }
+
+    @Override
+    public ConcurrentModel getSelf() {
+        return this;
+    }
+
+    /**
+     * Notify listeners of added and removed elements. Listeners are notified
+     * on the thread that changed the model, after the change has taken effect,
+     * and without holding any lock.
+     *
+     * @param added the added elements
+     * @param removed the removed elements
+     */
+    private void fireElementsChange(final List<? extends Element> added,
+            final List<? extends Element> removed) {
+        if (hasListeners(ElementsChangeEvent.ELEMENTS)) {
+            firePropertyChange(new ElementsChangeEvent(this, added, removed));
+        }
+    }
+
+    /**
+     * Get the index for a concrete class of element, creating it if needed.
+     *
+     * @param clazz the concrete class
+     * @return the index of elements of clazz keyed by name
+     */
+    private ConcurrentNavigableMap<String, Element> getIndex(
+            final Class<? extends Element> clazz) {
+        return index.computeIfAbsent(clazz,
+                c -> new ConcurrentSkipListMap<>());
+    }
+
+    /**
+     * Remove the mapping of a name to an element, if it exists. The caller
+     * must hold the lock for the name.
+     *
+     * @param name the name
+     * @param element the element
+     */
+    private void unindex(final String name, final Element element) {
+        if (elements.remove(name, element)) {
+            getIndex(element.getClass()).remove(name, element);
+        }
+    }
+
+    /**
+     * Get the index of the lock serializing changes to a name. When holding
+     * two locks, the lock with the lower index must be acquired first.
+     *
+     * @param name the name
+     * @return the index of the lock
+     */
+    private int getStripe(final String name) {
+        int hash = name.hashCode();
+        return (hash ^ (hash >>> Short.SIZE)) & (STRIPES - 1);
+    }
+
+    /**
+     * Get the version of the elements of a type, which increases whenever a
+     * change to the name of an element of type takes effect.
+     *
+     * @param type the type of element
+     * @return the sum of the versions of the concrete classes of type
+     */
+    private long getVersion(final Class<?> type) {
+        long version = 0;
+        for (Map.Entry<Class<? extends Element>, AtomicLong> entry
+                : versions.entrySet()) {
+            if (type.isAssignableFrom(entry.getKey())) {
+                version += entry.getValue().get();
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Note that a change to the name of an element of a concrete class took
+     * effect.
+     *
+     * @param clazz the concrete class
+     */
+    private void modified(final Class<? extends Element> clazz) {
+        versions.computeIfAbsent(clazz, c -> new AtomicLong())
+                .incrementAndGet();
+    }
+
+    /**
+     * A snapshot cached by {@link #getAll(Class)}.
+     */
+    private static final class CachedSet {
+
+        /**
+         * The version of the type when the snapshot was taken.
+         */
+        private final long modification;
+        /**
+         * The snapshot.
+         */
+        private final Set<?> set;
+
+        /**
+         * Create a cached snapshot.
+         *
+         * @param taken the version of the type when taken
+         * @param snapshot the snapshot
+         */
+        CachedSet(final long taken, final Set<?> snapshot) {
+            modification = taken;
+            set = snapshot;
+        }
+    }
+
+    /**
+     * The names of the elements in this model, indexing elements in the maps
+     * of this model.
+     */
+    private final class Names extends ReservedNames {
+
+        /**
+         * Create the names of this model.
+         */
+        Names() {
+            super(locks, ConcurrentModel.this, ConcurrentModel.this);
+        }
+
+        @Override
+        int getLock(final String name) {
+            return getStripe(name);
+        }
+
+        @Override
+        boolean isIndexed(final String name) {
+            return elements.containsKey(name);
+        }
+
+        @Override
+        void added(final String name, final Element element) {
+            elements.put(name, element);
+            getIndex(element.getClass()).put(name, element);
+            modified(element.getClass());
+        }
+
+        @Override
+        void removed(final String name, final String reserved,
+                final Element element) {
+            unindex(name, element);
+            unindex(reserved, element);
+            modified(element.getClass());
+        }
+
+        @Override
+        void reserved(final String name, final Element element) {
+            elements.put(name, element);
+            getIndex(element.getClass()).put(name, element);
+            modified(element.getClass());
+        }
+
+        @Override
+        void released(final String name, final Element element) {
+            unindex(name, element);
+            modified(element.getClass());
+        }
+
+        @Override
+        void renamed(final String oldName, final String newName,
+                final Element element) {
+            unindex(oldName, element);
+            modified(element.getClass());
+        }
+    }
+}
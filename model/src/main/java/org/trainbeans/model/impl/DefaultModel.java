@@ -16,27 +16,59 @@
 package org.trainbeans.model.impl;
 
 import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
 import java.beans.VetoableChangeListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.openide.util.Lookup;
 import org.trainbeans.beans.Bean;
+import org.trainbeans.beans.SynchronousPropertyChangeListener;
+import org.trainbeans.beans.EnumPropertyChangeListener;
+import org.trainbeans.model.api.AbstractDelegatingDiscreteStateElement;
+import org.trainbeans.model.api.DiscreteState;
+import org.trainbeans.model.api.DiscreteStateElement;
 import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.ElementPage;
+import org.trainbeans.model.api.ElementsChangeEvent;
+import org.trainbeans.model.api.HandleModel;
 import org.trainbeans.model.api.Model;
+import org.trainbeans.model.api.ModelDelta;
+import org.trainbeans.model.api.PackedStateStore;
+import org.trainbeans.model.api.StatesChangeEvent;
+import org.trainbeans.model.api.VersionedModel;
 import org.trainbeans.model.spi.ElementFactory;
 
 /**
  * The default implementation of a Model.
  *
+ * The state index is updated lazily: a change in the state of an element
+ * only records the handle of the element, and changed elements are reindexed
+ * the next time the state index or the change log is queried. The model
+ * listens to elements that are {@link Bean}s with an
+ * {@link EnumPropertyChangeListener}, so setting a state, by handle or
+ * otherwise, creates no event unless something else listens to the element.
+ *
  * @author rhwood
  */
-public final class DefaultModel extends Bean implements Model,
-        PropertyChangeListener, VetoableChangeListener {
+public final class DefaultModel extends Bean implements HandleModel,
+        VersionedModel, SynchronousPropertyChangeListener,
+        VetoableChangeListener, EnumPropertyChangeListener {
 
     /**
      * Map of factories to be used to create elements, keyed by the Class the
@@ -51,22 +83,93 @@ public final class DefaultModel extends Bean implements Model,
     // TODO should I use a BidiSortedMap from Apache Commons Collections here?
     private final SortedMap<String, Element> elements = new TreeMap<>();
     /**
-     * Cache of sets of all elements by requested interface. All caches are
-     * invalidated by adding or removing an element.
+     * Index of elements keyed by name for each concrete class of element in
+     * the model.
+     */
+    @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+    private final Map<Class<? extends Element>, SortedMap<String, Element>> index
+            = new HashMap<>();
+    /**
+     * The concrete classes in the index that are assignable to a requested
+     * type. Each entry is computed the first time a type is requested and is
+     * extended as new concrete classes are added to the index.
+     */
+    @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+    private final Map<Class<? extends Element>, Set<Class<? extends Element>>> assignable
+            = new HashMap<>();
+    /**
+     * Cache of sets of all elements by requested interface. Adding, removing,
+     * or renaming an element updates only the cached sets for the interfaces
+     * the element implements. {@link #getAll(Class)} returns snapshots of
+     * these sets.
+     */
+    private final TypeCache cache;
+    /**
+     * Index of elements keyed by name for each state of each concrete class of
+     * {@link DiscreteStateElement} in the model. Elements with a null state are
+     * not indexed.
      */
-    private final Map<Class<? extends Element>, Set<? extends Element>> cache
+    @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+    private final Map<Class<? extends Element>, Map<DiscreteState, ElementSet<Element>>> stateIndex
             = new HashMap<>();
+    /**
+     * The state each element in the state index is indexed under.
+     */
+    private final Map<Element, DiscreteState> indexedStates = new HashMap<>();
+    /**
+     * Elements added during the current batch that were not removed during
+     * the batch.
+     */
+    private final Set<Element> batchAdded = new LinkedHashSet<>();
+    /**
+     * Elements removed during the current batch that were not added during
+     * the batch.
+     */
+    private final Set<Element> batchRemoved = new LinkedHashSet<>();
+    /**
+     * Depth of nested batches in progress.
+     */
+    private int batchDepth;
+    /**
+     * Handles for the elements in this model.
+     */
+    private final ElementHandles handles = new ElementHandles();
+    /**
+     * Stores owned by this model holding the states of elements in the model.
+     */
+    private final List<PackedStateStore<?>> stores = new ArrayList<>();
+    /**
+     * The recent changes to this model.
+     */
+    private final ChangeLog changeLog = new ChangeLog();
+    /**
+     * The states being applied by {@link #applyStates(Map)}; null if none.
+     */
+    private volatile Map<? extends Element, ?> applying;
 
     /**
-     * Create a model.
+     * Create a model. If the lookup contains any {@link PackedStateStore}s,
+     * the state of each {@link AbstractDelegatingDiscreteStateElement} put in
+     * the model is moved into the first store that can hold it, and moved back
+     * into the element when it is removed from the model. If the lookup
+     * contains a {@link CachePolicy}, the sets of elements by requested type
+     * are cached according to that policy; otherwise every requested type is
+     * cached.
      *
      * @param lookup the container with the
-     * {@link ElementFactory ElementFactories} to use to create {@link Element}s
+     * {@link ElementFactory ElementFactories} to use to create
+     * {@link Element}s, any PackedStateStores to hold the states of elements,
+     * and any CachePolicy
      */
     public DefaultModel(final Lookup lookup) {
         lookup.lookupAll(ElementFactory.class)
                 .forEach(factory
                         -> factories.put(factory.getElementClass(), factory));
+        lookup.lookupAll(PackedStateStore.class).forEach(stores::add);
+        CachePolicy policy = lookup.lookup(CachePolicy.class);
+        cache = new TypeCache(policy != null
+                ? policy
+                : CachePolicy.unbounded());
     }
 
     @Override
@@ -84,20 +187,131 @@ public final class DefaultModel extends Bean implements Model,
         return element;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The returned set is an immutable snapshot of the model when this method
+     * is called, and is not changed by later changes to the model. Repeated
+     * calls without intervening changes to matching elements return the same
+     * snapshot.
+     */
     @Override
     public <T extends Element> Set<T> getAll(final Class<T> type) {
-        if (cache.containsKey(type)) {
-            return (Set<T>) cache.get(type);
+        ElementSet<Element> cached = cache.get(type);
+        if (cached != null) {
+            return (Set<T>) (Set<?>) cached.snapshot();
         } else {
-            Set<T> set = new TreeSet<>();
-            elements.values().stream()
-                    .filter(type::isInstance)
-                    .forEach(e -> set.add((T) e));
-            cache.put(type, set);
-            return set;
+            long start = System.nanoTime();
+            ElementSet<T> set = null;
+            for (Class<? extends Element> clazz : getAssignable(type)) {
+                SortedMap<String, T> map
+                        = (SortedMap<String, T>) index.get(clazz);
+                if (set == null) {
+                    set = new ElementSet<>(map);
+                } else {
+                    set.indexAll(map);
+                }
+            }
+            if (set == null) {
+                set = new ElementSet<>();
+            }
+            ElementSnapshot<T> snapshot = set.snapshot();
+            cache.put(type, (ElementSet<Element>) set,
+                    System.nanoTime() - start);
+            return snapshot;
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * This runs in time logarithmic to the size of the model plus linear to
+     * the size of the range. Unlike {@link #getAll(Class)}, this does not
+     * cache the elements of type.
+     */
+    @Override
+    public <T extends Element> Set<T> getRange(final Class<T> type,
+            final String from, final String to) {
+        if (from != null && to != null && from.compareTo(to) > 0) {
+            throw new IllegalArgumentException();
+        }
+        ElementSet<Element> cached = cache.get(type);
+        if (cached != null) {
+            return (Set<T>) (Set<?>) cached.range(from, to);
+        }
+        SortedMap<String, T> range = Collections.emptySortedMap();
+        boolean merged = false;
+        for (Class<? extends Element> clazz : getAssignable(type)) {
+            SortedMap<String, T> map = SortedMaps.subMap(
+                    (SortedMap<String, T>) index.get(clazz), from, to);
+            if (range.isEmpty()) {
+                range = map;
+            } else if (!map.isEmpty()) {
+                if (!merged) {
+                    range = new TreeMap<>(range);
+                    merged = true;
+                }
+                range.putAll(map);
+            }
+        }
+        return new ElementSnapshot<>(range);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The page is read directly from the index of the model in time
+     * proportional to size, without copying or caching the elements after
+     * the page.
+     */
+    @Override
+    public <T extends Element> ElementPage<T> getPage(final Class<T> type,
+            final String after, final int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException();
+        }
+        List<SortedMap<String, T>> maps = new ArrayList<>();
+        for (Class<? extends Element> clazz : getAssignable(type)) {
+            maps.add(SortedMaps.subMap((SortedMap<String, T>) index.get(clazz),
+                    ElementPage.getStart(after), null));
+        }
+        return ElementPage.of(SortedMaps.merge(maps), size);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The stream is evaluated lazily over the index of the model, so the
+     * elements are neither copied nor cached. The stream of elements of a
+     * single concrete class splits efficiently for parallel evaluation; the
+     * streams of several classes are merged in sequence. The model must not
+     * change while the stream is in use.
+     */
+    @Override
+    public <T extends Element> Stream<T> stream(final Class<T> type,
+            final Predicate<? super T> filter) {
+        List<SortedMap<String, Element>> maps = new ArrayList<>();
+        for (Class<? extends Element> clazz : getAssignable(type)) {
+            SortedMap<String, Element> map = index.get(clazz);
+            if (!map.isEmpty()) {
+                maps.add(map);
+            }
+        }
+        Spliterator<Element> spliterator;
+        if (maps.isEmpty()) {
+            return Stream.empty();
+        } else if (maps.size() == 1) {
+            spliterator = maps.get(0).values().spliterator();
+        } else {
+            spliterator = Spliterators.spliteratorUnknownSize(
+                    SortedMaps.merge(maps), Spliterator.ORDERED
+                    | Spliterator.DISTINCT | Spliterator.NONNULL);
+        }
+        return StreamSupport.stream(spliterator, false)
+                .map(type::cast)
+                .filter(filter);
+    }
+
     @Override
     public <T extends Element> T get(final Class<T> type, final String name) {
         Element element = elements.get(name);
@@ -120,22 +334,135 @@ public final class DefaultModel extends Bean implements Model,
         if (elements.containsKey(element.getName())) {
             throw new IllegalStateException();
         }
-        element.addVetoableChangeListener("name", this);
-        element.addPropertyChangeListener("name", this);
+        listen(element);
         elements.put(element.getName(), element);
-        cache.clear();
+        getIndex(element.getClass()).put(element.getName(), element);
+        updateCache(element, set -> set.index(element.getName(), element));
+        indexState(element);
+        fireElementsChange(Collections.singletonList(element),
+                Collections.emptyList());
         return getSelf();
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Listeners are notified of the addition with a single
+     * {@link ElementsChangeEvent}.
+     */
+    @Override
+    public <M extends Model> M putAll(
+            final Collection<? extends Element> added) {
+        SortedMap<String, Element> batch = new TreeMap<>();
+        for (Element element : added) {
+            if (elements.containsKey(element.getName())
+                    || batch.put(element.getName(), element) != null) {
+                throw new IllegalStateException();
+            }
+        }
+        if (batch.isEmpty()) {
+            return (M) getSelf();
+        }
+        @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+        Map<Class<? extends Element>, SortedMap<String, Element>> byClass
+                = new HashMap<>();
+        batch.forEach((name, element) -> {
+            listen(element);
+            byClass.computeIfAbsent(element.getClass(), c -> new TreeMap<>())
+                    .put(name, element);
+        });
+        elements.putAll(batch);
+        byClass.forEach((clazz, map) -> {
+            getIndex(clazz).putAll(map);
+            cache.forEach((type, set) -> {
+                if (type.isAssignableFrom(clazz)) {
+                    set.indexAll(map);
+                }
+            });
+        });
+        batch.values().forEach(this::indexState);
+        fireElementsChange(added, Collections.emptyList());
+        return (M) getSelf();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Listeners are notified of the addition with a single
+     * {@link ElementsChangeEvent}.
+     */
+    @Override
+    public <T extends Element> List<T> createAll(final Class<T> type,
+            final Collection<String> names,
+            final Lookup lookup) {
+        ElementFactory<? extends Element> factory = factories.get(type);
+        if (factory == null) {
+            throw new IllegalArgumentException();
+        }
+        List<T> created = new ArrayList<>(names.size());
+        names.forEach(name -> created.add((T) factory.create(name, lookup)));
+        putAll(created);
+        return created;
+    }
+
     @Override
     public DefaultModel remove(final Element element) {
-        elements.remove(element.getName());
-        element.removeVetoableChangeListener("name", this);
-        element.removePropertyChangeListener("name", this);
-        cache.clear();
+        if (elements.remove(element.getName(), element)) {
+            index.get(element.getClass()).remove(element.getName());
+            updateCache(element, set -> set.unindex(element.getName()));
+            unindexState(element);
+            fireElementsChange(Collections.emptyList(),
+                    Collections.singletonList(element));
+        }
+        unlisten(element);
         return getSelf();
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * An element added and then removed, or removed and then put back, during
+     * the batch is not included in the event notifying listeners of the
+     * batch.
+     */
+    @Override
+    public void batch(final Runnable changes) {
+        batchDepth++;
+        try {
+            changes.run();
+        } finally {
+            batchDepth--;
+            if (batchDepth == 0
+                    && (!batchAdded.isEmpty() || !batchRemoved.isEmpty())) {
+                ElementsChangeEvent event = new ElementsChangeEvent(this,
+                        batchAdded, batchRemoved);
+                batchAdded.clear();
+                batchRemoved.clear();
+                firePropertyChange(event);
+            }
+        }
+    }
+
+    @Override
+    public int getHandle(final Element element) {
+        return handles.getHandle(element);
+    }
+
+    @Override
+    public Element getElement(final int handle) {
+        return handles.getElement(handle);
+    }
+
+    @Override
+    public int getState(final int handle) {
+        return handles.getState(handle);
+    }
+
+    @Override
+    public void setState(final int handle, final int ordinal) {
+        handles.setState(handle, ordinal);
+    }
+
     @Override
     public Set<Class<? extends Element>> getCreatableClasses() {
         return factories.keySet();
@@ -144,12 +471,436 @@ public final class DefaultModel extends Bean implements Model,
     @Override
     public void propertyChange(final PropertyChangeEvent evt) {
         if (evt.getPropertyName().equals("name")) {
-            Element element = elements.get(evt.getOldValue().toString());
-            elements.remove(evt.getOldValue().toString());
-            elements.put(element.getName(), element);
+            if (evt.getOldValue() != null) {
+                rename((Element) evt.getSource(),
+                        evt.getOldValue().toString());
+            }
+        } else if (evt.getPropertyName().equals("state")
+                || evt.getPropertyName().equals("delegate")) {
+            // a new delegate may have a different state
+            stateChanged((Element) evt.getSource());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Records that the state of an element changed, without reindexing it.
+     */
+    @Override
+    public void enumPropertyChange(final Object source,
+            final String propertyName, final int oldOrdinal,
+            final int newOrdinal) {
+        stateChanged((Element) source);
+    }
+
+    /**
+     * Record that the state of an element changed so it is reindexed before
+     * the state index or change log are next used.
+     *
+     * @param element the element
+     */
+    private void stateChanged(final Element element) {
+        Map<? extends Element, ?> pending = applying;
+        // states being applied in parallel are reindexed when all are set
+        if (pending == null || !pending.containsKey(element)) {
+            handles.changed(element);
         }
     }
 
+    /**
+     * Reindex every element whose state changed since the state index was
+     * last used.
+     */
+    private void reindexChangedStates() {
+        handles.drainChanged(this::reindexState);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * States are set in parallel on the common
+     * {@link java.util.concurrent.ForkJoinPool}; elements sharing a delegate
+     * are set in sequence on one thread, which is the calling thread if the
+     * delegate is shared with elements not in states, so changes reaching
+     * other elements in the model are only recorded on the calling thread.
+     * The model is reindexed on the calling thread once every state is set,
+     * and listeners to the model are notified of all changed states with a
+     * single {@link StatesChangeEvent}.
+     */
+    @Override
+    public void applyStates(
+            final Map<? extends Element, ? extends DiscreteState> states) {
+        states.keySet().forEach(element -> {
+            if (!(element instanceof DiscreteStateElement)
+                    || elements.get(element.getName()) != element) {
+                throw new IllegalArgumentException();
+            }
+        });
+        reindexChangedStates();
+        applying = states;
+        try {
+            ParallelStates.apply(states);
+        } finally {
+            applying = null;
+            Map<Element, DiscreteState> oldStates = new LinkedHashMap<>();
+            Map<Element, DiscreteState> newStates = new LinkedHashMap<>();
+            states.keySet().forEach(element -> {
+                DiscreteState oldState = indexedStates.get(element);
+                if (reindexState(element)) {
+                    oldStates.put(element, oldState);
+                    newStates.put(element, indexedStates.get(element));
+                }
+            });
+            if (!newStates.isEmpty()
+                    && hasListeners(StatesChangeEvent.STATES)) {
+                firePropertyChange(
+                        new StatesChangeEvent(this, oldStates, newStates));
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The returned set is a snapshot of the model when this method is called.
+     * If type has one concrete class in the model, repeated calls without
+     * intervening changes to the elements in state return the same snapshot.
+     */
+    @Override
+    public <S extends DiscreteState, T extends DiscreteStateElement<S>> Set<T>
+            getByState(final Class<T> type, final S state) {
+        reindexChangedStates();
+        List<ElementSet<T>> sets = new ArrayList<>();
+        for (Class<? extends Element> clazz : getAssignable(type)) {
+            ElementSet<T> set = (ElementSet<T>) (ElementSet<?>) stateIndex
+                    .getOrDefault(clazz, Collections.emptyMap()).get(state);
+            if (set != null && !set.isEmpty()) {
+                sets.add(set);
+            }
+        }
+        if (sets.size() == 1) {
+            return sets.get(0).snapshot();
+        }
+        SortedMap<String, T> merged = new TreeMap<>();
+        sets.forEach(set -> merged.putAll(set.asMap()));
+        return new ElementSnapshot<>(merged);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This runs in time linear to the number of concrete classes of type in
+     * the model.
+     */
+    @Override
+    public <S extends DiscreteState, T extends DiscreteStateElement<S>> int
+            countByState(final Class<T> type, final S state) {
+        reindexChangedStates();
+        int count = 0;
+        for (Class<? extends Element> clazz : getAssignable(type)) {
+            ElementSet<Element> set = stateIndex
+                    .getOrDefault(clazz, Collections.emptyMap()).get(state);
+            if (set != null) {
+                count += set.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Listen to an element for changes that require it to be reindexed.
+     *
+     * @param element the element
+     */
+    private void listen(final Element element) {
+        handles.assign(element);
+        bindStateStore(element);
+        element.addVetoableChangeListener("name", this);
+        element.addPropertyChangeListener("name", this);
+        if (element instanceof DiscreteStateElement) {
+            if (element instanceof Bean) {
+                ((Bean) element).addEnumPropertyChangeListener("state", this);
+            } else {
+                element.addPropertyChangeListener("state", this);
+            }
+            element.addPropertyChangeListener("delegate", this);
+        }
+    }
+
+    /**
+     * Stop listening to an element.
+     *
+     * @param element the element
+     */
+    private void unlisten(final Element element) {
+        handles.release(element);
+        unbindStateStore(element);
+        element.removeVetoableChangeListener("name", this);
+        element.removePropertyChangeListener("name", this);
+        element.removePropertyChangeListener("state", this);
+        if (element instanceof Bean) {
+            ((Bean) element).removeEnumPropertyChangeListener("state", this);
+        }
+        element.removePropertyChangeListener("delegate", this);
+    }
+
+    /**
+     * Move the state of an element into the first store owned by this model
+     * that can hold it. The state of an element with a null state or an
+     * element already bound to a store is not moved.
+     *
+     * @param element the element
+     */
+    private void bindStateStore(final Element element) {
+        if (!stores.isEmpty()
+                && element instanceof AbstractDelegatingDiscreteStateElement) {
+            AbstractDelegatingDiscreteStateElement<?, ?, ?> bindable
+                    = (AbstractDelegatingDiscreteStateElement<?, ?, ?>) element;
+            DiscreteState state = bindable.getState();
+            if (state != null && bindable.getStateStore() == null) {
+                stores.stream()
+                        .filter(store -> store.accepts(state))
+                        .findFirst()
+                        .ifPresent(store -> bindable.setStateStore(
+                                (PackedStateStore) store));
+            }
+        }
+    }
+
+    /**
+     * Move the state of an element out of any store owned by this model back
+     * into the element.
+     *
+     * @param element the element
+     */
+    private void unbindStateStore(final Element element) {
+        if (element instanceof AbstractDelegatingDiscreteStateElement) {
+            AbstractDelegatingDiscreteStateElement<?, ?, ?> bindable
+                    = (AbstractDelegatingDiscreteStateElement<?, ?, ?>) element;
+            if (bindable.getStateStore() != null
+                    && stores.contains(bindable.getStateStore())) {
+                bindable.setStateStore(null);
+            }
+        }
+    }
+
+    /**
+     * Move an element to the state index for its current state, recording
+     * the change, if its state changed.
+     *
+     * @param element the element
+     * @return true if the state changed; false otherwise
+     */
+    private boolean reindexState(final Element element) {
+        DiscreteState oldState = indexedStates.get(element);
+        DiscreteState newState = getState(element);
+        if (Objects.equals(oldState, newState)) {
+            return false;
+        }
+        changeLog.stateChanged(element, element.getName(), oldState,
+                newState);
+        unindexState(element);
+        indexState(element);
+        return true;
+    }
+
+    /**
+     * Add an element to the state index if it has a state.
+     *
+     * @param element the element
+     */
+    private void indexState(final Element element) {
+        DiscreteState state = getState(element);
+        if (state != null) {
+            indexedStates.put(element, state);
+            getStateSet(element, state).index(element.getName(), element);
+        }
+    }
+
+    /**
+     * Remove an element from the state index if it is in the state index.
+     *
+     * @param element the element
+     */
+    private void unindexState(final Element element) {
+        DiscreteState state = indexedStates.remove(element);
+        if (state != null) {
+            getStateSet(element, state).unindex(element.getName());
+        }
+    }
+
+    /**
+     * Get the set of elements with the same concrete class as an element that
+     * are in a state, creating it if needed.
+     *
+     * @param element the element
+     * @param state the state
+     * @return the set of elements
+     */
+    private ElementSet<Element> getStateSet(final Element element,
+            final DiscreteState state) {
+        return stateIndex
+                .computeIfAbsent(element.getClass(), c -> new HashMap<>())
+                .computeIfAbsent(state, s -> new ElementSet<>());
+    }
+
+    /**
+     * Get the state of an element.
+     *
+     * @param element the element
+     * @return the state or null if element is not a DiscreteStateElement
+     */
+    private static DiscreteState getState(final Element element) {
+        if (element instanceof DiscreteStateElement) {
+            return ((DiscreteStateElement<?>) element).getState();
+        }
+        return null;
+    }
+
+    /**
+     * Notify listeners of added and removed elements, or record the changes
+     * if a batch is in progress.
+     *
+     * @param added the added elements
+     * @param removed the removed elements
+     */
+    private void fireElementsChange(final Collection<? extends Element> added,
+            final Collection<? extends Element> removed) {
+        added.forEach(changeLog::added);
+        removed.forEach(element -> changeLog.removed(element,
+                element.getName()));
+        if (batchDepth > 0) {
+            added.forEach(element -> {
+                if (!batchRemoved.remove(element)) {
+                    batchAdded.add(element);
+                }
+            });
+            removed.forEach(element -> {
+                if (!batchAdded.remove(element)) {
+                    batchRemoved.add(element);
+                }
+            });
+        } else if (hasListeners(ElementsChangeEvent.ELEMENTS)) {
+            firePropertyChange(new ElementsChangeEvent(this, added, removed));
+        }
+    }
+
+    /**
+     * Move a renamed element from its old name to its current name in every
+     * index containing it. This is done in a single pass, and does nothing if
+     * the element is not indexed under the old name or already has the old
+     * name.
+     *
+     * @param element the renamed element
+     * @param oldName the name element is indexed under
+     */
+    private void rename(final Element element, final String oldName) {
+        String newName = element.getName();
+        if (elements.get(oldName) != element || oldName.equals(newName)) {
+            return;
+        }
+        changeLog.renamed(element, oldName, newName);
+        elements.remove(oldName);
+        elements.put(newName, element);
+        SortedMap<String, Element> map = index.get(element.getClass());
+        map.remove(oldName);
+        map.put(newName, element);
+        updateCache(element, set -> {
+            set.unindex(oldName);
+            set.index(newName, element);
+        });
+        DiscreteState state = indexedStates.get(element);
+        if (state != null) {
+            ElementSet<Element> set = getStateSet(element, state);
+            set.unindex(oldName);
+            set.index(newName, element);
+        }
+    }
+
+    /**
+     * Apply an update to every cached set for a type the element is an
+     * instance of.
+     *
+     * @param element the element
+     * @param update the update to apply
+     */
+    private void updateCache(final Element element,
+            final Consumer<ElementSet<Element>> update) {
+        cache.forEach((type, set) -> {
+            if (type.isInstance(element)) {
+                update.accept(set);
+            }
+        });
+    }
+
+    /**
+     * Get the index for a concrete class of element, creating it and adding
+     * the class to every matching set of assignable classes if needed.
+     *
+     * @param clazz the concrete class
+     * @return the index of elements of clazz keyed by name
+     */
+    private SortedMap<String, Element> getIndex(
+            final Class<? extends Element> clazz) {
+        return index.computeIfAbsent(clazz, c -> {
+            assignable.forEach((type, classes) -> {
+                if (type.isAssignableFrom(c)) {
+                    classes.add(c);
+                }
+            });
+            return new TreeMap<>();
+        });
+    }
+
+    /**
+     * Get the concrete classes in the index that are assignable to a type.
+     *
+     * @param type the requested type
+     * @return the set of assignable concrete classes
+     */
+    private Set<Class<? extends Element>> getAssignable(
+            final Class<? extends Element> type) {
+        return assignable.computeIfAbsent(type, t -> {
+            Set<Class<? extends Element>> classes = new HashSet<>();
+            index.keySet().stream()
+                    .filter(t::isAssignableFrom)
+                    .forEach(classes::add);
+            return classes;
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * At least the most recent 32768 changes are retained.
+     */
+    @Override
+    public long getVersion() {
+        reindexChangedStates();
+        return changeLog.getVersion();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * At least the most recent 32768 changes are retained.
+     */
+    @Override
+    public ModelDelta getChanges(final long since) {
+        reindexChangedStates();
+        return changeLog.since(since);
+    }
+
+    /**
+     * Get the statistics of the cache of sets of elements by requested type.
+     *
+     * @return the statistics
+     */
+    public CacheStatistics getCacheStatistics() {
+        return cache.getStatistics();
+    }
+
     @Override
     public DefaultModel getSelf() {
         return this;
@@ -164,6 +915,6 @@ public final class DefaultModel extends Bean implements Model,
      */
     // package protected for tests
     <T extends Element> Set<T> getCache(final Class<T> type) {
-        return (Set<T>) cache.get(type);
+        return (Set<T>) (Set<?>) cache.peek(type);
     }
 }
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.trainbeans.model.api.DiscreteState;
+import org.trainbeans.model.api.DiscreteStateElement;
+import org.trainbeans.model.api.Element;
+
+/**
+ * A table of dense integer handles for the elements in a model. A handle is
+ * stable while its element is in the table, and is reused after its element is
+ * released.
+ *
+ * Getting and setting the state of an element by handle is a pair of array
+ * lookups followed by a call to the element, without hashing or comparing
+ * names and without boxing the state.
+ *
+ * The table also tracks which elements have changed state since they were
+ * last reindexed, so that a model can defer reindexing until it is queried.
+ *
+ * @author rhwood
+ */
+final class ElementHandles {
+
+    /**
+     * The initial size of the table.
+     */
+    private static final int DEFAULT_CAPACITY = 64;
+    /**
+     * The element for each handle; null if the handle is free.
+     */
+    private Element[] elements = new Element[DEFAULT_CAPACITY];
+    /**
+     * The possible states for the element for each handle, in ordinal order;
+     * null if not yet known.
+     */
+    private DiscreteState[][] states = new DiscreteState[DEFAULT_CAPACITY][];
+    /**
+     * True for each handle whose element changed state since it was last
+     * reindexed.
+     */
+    private boolean[] changed = new boolean[DEFAULT_CAPACITY];
+    /**
+     * Stack of handles whose element changed state; never larger than the
+     * table, since each handle is on it at most once.
+     */
+    private int[] pending = new int[DEFAULT_CAPACITY];
+    /**
+     * The number of handles on the stack of changed handles.
+     */
+    private int pendingCount;
+    /**
+     * The handle for each element.
+     */
+    private final Map<Element, Integer> handles = new IdentityHashMap<>();
+    /**
+     * The number of handles ever assigned.
+     */
+    private int limit;
+    /**
+     * Stack of released handles that can be assigned again.
+     */
+    private int[] free = new int[0];
+    /**
+     * The number of handles on the stack of released handles.
+     */
+    private int freed;
+
+    /**
+     * Assign a handle to an element.
+     *
+     * @param element the element
+     * @return the handle, which is the existing handle if element already has
+     * one
+     */
+    int assign(final Element element) {
+        Integer existing = handles.get(element);
+        if (existing != null) {
+            return existing;
+        }
+        int handle;
+        if (freed > 0) {
+            handle = free[--freed];
+        } else {
+            handle = limit++;
+            if (handle == elements.length) {
+                elements = Arrays.copyOf(elements, handle * 2);
+                states = Arrays.copyOf(states, handle * 2);
+                changed = Arrays.copyOf(changed, handle * 2);
+                pending = Arrays.copyOf(pending, handle * 2);
+            }
+        }
+        elements[handle] = element;
+        states[handle] = getStates(element);
+        handles.put(element, handle);
+        return handle;
+    }
+
+    /**
+     * Release the handle for an element.
+     *
+     * @param element the element
+     */
+    void release(final Element element) {
+        Integer handle = handles.remove(element);
+        if (handle != null) {
+            elements[handle] = null;
+            states[handle] = null;
+            if (freed == free.length) {
+                free = Arrays.copyOf(free, Math.max(1, freed * 2));
+            }
+            free[freed++] = handle;
+        }
+    }
+
+    /**
+     * Record that the state of an element changed. This does not allocate.
+     *
+     * @param element the element
+     * @return true if element has a handle; false otherwise
+     */
+    boolean changed(final Element element) {
+        int handle = getHandle(element);
+        if (handle == -1) {
+            return false;
+        }
+        if (!changed[handle]) {
+            changed[handle] = true;
+            pending[pendingCount++] = handle;
+        }
+        return true;
+    }
+
+    /**
+     * Pass each element whose state changed since the last call to an
+     * action, once, and forget the changes.
+     *
+     * @param action the action
+     */
+    void drainChanged(final Consumer<Element> action) {
+        for (int i = 0; i < pendingCount; i++) {
+            int handle = pending[i];
+            changed[handle] = false;
+            if (elements[handle] != null) {
+                action.accept(elements[handle]);
+            }
+        }
+        pendingCount = 0;
+    }
+
+    /**
+     * Get the handle for an element.
+     *
+     * @param element the element
+     * @return the handle or -1 if element has no handle
+     */
+    int getHandle(final Element element) {
+        return handles.getOrDefault(element, -1);
+    }
+
+    /**
+     * Get the element for a handle.
+     *
+     * @param handle the handle
+     * @return the element
+     * @throws IllegalArgumentException if handle is not assigned
+     */
+    Element getElement(final int handle) {
+        if (handle < 0 || handle >= limit || elements[handle] == null) {
+            throw new IllegalArgumentException();
+        }
+        return elements[handle];
+    }
+
+    /**
+     * Get the ordinal of the state of the element for a handle.
+     *
+     * @param handle the handle
+     * @return the ordinal or -1 if the state is null or not an enum, or the
+     * element has no state
+     * @throws IllegalArgumentException if handle is not assigned
+     */
+    int getState(final int handle) {
+        Element element = getElement(handle);
+        if (!(element instanceof DiscreteStateElement)) {
+            return -1;
+        }
+        DiscreteState state = ((DiscreteStateElement<?>) element).getState();
+        if (state instanceof Enum) {
+            return ((Enum<?>) state).ordinal();
+        }
+        return -1;
+    }
+
+    /**
+     * Set the state of the element for a handle.
+     *
+     * The states of an element are the constants of the enum of its current
+     * state or, if its current state is null, of the enum its class declares
+     * as the type of state of {@link DiscreteStateElement}.
+     *
+     * @param handle the handle
+     * @param ordinal the ordinal of the state
+     * @throws IllegalArgumentException if handle is not assigned, the element
+     * has no state, the states of the element are not an enum, or ordinal is
+     * not the ordinal of a state of the element
+     */
+    void setState(final int handle, final int ordinal) {
+        Element element = getElement(handle);
+        if (!(element instanceof DiscreteStateElement)) {
+            throw new IllegalArgumentException();
+        }
+        DiscreteStateElement target = (DiscreteStateElement) element;
+        DiscreteState[] values = getStates(handle);
+        if (values == null || ordinal < 0 || ordinal >= values.length) {
+            throw new IllegalArgumentException();
+        }
+        target.setState(values[ordinal]);
+    }
+
+    /**
+     * Get the possible states of the element for a handle, recording them if
+     * not yet known.
+     *
+     * @param handle the handle
+     * @return the states or null if not known
+     */
+    private DiscreteState[] getStates(final int handle) {
+        if (states[handle] == null) {
+            states[handle] = getStates(elements[handle]);
+        }
+        return states[handle];
+    }
+
+    /**
+     * Get the possible states of an element from the class of its current
+     * state or, if it has no current state, from the type of state declared by
+     * the class of the element.
+     *
+     * @param element the element
+     * @return the constants of the enum of the state of element or null if
+     * element does not have a state that is an enum
+     */
+    private static DiscreteState[] getStates(final Element element) {
+        if (!(element instanceof DiscreteStateElement)) {
+            return null;
+        }
+        DiscreteState state = ((DiscreteStateElement<?>) element).getState();
+        Class<?> type = state instanceof Enum
+                ? ((Enum<?>) state).getDeclaringClass()
+                : getStateType(element.getClass());
+        if (type != null && type.isEnum()
+                && DiscreteState.class.isAssignableFrom(type)) {
+            return (DiscreteState[]) type.getEnumConstants();
+        }
+        return null;
+    }
+
+    /**
+     * Get the type of state a class of element declares for
+     * {@link DiscreteStateElement}, following type arguments through its
+     * superclasses and interfaces.
+     *
+     * @param clazz the class of element
+     * @return the type of state or null if clazz does not declare it as a
+     * class
+     */
+    private static Class<?> getStateType(final Class<?> clazz) {
+        return getStateType(clazz, Collections.emptyMap());
+    }
+
+    /**
+     * Get the type of state a type declares for {@link DiscreteStateElement}.
+     *
+     * @param type the type
+     * @param bindings the types bound to the type variables used in type
+     * @return the type of state or null if type does not declare it as a
+     * class
+     */
+    private static Class<?> getStateType(final Type type,
+            final Map<TypeVariable<?>, Type> bindings) {
+        Class<?> raw;
+        Map<TypeVariable<?>, Type> scope = new HashMap<>();
+        if (type instanceof Class) {
+            raw = (Class<?>) type;
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType parameterized = (ParameterizedType) type;
+            raw = (Class<?>) parameterized.getRawType();
+            TypeVariable<?>[] variables = raw.getTypeParameters();
+            Type[] arguments = parameterized.getActualTypeArguments();
+            for (int i = 0; i < variables.length; i++) {
+                scope.put(variables[i],
+                        bindings.getOrDefault(arguments[i], arguments[i]));
+            }
+        } else {
+            return null;
+        }
+        if (raw.equals(DiscreteStateElement.class)) {
+            Type bound = scope.get(raw.getTypeParameters()[0]);
+            if (bound instanceof ParameterizedType) {
+                bound = ((ParameterizedType) bound).getRawType();
+            }
+            return bound instanceof Class ? (Class<?>) bound : null;
+        }
+        List<Type> parents = new ArrayList<>();
+        if (raw.getGenericSuperclass() != null) {
+            parents.add(raw.getGenericSuperclass());
+        }
+        parents.addAll(Arrays.asList(raw.getGenericInterfaces()));
+        for (Type parent : parents) {
+            Class<?> found = getStateType(parent, scope);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+}
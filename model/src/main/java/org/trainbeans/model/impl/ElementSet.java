@@ -0,0 +1,155 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.trainbeans.model.api.Element;
+
+/**
+ * A read-only set of elements sorted by name. The set is keyed by name so that
+ * the owning model can move an element within the set when that element is
+ * renamed.
+ *
+ * An immutable {@link ElementSnapshot} of the set is built the first time it
+ * is requested after the set changes, so a series of changes costs at most one
+ * copy of the set.
+ *
+ * @author rhwood
+ * @param <T> the type of element
+ */
+final class ElementSet<T extends Element> extends AbstractSet<T> {
+
+    /**
+     * Elements in the set, keyed by name.
+     */
+    private final TreeMap<String, T> elements;
+    /**
+     * Snapshot of the current contents of this set; null if this set changed
+     * since the last snapshot was taken.
+     */
+    private volatile ElementSnapshot<T> snapshot;
+
+    /**
+     * Create an empty set.
+     */
+    ElementSet() {
+        elements = new TreeMap<>();
+    }
+
+    /**
+     * Create a set containing the elements in a sorted map. This runs in time
+     * linear to the size of the map.
+     *
+     * @param map the elements keyed by name
+     */
+    ElementSet(final SortedMap<String, ? extends T> map) {
+        elements = new TreeMap<>(map);
+    }
+
+    /**
+     * Add an element to this set.
+     *
+     * @param name the name of the element
+     * @param element the element
+     */
+    void index(final String name, final T element) {
+        elements.put(name, element);
+        snapshot = null;
+    }
+
+    /**
+     * Add all elements in a sorted map to this set.
+     *
+     * @param map the elements keyed by name
+     */
+    void indexAll(final SortedMap<String, ? extends T> map) {
+        elements.putAll(map);
+        snapshot = null;
+    }
+
+    /**
+     * Remove an element from this set.
+     *
+     * @param name the name of the element
+     */
+    void unindex(final String name) {
+        if (elements.remove(name) != null) {
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Get an immutable snapshot of the current contents of this set.
+     *
+     * @return the snapshot
+     */
+    ElementSnapshot<T> snapshot() {
+        ElementSnapshot<T> result = snapshot;
+        if (result == null) {
+            result = new ElementSnapshot<>(elements);
+            snapshot = result;
+        }
+        return result;
+    }
+
+    /**
+     * Get an immutable snapshot of the elements in this set with names in a
+     * range.
+     *
+     * @param from the lowest name in the range, inclusive; null if the range
+     * has no lower bound
+     * @param to the highest name in the range, exclusive; null if the range
+     * has no upper bound
+     * @return the snapshot
+     * @throws IllegalArgumentException if from is greater than to
+     */
+    ElementSnapshot<T> range(final String from, final String to) {
+        if (from == null && to == null) {
+            return snapshot();
+        }
+        return new ElementSnapshot<>(SortedMaps.subMap(elements, from, to));
+    }
+
+    /**
+     * Get a read-only view of this set as a map of elements keyed by name.
+     *
+     * @return the view
+     */
+    SortedMap<String, T> asMap() {
+        return Collections.unmodifiableSortedMap(elements);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return Collections.unmodifiableCollection(elements.values())
+                .iterator();
+    }
+
+    @Override
+    public int size() {
+        return elements.size();
+    }
+
+    @Override
+    public boolean contains(final Object object) {
+        return object instanceof Element
+                && elements.get(((Element) object).getName()) == object;
+    }
+}
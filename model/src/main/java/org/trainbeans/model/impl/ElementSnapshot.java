@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import org.trainbeans.model.api.Element;
+
+/**
+ * An immutable set of elements sorted by name, backed by arrays. Since it
+ * cannot change, a snapshot can be shared between threads and iterated without
+ * locking or copying.
+ *
+ * @author rhwood
+ * @param <T> the type of element
+ */
+final class ElementSnapshot<T extends Element> extends AbstractSet<T> {
+
+    /**
+     * The name of each element when the snapshot was taken, in order.
+     */
+    private final String[] names;
+    /**
+     * The elements, in the order of names.
+     */
+    private final Element[] elements;
+    /**
+     * The elements by identity, built when first needed to find an element
+     * by other than its name in the snapshot. Racing threads may each build
+     * it; any is equivalent.
+     */
+    private volatile Set<Element> identities;
+
+    /**
+     * Create a snapshot of the elements in a sorted map. This runs in time
+     * linear to the size of the map.
+     *
+     * @param map the elements keyed by name
+     */
+    ElementSnapshot(final SortedMap<String, ? extends T> map) {
+        names = new String[map.size()];
+        elements = new Element[map.size()];
+        int i = 0;
+        for (SortedMap.Entry<String, ? extends T> entry : map.entrySet()) {
+            names[i] = entry.getKey();
+            elements[i] = entry.getValue();
+            i++;
+        }
+    }
+
+    /**
+     * Get the name of an element when the snapshot was taken.
+     *
+     * @param index the position of the element in this set
+     * @return the name
+     */
+    String getName(final int index) {
+        return names[index];
+    }
+
+    /**
+     * Get an element.
+     *
+     * @param index the position of the element in this set
+     * @return the element
+     */
+    T get(final int index) {
+        return (T) elements[index];
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < elements.length;
+            }
+
+            @Override
+            public T next() {
+                if (next >= elements.length) {
+                    throw new NoSuchElementException();
+                }
+                return (T) elements[next++];
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * This runs in logarithmic time if this set contains the element and the
+     * element has not been renamed since the snapshot was taken. Otherwise
+     * the element is found by identity in constant time; the first such
+     * lookup builds the set of identities in time linear to the size of this
+     * set.
+     */
+    @Override
+    public boolean contains(final Object object) {
+        if (!(object instanceof Element)) {
+            return false;
+        }
+        String name = ((Element) object).getName();
+        if (name != null) {
+            int i = Arrays.binarySearch(names, name);
+            if (i >= 0 && elements[i] == object) {
+                return true;
+            }
+        }
+        Set<Element> set = identities;
+        if (set == null) {
+            set = Collections.newSetFromMap(
+                    new IdentityHashMap<>(elements.length));
+            set.addAll(Arrays.asList(elements));
+            identities = set;
+        }
+        return set.contains(object);
+    }
+
+    @Override
+    public Object[] toArray() {
+        return Arrays.copyOf(elements, elements.length, Object[].class);
+    }
+}
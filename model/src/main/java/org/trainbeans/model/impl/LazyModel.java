@@ -0,0 +1,776 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeListenerProxy;
+import java.beans.PropertyVetoException;
+import java.beans.VetoableChangeListener;
+import java.beans.VetoableChangeListenerProxy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.openide.util.Lookup;
+import org.openide.util.NbBundle;
+import org.trainbeans.beans.Bean;
+import org.trainbeans.beans.SynchronousPropertyChangeListener;
+import org.trainbeans.model.api.Delegate;
+import org.trainbeans.model.api.DelegatingElement;
+import org.trainbeans.model.api.DiscreteState;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.ElementsChangeEvent;
+import org.trainbeans.model.api.Model;
+import org.trainbeans.model.spi.ElementFactory;
+
+/**
+ * A Model backed by a {@link ModelSnapshot} file, that creates the elements
+ * in the snapshot only when they are first accessed.
+ *
+ * Opening the model indexes the names of the elements in the snapshot without
+ * creating any element. {@link #get(Class, String)} creates an element from
+ * the snapshot the first time it is requested, and the sets returned by
+ * {@link #getAll(Class)} and {@link #getRange(Class, String, String)} create
+ * elements only as they are iterated. An element created from the snapshot
+ * that has not changed since it was created can be evicted under memory
+ * pressure, and is created again from the snapshot when next requested. An
+ * evicted element is only weakly held, so it is not created again while
+ * anything else refers to it. Elements put into this model, elements from the
+ * snapshot that have changed, and elements from the snapshot that have a
+ * delegate or have property change or vetoable change listeners other than
+ * this model when memory pressure is detected are held until removed, since
+ * recreating them would lose their delegate or listeners.
+ *
+ * Like {@link DefaultModel}, this model is not thread-safe.
+ *
+ * @author rhwood
+ */
+public final class LazyModel extends Bean implements Model,
+        SynchronousPropertyChangeListener, VetoableChangeListener {
+
+    /**
+     * Map of factories to be used to create elements, keyed by the Class the
+     * factory can create.
+     */
+    @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+    private final Map<Class<? extends Element>, ElementFactory<? extends Element>> factories
+            = new HashMap<>();
+    /**
+     * The delegates to bind elements from the snapshot to, keyed by name.
+     */
+    private final Map<String, Delegate<?>> delegates = new HashMap<>();
+    /**
+     * The snapshot.
+     */
+    private final SnapshotStore store;
+    /**
+     * The class of elements in each section of the snapshot.
+     */
+    private final List<Class<? extends Element>> classes = new ArrayList<>();
+    /**
+     * The possible states of elements in each section of the snapshot.
+     */
+    private final List<DiscreteState[]> states = new ArrayList<>();
+    /**
+     * Elements held until removed, keyed by name.
+     */
+    private final SortedMap<String, Element> pinned = new TreeMap<>();
+    /**
+     * Unchanged elements created from the snapshot, keyed by name.
+     */
+    private final Map<String, ElementReference> loaded = new HashMap<>();
+    /**
+     * Queue of evicted elements.
+     */
+    private final ReferenceQueue<Element> evicted = new ReferenceQueue<>();
+    /**
+     * Queue of cleared {@link Pressure} references, each signalling that an
+     * unchanged element can be evicted.
+     */
+    private final ReferenceQueue<Object> pressure = new ReferenceQueue<>();
+    /**
+     * Names of elements in the snapshot that have been removed from or
+     * renamed in this model.
+     */
+    private final Set<String> removed = new HashSet<>();
+
+    /**
+     * Open a model.
+     *
+     * @param lookup the container with the
+     * {@link ElementFactory ElementFactories} to use to create {@link Element}s
+     * and the {@link Delegate}s to bind elements from the snapshot to
+     * @param path the snapshot file
+     * @throws IOException if unable to read path, path is not a snapshot, or
+     * the snapshot contains elements lookup has no factory for
+     */
+    public LazyModel(final Lookup lookup, final Path path) throws IOException {
+        lookup.lookupAll(ElementFactory.class)
+                .forEach(factory
+                        -> factories.put(factory.getElementClass(), factory));
+        lookup.lookupAll(Delegate.class)
+                .forEach(delegate -> delegates
+                .putIfAbsent(delegate.getName(), delegate));
+        store = new SnapshotStore(path);
+        Map<String, Class<? extends Element>> creatable = new HashMap<>();
+        factories.keySet().forEach(clazz -> creatable.put(clazz.getName(),
+                clazz));
+        for (int i = 0; i < store.getSectionCount(); i++) {
+            Class<? extends Element> clazz
+                    = creatable.get(store.getClassName(i));
+            if (clazz == null) {
+                throw new IOException(NbBundle.getMessage(
+                        ModelSnapshot.class, "snapshot.class",
+                        store.getClassName(i)));
+            }
+            classes.add(clazz);
+            states.add(ModelSnapshot.getStates(clazz,
+                    store.getStateClassName(i)));
+        }
+    }
+
+    @Override
+    public <T extends Element> T create(final Class<T> type,
+            final String name,
+            final Lookup lookup) {
+        if (name != null && contains(name)) {
+            throw new IllegalStateException();
+        }
+        if (factories.get(type) == null) {
+            throw new IllegalArgumentException();
+        }
+        T element = (T) factories.get(type).create(name, lookup);
+        put(element);
+        return element;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The returned set contains the elements in the model when this method is
+     * called, and creates elements from the snapshot only as it is iterated.
+     * Elements removed from the model after this method is called are
+     * skipped when iterating.
+     */
+    @Override
+    public <T extends Element> Set<T> getAll(final Class<T> type) {
+        return getRange(type, null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The returned set contains the elements in the model when this method is
+     * called, and creates elements from the snapshot only as it is iterated.
+     * Elements removed from the model after this method is called are
+     * skipped when iterating.
+     */
+    @Override
+    public <T extends Element> Set<T> getRange(final Class<T> type,
+            final String from, final String to) {
+        if (from != null && to != null && from.compareTo(to) > 0) {
+            throw new IllegalArgumentException();
+        }
+        List<String> names = new ArrayList<>();
+        Iterator<Map.Entry<String, Element>> held
+                = SortedMaps.subMap(pinned, from, to).entrySet().iterator();
+        Map.Entry<String, Element> next = held.hasNext() ? held.next() : null;
+        int end = to == null ? store.size() : store.lowerBound(to);
+        for (int i = store.lowerBound(from); i < end; i++) {
+            String name = store.getName(i);
+            while (next != null && next.getKey().compareTo(name) <= 0) {
+                if (type.isInstance(next.getValue())) {
+                    names.add(next.getKey());
+                }
+                next = held.hasNext() ? held.next() : null;
+            }
+            if (!removed.contains(name) && !pinned.containsKey(name)
+                    && type.isAssignableFrom(
+                            classes.get(store.getSection(i)))) {
+                names.add(name);
+            }
+        }
+        while (next != null) {
+            if (type.isInstance(next.getValue())) {
+                names.add(next.getKey());
+            }
+            next = held.hasNext() ? held.next() : null;
+        }
+        return new LazySet<>(type, names);
+    }
+
+    @Override
+    public <T extends Element> T get(final Class<T> type, final String name) {
+        purge();
+        Element element = pinned.get(name);
+        if (element == null) {
+            ElementReference reference = loaded.get(name);
+            element = reference != null ? reference.hold(pressure) : null;
+        }
+        if (element == null && !removed.contains(name)) {
+            int index = store.indexOf(name);
+            if (index >= 0 && type.isAssignableFrom(
+                    classes.get(store.getSection(index)))) {
+                element = load(index);
+            }
+        }
+        return type.isInstance(element) ? (T) element : null;
+    }
+
+    @Override
+    public <T extends Element> T getOrCreate(final Class<T> type,
+            final String name,
+            final Lookup lookup) {
+        T element = get(type, name);
+        if (element != null) {
+            return element;
+        }
+        return create(type, name, lookup);
+    }
+
+    @Override
+    public LazyModel put(final Element element) {
+        if (contains(element.getName())) {
+            throw new IllegalStateException();
+        }
+        listen(element);
+        pinned.put(element.getName(), element);
+        fireElementsChange(Collections.singletonList(element),
+                Collections.emptyList());
+        return getSelf();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Names are checked without creating elements from the snapshot, and
+     * listeners are notified of the addition with a single
+     * {@link ElementsChangeEvent}.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <M extends Model> M putAll(
+            final Collection<? extends Element> added) {
+        Map<String, Element> batch = new LinkedHashMap<>();
+        for (Element element : added) {
+            if (contains(element.getName())
+                    || batch.put(element.getName(), element) != null) {
+                throw new IllegalStateException();
+            }
+        }
+        if (batch.isEmpty()) {
+            return (M) getSelf();
+        }
+        batch.forEach((name, element) -> {
+            listen(element);
+            pinned.put(name, element);
+        });
+        fireElementsChange(new ArrayList<>(batch.values()),
+                Collections.emptyList());
+        return (M) getSelf();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Every element is created before any is put into the model with
+     * {@link #putAll(Collection)}.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Element> List<T> createAll(final Class<T> type,
+            final Collection<String> names, final Lookup lookup) {
+        ElementFactory<? extends Element> factory = factories.get(type);
+        if (factory == null) {
+            throw new IllegalArgumentException();
+        }
+        List<T> created = new ArrayList<>(names.size());
+        names.forEach(name -> created.add((T) factory.create(name,
+                lookup)));
+        putAll(created);
+        return created;
+    }
+
+    @Override
+    public LazyModel remove(final Element element) {
+        String name = element.getName();
+        if (isHeld(name, element)) {
+            pinned.remove(name);
+            loaded.remove(name);
+            if (store.indexOf(name) >= 0) {
+                removed.add(name);
+            }
+            unlisten(element);
+            fireElementsChange(Collections.emptyList(),
+                    Collections.singletonList(element));
+        }
+        return getSelf();
+    }
+
+    @Override
+    public Set<Class<? extends Element>> getCreatableClasses() {
+        return factories.keySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Elements in the snapshot are checked without creating them.
+     */
+    @Override
+    public void vetoableChange(final PropertyChangeEvent evt)
+            throws PropertyVetoException {
+        if (evt.getPropertyName().equals("name")
+                && evt.getNewValue() != null
+                && contains(evt.getNewValue().toString())) {
+            Model.super.vetoableChange(evt);
+        }
+    }
+
+    /**
+     * Track renamed elements, and hold elements that have changed until they
+     * are removed.
+     *
+     * @param evt {@inheritDoc}
+     */
+    @Override
+    public void propertyChange(final PropertyChangeEvent evt) {
+        Element element = (Element) evt.getSource();
+        if (evt.getPropertyName().equals("name")) {
+            if (evt.getOldValue() == null) {
+                return;
+            }
+            String oldName = evt.getOldValue().toString();
+            String newName = element.getName();
+            if (!oldName.equals(newName) && isHeld(oldName, element)) {
+                pinned.remove(oldName);
+                loaded.remove(oldName);
+                if (store.indexOf(oldName) >= 0) {
+                    removed.add(oldName);
+                }
+                pinned.put(newName, element);
+            }
+        } else if (loaded.containsKey(element.getName())
+                && isHeld(element.getName(), element)) {
+            // a changed element cannot be recreated from the snapshot
+            loaded.remove(element.getName());
+            pinned.put(element.getName(), element);
+        }
+    }
+
+    @Override
+    public LazyModel getSelf() {
+        return this;
+    }
+
+    /**
+     * Get the number of elements currently created from the snapshot or put
+     * into this model and not evicted.
+     *
+     * @return the number of elements
+     */
+    // package private for unit testing
+    int getLoadedCount() {
+        purge();
+        return pinned.size() + loaded.size();
+    }
+
+    /**
+     * Evict all unchanged elements created from the snapshot, as if under
+     * memory pressure.
+     */
+    // package private for unit testing
+    void evict() {
+        loaded.values().forEach(ElementReference::release);
+        purge();
+        loaded.values().forEach(reference -> {
+            reference.clear();
+            reference.enqueue();
+        });
+        purge();
+    }
+
+    /**
+     * Test if this model contains an element with a name, without creating
+     * the element.
+     *
+     * @param name the name
+     * @return true if an element has name; false otherwise
+     */
+    private boolean contains(final String name) {
+        return pinned.containsKey(name)
+                || (!removed.contains(name) && store.indexOf(name) >= 0);
+    }
+
+    /**
+     * Test if this model contains an element of a type with a name, without
+     * creating the element.
+     *
+     * @param type the type of element
+     * @param name the name
+     * @return true if {@link #get(Class, String)} would return an element;
+     * false otherwise
+     */
+    private boolean contains(final Class<?> type, final String name) {
+        Element element = pinned.get(name);
+        if (element == null) {
+            ElementReference reference = loaded.get(name);
+            element = reference != null ? reference.get() : null;
+        }
+        if (element != null) {
+            return type.isInstance(element);
+        }
+        int index = removed.contains(name) ? -1 : store.indexOf(name);
+        return index >= 0
+                && type.isAssignableFrom(classes.get(store.getSection(index)));
+    }
+
+    /**
+     * Test if recreating an element from the snapshot would lose state not in
+     * the snapshot; that is, if the element has a delegate or has property
+     * change or vetoable change listeners other than this model.
+     *
+     * @param element the element
+     * @return true if the element must be held; false otherwise
+     */
+    private boolean isBound(final Element element) {
+        if (element instanceof DelegatingElement
+                && ((DelegatingElement<?, ?>) element).getDelegate() != null) {
+            return true;
+        }
+        for (PropertyChangeListener listener
+                : element.getPropertyChangeListeners()) {
+            Object target = listener instanceof PropertyChangeListenerProxy
+                    ? ((PropertyChangeListenerProxy) listener).getListener()
+                    : listener;
+            if (target != this) {
+                return true;
+            }
+        }
+        for (VetoableChangeListener listener
+                : element.getVetoableChangeListeners()) {
+            Object target = listener instanceof VetoableChangeListenerProxy
+                    ? ((VetoableChangeListenerProxy) listener).getListener()
+                    : listener;
+            if (target != this) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Test if an element is held by this model under a name.
+     *
+     * @param name the name
+     * @param element the element
+     * @return true if element is held under name; false otherwise
+     */
+    private boolean isHeld(final String name, final Element element) {
+        if (pinned.get(name) == element) {
+            return true;
+        }
+        ElementReference reference = loaded.get(name);
+        return reference != null && reference.get() == element;
+    }
+
+    /**
+     * Create an element from the snapshot.
+     *
+     * @param index the index of the element in the snapshot
+     * @return the element
+     * @throws UncheckedIOException if the stored state is invalid
+     */
+    private Element load(final int index) {
+        int section = store.getSection(index);
+        String name = store.getName(index);
+        Element element = factories.get(classes.get(section))
+                .create(name, Lookup.EMPTY);
+        try {
+            ModelSnapshot.restore(element, states.get(section),
+                    store.getStateValue(index),
+                    delegates.get(store.getDelegateName(index)));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        listen(element);
+        if (isBound(element)) {
+            pinned.put(name, element);
+        } else {
+            loaded.put(name, new ElementReference(name, element, evicted,
+                    pressure));
+        }
+        return element;
+    }
+
+    /**
+     * Evict unchanged elements under memory pressure, holding those that
+     * have become bound to a delegate or listeners instead, and forget
+     * evicted elements that have been collected.
+     */
+    private void purge() {
+        Pressure signal = (Pressure) pressure.poll();
+        while (signal != null) {
+            ElementReference owner = signal.reference;
+            Element element = owner.held;
+            if (element != null && owner.signal == signal
+                    && loaded.get(owner.name) == owner) {
+                if (isBound(element)) {
+                    loaded.remove(owner.name);
+                    pinned.put(owner.name, element);
+                } else {
+                    owner.held = null;
+                }
+            }
+            signal = (Pressure) pressure.poll();
+        }
+        ElementReference reference = (ElementReference) evicted.poll();
+        while (reference != null) {
+            loaded.remove(reference.name, reference);
+            reference = (ElementReference) evicted.poll();
+        }
+    }
+
+    /**
+     * Listen to an element.
+     *
+     * @param element the element
+     */
+    private void listen(final Element element) {
+        element.addVetoableChangeListener("name", this);
+        element.addPropertyChangeListener("name", this);
+        element.addPropertyChangeListener("state", this);
+        element.addPropertyChangeListener("delegate", this);
+    }
+
+    /**
+     * Stop listening to an element.
+     *
+     * @param element the element
+     */
+    private void unlisten(final Element element) {
+        element.removeVetoableChangeListener("name", this);
+        element.removePropertyChangeListener("name", this);
+        element.removePropertyChangeListener("state", this);
+        element.removePropertyChangeListener("delegate", this);
+    }
+
+    /**
+     * Notify listeners of added and removed elements.
+     *
+     * @param added the added elements
+     * @param removedElements the removed elements
+     */
+    private void fireElementsChange(final List<? extends Element> added,
+            final List<? extends Element> removedElements) {
+        if (hasListeners(ElementsChangeEvent.ELEMENTS)) {
+            firePropertyChange(new ElementsChangeEvent(this, added,
+                    removedElements));
+        }
+    }
+
+    /**
+     * A reference to an unchanged element created from the snapshot. The
+     * element is strongly held until a {@link Pressure} reference is cleared
+     * under memory pressure, and only weakly held after that until it is next
+     * requested.
+     */
+    private static final class ElementReference
+            extends WeakReference<Element> {
+
+        /**
+         * The name the element is held under.
+         */
+        private final String name;
+        /**
+         * The element while strongly held; null once evicted.
+         */
+        private Element held;
+        /**
+         * The reference cleared when the element can be evicted.
+         */
+        private Pressure signal;
+
+        /**
+         * Create a reference.
+         *
+         * @param elementName the name the element is held under
+         * @param element the element
+         * @param queue the queue to enqueue this once the element is
+         * collected
+         * @param pressureQueue the queue to enqueue the {@link Pressure}
+         * reference when the element can be evicted
+         */
+        ElementReference(final String elementName, final Element element,
+                final ReferenceQueue<Element> queue,
+                final ReferenceQueue<Object> pressureQueue) {
+            super(element, queue);
+            name = elementName;
+            held = element;
+            signal = new Pressure(this, pressureQueue);
+        }
+
+        /**
+         * Get the element, strongly holding it again if it was evicted but
+         * not collected.
+         *
+         * @param pressureQueue the queue to enqueue the {@link Pressure}
+         * reference when the element can be evicted
+         * @return the element or null if collected
+         */
+        Element hold(final ReferenceQueue<Object> pressureQueue) {
+            Element element = get();
+            if (element != null && held == null) {
+                held = element;
+                signal = new Pressure(this, pressureQueue);
+            } else {
+                // mark the element as recently used
+                signal.get();
+            }
+            return element;
+        }
+
+        /**
+         * Signal that the element can be evicted, as if under memory
+         * pressure.
+         */
+        void release() {
+            signal.clear();
+            signal.enqueue();
+        }
+    }
+
+    /**
+     * A soft reference to a token that is only cleared under memory pressure,
+     * signalling that an element can be evicted.
+     */
+    private static final class Pressure extends SoftReference<Object> {
+
+        /**
+         * The reference to the element that can be evicted.
+         */
+        private final ElementReference reference;
+
+        /**
+         * Create a reference.
+         *
+         * @param elementReference the reference to the element that can be
+         * evicted when this is cleared
+         * @param queue the queue to enqueue this when cleared
+         */
+        Pressure(final ElementReference elementReference,
+                final ReferenceQueue<Object> queue) {
+            super(new Object(), queue);
+            reference = elementReference;
+        }
+    }
+
+    /**
+     * A set of elements that are created as the set is iterated.
+     *
+     * @param <T> the type of element
+     */
+    private final class LazySet<T extends Element> extends AbstractSet<T> {
+
+        /**
+         * The type of element.
+         */
+        private final Class<T> type;
+        /**
+         * The names of the elements, in order.
+         */
+        private final List<String> names;
+
+        /**
+         * Create a set.
+         *
+         * @param elementType the type of element
+         * @param elementNames the names of the elements, in order
+         */
+        LazySet(final Class<T> elementType, final List<String> elementNames) {
+            type = elementType;
+            names = elementNames;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                private int index;
+                private T next;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == null && index < names.size()) {
+                        next = get(type, names.get(index++));
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    T element = next;
+                    next = null;
+                    return element;
+                }
+            };
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * This is the number of elements iterating this set returns, counted
+         * without creating any element.
+         */
+        @Override
+        public int size() {
+            int size = 0;
+            for (String name : names) {
+                if (LazyModel.this.contains(type, name)) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public boolean contains(final Object object) {
+            return type.isInstance(object)
+                    && Collections.binarySearch(names,
+                            ((Element) object).getName()) >= 0
+                    && isHeld(((Element) object).getName(), (Element) object);
+        }
+    }
+}
@@ -0,0 +1,618 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.openide.util.Lookup;
+import org.openide.util.NbBundle;
+import org.trainbeans.model.api.Delegate;
+import org.trainbeans.model.api.DelegatingElement;
+import org.trainbeans.model.api.DiscreteState;
+import org.trainbeans.model.api.DiscreteStateElement;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.Model;
+
+/**
+ * Saves and loads the elements of a {@link Model} in a compact, versioned
+ * binary format. Snapshots are written to and read from NIO channels through
+ * a fixed size buffer. Snapshots are written one element at a time, so the
+ * size of a snapshot does not affect the memory needed to save it. Reading a
+ * snapshot holds the names, states, and delegate names of every section in
+ * memory until the snapshot is checked, so the memory needed to load it grows
+ * with its size; {@link LazyModel} reads elements on demand instead.
+ *
+ * A snapshot is a header followed by one section for each concrete class of
+ * element. The header is the magic number {@code TBMS}, the format
+ * {@link #VERSION}, and the number of sections. Each section is the name of
+ * the class, the name of the enum of its states or an empty string, and the
+ * number of elements, followed by a record for each element. A record is the
+ * name of the element, its requested state as an unsigned byte that is 0 for
+ * null or the ordinal of the state plus 1, and the name of its delegate or an
+ * empty string. Strings are an unsigned short length followed by that many
+ * bytes of UTF-8. Numbers are big-endian.
+ *
+ * @author rhwood
+ */
+public final class ModelSnapshot {
+
+    /**
+     * The version of the snapshot format written by this class.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The first bytes of every snapshot; {@code TBMS} in ASCII.
+     */
+    static final int MAGIC = 0x54424D53;
+    /**
+     * The mask to convert a byte to an unsigned integer.
+     */
+    static final int UNSIGNED_BYTE = 0xFF;
+    /**
+     * The maximum length in bytes of a string.
+     */
+    private static final int MAX_STRING = 0xFFFF;
+    /**
+     * The maximum number of states of a class of element.
+     */
+    private static final int MAX_STATES = 0xFF - 1;
+    /**
+     * The size of the buffer used to read or write a snapshot; large enough
+     * for the largest possible record.
+     */
+    private static final int BUFFER_SIZE = 0x40000;
+
+    private ModelSnapshot() {
+        // prevent construction of utility class
+    }
+
+    /**
+     * Write a snapshot of the elements in a model.
+     *
+     * @param model the model
+     * @param channel the channel to write to; this is not closed
+     * @throws IOException if unable to write to channel
+     * @throws IllegalArgumentException if a name is longer than 65535 bytes
+     * in UTF-8, the states of a class of element are not the constants of a
+     * single enum, or an enum has more than 254 constants
+     */
+    public static void write(final Model model,
+            final WritableByteChannel channel) throws IOException {
+        @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+        Map<Class<? extends Element>, List<Element>> sections
+                = new LinkedHashMap<>();
+        model.getAll(Element.class).forEach(element -> sections
+                .computeIfAbsent(element.getClass(), c -> new ArrayList<>())
+                .add(element));
+        Output output = new Output(channel);
+        output.putInt(MAGIC);
+        output.putShort(VERSION);
+        output.putInt(sections.size());
+        for (Map.Entry<Class<? extends Element>, List<Element>> section
+                : sections.entrySet()) {
+            List<Element> list = section.getValue();
+            Class<?> states = getStateClass(list);
+            output.putString(section.getKey().getName());
+            output.putString(states != null ? states.getName() : "");
+            output.putInt(list.size());
+            for (Element element : list) {
+                output.putString(element.getName());
+                output.putByte(getStateValue(element, states));
+                Delegate<?> delegate = null;
+                if (element instanceof DelegatingElement) {
+                    delegate = ((DelegatingElement<?, ?>) element)
+                            .getDelegate();
+                }
+                output.putString(delegate != null ? delegate.getName() : "");
+            }
+        }
+        output.flush();
+    }
+
+    /**
+     * Read a snapshot into a model, creating the elements in the snapshot
+     * with the {@link org.trainbeans.model.spi.ElementFactory ElementFactories}
+     * of the model. Each element has its requested state set before it is
+     * bound to its delegate, so loading a snapshot does not request any change
+     * of a delegate. A delegate is bound only if a {@link Delegate} with the
+     * same name is in lookup; otherwise the element is not bound to a
+     * delegate.
+     *
+     * The elements of each class are created with
+     * {@link Model#createAll(Class, java.util.Collection, Lookup)}, so
+     * listeners are notified once for each class of element.
+     *
+     * The whole snapshot is read and checked, and no element may have the
+     * name of an element in the snapshot, before any element is created. If
+     * creating or restoring any element fails, every element in the model
+     * with the name of an element in a section that was being created,
+     * including any put by a call to createAll that failed part way through,
+     * is unbound from its delegate and removed from the model, so the model
+     * is either fully loaded or unchanged.
+     *
+     * @param model the model; this should not contain any element with the
+     * same name as an element in the snapshot
+     * @param channel the channel to read from; this is not closed
+     * @param lookup the container of delegates to bind elements to
+     * @throws IOException if unable to read from channel, channel does not
+     * contain a snapshot, the snapshot version is not supported, a name is
+     * in the snapshot more than once, or model cannot create an element in
+     * the snapshot
+     * @throws IllegalStateException if an element in the snapshot has the
+     * same name as an element in model
+     */
+    public static void read(final Model model,
+            final ReadableByteChannel channel,
+            final Lookup lookup) throws IOException {
+        Input input = new Input(channel);
+        if (input.getInt() != MAGIC) {
+            throw new IOException(NbBundle.getMessage(ModelSnapshot.class,
+                    "snapshot.format"));
+        }
+        int version = input.getShort();
+        if (version != VERSION) {
+            throw new IOException(NbBundle.getMessage(ModelSnapshot.class,
+                    "snapshot.version", version));
+        }
+        Map<String, Class<? extends Element>> classes = new HashMap<>();
+        model.getCreatableClasses()
+                .forEach(clazz -> classes.put(clazz.getName(), clazz));
+        Map<String, Delegate<?>> delegates = new HashMap<>();
+        lookup.lookupAll(Delegate.class)
+                .forEach(delegate -> delegates
+                .putIfAbsent(delegate.getName(), delegate));
+        int count = input.getInt();
+        List<Section> sections = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String className = input.getString();
+            Class<? extends Element> type = classes.get(className);
+            if (type == null) {
+                throw new IOException(NbBundle.getMessage(
+                        ModelSnapshot.class, "snapshot.class", className));
+            }
+            sections.add(new Section(type,
+                    getStates(type, input.getString()), input));
+        }
+        Set<String> names = new HashSet<>();
+        for (Section section : sections) {
+            for (String name : section.names) {
+                if (!names.add(name)) {
+                    throw new IOException(NbBundle.getMessage(
+                            ModelSnapshot.class, "snapshot.duplicate", name));
+                }
+            }
+        }
+        for (String name : names) {
+            if (model.get(Element.class, name) != null) {
+                throw new IllegalStateException();
+            }
+        }
+        int attempted = 0;
+        boolean loaded = false;
+        try {
+            for (Section section : sections) {
+                attempted++;
+                List<? extends Element> elements = model.createAll(
+                        section.type, section.names, Lookup.EMPTY);
+                for (int j = 0; j < elements.size(); j++) {
+                    restore(elements.get(j), section.states,
+                            section.values[j],
+                            delegates.get(section.delegateNames[j]));
+                }
+            }
+            loaded = true;
+        } finally {
+            if (!loaded) {
+                // remove by name, so elements added by a createAll that
+                // failed part way through are removed too
+                sections.subList(0, attempted).forEach(section
+                        -> section.names.forEach(name -> {
+                            Element element = model.get(Element.class, name);
+                            if (element instanceof DelegatingElement) {
+                                ((DelegatingElement<?, ?>) element)
+                                        .setDelegate(null);
+                            }
+                            if (element != null) {
+                                model.remove(element);
+                            }
+                        }));
+            }
+        }
+    }
+
+    /**
+     * Restore the state and delegate of a newly created element.
+     *
+     * @param element the element
+     * @param states the possible states of element
+     * @param value the stored state
+     * @param delegate the delegate or null if none
+     * @throws IOException if value is not a valid state
+     */
+    static void restore(final Element element,
+            final DiscreteState[] states, final byte value,
+            final Delegate<?> delegate) throws IOException {
+        int index = (value & UNSIGNED_BYTE) - 1;
+        if (index >= 0 && (states == null || index >= states.length
+                || !(element instanceof DiscreteStateElement))) {
+            throw new IOException(NbBundle.getMessage(
+                    ModelSnapshot.class, "snapshot.state",
+                    element.getName()));
+        }
+        if (element instanceof DiscreteStateElement) {
+            ((DiscreteStateElement) element)
+                    .setState(index >= 0 ? states[index] : null);
+        }
+        if (delegate != null && element instanceof DelegatingElement) {
+            ((DelegatingElement) element).setDelegate(delegate);
+        }
+    }
+
+    /**
+     * Get the enum of the states of a list of elements.
+     *
+     * @param elements the elements
+     * @return the enum or null if no element has a state
+     * @throws IllegalArgumentException if the states are not the constants
+     * of a single enum with at most 254 constants
+     */
+    private static Class<?> getStateClass(final List<Element> elements) {
+        Class<?> states = null;
+        for (Element element : elements) {
+            DiscreteState state = getState(element);
+            if (state != null) {
+                if (!(state instanceof Enum) || (states != null
+                        && !states.equals(((Enum<?>) state)
+                                .getDeclaringClass()))) {
+                    throw new IllegalArgumentException();
+                }
+                states = ((Enum<?>) state).getDeclaringClass();
+            }
+        }
+        if (states != null
+                && states.getEnumConstants().length > MAX_STATES) {
+            throw new IllegalArgumentException();
+        }
+        return states;
+    }
+
+    /**
+     * Get the stored value of the state of an element.
+     *
+     * @param element the element
+     * @param states the enum of the state of element
+     * @return 0 if the state is null, or the ordinal of the state plus 1
+     */
+    private static byte getStateValue(final Element element,
+            final Class<?> states) {
+        DiscreteState state = getState(element);
+        if (state == null || states == null) {
+            return 0;
+        }
+        return (byte) (((Enum<?>) state).ordinal() + 1);
+    }
+
+    /**
+     * Get the requested state of an element.
+     *
+     * @param element the element
+     * @return the state or null if element has no state
+     */
+    private static DiscreteState getState(final Element element) {
+        if (element instanceof DiscreteStateElement) {
+            return ((DiscreteStateElement<?>) element).getRequestedState();
+        }
+        return null;
+    }
+
+    /**
+     * Get the possible states of a class of element.
+     *
+     * @param type the class of element
+     * @param name the name of the enum of states or an empty string
+     * @return the constants of the enum or null if name is empty
+     * @throws IOException if name is not the name of an enum of
+     * {@link DiscreteState}s
+     */
+    static DiscreteState[] getStates(
+            final Class<? extends Element> type,
+            final String name) throws IOException {
+        if (name.isEmpty()) {
+            return null;
+        }
+        try {
+            Class<?> clazz = Class.forName(name, false, type.getClassLoader());
+            if (clazz.isEnum()
+                    && DiscreteState.class.isAssignableFrom(clazz)) {
+                return (DiscreteState[]) clazz.getEnumConstants();
+            }
+        } catch (ClassNotFoundException ex) {
+            throw new IOException(NbBundle.getMessage(ModelSnapshot.class,
+                    "snapshot.class", name), ex);
+        }
+        throw new IOException(NbBundle.getMessage(ModelSnapshot.class,
+                "snapshot.class", name));
+    }
+
+    /**
+     * A section of a snapshot that has been read and checked but not yet
+     * loaded into a model.
+     */
+    private static final class Section {
+
+        /**
+         * The class of the elements.
+         */
+        private final Class<? extends Element> type;
+        /**
+         * The possible states of the elements; null if none.
+         */
+        private final DiscreteState[] states;
+        /**
+         * The name of each element.
+         */
+        private final List<String> names;
+        /**
+         * The stored state of each element.
+         */
+        private final byte[] values;
+        /**
+         * The name of the delegate of each element; empty if none.
+         */
+        private final String[] delegateNames;
+
+        /**
+         * Read the records of a section.
+         *
+         * @param sectionType the class of the elements
+         * @param sectionStates the possible states of the elements
+         * @param input the input positioned at the count of records
+         * @throws IOException if unable to read the records or a record has
+         * an invalid state
+         */
+        Section(final Class<? extends Element> sectionType,
+                final DiscreteState[] sectionStates, final Input input)
+                throws IOException {
+            type = sectionType;
+            states = sectionStates;
+            int count = input.getInt();
+            names = new ArrayList<>(count);
+            values = new byte[count];
+            delegateNames = new String[count];
+            boolean stateful
+                    = DiscreteStateElement.class.isAssignableFrom(type);
+            for (int j = 0; j < count; j++) {
+                names.add(input.getString());
+                values[j] = input.getByte();
+                delegateNames[j] = input.getString();
+                int index = (values[j] & UNSIGNED_BYTE) - 1;
+                if (index >= 0 && (!stateful || states == null
+                        || index >= states.length)) {
+                    throw new IOException(NbBundle.getMessage(
+                            ModelSnapshot.class, "snapshot.state",
+                            names.get(j)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Buffered writing of primitive values to a channel.
+     */
+    private static final class Output {
+
+        /**
+         * The channel.
+         */
+        private final WritableByteChannel channel;
+        /**
+         * The buffer of bytes not yet written to the channel.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /**
+         * Create an output.
+         *
+         * @param target the channel to write to
+         */
+        Output(final WritableByteChannel target) {
+            channel = target;
+        }
+
+        /**
+         * Write an int.
+         *
+         * @param value the value
+         * @throws IOException if unable to write
+         */
+        void putInt(final int value) throws IOException {
+            reserve(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        /**
+         * Write the low 16 bits of an int.
+         *
+         * @param value the value
+         * @throws IOException if unable to write
+         */
+        void putShort(final int value) throws IOException {
+            reserve(Short.BYTES);
+            buffer.putShort((short) value);
+        }
+
+        /**
+         * Write a byte.
+         *
+         * @param value the value
+         * @throws IOException if unable to write
+         */
+        void putByte(final byte value) throws IOException {
+            reserve(Byte.BYTES);
+            buffer.put(value);
+        }
+
+        /**
+         * Write a string.
+         *
+         * @param value the value
+         * @throws IOException if unable to write
+         * @throws IllegalArgumentException if value is longer than 65535
+         * bytes in UTF-8
+         */
+        void putString(final String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_STRING) {
+                throw new IllegalArgumentException();
+            }
+            reserve(Short.BYTES + bytes.length);
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+
+        /**
+         * Write buffered bytes to the channel if the buffer does not have
+         * room for more bytes.
+         *
+         * @param length the number of bytes needed
+         * @throws IOException if unable to write
+         */
+        private void reserve(final int length) throws IOException {
+            if (buffer.remaining() < length) {
+                flush();
+            }
+        }
+
+        /**
+         * Write all buffered bytes to the channel.
+         *
+         * @throws IOException if unable to write
+         */
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Buffered reading of primitive values from a channel.
+     */
+    private static final class Input {
+
+        /**
+         * The channel.
+         */
+        private final ReadableByteChannel channel;
+        /**
+         * The buffer of bytes read from the channel and not yet consumed.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /**
+         * Create an input.
+         *
+         * @param source the channel to read from
+         */
+        Input(final ReadableByteChannel source) {
+            channel = source;
+            buffer.limit(0);
+        }
+
+        /**
+         * Read an int.
+         *
+         * @return the value
+         * @throws IOException if unable to read
+         */
+        int getInt() throws IOException {
+            require(Integer.BYTES);
+            return buffer.getInt();
+        }
+
+        /**
+         * Read an unsigned short.
+         *
+         * @return the value
+         * @throws IOException if unable to read
+         */
+        int getShort() throws IOException {
+            require(Short.BYTES);
+            return Short.toUnsignedInt(buffer.getShort());
+        }
+
+        /**
+         * Read a byte.
+         *
+         * @return the value
+         * @throws IOException if unable to read
+         */
+        byte getByte() throws IOException {
+            require(Byte.BYTES);
+            return buffer.get();
+        }
+
+        /**
+         * Read a string.
+         *
+         * @return the value
+         * @throws IOException if unable to read
+         */
+        String getString() throws IOException {
+            int length = getShort();
+            require(length);
+            String value = new String(buffer.array(),
+                    buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+
+        /**
+         * Read from the channel until the buffer contains at least a number
+         * of unconsumed bytes.
+         *
+         * @param length the number of bytes needed
+         * @throws IOException if unable to read
+         * @throws EOFException if the channel ends first
+         */
+        private void require(final int length) throws IOException {
+            if (buffer.remaining() >= length) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < length) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException();
+                }
+            }
+            buffer.flip();
+        }
+    }
+}
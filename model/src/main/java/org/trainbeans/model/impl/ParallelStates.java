@@ -0,0 +1,237 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeListenerProxy;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import org.trainbeans.model.api.DelegatingElement;
+import org.trainbeans.model.api.DiscreteState;
+import org.trainbeans.model.api.DiscreteStateElement;
+import org.trainbeans.model.api.Element;
+
+/**
+ * Sets the states of many elements in parallel on the common
+ * {@link ForkJoinPool}.
+ *
+ * Elements that share a {@link org.trainbeans.model.api.Delegate}, which is
+ * not thread-safe, are set in sequence on one thread. Other elements,
+ * including elements bound to the same
+ * {@link org.trainbeans.model.api.PackedStateStore}, are set in groups of up
+ * to {@value #GROUP_SIZE}.
+ *
+ * A change to a delegate is propagated to every element listening to it. If
+ * a delegate has listeners other than the elements being set, such as
+ * elements not being set that share the delegate, the elements with that
+ * delegate are set on the calling thread, so that events never reach
+ * elements or models outside the elements being set on a pool thread.
+ * Listeners to the other elements being set are notified on the pool thread
+ * setting the element, and must be thread-safe.
+ *
+ * @author rhwood
+ */
+final class ParallelStates {
+
+    /**
+     * The largest number of independent elements set in sequence.
+     */
+    static final int GROUP_SIZE = 0x100;
+
+    /**
+     * Prevent construction of utility class.
+     */
+    private ParallelStates() {
+        // prevent construction
+    }
+
+    /**
+     * Set the states of elements, returning when every state is set.
+     *
+     * @param states the new state of each element, all of which must be
+     * {@link DiscreteStateElement}s
+     * @throws RuntimeException if setting any state throws; other states may
+     * or may not have been set
+     */
+    static void apply(
+            final Map<? extends Element, ? extends DiscreteState> states) {
+        List<List<Element>> parallel = new ArrayList<>();
+        List<List<Element>> local = new ArrayList<>();
+        group(states.keySet()).forEach(group
+                -> (isShared(group, states) ? local : parallel).add(group));
+        if (parallel.size() == 1) {
+            local.addAll(parallel);
+            parallel.clear();
+        }
+        ForkJoinTask<Void> task = parallel.isEmpty() ? null
+                : ForkJoinPool.commonPool()
+                        .submit(new Task(parallel, states, 0,
+                                parallel.size()));
+        try {
+            local.forEach(group -> set(group, states));
+        } finally {
+            if (task != null) {
+                task.join();
+            }
+        }
+    }
+
+    /**
+     * Divide elements into groups that can be set in parallel.
+     *
+     * @param elements the elements
+     * @return the groups
+     */
+    // package private for unit testing
+    static List<List<Element>> group(
+            final Iterable<? extends Element> elements) {
+        Map<Object, List<Element>> shared = new IdentityHashMap<>();
+        List<List<Element>> groups = new ArrayList<>();
+        List<Element> group = null;
+        for (Element element : elements) {
+            Object owner = getOwner(element);
+            if (owner != null) {
+                shared.computeIfAbsent(owner, o -> new ArrayList<>())
+                        .add(element);
+            } else {
+                if (group == null || group.size() == GROUP_SIZE) {
+                    group = new ArrayList<>();
+                    groups.add(group);
+                }
+                group.add(element);
+            }
+        }
+        groups.addAll(shared.values());
+        return groups;
+    }
+
+    /**
+     * Get the object that must be accessed by one thread at a time when
+     * setting the state of an element.
+     *
+     * @param element the element
+     * @return the delegate of element, or null if none
+     */
+    private static Object getOwner(final Element element) {
+        if (element instanceof DelegatingElement) {
+            return ((DelegatingElement<?, ?>) element).getDelegate();
+        }
+        return null;
+    }
+
+    /**
+     * Test if a group of elements sharing a delegate must be set on the
+     * calling thread because the delegate has listeners other than the
+     * elements being set.
+     *
+     * @param group the elements
+     * @param states the new state of each element being set
+     * @return true if the delegate of the group has other listeners; false
+     * otherwise or if the group has no delegate
+     */
+    private static boolean isShared(final List<Element> group,
+            final Map<? extends Element, ? extends DiscreteState> states) {
+        Object owner = getOwner(group.get(0));
+        if (!(owner instanceof Element)) {
+            return false;
+        }
+        for (PropertyChangeListener listener
+                : ((Element) owner).getPropertyChangeListeners()) {
+            Object target = listener instanceof PropertyChangeListenerProxy
+                    ? ((PropertyChangeListenerProxy) listener).getListener()
+                    : listener;
+            if (!states.containsKey(target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Set the states of a group of elements in sequence.
+     *
+     * @param group the elements
+     * @param states the new state of each element
+     */
+    private static void set(final List<Element> group,
+            final Map<? extends Element, ? extends DiscreteState> states) {
+        group.forEach(element
+                -> ((DiscreteStateElement) element).setState(
+                        states.get(element)));
+    }
+
+    /**
+     * A task setting the states of a range of groups, dividing the range
+     * until it contains one group.
+     */
+    private static final class Task extends RecursiveAction {
+
+        /**
+         * Serialization version.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * All groups.
+         */
+        private final transient List<List<Element>> groups;
+        /**
+         * The new state of each element.
+         */
+        @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+        private final transient Map<? extends Element, ? extends DiscreteState> states;
+        /**
+         * The first group in the range, inclusive.
+         */
+        private final int from;
+        /**
+         * The last group in the range, exclusive.
+         */
+        private final int to;
+
+        /**
+         * Create a task.
+         *
+         * @param allGroups all groups
+         * @param newStates the new state of each element
+         * @param first the first group in the range, inclusive
+         * @param last the last group in the range, exclusive
+         */
+        Task(final List<List<Element>> allGroups,
+                final Map<? extends Element, ? extends DiscreteState> newStates,
+                final int first, final int last) {
+            groups = allGroups;
+            states = newStates;
+            from = first;
+            to = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                set(groups.get(from), states);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Task(groups, states, from, middle),
+                        new Task(groups, states, middle, to));
+            }
+        }
+    }
+}
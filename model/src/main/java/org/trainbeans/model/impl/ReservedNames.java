@@ -0,0 +1,360 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyVetoException;
+import java.beans.VetoableChangeListener;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.openide.util.NbBundle;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.Model;
+
+/**
+ * The names of the elements in a thread-safe model, and the names reserved
+ * by elements being renamed, with the locking protocol that keeps the index
+ * of the model consistent with them.
+ *
+ * Changes to names are serialized by locks selected by name; a change
+ * involving two names holds both locks, acquiring the lock with the lower
+ * index first. A rename takes effect when the new name is reserved as the
+ * rename is checked for vetoes, so the renamed element is never absent from
+ * the model, and completes when the element notifies that it has the new
+ * name. Concurrent renames of the same element are vetoed while a rename is
+ * in progress.
+ *
+ * The model keeps its own index by implementing the methods called while
+ * the locks for the names involved in a change are held.
+ *
+ * @author rhwood
+ */
+abstract class ReservedNames {
+
+    /**
+     * The locks serializing changes to names.
+     */
+    private final Object[] locks;
+    /**
+     * The listener to changes of the names of elements.
+     */
+    private final PropertyChangeListener listener;
+    /**
+     * The listener checking changes of the names of elements.
+     */
+    private final VetoableChangeListener vetoListener;
+    /**
+     * The name each element in the model is indexed under.
+     */
+    private final ConcurrentMap<Element, String> names
+            = new ConcurrentHashMap<>();
+    /**
+     * The new name reserved for each element being renamed. While reserved,
+     * the element can be found by both its old and new names.
+     */
+    private final ConcurrentMap<Element, String> reservations
+            = new ConcurrentHashMap<>();
+
+    /**
+     * Create the names of a model.
+     *
+     * @param nameLocks the locks serializing changes to names
+     * @param nameListener the listener to changes of the names of elements,
+     * which calls {@link #commit(PropertyChangeEvent)}
+     * @param nameVetoListener the listener checking changes of the names of
+     * elements, which calls {@link #reserve(PropertyChangeEvent)}
+     */
+    ReservedNames(final Object[] nameLocks,
+            final PropertyChangeListener nameListener,
+            final VetoableChangeListener nameVetoListener) {
+        locks = nameLocks;
+        listener = nameListener;
+        vetoListener = nameVetoListener;
+    }
+
+    /**
+     * Add an element under its name, and listen for changes to its name.
+     *
+     * @param element the element
+     * @return true if added; false if an element has the name or element is
+     * already in the model
+     */
+    boolean add(final Element element) {
+        String name = element.getName();
+        synchronized (locks[getLock(name)]) {
+            if (isIndexed(name)
+                    || names.putIfAbsent(element, name) != null) {
+                return false;
+            }
+            element.addVetoableChangeListener("name", vetoListener);
+            element.addPropertyChangeListener("name", listener);
+            added(name, element);
+            return true;
+        }
+    }
+
+    /**
+     * Add elements under their names, and listen for changes to their names.
+     * The locks for all the names are held, acquired in index order, while
+     * the names are checked and the elements added, so either every element
+     * is added or none is.
+     *
+     * @param elements the elements
+     * @return true if added; false if an element has any of the names, any
+     * two of elements have the same name, or any of elements is already in
+     * the model
+     */
+    boolean addAll(final Collection<? extends Element> elements) {
+        Map<String, Element> batch = new LinkedHashMap<>();
+        for (Element element : elements) {
+            if (batch.put(element.getName(), element) != null) {
+                return false;
+            }
+        }
+        int[] held = batch.keySet().stream().mapToInt(this::getLock)
+                .distinct().sorted().toArray();
+        return addAll(batch, held, 0);
+    }
+
+    /**
+     * Add elements under their names while holding the locks with the given
+     * indexes from next on, acquiring them in order.
+     *
+     * @param batch the elements by name
+     * @param held the indexes of the locks for the names, in ascending order
+     * @param next the position in held of the next lock to acquire
+     * @return true if added; false otherwise
+     */
+    private boolean addAll(final Map<String, Element> batch, final int[] held,
+            final int next) {
+        if (next < held.length) {
+            synchronized (locks[held[next]]) {
+                return addAll(batch, held, next + 1);
+            }
+        }
+        for (Map.Entry<String, Element> entry : batch.entrySet()) {
+            if (isIndexed(entry.getKey())
+                    || names.containsKey(entry.getValue())) {
+                return false;
+            }
+        }
+        batch.forEach((name, element) -> {
+            names.put(element, name);
+            element.addVetoableChangeListener("name", vetoListener);
+            element.addPropertyChangeListener("name", listener);
+            added(name, element);
+        });
+        return true;
+    }
+
+    /**
+     * Remove an element under its name and any name it has reserved, and
+     * stop listening for changes to its name.
+     *
+     * @param element the element
+     * @return true if removed; false if element is not in the model
+     */
+    boolean remove(final Element element) {
+        while (true) {
+            String name = names.get(element);
+            if (name == null) {
+                // not in this model
+                return false;
+            }
+            String reserved = reservations.getOrDefault(element, name);
+            int first = getLock(name);
+            int second = getLock(reserved);
+            synchronized (locks[Math.min(first, second)]) {
+                synchronized (locks[Math.max(first, second)]) {
+                    if (name.equals(names.get(element)) && reserved.equals(
+                            reservations.getOrDefault(element, name))) {
+                        names.remove(element);
+                        reservations.remove(element);
+                        element.removeVetoableChangeListener("name",
+                                vetoListener);
+                        element.removePropertyChangeListener("name",
+                                listener);
+                        removed(name, reserved, element);
+                        return true;
+                    }
+                }
+            }
+            // renamed while acquiring locks; try again
+        }
+    }
+
+    /**
+     * Reserve the new name of an element being renamed if no other element
+     * has that name, or release a reserved name if the rename was vetoed by
+     * another listener. Events other than renames are ignored.
+     *
+     * @param evt the vetoable change event
+     * @throws PropertyVetoException if another element has the new name or
+     * another rename of the element is in progress
+     */
+    void reserve(final PropertyChangeEvent evt)
+            throws PropertyVetoException {
+        if (!isRename(evt)) {
+            return;
+        }
+        Element element = (Element) evt.getSource();
+        String oldName = evt.getOldValue().toString();
+        String newName = evt.getNewValue().toString();
+        int first = getLock(oldName);
+        int second = getLock(newName);
+        synchronized (locks[Math.min(first, second)]) {
+            synchronized (locks[Math.max(first, second)]) {
+                if (newName.equals(names.get(element))
+                        && oldName.equals(reservations.get(element))) {
+                    // a veto is being reverted; release the reservation
+                    reservations.remove(element);
+                    released(oldName, element);
+                } else if (names.containsKey(element)) {
+                    if (isIndexed(newName)) {
+                        // existing cannot be removed while these locks are held
+                        throw new PropertyVetoException(
+                                NbBundle.getMessage(Model.class,
+                                        "veto.exception", newName),
+                                evt);
+                    }
+                    if (reservations.containsKey(element)
+                            || !oldName.equals(names.get(element))) {
+                        throw new PropertyVetoException(
+                                NbBundle.getMessage(ReservedNames.class,
+                                        "veto.renaming", oldName),
+                                evt);
+                    }
+                    reservations.put(element, newName);
+                    reserved(newName, element);
+                }
+            }
+        }
+    }
+
+    /**
+     * Complete the rename of an element once it has its reserved name.
+     * Events other than renames, and notifications sent before the element
+     * has the new name, are ignored.
+     *
+     * @param evt the property change event
+     */
+    void commit(final PropertyChangeEvent evt) {
+        if (!isRename(evt)) {
+            return;
+        }
+        Element element = (Element) evt.getSource();
+        String oldName = evt.getOldValue().toString();
+        String newName = evt.getNewValue().toString();
+        if (!newName.equals(element.getName())) {
+            return;
+        }
+        int first = getLock(oldName);
+        int second = getLock(newName);
+        synchronized (locks[Math.min(first, second)]) {
+            synchronized (locks[Math.max(first, second)]) {
+                if (oldName.equals(names.get(element))
+                        && newName.equals(reservations.get(element))) {
+                    names.put(element, newName);
+                    reservations.remove(element);
+                    renamed(oldName, newName, element);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the index of the lock serializing changes to a name.
+     *
+     * @param name the name
+     * @return the index of the lock
+     */
+    abstract int getLock(String name);
+
+    /**
+     * Test if a name is in the index of the model, either as the name of an
+     * element or as a name reserved by an element being renamed. Called
+     * holding the lock for the name.
+     *
+     * @param name the name
+     * @return true if indexed; false otherwise
+     */
+    abstract boolean isIndexed(String name);
+
+    /**
+     * Index an added element. Called holding the lock for the name.
+     *
+     * @param name the name
+     * @param element the element
+     */
+    abstract void added(String name, Element element);
+
+    /**
+     * Remove an element from the index. Called holding the locks for both
+     * names.
+     *
+     * @param name the name of the element
+     * @param reserved the name reserved by the element, or name if none is
+     * reserved
+     * @param element the element
+     */
+    abstract void removed(String name, String reserved, Element element);
+
+    /**
+     * Index the name reserved by an element being renamed. Called holding the
+     * locks for both the old and the new name.
+     *
+     * @param name the reserved name
+     * @param element the element
+     */
+    abstract void reserved(String name, Element element);
+
+    /**
+     * Remove the name reserved by an element from the index after the rename
+     * was vetoed, leaving it under its original name. Called holding the
+     * locks for both names.
+     *
+     * @param name the name reserved by the element
+     * @param element the element
+     */
+    abstract void released(String name, Element element);
+
+    /**
+     * Move a renamed element from its old name to its reserved name in the
+     * index. Called holding the locks for both names.
+     *
+     * @param oldName the old name
+     * @param newName the new, reserved, name
+     * @param element the element
+     */
+    abstract void renamed(String oldName, String newName, Element element);
+
+    /**
+     * Test if an event is a change in name of an element with an old and a
+     * new name.
+     *
+     * @param evt the event
+     * @return true if the event is a rename; false otherwise
+     */
+    private static boolean isRename(final PropertyChangeEvent evt) {
+        return evt.getPropertyName().equals("name")
+                && evt.getSource() instanceof Element
+                && evt.getOldValue() != null && evt.getNewValue() != null;
+    }
+}
@@ -0,0 +1,644 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyVetoException;
+import java.beans.VetoableChangeListener;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
+import org.openide.util.Lookup;
+import org.trainbeans.beans.Bean;
+import org.trainbeans.beans.SynchronousPropertyChangeListener;
+import org.trainbeans.model.api.DiscreteState;
+import org.trainbeans.model.api.DiscreteStateElement;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.ElementPage;
+import org.trainbeans.model.api.ElementsChangeEvent;
+import org.trainbeans.model.api.Model;
+import org.trainbeans.model.api.StatesChangeEvent;
+import org.trainbeans.model.spi.ElementFactory;
+
+/**
+ * A thread-safe implementation of a Model that partitions its elements by name
+ * into independent shards, each with its own lock.
+ *
+ * Elements are assigned to shards by a partitioner, which by default hashes
+ * the name of the element, but can instead group elements by district so that
+ * each hardware connection mostly touches one shard. Lookups and changes to
+ * the membership of the model lock only the shard containing the name, and
+ * renaming an element between shards locks only the two shards involved. The
+ * model listens only for changes to the names of its elements, so changing
+ * the state of an element never takes a lock in the model, and parallel
+ * connections to the layout can update states without contending.
+ *
+ * Sorted results are built from an immutable snapshot of each shard, and the
+ * snapshots are merged lazily as the result is iterated. Renames follow the
+ * same rules as {@link ConcurrentModel}: the new name is reserved when the
+ * rename is checked for vetoes, so the element is never absent from the model.
+ *
+ * Listeners are notified of each element put or removed with an
+ * {@link ElementsChangeEvent}; batches of changes are not coalesced.
+ *
+ * @author rhwood
+ */
+public final class ShardedModel extends Bean implements Model,
+        SynchronousPropertyChangeListener, VetoableChangeListener {
+
+    /**
+     * Map of factories to be used to create elements, keyed by the Class the
+     * factory can create. This is not modified after construction.
+     */
+    @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+    private final Map<Class<? extends Element>, ElementFactory<? extends Element>> factories;
+    /**
+     * The shards; each shard is its own lock.
+     */
+    private final Shard[] shards;
+    /**
+     * Function returning the shard for a name; results are reduced modulo the
+     * number of shards.
+     */
+    private final ToIntFunction<String> partitioner;
+    /**
+     * The names of the elements in the model, and the names reserved by
+     * elements being renamed. While reserved, the element can be found by
+     * both its old and new names.
+     */
+    private final Names names;
+
+    /**
+     * Create a model with a shard for each available processor, partitioning
+     * elements by the hash of their names.
+     *
+     * @param lookup the container with the
+     * {@link ElementFactory ElementFactories} to use to create {@link Element}s
+     */
+    public ShardedModel(final Lookup lookup) {
+        this(lookup, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a model partitioning elements by the hash of their names.
+     *
+     * @param lookup the container with the
+     * {@link ElementFactory ElementFactories} to use to create {@link Element}s
+     * @param count the number of shards
+     * @throws IllegalArgumentException if count is less than 1
+     */
+    public ShardedModel(final Lookup lookup, final int count) {
+        this(lookup, count, name -> {
+            int hash = name.hashCode();
+            return hash ^ (hash >>> Short.SIZE);
+        });
+    }
+
+    /**
+     * Create a model.
+     *
+     * @param lookup the container with the
+     * {@link ElementFactory ElementFactories} to use to create {@link Element}s
+     * @param count the number of shards
+     * @param function function returning the shard for a name, such as the
+     * number of the district the named element is in; results are reduced
+     * modulo count
+     * @throws IllegalArgumentException if count is less than 1
+     */
+    public ShardedModel(final Lookup lookup, final int count,
+            final ToIntFunction<String> function) {
+        if (count < 1) {
+            throw new IllegalArgumentException();
+        }
+        @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+        Map<Class<? extends Element>, ElementFactory<? extends Element>> map
+                = new HashMap<>();
+        lookup.lookupAll(ElementFactory.class)
+                .forEach(factory
+                        -> map.put(factory.getElementClass(), factory));
+        factories = Collections.unmodifiableMap(map);
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard();
+        }
+        partitioner = function;
+        names = new Names();
+    }
+
+    @Override
+    public <T extends Element> T create(final Class<T> type,
+            final String name,
+            final Lookup lookup) {
+        if (name != null && get(Element.class, name) != null) {
+            throw new IllegalStateException();
+        }
+        if (factories.get(type) == null) {
+            throw new IllegalArgumentException();
+        }
+        T element = (T) factories.get(type).create(name, lookup);
+        put(element);
+        return element;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The returned set is a snapshot of the model when this method is called,
+     * and is not changed by later changes to the model.
+     */
+    @Override
+    public <T extends Element> Set<T> getAll(final Class<T> type) {
+        return getRange(type, null, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The returned set is a snapshot of the model when this method is called,
+     * and is not changed by later changes to the model. Every shard is locked,
+     * in order, while the snapshots of the shards are taken, so an element
+     * renamed between shards is in the set exactly once. The snapshots of the
+     * shards are merged in order as the set is iterated.
+     */
+    @Override
+    public <T extends Element> Set<T> getRange(final Class<T> type,
+            final String from, final String to) {
+        if (from != null && to != null && from.compareTo(to) > 0) {
+            throw new IllegalArgumentException();
+        }
+        List<ElementSnapshot<T>> parts = new ArrayList<>();
+        snapshot(0, type, from, to, parts);
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        return new MergedSet<>(parts);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * At most size elements are copied from each shard, so the page is read
+     * in time proportional to size and the number of shards.
+     */
+    @Override
+    public <T extends Element> ElementPage<T> getPage(final Class<T> type,
+            final String after, final int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException();
+        }
+        SortedMap<String, T> page = new TreeMap<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.index.forEach((clazz, set) -> {
+                    if (type.isAssignableFrom(clazz)) {
+                        // one more than size to know if there is a next page
+                        SortedMaps.subMap(set.asMap(),
+                                ElementPage.getStart(after), null)
+                                .entrySet().stream()
+                                .limit(size + 1L)
+                                .forEach(entry -> page.put(entry.getKey(),
+                                        (T) entry.getValue()));
+                    }
+                });
+            }
+        }
+        return ElementPage.of(page.values().iterator(), size);
+    }
+
+    @Override
+    public <T extends Element> T get(final Class<T> type, final String name) {
+        Shard shard = shards[getShard(name)];
+        Element element;
+        synchronized (shard) {
+            element = shard.elements.get(name);
+        }
+        if (type.isInstance(element)) {
+            return (T) element;
+        }
+        return null;
+    }
+
+    @Override
+    public <T extends Element> T getOrCreate(final Class<T> type,
+            final String name,
+            final Lookup lookup) {
+        T element = get(type, name);
+        if (element != null) {
+            return element;
+        }
+        try {
+            return create(type, name, lookup);
+        } catch (IllegalStateException ex) {
+            // possibly created by another thread since checked
+            element = get(type, name);
+            if (element == null) {
+                throw ex;
+            }
+            return element;
+        }
+    }
+
+    @Override
+    public ShardedModel put(final Element element) {
+        if (!names.add(element)) {
+            throw new IllegalStateException();
+        }
+        fireElementsChange(Collections.singletonList(element),
+                Collections.emptyList());
+        return getSelf();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The locks for all the names are held while the names are checked and
+     * the elements put, so other threads see either none or all of the
+     * elements. Listeners are notified of the addition with a single
+     * {@link ElementsChangeEvent}.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <M extends Model> M putAll(
+            final Collection<? extends Element> added) {
+        if (!names.addAll(added)) {
+            throw new IllegalStateException();
+        }
+        if (!added.isEmpty()) {
+            fireElementsChange(new ArrayList<>(added),
+                    Collections.emptyList());
+        }
+        return (M) getSelf();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Every element is created before any is put into the model with
+     * {@link #putAll(Collection)}.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends Element> List<T> createAll(final Class<T> type,
+            final Collection<String> newNames, final Lookup lookup) {
+        ElementFactory<? extends Element> factory = factories.get(type);
+        if (factory == null) {
+            throw new IllegalArgumentException();
+        }
+        List<T> created = new ArrayList<>(newNames.size());
+        newNames.forEach(name -> created.add((T) factory.create(name,
+                lookup)));
+        putAll(created);
+        return created;
+    }
+
+    @Override
+    public ShardedModel remove(final Element element) {
+        if (element != null && names.remove(element)) {
+            fireElementsChange(Collections.emptyList(),
+                    Collections.singletonList(element));
+        }
+        return getSelf();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * States are set in parallel on the common
+     * {@link java.util.concurrent.ForkJoinPool} without locking any shard;
+     * elements sharing a delegate are set in sequence on one thread, which is
+     * the calling thread if the delegate is shared with elements not in
+     * states. Listeners to the model are notified of all changed states with
+     * a single {@link StatesChangeEvent} once every state is set.
+     */
+    @Override
+    public void applyStates(
+            final Map<? extends Element, ? extends DiscreteState> states) {
+        Map<Element, DiscreteState> oldStates = new LinkedHashMap<>();
+        states.keySet().forEach(element -> {
+            if (!(element instanceof DiscreteStateElement)
+                    || get(Element.class, element.getName()) != element) {
+                throw new IllegalArgumentException();
+            }
+            oldStates.put(element,
+                    ((DiscreteStateElement<?>) element).getState());
+        });
+        try {
+            ParallelStates.apply(states);
+        } finally {
+            Map<Element, DiscreteState> newStates = new LinkedHashMap<>();
+            states.keySet().forEach(element -> {
+                DiscreteState state
+                        = ((DiscreteStateElement<?>) element).getState();
+                if (Objects.equals(oldStates.get(element), state)) {
+                    oldStates.remove(element);
+                } else {
+                    newStates.put(element, state);
+                }
+            });
+            if (!newStates.isEmpty()
+                    && hasListeners(StatesChangeEvent.STATES)) {
+                firePropertyChange(
+                        new StatesChangeEvent(this, oldStates, newStates));
+            }
+        }
+    }
+
+    @Override
+    public Set<Class<? extends Element>> getCreatableClasses() {
+        return factories.keySet();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Reserves the new name for the renamed element if no other element has
+     * that name, or releases a reserved name if the rename was vetoed by
+     * another listener. A rename is also vetoed if another rename of the same
+     * element is in progress.
+     */
+    @Override
+    public void vetoableChange(final PropertyChangeEvent evt)
+            throws PropertyVetoException {
+        names.reserve(evt);
+    }
+
+    @Override
+    public void propertyChange(final PropertyChangeEvent evt) {
+        names.commit(evt);
+    }
+
+    @Override
+    public ShardedModel getSelf() {
+        return this;
+    }
+
+    /**
+     * Get the number of names in a shard, including names reserved by
+     * elements being renamed.
+     *
+     * @param shard the shard
+     * @return the number of names
+     */
+    // package private for unit testing
+    int getShardSize(final int shard) {
+        synchronized (shards[shard]) {
+            return shards[shard].elements.size();
+        }
+    }
+
+    /**
+     * Take snapshots of the elements of a type in a range of names in a shard
+     * and all later shards, holding the lock of each shard until the
+     * snapshots of all later shards are taken.
+     *
+     * @param <T> the type of element
+     * @param shard the index of the first shard
+     * @param type the type of element
+     * @param from the first name, inclusive; null for the first element
+     * @param to the last name, exclusive; null for the last element
+     * @param parts the list to add each non-empty snapshot to
+     */
+    private <T extends Element> void snapshot(final int shard,
+            final Class<T> type, final String from, final String to,
+            final List<ElementSnapshot<T>> parts) {
+        if (shard == shards.length) {
+            return;
+        }
+        synchronized (shards[shard]) {
+            shards[shard].index.forEach((clazz, set) -> {
+                if (type.isAssignableFrom(clazz)) {
+                    ElementSnapshot<T> part
+                            = (ElementSnapshot<T>) set.range(from, to);
+                    if (!part.isEmpty()) {
+                        parts.add(part);
+                    }
+                }
+            });
+            snapshot(shard + 1, type, from, to, parts);
+        }
+    }
+
+    /**
+     * Notify listeners of added and removed elements. Listeners are notified
+     * on the thread that changed the model, after the change has taken effect,
+     * and without holding any lock.
+     *
+     * @param added the added elements
+     * @param removed the removed elements
+     */
+    private void fireElementsChange(final List<? extends Element> added,
+            final List<? extends Element> removed) {
+        if (hasListeners(ElementsChangeEvent.ELEMENTS)) {
+            firePropertyChange(new ElementsChangeEvent(this, added, removed));
+        }
+    }
+
+    /**
+     * Get the index of the shard containing a name. When holding two shards,
+     * the shard with the lower index must be locked first.
+     *
+     * @param name the name
+     * @return the index of the shard
+     */
+    private int getShard(final String name) {
+        return Math.floorMod(partitioner.applyAsInt(name), shards.length);
+    }
+
+    /**
+     * A partition of the model. All access to a shard must be synchronized on
+     * the shard.
+     */
+    private static final class Shard {
+
+        /**
+         * Map of elements, keyed by name, including the names reserved by
+         * elements being renamed.
+         */
+        private final Map<String, Element> elements = new HashMap<>();
+        /**
+         * Index of elements keyed by name for each concrete class of element
+         * in the shard. Reserved names are not indexed.
+         */
+        @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+        private final Map<Class<? extends Element>, ElementSet<Element>> index
+                = new HashMap<>();
+
+        /**
+         * Get the index for a concrete class of element, creating it if
+         * needed.
+         *
+         * @param clazz the concrete class
+         * @return the index of elements of clazz
+         */
+        ElementSet<Element> getIndex(final Class<? extends Element> clazz) {
+            return index.computeIfAbsent(clazz, c -> new ElementSet<>());
+        }
+
+        /**
+         * Remove the mapping of a name to an element, if it exists.
+         *
+         * @param name the name
+         * @param element the element
+         */
+        void unindex(final String name, final Element element) {
+            if (elements.remove(name, element)) {
+                getIndex(element.getClass()).unindex(name);
+            }
+        }
+    }
+
+    /**
+     * The names of the elements in this model, indexing elements in the
+     * shards of this model.
+     */
+    private final class Names extends ReservedNames {
+
+        /**
+         * Create the names of this model.
+         */
+        Names() {
+            super(shards, ShardedModel.this, ShardedModel.this);
+        }
+
+        @Override
+        int getLock(final String name) {
+            return getShard(name);
+        }
+
+        @Override
+        boolean isIndexed(final String name) {
+            return shards[getShard(name)].elements.containsKey(name);
+        }
+
+        @Override
+        void added(final String name, final Element element) {
+            Shard shard = shards[getShard(name)];
+            shard.elements.put(name, element);
+            shard.getIndex(element.getClass()).index(name, element);
+        }
+
+        @Override
+        void removed(final String name, final String reserved,
+                final Element element) {
+            shards[getShard(name)].unindex(name, element);
+            shards[getShard(reserved)].unindex(reserved, element);
+        }
+
+        @Override
+        void reserved(final String name, final Element element) {
+            // reserved names are not indexed by class
+            shards[getShard(name)].elements.put(name, element);
+        }
+
+        @Override
+        void released(final String name, final Element element) {
+            shards[getShard(name)].elements.remove(name, element);
+        }
+
+        @Override
+        void renamed(final String oldName, final String newName,
+                final Element element) {
+            shards[getShard(oldName)].unindex(oldName, element);
+            shards[getShard(newName)].getIndex(element.getClass())
+                    .index(newName, element);
+        }
+    }
+
+    /**
+     * An immutable set of elements merged in order of name from sorted
+     * snapshots as it is iterated.
+     *
+     * @param <T> the type of element
+     */
+    private static final class MergedSet<T extends Element>
+            extends AbstractSet<T> {
+
+        /**
+         * The snapshots to merge.
+         */
+        private final List<ElementSnapshot<T>> parts;
+        /**
+         * The total size of the snapshots.
+         */
+        private final int size;
+
+        /**
+         * Create a set.
+         *
+         * @param snapshots the snapshots to merge, which must not contain the
+         * same element
+         */
+        MergedSet(final List<ElementSnapshot<T>> snapshots) {
+            parts = snapshots;
+            size = snapshots.stream().mapToInt(Set::size).sum();
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                private final int[] next = new int[parts.size()];
+                private int remaining = size;
+
+                @Override
+                public boolean hasNext() {
+                    return remaining > 0;
+                }
+
+                @Override
+                public T next() {
+                    if (remaining == 0) {
+                        throw new NoSuchElementException();
+                    }
+                    int lowest = -1;
+                    String name = null;
+                    for (int i = 0; i < next.length; i++) {
+                        ElementSnapshot<T> part = parts.get(i);
+                        if (next[i] < part.size() && (name == null
+                                || part.getName(next[i]).compareTo(name)
+                                < 0)) {
+                            lowest = i;
+                            name = part.getName(next[i]);
+                        }
+                    }
+                    remaining--;
+                    return parts.get(lowest).get(next[lowest]++);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(final Object object) {
+            return parts.stream().anyMatch(part -> part.contains(object));
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import org.openide.util.NbBundle;
+
+/**
+ * A read-only index of the records in a {@link ModelSnapshot} file. The file
+ * is memory-mapped and scanned once for the positions of the records, so the
+ * name, state, and delegate of an element are read from the file only when
+ * needed, and no element is created by the index. Since the records of each
+ * section are sorted by name, the sections are merged into one sorted index
+ * holding only the name of the next record of each section in memory.
+ *
+ * @author rhwood
+ */
+final class SnapshotStore {
+
+    /**
+     * The mapped snapshot file.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The name of the class of elements in each section.
+     */
+    private final String[] classNames;
+    /**
+     * The name of the enum of states in each section; empty if none.
+     */
+    private final String[] stateClassNames;
+    /**
+     * The position of the record of each element in the file, sorted by the
+     * name of the element.
+     */
+    private final int[] positions;
+    /**
+     * The section containing each element, in the order of positions.
+     */
+    private final int[] sections;
+    /**
+     * The names of the elements, in the order of positions; each is null
+     * until the name is first read.
+     */
+    private final String[] names;
+
+    /**
+     * Open a snapshot file.
+     *
+     * @param path the snapshot file
+     * @throws IOException if unable to read path, or path does not contain a
+     * complete snapshot of a supported version with each name in only one
+     * record
+     */
+    SnapshotStore(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+        try {
+            if (buffer.getInt() != ModelSnapshot.MAGIC) {
+                throw new IOException(NbBundle.getMessage(
+                        ModelSnapshot.class, "snapshot.format"));
+            }
+            int version = Short.toUnsignedInt(buffer.getShort());
+            if (version != ModelSnapshot.VERSION) {
+                throw new IOException(NbBundle.getMessage(
+                        ModelSnapshot.class, "snapshot.version", version));
+            }
+            int count = buffer.getInt();
+            if (count < 0) {
+                throw new IOException(NbBundle.getMessage(
+                        ModelSnapshot.class, "snapshot.format"));
+            }
+            classNames = new String[count];
+            stateClassNames = new String[count];
+            // the records of section i are at starts[i] to starts[i + 1]
+            int[] starts = new int[count + 1];
+            int[] records = new int[0];
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                classNames[i] = getString(buffer);
+                stateClassNames[i] = getString(buffer);
+                int length = buffer.getInt();
+                if (length < 0) {
+                    throw new IOException(NbBundle.getMessage(
+                            ModelSnapshot.class, "snapshot.format"));
+                }
+                records = Arrays.copyOf(records, size + length);
+                starts[i] = size;
+                for (int j = 0; j < length; j++, size++) {
+                    records[size] = buffer.position();
+                    // skip the name, state, and delegate
+                    skipString(buffer);
+                    buffer.get();
+                    skipString(buffer);
+                }
+            }
+            starts[count] = size;
+            positions = new int[size];
+            sections = new int[size];
+            names = new String[size];
+            merge(records, starts);
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw (IOException) new EOFException().initCause(ex);
+        }
+    }
+
+    /**
+     * Merge the records of the sections, each sorted by name, into the
+     * positions and sections of this index.
+     *
+     * @param records the positions of the records, in the order of the file
+     * @param starts the index in records of the first record of each
+     * section, followed by the number of records
+     * @throws IOException if a section is not sorted by name or a name is in
+     * more than one record
+     */
+    private void merge(final int[] records, final int[] starts)
+            throws IOException {
+        int count = starts.length - 1;
+        PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, count),
+                Comparator.comparing((Head head) -> head.name)
+                        .thenComparingInt(head -> head.section));
+        for (int i = 0; i < count; i++) {
+            if (starts[i] < starts[i + 1]) {
+                heads.add(new Head(i, starts[i],
+                        readString(records[starts[i]])));
+            }
+        }
+        String previous = null;
+        int next = 0;
+        while (!heads.isEmpty()) {
+            Head head = heads.poll();
+            if (previous != null) {
+                int order = previous.compareTo(head.name);
+                if (order == 0) {
+                    throw new IOException(NbBundle.getMessage(
+                            ModelSnapshot.class, "snapshot.duplicate",
+                            head.name));
+                } else if (order > 0) {
+                    throw new IOException(NbBundle.getMessage(
+                            ModelSnapshot.class, "snapshot.format"));
+                }
+            }
+            positions[next] = records[head.record];
+            sections[next] = head.section;
+            next++;
+            previous = head.name;
+            head.record++;
+            if (head.record < starts[head.section + 1]) {
+                head.name = readString(records[head.record]);
+                heads.add(head);
+            }
+        }
+    }
+
+    /**
+     * Get the number of sections.
+     *
+     * @return the number of sections
+     */
+    int getSectionCount() {
+        return classNames.length;
+    }
+
+    /**
+     * Get the name of the class of elements in a section.
+     *
+     * @param section the section
+     * @return the name of the class
+     */
+    String getClassName(final int section) {
+        return classNames[section];
+    }
+
+    /**
+     * Get the name of the enum of states in a section.
+     *
+     * @param section the section
+     * @return the name of the enum or an empty string
+     */
+    String getStateClassName(final int section) {
+        return stateClassNames[section];
+    }
+
+    /**
+     * Get the number of elements.
+     *
+     * @return the number of elements
+     */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * Get the index of an element.
+     *
+     * @param name the name of the element
+     * @return the index or -1 if there is no element with name
+     */
+    int indexOf(final String name) {
+        int index = search(name);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * Get the index of the first element with a name not less than a name.
+     *
+     * @param name the name or null for the first element
+     * @return the index, which is {@link #size()} if all elements are less
+     * than name
+     */
+    int lowerBound(final String name) {
+        if (name == null) {
+            return 0;
+        }
+        int index = search(name);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    /**
+     * Get the name of an element.
+     *
+     * @param index the index of the element
+     * @return the name
+     */
+    String getName(final int index) {
+        String name = names[index];
+        if (name == null) {
+            name = readString(positions[index]);
+            names[index] = name;
+        }
+        return name;
+    }
+
+    /**
+     * Get the section containing an element.
+     *
+     * @param index the index of the element
+     * @return the section
+     */
+    int getSection(final int index) {
+        return sections[index];
+    }
+
+    /**
+     * Get the stored state of an element.
+     *
+     * @param index the index of the element
+     * @return 0 if the state is null, or the ordinal of the state plus 1
+     */
+    byte getStateValue(final int index) {
+        return buffer.get(getStatePosition(index));
+    }
+
+    /**
+     * Get the name of the delegate of an element.
+     *
+     * @param index the index of the element
+     * @return the name of the delegate or an empty string if none
+     */
+    String getDelegateName(final int index) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(getStatePosition(index) + Byte.BYTES);
+        return getString(record);
+    }
+
+    /**
+     * Find an element by name, as {@link Arrays#binarySearch(Object[],
+     * Object)} does, reading only the names compared.
+     *
+     * @param name the name
+     * @return the index of the element, or (-(insertion point) - 1) if there
+     * is no element with name
+     */
+    private int search(final String name) {
+        int low = 0;
+        int high = positions.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int order = getName(middle).compareTo(name);
+            if (order < 0) {
+                low = middle + 1;
+            } else if (order > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Get the position of the state of an element in the file, which follows
+     * the name of the element.
+     *
+     * @param index the index of the element
+     * @return the position
+     */
+    private int getStatePosition(final int index) {
+        int position = positions[index];
+        return position + Short.BYTES
+                + Short.toUnsignedInt(buffer.getShort(position));
+    }
+
+    /**
+     * Read a string at a position in the file without moving the file
+     * position.
+     *
+     * @param position the position of the string
+     * @return the string
+     */
+    private String readString(final int position) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(position);
+        return getString(record);
+    }
+
+    /**
+     * Read a string written by {@link ModelSnapshot}.
+     *
+     * @param source the buffer to read
+     * @return the string
+     */
+    private static String getString(final ByteBuffer source) {
+        byte[] bytes = new byte[Short.toUnsignedInt(source.getShort())];
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Skip a string written by {@link ModelSnapshot}.
+     *
+     * @param source the buffer to read
+     */
+    private static void skipString(final ByteBuffer source) {
+        int length = Short.toUnsignedInt(source.getShort());
+        source.position(source.position() + length);
+    }
+
+    /**
+     * The next record of a section to merge into the index.
+     */
+    private static final class Head {
+
+        /**
+         * The section.
+         */
+        private final int section;
+        /**
+         * The index of the next record of the section in the records being
+         * merged.
+         */
+        private int record;
+        /**
+         * The name of the next record.
+         */
+        private String name;
+
+        /**
+         * Create the head of a section.
+         *
+         * @param headSection the section
+         * @param headRecord the index of the first record of the section
+         * @param headName the name of the first record
+         */
+        Head(final int headSection, final int headRecord,
+                final String headName) {
+            section = headSection;
+            record = headRecord;
+            name = headName;
+        }
+    }
+}
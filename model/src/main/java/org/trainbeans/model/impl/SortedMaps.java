@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+
+/**
+ * Utilities for the sorted maps used to index elements by name.
+ *
+ * @author rhwood
+ */
+final class SortedMaps {
+
+    /**
+     * Prevent construction of utility class.
+     */
+    private SortedMaps() {
+        // prevent construction
+    }
+
+    /**
+     * Get a view of the portion of a map with keys in a range. This runs in
+     * logarithmic time for the maps in the Java Collections Framework.
+     *
+     * @param <V> the type of value
+     * @param map the map
+     * @param from the lowest key in the range, inclusive; null if the range
+     * has no lower bound
+     * @param to the highest key in the range, exclusive; null if the range has
+     * no upper bound
+     * @return a view of the portion of map in the range
+     * @throws IllegalArgumentException if from is greater than to
+     */
+    static <V> SortedMap<String, V> subMap(final SortedMap<String, V> map,
+            final String from, final String to) {
+        if (from != null && to != null) {
+            return map.subMap(from, to);
+        } else if (from != null) {
+            return map.tailMap(from);
+        } else if (to != null) {
+            return map.headMap(to);
+        }
+        return map;
+    }
+
+    /**
+     * Get an iterator over the values of several maps in order of their keys.
+     * The maps are merged as the iterator advances, so no map is copied. If
+     * a key is in more than one map, the value from each is returned.
+     *
+     * @param <V> the type of value
+     * @param maps the maps
+     * @return an iterator over the values of all maps
+     */
+    static <V> Iterator<V> merge(
+            final List<? extends SortedMap<String, ? extends V>> maps) {
+        List<Iterator<? extends Map.Entry<String, ? extends V>>> iterators
+                = new ArrayList<>(maps.size());
+        maps.forEach(map -> iterators.add(map.entrySet().iterator()));
+        return new Iterator<V>() {
+            private final List<Map.Entry<String, ? extends V>> heads
+                    = new ArrayList<>(iterators.size());
+
+            {
+                iterators.forEach(iterator
+                        -> heads.add(iterator.hasNext() ? iterator.next()
+                        : null));
+            }
+
+            @Override
+            public boolean hasNext() {
+                return heads.stream().anyMatch(head -> head != null);
+            }
+
+            @Override
+            public V next() {
+                int lowest = -1;
+                for (int i = 0; i < heads.size(); i++) {
+                    Map.Entry<String, ? extends V> head = heads.get(i);
+                    if (head != null && (lowest == -1 || head.getKey()
+                            .compareTo(heads.get(lowest).getKey()) < 0)) {
+                        lowest = i;
+                    }
+                }
+                if (lowest == -1) {
+                    throw new NoSuchElementException();
+                }
+                V value = heads.get(lowest).getValue();
+                Iterator<? extends Map.Entry<String, ? extends V>> iterator
+                        = iterators.get(lowest);
+                heads.set(lowest, iterator.hasNext() ? iterator.next() : null);
+                return value;
+            }
+        };
+    }
+}
@@ -0,0 +1,727 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.openide.util.NbBundle;
+import org.trainbeans.model.api.AbstractDelegatingDiscreteStateElement;
+import org.trainbeans.model.api.DiscreteState;
+import org.trainbeans.model.api.DiscreteStateElement;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.ElementsChangeEvent;
+import org.trainbeans.model.api.Model;
+
+/**
+ * An append-only journal of the changes in state and name of the
+ * {@link DiscreteStateElement}s in a {@link Model}, written to a memory-mapped
+ * file.
+ *
+ * Listeners attached to the model only queue each change, so a thread
+ * changing the state of an element never waits for the journal. A single
+ * writer thread appends queued changes to the file and forces all changes
+ * appended since the last commit to storage at once, at most once per commit
+ * interval.
+ *
+ * Each record is checked with a CRC, so a record torn by a crash is detected
+ * and the journal is recovered up to the last complete record. Every byte
+ * after the last record is kept zero, by zeroing the rest of the journal when
+ * it is recovered and the discarded records when it is reset, so a crash
+ * while appending can never expose records discarded earlier. To restore a
+ * model after a crash, load the last {@link ModelSnapshot}, {@link #replay}
+ * the journal, and then {@link #attach} the journal to the model. Changes in
+ * membership of the model are not journaled; {@link #reset} the journal
+ * after saving a snapshot.
+ *
+ * @author rhwood
+ */
+public final class StateJournal implements PropertyChangeListener, Closeable {
+
+    /**
+     * The version of the journal format written by this class.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The default commit interval in milliseconds.
+     */
+    public static final long DEFAULT_COMMIT_INTERVAL = 10;
+    /**
+     * The first bytes of every journal; {@code TBSJ} in ASCII.
+     */
+    private static final int MAGIC = 0x5442534A;
+    /**
+     * The size of the journal header.
+     */
+    private static final int HEADER = Integer.BYTES + Short.BYTES;
+    /**
+     * The size of the length and CRC preceding each record.
+     */
+    private static final int PREFIX = Integer.BYTES + Integer.BYTES;
+    /**
+     * The initial size of the journal file.
+     */
+    private static final int INITIAL_SIZE = 0x100000;
+    /**
+     * The mask to convert a byte to an unsigned integer.
+     */
+    private static final int UNSIGNED_BYTE = 0xFF;
+    /**
+     * Record defining the number of an enum of states.
+     */
+    private static final byte DEFINE = 1;
+    /**
+     * Record of a change in state.
+     */
+    private static final byte STATE = 2;
+    /**
+     * Record of a change in name.
+     */
+    private static final byte RENAME = 3;
+    /**
+     * The number of the enum of null states.
+     */
+    private static final int NO_STATES = 0;
+    /**
+     * Logger for failures in the writer thread.
+     */
+    private static final Logger LOG
+            = Logger.getLogger(StateJournal.class.getName());
+
+    /**
+     * The journal file.
+     */
+    private final FileChannel channel;
+    /**
+     * The changes not yet appended to the journal.
+     */
+    private final Queue<Change> queue = new ConcurrentLinkedQueue<>();
+    /**
+     * The number of changes queued.
+     */
+    private final AtomicLong queued = new AtomicLong();
+    /**
+     * The number of changes forced to storage.
+     */
+    private volatile long committed;
+    /**
+     * The number of each enum of states defined in the journal, keyed by the
+     * name of the enum. Guarded by this.
+     */
+    private final Map<String, Integer> defined = new HashMap<>();
+    /**
+     * The thread appending queued changes to the journal.
+     */
+    private final Thread writer;
+    /**
+     * The commit interval in nanoseconds.
+     */
+    private final long interval;
+    /**
+     * The mapped journal file. Guarded by this.
+     */
+    private MappedByteBuffer buffer;
+    /**
+     * False once closed or once the writer thread stops after a failure.
+     */
+    private volatile boolean open = true;
+    /**
+     * True once closed.
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /**
+     * The failure that stopped the writer thread, if any.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Open a journal with the default commit interval, creating it if needed.
+     *
+     * @param path the journal file
+     * @throws IOException if unable to open path or path is not a journal
+     */
+    public StateJournal(final Path path) throws IOException {
+        this(path, DEFAULT_COMMIT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Open a journal, creating it if needed. Any torn record at the end of an
+     * existing journal is discarded.
+     *
+     * @param path the journal file
+     * @param commitInterval the longest time between a change and its commit
+     * @param unit the unit of commitInterval
+     * @throws IOException if unable to open path or path is not a journal
+     */
+    public StateJournal(final Path path, final long commitInterval,
+            final TimeUnit unit) throws IOException {
+        interval = unit.toNanos(commitInterval);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size > 0) {
+                // check before mapping, which would grow the file
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                channel.read(header, 0);
+                if (size < HEADER || header.getInt(0) != MAGIC) {
+                    throw new IOException(NbBundle.getMessage(
+                            StateJournal.class, "journal.format"));
+                }
+                int version = Short.toUnsignedInt(header.getShort(
+                        Integer.BYTES));
+                if (version != VERSION) {
+                    throw new IOException(NbBundle.getMessage(
+                            StateJournal.class, "journal.version", version));
+                }
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(size, INITIAL_SIZE));
+            if (size == 0) {
+                buffer.putInt(MAGIC).putShort((short) VERSION);
+            } else {
+                int end = recover();
+                buffer.position(end);
+                zero(end, buffer.capacity());
+                buffer.force();
+            }
+            terminate();
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        writer = new Thread(this::write, "StateJournal " + path);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Apply the changes in this journal to a model. Changes to elements not in
+     * the model are ignored. The states of
+     * {@link AbstractDelegatingDiscreteStateElement}s are restored with
+     * {@link AbstractDelegatingDiscreteStateElement#restoreState}, so no
+     * state is requested from a delegate; the states of other elements are
+     * set with {@link DiscreteStateElement#setState(DiscreteState)}.
+     *
+     * This should be called before this journal is attached to model.
+     *
+     * @param model the model
+     * @return the number of changes applied
+     * @throws IOException if the journal names an enum of states that cannot
+     * be loaded
+     */
+    public synchronized int replay(final Model model) throws IOException {
+        ByteBuffer records = buffer.duplicate();
+        int end = buffer.position();
+        records.position(HEADER);
+        Map<Integer, String> names = new HashMap<>();
+        Map<Integer, DiscreteState[]> states = new HashMap<>();
+        int applied = 0;
+        while (records.position() < end) {
+            int next = records.position() + PREFIX + records.getInt();
+            records.position(records.position() + Integer.BYTES);
+            byte kind = records.get();
+            if (kind == DEFINE) {
+                int number = records.getInt();
+                names.put(number, getString(records));
+            } else if (kind == STATE) {
+                String name = getString(records);
+                int number = records.getInt();
+                int value = (records.get() & UNSIGNED_BYTE) - 1;
+                DiscreteStateElement element
+                        = model.get(DiscreteStateElement.class, name);
+                if (element != null) {
+                    DiscreteState[] values = number == NO_STATES ? null
+                            : getStates(states, names, number, element);
+                    restore(element, value < 0 || values == null
+                            || value >= values.length ? null : values[value]);
+                    applied++;
+                }
+            } else if (kind == RENAME) {
+                String oldName = getString(records);
+                String newName = getString(records);
+                Element element = model.get(Element.class, oldName);
+                if (element != null
+                        && model.get(Element.class, newName) == null) {
+                    element.setName(newName);
+                    applied++;
+                }
+            }
+            records.position(next);
+        }
+        return applied;
+    }
+
+    /**
+     * Restore the state of an element without requesting it from a delegate.
+     *
+     * @param element the element
+     * @param state the state
+     */
+    private static void restore(final DiscreteStateElement element,
+            final DiscreteState state) {
+        if (element instanceof AbstractDelegatingDiscreteStateElement) {
+            ((AbstractDelegatingDiscreteStateElement) element)
+                    .restoreState(state);
+        } else {
+            element.setState(state);
+        }
+    }
+
+    /**
+     * Start journaling changes to the elements in a model, including elements
+     * added to the model later.
+     *
+     * @param model the model
+     */
+    public void attach(final Model model) {
+        model.addPropertyChangeListener(ElementsChangeEvent.ELEMENTS, this);
+        model.getAll(DiscreteStateElement.class).forEach(this::listen);
+    }
+
+    /**
+     * Stop journaling changes to the elements in a model.
+     *
+     * @param model the model
+     */
+    public void detach(final Model model) {
+        model.removePropertyChangeListener(ElementsChangeEvent.ELEMENTS,
+                this);
+        model.getAll(DiscreteStateElement.class).forEach(this::unlisten);
+    }
+
+    /**
+     * Queue a change to an element or start or stop listening to elements
+     * added to or removed from a model. This never blocks.
+     *
+     * @param evt the event
+     */
+    @Override
+    public void propertyChange(final PropertyChangeEvent evt) {
+        if (evt instanceof ElementsChangeEvent) {
+            ElementsChangeEvent change = (ElementsChangeEvent) evt;
+            change.getAdded(DiscreteStateElement.class).forEach(this::listen);
+            change.getRemoved(DiscreteStateElement.class)
+                    .forEach(this::unlisten);
+        } else if (evt.getSource() instanceof DiscreteStateElement) {
+            Element element = (Element) evt.getSource();
+            if (evt.getPropertyName().equals("state")) {
+                Object state = evt.getNewValue();
+                enqueue(new Change(element.getName(), null,
+                        state instanceof DiscreteState
+                                ? (DiscreteState) state : null));
+            } else if (evt.getPropertyName().equals("name")
+                    && evt.getOldValue() != null) {
+                enqueue(new Change(element.getName(),
+                        evt.getOldValue().toString(), null));
+            }
+        }
+    }
+
+    /**
+     * Wait until every change queued before this is called is forced to
+     * storage.
+     *
+     * @throws IOException if the journal failed
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void flush() throws IOException {
+        long target = queued.get();
+        while (committed < target) {
+            checkFailure();
+            if (!open) {
+                throw new IOException(NbBundle.getMessage(
+                        StateJournal.class, "journal.closed"));
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, interval);
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Discard all changes in this journal, typically after saving a
+     * {@link ModelSnapshot} containing the changes. The journal is emptied
+     * and forced to storage before the discarded records are zeroed, so a
+     * crash while resetting leaves an empty journal, and the zeroed records
+     * are forced to storage before any new record is appended.
+     *
+     * @throws IOException if the journal failed
+     */
+    public void reset() throws IOException {
+        flush();
+        synchronized (this) {
+            int end = buffer.position();
+            defined.clear();
+            buffer.position(HEADER);
+            terminate();
+            buffer.force();
+            zero(HEADER, end);
+            buffer.force();
+        }
+    }
+
+    /**
+     * Commit all queued changes and close this journal. The journal file is
+     * closed even if the writer thread stopped after a failure, which is then
+     * thrown. Closing a closed journal has no effect.
+     *
+     * @throws IOException if the journal failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        open = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            channel.close();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Listen to an element.
+     *
+     * @param element the element
+     */
+    private void listen(final DiscreteStateElement<?> element) {
+        element.addPropertyChangeListener("state", this);
+        element.addPropertyChangeListener("name", this);
+    }
+
+    /**
+     * Stop listening to an element.
+     *
+     * @param element the element
+     */
+    private void unlisten(final DiscreteStateElement<?> element) {
+        element.removePropertyChangeListener("state", this);
+        element.removePropertyChangeListener("name", this);
+    }
+
+    /**
+     * Queue a change for the writer thread.
+     *
+     * @param change the change
+     */
+    private void enqueue(final Change change) {
+        if (open) {
+            // count first so a flush never misses a change being queued
+            queued.incrementAndGet();
+            queue.add(change);
+        }
+    }
+
+    /**
+     * Append queued changes to the journal until closed, forcing appended
+     * changes to storage once per pass.
+     */
+    private void write() {
+        while (true) {
+            boolean closing = !open;
+            long count = 0;
+            try {
+                synchronized (this) {
+                    Change change = queue.poll();
+                    while (change != null) {
+                        append(change);
+                        count++;
+                        change = queue.poll();
+                    }
+                    if (count > 0) {
+                        terminate();
+                        buffer.force();
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                LOG.log(Level.WARNING, null, ex);
+                failure = ex instanceof IOException ? (IOException) ex
+                        : new IOException(ex);
+                open = false;
+                return;
+            }
+            committed += count;
+            if (closing) {
+                return;
+            }
+            LockSupport.parkNanos(this, interval);
+        }
+    }
+
+    /**
+     * Append a change to the journal. The caller must hold the lock on this.
+     *
+     * @param change the change
+     * @throws IOException if unable to grow the journal
+     */
+    private void append(final Change change) throws IOException {
+        byte[] name = change.name.getBytes(StandardCharsets.UTF_8);
+        if (change.oldName != null) {
+            byte[] oldName = change.oldName.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = ByteBuffer.allocate(Byte.BYTES
+                    + Integer.BYTES * 2 + oldName.length + name.length);
+            record.put(RENAME).putInt(oldName.length).put(oldName)
+                    .putInt(name.length).put(name);
+            append(record);
+            return;
+        }
+        int number = NO_STATES;
+        int value = 0;
+        if (change.state instanceof Enum) {
+            Enum<?> state = (Enum<?>) change.state;
+            number = define(state.getDeclaringClass().getName());
+            value = state.ordinal() + 1;
+        }
+        ByteBuffer record = ByteBuffer.allocate(Byte.BYTES
+                + Integer.BYTES * 2 + name.length + Byte.BYTES);
+        record.put(STATE).putInt(name.length).put(name).putInt(number)
+                .put((byte) value);
+        append(record);
+    }
+
+    /**
+     * Get the number of an enum of states, defining it in the journal if not
+     * yet defined. The caller must hold the lock on this.
+     *
+     * @param name the name of the enum
+     * @return the number
+     * @throws IOException if unable to grow the journal
+     */
+    private int define(final String name) throws IOException {
+        Integer number = defined.get(name);
+        if (number == null) {
+            number = defined.size() + 1;
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = ByteBuffer.allocate(Byte.BYTES
+                    + Integer.BYTES * 2 + bytes.length);
+            record.put(DEFINE).putInt(number).putInt(bytes.length).put(bytes);
+            append(record);
+            defined.put(name, number);
+        }
+        return number;
+    }
+
+    /**
+     * Append a record with its length and CRC to the journal, growing the
+     * journal if needed. The caller must hold the lock on this.
+     *
+     * @param record the record, positioned at its end
+     * @throws IOException if unable to grow the journal
+     */
+    private void append(final ByteBuffer record) throws IOException {
+        record.flip();
+        int length = record.remaining();
+        // leave room to terminate the journal after the record
+        int needed = PREFIX + length + Integer.BYTES;
+        if (buffer.remaining() < needed) {
+            int position = buffer.position();
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(buffer.capacity() * 2L, position + needed));
+            buffer.position(position);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, length);
+        buffer.putInt(length).putInt((int) crc.getValue()).put(record);
+    }
+
+    /**
+     * Mark the end of the journal at the current position, so that any bytes
+     * after it are not read as records. The caller must hold the lock on this.
+     */
+    private void terminate() {
+        if (buffer.remaining() >= Integer.BYTES) {
+            buffer.putInt(buffer.position(), 0);
+        }
+    }
+
+    /**
+     * Zero a range of the journal, writing only the parts that are not
+     * already zero. The caller must hold the lock on this or be the
+     * constructor.
+     *
+     * @param from the first position to zero, inclusive
+     * @param to the last position to zero, exclusive
+     */
+    private void zero(final int from, final int to) {
+        int position = from;
+        while (position + Long.BYTES <= to) {
+            if (buffer.getLong(position) != 0) {
+                buffer.putLong(position, 0);
+            }
+            position += Long.BYTES;
+        }
+        while (position < to) {
+            buffer.put(position++, (byte) 0);
+        }
+    }
+
+    /**
+     * Find the end of the last complete record in the journal, recording the
+     * enums of states defined by complete records.
+     *
+     * @return the position after the last complete record
+     */
+    private int recover() {
+        ByteBuffer records = buffer.duplicate();
+        int position = HEADER;
+        int limit = records.capacity();
+        while (position + PREFIX < limit) {
+            int length = records.getInt(position);
+            if (length <= 0 || length > limit - position - PREFIX) {
+                break;
+            }
+            byte[] bytes = new byte[length];
+            records.position(position + PREFIX);
+            records.get(bytes);
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, length);
+            if ((int) crc.getValue() != records.getInt(position
+                    + Integer.BYTES)) {
+                break;
+            }
+            ByteBuffer parsed = ByteBuffer.wrap(bytes);
+            if (parsed.get() == DEFINE) {
+                int number = parsed.getInt();
+                defined.put(getString(parsed), number);
+            }
+            position += PREFIX + length;
+        }
+        return position;
+    }
+
+    /**
+     * Get the possible states for an enum number, loading the enum with the
+     * class loader of an element if not yet loaded.
+     *
+     * @param states the loaded states
+     * @param names the names of the enums
+     * @param number the number of the enum
+     * @param element the element
+     * @return the states or null if number is not defined
+     * @throws IOException if the enum cannot be loaded
+     */
+    private static DiscreteState[] getStates(
+            final Map<Integer, DiscreteState[]> states,
+            final Map<Integer, String> names, final int number,
+            final Element element) throws IOException {
+        DiscreteState[] values = states.get(number);
+        String name = names.get(number);
+        if (values == null && name != null) {
+            try {
+                Class<?> clazz = Class.forName(name, false,
+                        element.getClass().getClassLoader());
+                if (!clazz.isEnum()
+                        || !DiscreteState.class.isAssignableFrom(clazz)) {
+                    throw new IOException(NbBundle.getMessage(
+                            StateJournal.class, "journal.class", name));
+                }
+                values = (DiscreteState[]) clazz.getEnumConstants();
+                states.put(number, values);
+            } catch (ClassNotFoundException ex) {
+                throw new IOException(NbBundle.getMessage(
+                        StateJournal.class, "journal.class", name), ex);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Read a string written as a length and UTF-8 bytes.
+     *
+     * @param source the buffer to read
+     * @return the string
+     */
+    private static String getString(final ByteBuffer source) {
+        byte[] bytes = new byte[source.getInt()];
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Throw the failure that stopped the writer thread, if any.
+     *
+     * @throws IOException the failure
+     */
+    private void checkFailure() throws IOException {
+        IOException ex = failure;
+        if (ex != null) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * A queued change in the state or name of an element.
+     */
+    private static final class Change {
+
+        /**
+         * The name of the element after the change.
+         */
+        private final String name;
+        /**
+         * The name of the element before the change; null if the change is a
+         * change in state.
+         */
+        private final String oldName;
+        /**
+         * The state of the element after the change.
+         */
+        private final DiscreteState state;
+
+        /**
+         * Create a change.
+         *
+         * @param newName the name after the change
+         * @param previousName the name before the change or null
+         * @param newState the state after the change
+         */
+        Change(final String newName, final String previousName,
+                final DiscreteState newState) {
+            name = newName;
+            oldName = previousName;
+            state = newState;
+        }
+    }
+}
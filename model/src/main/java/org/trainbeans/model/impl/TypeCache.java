@@ -0,0 +1,198 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import org.trainbeans.model.api.Element;
+
+/**
+ * The cache of sets of elements by requested type kept by a
+ * {@link DefaultModel}, bounded and counted according to a
+ * {@link CachePolicy}.
+ *
+ * @author rhwood
+ */
+final class TypeCache {
+
+    /**
+     * The initial capacity of the map of entries.
+     */
+    private static final int INITIAL_CAPACITY = 0x10;
+    /**
+     * The load factor of the map of entries.
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+    /**
+     * The policy.
+     */
+    private final CachePolicy policy;
+    /**
+     * The cached sets, or soft references to them, in order of last access.
+     */
+    private final Map<Class<? extends Element>, Object> entries;
+    /**
+     * The number of requests answered from the cache.
+     */
+    private long hits;
+    /**
+     * The number of requests for a type not in the cache.
+     */
+    private long misses;
+    /**
+     * The number of sets added to the cache.
+     */
+    private long rebuilds;
+    /**
+     * The total time spent building sets added to the cache.
+     */
+    private long rebuildNanos;
+    /**
+     * The number of sets evicted from the cache.
+     */
+    private long evictions;
+
+    /**
+     * Create a cache.
+     *
+     * @param cachePolicy the policy
+     */
+    TypeCache(final CachePolicy cachePolicy) {
+        policy = cachePolicy;
+        entries = new LinkedHashMap<Class<? extends Element>, Object>(
+                INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    final Map.Entry<Class<? extends Element>, Object> eldest) {
+                if (size() > policy.getMaximum()) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the cached set for a type, counting a hit or a miss.
+     *
+     * @param type the type
+     * @return the set or null if type is not cached
+     */
+    ElementSet<Element> get(final Class<? extends Element> type) {
+        ElementSet<Element> set = peek(type);
+        if (set == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return set;
+    }
+
+    /**
+     * Get the cached set for a type without counting a hit or a miss.
+     *
+     * @param type the type
+     * @return the set or null if type is not cached
+     */
+    ElementSet<Element> peek(final Class<? extends Element> type) {
+        Object entry = entries.get(type);
+        ElementSet<Element> set = unwrap(entry);
+        if (entry != null && set == null) {
+            entries.remove(type);
+            evictions++;
+        }
+        return set;
+    }
+
+    /**
+     * Add a newly built set to the cache.
+     *
+     * @param type the type
+     * @param set the set of elements of type
+     * @param nanos the time spent building set, in nanoseconds
+     */
+    void put(final Class<? extends Element> type,
+            final ElementSet<Element> set, final long nanos) {
+        rebuilds++;
+        rebuildNanos += nanos;
+        entries.put(type, policy.isSoft() ? new SoftReference<>(set) : set);
+    }
+
+    /**
+     * Perform an action for each cached set, evicting sets that have been
+     * collected. This does not change the order of last access.
+     *
+     * @param action the action
+     */
+    @SuppressWarnings("checkstyle:linelength") // generic defintion on one line
+    void forEach(final BiConsumer<Class<? extends Element>, ElementSet<Element>> action) {
+        Iterator<Map.Entry<Class<? extends Element>, Object>> iterator
+                = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Class<? extends Element>, Object> entry
+                    = iterator.next();
+            ElementSet<Element> set = unwrap(entry.getValue());
+            if (set == null) {
+                iterator.remove();
+                evictions++;
+            } else {
+                action.accept(entry.getKey(), set);
+            }
+        }
+    }
+
+    /**
+     * Get the current statistics.
+     *
+     * @return the statistics
+     */
+    CacheStatistics getStatistics() {
+        return new CacheStatistics(hits, misses, rebuilds, rebuildNanos,
+                evictions, entries.size());
+    }
+
+    /**
+     * Clear every soft reference to a cached set, as the garbage collector
+     * would when memory is low.
+     */
+    // package private for unit testing
+    void clearReferences() {
+        entries.values().forEach(entry -> {
+            if (entry instanceof SoftReference) {
+                ((SoftReference<?>) entry).clear();
+            }
+        });
+    }
+
+    /**
+     * Get the set in an entry.
+     *
+     * @param entry the set or a soft reference to it; may be null
+     * @return the set or null if entry is null or has been collected
+     */
+    private static ElementSet<Element> unwrap(final Object entry) {
+        if (entry instanceof SoftReference) {
+            return ((SoftReference<ElementSet<Element>>) entry).get();
+        }
+        return (ElementSet<Element>) entry;
+    }
+}
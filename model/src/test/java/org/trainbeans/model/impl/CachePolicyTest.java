@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author rhwood
+ */
+class CachePolicyTest {
+
+    @Test
+    void testPolicies() {
+        assertThat(CachePolicy.unbounded().getMaximum()).isEqualTo(Integer.MAX_VALUE);
+        assertThat(CachePolicy.unbounded().isSoft()).isFalse();
+        assertThat(CachePolicy.leastRecentlyUsed(4).getMaximum()).isEqualTo(4);
+        assertThat(CachePolicy.leastRecentlyUsed(4).isSoft()).isFalse();
+        assertThat(CachePolicy.softReferences().getMaximum()).isEqualTo(Integer.MAX_VALUE);
+        assertThat(CachePolicy.softReferences().isSoft()).isTrue();
+        assertThat(CachePolicy.softReferences(4).getMaximum()).isEqualTo(4);
+        assertThat(CachePolicy.softReferences(4).isSoft()).isTrue();
+        assertThatCode(() -> CachePolicy.leastRecentlyUsed(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatCode(() -> CachePolicy.softReferences(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author rhwood
+ */
+class CacheStatisticsTest {
+
+    @Test
+    void testGetters() {
+        CacheStatistics statistics = new CacheStatistics(3, 1, 2, 100, 4, 5);
+        assertThat(statistics.getHitCount()).isEqualTo(3);
+        assertThat(statistics.getMissCount()).isEqualTo(1);
+        assertThat(statistics.getHitRate()).isEqualTo(0.75);
+        assertThat(statistics.getRebuildCount()).isEqualTo(2);
+        assertThat(statistics.getRebuildNanos()).isEqualTo(100);
+        assertThat(statistics.getEvictionCount()).isEqualTo(4);
+        assertThat(statistics.getSize()).isEqualTo(5);
+        assertThat(statistics.toString()).contains("hits=3", "misses=1");
+        assertThat(new CacheStatistics(0, 0, 0, 0, 0, 0).getHitRate()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openide.util.lookup.Lookups;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.Turnout;
+
+/**
+ * Stress tests of {@link ConcurrentModel} verifying that concurrent changes
+ * leave the model in a state that could have been reached by applying the same
+ * changes one at a time.
+ *
+ * @author rhwood
+ */
+class ConcurrentModelStressTest {
+
+    private static final int THREADS = 8;
+    private static final int NAMES = 500;
+    private static final int ROUNDS = 2000;
+
+    private ConcurrentModel model;
+    private ExecutorService executor;
+    private CyclicBarrier barrier;
+
+    @BeforeEach
+    void setUp() {
+        model = new ConcurrentModel(Lookups.fixed(new TurnoutFactory()));
+        executor = Executors.newFixedThreadPool(THREADS);
+        barrier = new CyclicBarrier(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void testCreateSameNamesConcurrently() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        Set<Turnout> all = Collections.synchronizedSet(new HashSet<>());
+        runConcurrently(() -> {
+            for (int i = 0; i < NAMES; i++) {
+                try {
+                    all.add(model.create(Turnout.class, "T" + i));
+                    created.incrementAndGet();
+                } catch (IllegalStateException ex) {
+                    // created by another thread
+                }
+            }
+            return null;
+        });
+        // each name was created exactly once
+        assertThat(created.get()).isEqualTo(NAMES);
+        assertThat(model.getAll(Turnout.class)).hasSize(NAMES).containsExactlyInAnyOrderElementsOf(all);
+        assertConsistent(all);
+    }
+
+    @Test
+    void testGetOrCreateConcurrently() throws Exception {
+        List<Future<List<Turnout>>> results = runConcurrently(() -> {
+            List<Turnout> seen = new ArrayList<>();
+            for (int i = 0; i < NAMES; i++) {
+                seen.add(model.getOrCreate(Turnout.class, "T" + i));
+            }
+            return seen;
+        });
+        // every thread saw the same element for each name
+        List<Turnout> first = results.get(0).get();
+        for (Future<List<Turnout>> result : results) {
+            List<Turnout> seen = result.get();
+            for (int i = 0; i < NAMES; i++) {
+                assertThat(seen.get(i)).isSameAs(first.get(i));
+            }
+        }
+        assertConsistent(new HashSet<>(first));
+    }
+
+    @Test
+    void testPutAndRemoveConcurrently() throws Exception {
+        List<Turnout> turnouts = new ArrayList<>();
+        for (int i = 0; i < NAMES; i++) {
+            turnouts.add(new Turnout().setName("T" + (i % (NAMES / 2))));
+        }
+        runConcurrently(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < ROUNDS; i++) {
+                Turnout turnout = turnouts.get(random.nextInt(turnouts.size()));
+                if (random.nextBoolean()) {
+                    try {
+                        model.put(turnout);
+                    } catch (IllegalStateException ex) {
+                        // name in use
+                    }
+                } else {
+                    model.remove(turnout);
+                }
+            }
+            return null;
+        });
+        // at most one element per name and every member is reachable by name
+        Set<Turnout> members = model.getAll(Turnout.class);
+        assertThat(members.size()).isLessThanOrEqualTo(NAMES / 2);
+        assertConsistent(members);
+        for (Turnout turnout : turnouts) {
+            if (!members.contains(turnout)) {
+                assertThat(model.get(Turnout.class, turnout.getName())).isNotSameAs(turnout);
+            }
+        }
+    }
+
+    @Test
+    void testRenameConcurrently() throws Exception {
+        List<Turnout> turnouts = new ArrayList<>();
+        for (int i = 0; i < NAMES; i++) {
+            turnouts.add(model.create(Turnout.class, "T" + i));
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger anomalies = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (running.get()) {
+                // snapshots read while renaming are weakly consistent, but
+                // never contain an element twice or an element not added
+                Set<Turnout> snapshot = model.getAll(Turnout.class);
+                if (snapshot.size() > NAMES || !turnouts.containsAll(snapshot)) {
+                    anomalies.incrementAndGet();
+                }
+                // and can always be found by the name they report
+                Turnout turnout = turnouts.get(ThreadLocalRandom.current().nextInt(NAMES));
+                String name = turnout.getName();
+                if (model.get(Turnout.class, name) != turnout
+                        && name.equals(turnout.getName())) {
+                    anomalies.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        try {
+            runConcurrently(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < ROUNDS; i++) {
+                    Turnout turnout = turnouts.get(random.nextInt(turnouts.size()));
+                    try {
+                        // the target names overlap to force contention
+                        turnout.setName("T" + random.nextInt(NAMES * 2));
+                    } catch (IllegalStateException ex) {
+                        // name in use
+                    }
+                }
+                return null;
+            });
+        } finally {
+            running.set(false);
+            reader.join();
+        }
+        assertThat(anomalies.get()).isZero();
+        // no element was lost and no two elements share a name
+        assertThat(model.getAll(Turnout.class)).hasSize(NAMES).containsExactlyInAnyOrderElementsOf(turnouts);
+        assertThat(model.getAll(Element.class)).hasSize(NAMES);
+        assertConsistent(new HashSet<>(turnouts));
+    }
+
+    @Test
+    void testMixedOperationsConcurrently() throws Exception {
+        runConcurrently(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < ROUNDS; i++) {
+                String name = "T" + random.nextInt(NAMES);
+                Turnout turnout = model.get(Turnout.class, name);
+                switch (random.nextInt(3)) {
+                    case 0:
+                        model.getOrCreate(Turnout.class, name);
+                        break;
+                    case 1:
+                        if (turnout != null) {
+                            model.remove(turnout);
+                        }
+                        break;
+                    default:
+                        if (turnout != null) {
+                            try {
+                                turnout.setName("T" + random.nextInt(NAMES));
+                            } catch (IllegalStateException ex) {
+                                // name in use
+                            }
+                        }
+                        break;
+                }
+            }
+            return null;
+        });
+        assertConsistent(model.getAll(Turnout.class));
+    }
+
+    /**
+     * Assert that every element in a set is in the model under its current
+     * name and that the model contains nothing else.
+     *
+     * @param expected the expected members of the model
+     */
+    private void assertConsistent(Set<? extends Element> expected) {
+        for (Element element : expected) {
+            assertThat(model.get(Element.class, element.getName())).isSameAs(element);
+        }
+        assertThat(model.getAll(Element.class)).hasSameSizeAs(expected);
+    }
+
+    /**
+     * Run a task on every thread at once, failing if any task fails.
+     *
+     * @param <T> the type of result
+     * @param task the task to run
+     * @return the completed results
+     * @throws Exception if a task fails
+     */
+    private <T> List<Future<T>> runConcurrently(Callable<T> task) throws Exception {
+        List<Future<T>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                barrier.await();
+                return task.call();
+            }));
+        }
+        for (Future<T> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        return futures;
+    }
+}
@@ -16,16 +16,32 @@
 package org.trainbeans.model.impl;
 
 import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.entry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.openide.util.Lookup;
 import org.openide.util.lookup.Lookups;
 import org.trainbeans.model.api.AbstractDelegatingDiscreteStateElement;
+import org.trainbeans.model.api.AbstractDiscreteStateDelegate;
+import org.trainbeans.model.api.DiscreteStateElement;
 import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.ElementPage;
+import org.trainbeans.model.api.ElementsChangeEvent;
+import org.trainbeans.model.api.ModelDelta;
+import org.trainbeans.model.api.PackedStateStore;
+import org.trainbeans.model.api.StatesChangeEvent;
 import org.trainbeans.model.api.Turnout;
+import org.trainbeans.model.api.TurnoutDelegate;
 
 /**
  *
@@ -75,6 +91,350 @@ class DefaultModelTest {
         assertThat(model.getAll(Turnout.class)).containsExactly(turnout2, turnout1);
     }
 
+    @Test
+    void testGetAll_Supertype() {
+        OtherElement other = new OtherElement();
+        other.setName("baz");
+        Turnout turnout1 = model.create(Turnout.class, "foo");
+        model.put(other);
+        Turnout turnout2 = model.create(Turnout.class, "bar");
+        // assert that a supertype spans all concrete classes in name order
+        assertThat(model.getAll(Element.class)).containsExactly(turnout2, other, turnout1);
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnout2, turnout1);
+        assertThat(model.getAll(OtherElement.class)).containsExactly(other);
+        // assert that a concrete class added after a supertype was requested
+        // is included in later requests for the supertype
+        model.getAll(AbstractDelegatingDiscreteStateElement.class);
+        AnotherElement another = new AnotherElement();
+        another.setName("qux");
+        model.put(another);
+        assertThat(model.getAll(AbstractDelegatingDiscreteStateElement.class))
+                .containsExactly(turnout2, other, turnout1, another);
+        model.remove(turnout1);
+        assertThat(model.getAll(Element.class)).containsExactly(turnout2, other, another);
+        model.remove(another);
+        assertThat(model.getAll(AbstractDelegatingDiscreteStateElement.class))
+                .containsExactly(turnout2, other);
+        assertThat(model.getAll(AnotherElement.class)).isEmpty();
+    }
+
+    @Test
+    void testGetCache_Incremental() {
+        Turnout turnout1 = model.create(Turnout.class, "foo");
+        model.getAll(Turnout.class);
+        model.getAll(OtherElement.class);
+        model.getAll(Element.class);
+        Set<Turnout> turnouts = model.getCache(Turnout.class);
+        Set<OtherElement> others = model.getCache(OtherElement.class);
+        Set<Element> elements = model.getCache(Element.class);
+        // adding an element updates matching cached sets in place
+        Turnout turnout2 = model.create(Turnout.class, "bar");
+        assertThat(model.getCache(Turnout.class)).isSameAs(turnouts).containsExactly(turnout2, turnout1);
+        assertThat(model.getCache(Element.class)).isSameAs(elements).containsExactly(turnout2, turnout1);
+        assertThat(model.getCache(OtherElement.class)).isSameAs(others).isEmpty();
+        OtherElement other = new OtherElement();
+        other.setName("baz");
+        model.put(other);
+        assertThat(turnouts).containsExactly(turnout2, turnout1);
+        assertThat(others).containsExactly(other);
+        assertThat(elements).containsExactly(turnout2, other, turnout1);
+        // renaming an element moves it within matching cached sets
+        turnout1.setName("alpha");
+        assertThat(model.getCache(Turnout.class)).isSameAs(turnouts).containsExactly(turnout1, turnout2);
+        assertThat(model.getCache(Element.class)).isSameAs(elements).containsExactly(turnout1, turnout2, other);
+        // removing an element updates matching cached sets in place
+        model.remove(turnout2);
+        assertThat(model.getCache(Turnout.class)).isSameAs(turnouts).containsExactly(turnout1);
+        assertThat(model.getCache(Element.class)).isSameAs(elements).containsExactly(turnout1, other);
+        assertThat(model.getCache(OtherElement.class)).isSameAs(others).containsExactly(other);
+    }
+
+    @Test
+    void testCacheStatistics() {
+        Turnout turnout = model.create(Turnout.class, "foo");
+        model.getAll(Turnout.class);
+        model.getAll(Turnout.class);
+        model.getRange(Turnout.class, "a", "z");
+        model.getRange(Element.class, "a", "z");
+        CacheStatistics statistics = model.getCacheStatistics();
+        assertThat(statistics.getHitCount()).isEqualTo(2);
+        assertThat(statistics.getMissCount()).isEqualTo(2);
+        assertThat(statistics.getRebuildCount()).isEqualTo(1);
+        assertThat(statistics.getRebuildNanos()).isPositive();
+        assertThat(statistics.getSize()).isEqualTo(1);
+        // cached sets are still updated in place
+        model.remove(turnout);
+        assertThat(model.getAll(Turnout.class)).isEmpty();
+        assertThat(model.getCacheStatistics().getRebuildCount()).isEqualTo(1);
+    }
+
+    @Test
+    void testCachePolicy() {
+        model = new DefaultModel(Lookups.fixed(new TurnoutFactory(), CachePolicy.leastRecentlyUsed(1)));
+        Turnout turnout = model.create(Turnout.class, "foo");
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnout);
+        assertThat(model.getAll(Element.class)).containsExactly(turnout);
+        assertThat(model.getCache(Turnout.class)).isNull();
+        assertThat(model.getCache(Element.class)).containsExactly(turnout);
+        // evicted sets are rebuilt when needed
+        Turnout other = model.create(Turnout.class, "bar");
+        assertThat(model.getAll(Turnout.class)).containsExactly(other, turnout);
+        CacheStatistics statistics = model.getCacheStatistics();
+        assertThat(statistics.getRebuildCount()).isEqualTo(3);
+        assertThat(statistics.getEvictionCount()).isEqualTo(2);
+        assertThat(statistics.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    void testGetAll_Snapshot() {
+        Turnout turnout1 = model.create(Turnout.class, "foo");
+        Set<Turnout> snapshot = model.getAll(Turnout.class);
+        // unchanged model returns the same snapshot
+        assertThat(model.getAll(Turnout.class)).isSameAs(snapshot);
+        assertThatCode(() -> snapshot.add(new Turnout())).isInstanceOf(UnsupportedOperationException.class);
+        assertThatCode(() -> snapshot.iterator().remove()).isInstanceOf(UnsupportedOperationException.class);
+        // changes to the model are not visible in the snapshot, so it can be
+        // iterated while changing the model
+        for (Turnout turnout : snapshot) {
+            model.create(Turnout.class, turnout.getName() + "1");
+        }
+        assertThat(snapshot).containsExactly(turnout1);
+        assertThat(model.getAll(Turnout.class)).isNotSameAs(snapshot).hasSize(2);
+        // changes to elements of other types do not replace the snapshot
+        Set<Turnout> current = model.getAll(Turnout.class);
+        OtherElement other = new OtherElement();
+        other.setName("bar");
+        model.put(other);
+        assertThat(model.getAll(Turnout.class)).isSameAs(current);
+        // renamed elements are still in the snapshot
+        turnout1.setName("alpha");
+        assertThat(current).contains(turnout1).containsExactly(turnout1, model.get(Turnout.class, "foo1"));
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnout1, model.get(Turnout.class, "foo1")).isNotSameAs(current);
+    }
+
+    @Test
+    void testGetRange() {
+        Turnout north1 = model.create(Turnout.class, "North Boylan 1");
+        Turnout north2 = model.create(Turnout.class, "North Boylan 2");
+        Turnout south1 = model.create(Turnout.class, "South Boylan 1");
+        OtherElement other = new OtherElement();
+        other.setName("North Boylan 3");
+        model.put(other);
+        assertThat(model.getRange(Turnout.class, "North", "South")).containsExactly(north1, north2);
+        assertThat(model.getRange(Element.class, "North", "South")).containsExactly(north1, north2, other);
+        assertThat(model.getRange(OtherElement.class, "North", "South")).containsExactly(other);
+        assertThat(model.getRange(AnotherElement.class, "North", "South")).isEmpty();
+        assertThat(model.getRange(Element.class, "North Boylan 2", null)).containsExactly(north2, other, south1);
+        assertThat(model.getRange(Element.class, null, "North Boylan 2")).containsExactly(north1);
+        assertThatCode(() -> model.getRange(Turnout.class, "South", "North"))
+                .isInstanceOf(IllegalArgumentException.class);
+        // does not populate the cache
+        assertThat(model.getCache(Element.class)).isNull();
+        // uses the cache if populated
+        model.getAll(Element.class);
+        assertThat(model.getRange(Element.class, "North", "South")).containsExactly(north1, north2, other);
+        assertThat(model.getRange(Element.class, null, null)).isSameAs(model.getAll(Element.class));
+        // ranges are snapshots
+        Set<Turnout> range = model.getRange(Turnout.class, "North", "South");
+        Turnout north4 = model.create(Turnout.class, "North Boylan 4");
+        assertThat(range).containsExactly(north1, north2);
+        assertThat(model.getRange(Turnout.class, "North", "South")).containsExactly(north1, north2, north4);
+    }
+
+    @Test
+    void testGetPage() {
+        List<Turnout> turnouts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            turnouts.add(model.create(Turnout.class, "IT" + i));
+        }
+        ElementPage<Turnout> page = model.getPage(Turnout.class, null, 4);
+        assertThat(page.getElements()).containsExactlyElementsOf(turnouts.subList(0, 4));
+        assertThat(page.getNextKey()).isEqualTo("IT3");
+        // elements added before the resume key do not shift later pages
+        model.create(Turnout.class, "IT0a");
+        Turnout added = model.create(Turnout.class, "IT5a");
+        model.remove(turnouts.get(4));
+        page = model.getPage(Turnout.class, page.getNextKey(), 4);
+        assertThat(page.getElements()).containsExactly(turnouts.get(5), added, turnouts.get(6), turnouts.get(7));
+        page = model.getPage(Turnout.class, page.getNextKey(), 4);
+        assertThat(page.getElements()).containsExactly(turnouts.get(8), turnouts.get(9));
+        assertThat(page.hasNext()).isFalse();
+        // the resume key need not be the name of an element
+        assertThat(model.getPage(Element.class, "IT8x", 4).getElements()).containsExactly(turnouts.get(9));
+        assertThat(model.getPage(Turnout.class, "IT9", 4).getElements()).isEmpty();
+        assertThatCode(() -> model.getPage(Turnout.class, null, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testStream() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            names.add(String.format("IT%03d", i));
+        }
+        List<Turnout> turnouts = model.createAll(Turnout.class, names, Lookup.EMPTY);
+        turnouts.forEach(turnout -> turnout.setState(Integer.parseInt(turnout.getName().substring(2)) % 3 == 0
+                ? Turnout.State.THROWN : Turnout.State.CLOSED));
+        // first 20 thrown turnouts, stopping early and without caching
+        List<String> visited = new ArrayList<>();
+        assertThat(model.stream(Turnout.class, turnout -> {
+            visited.add(turnout.getName());
+            return turnout.getState() == Turnout.State.THROWN;
+        }).limit(20)).extracting(Element::getName).startsWith("IT000", "IT003").endsWith("IT057").hasSize(20);
+        assertThat(visited).hasSize(58);
+        assertThat(model.getCache(Turnout.class)).isNull();
+        // parallel evaluation
+        assertThat(model.stream(Turnout.class, turnout -> turnout.getState() == Turnout.State.THROWN).parallel()
+                .count()).isEqualTo(334);
+        // elements of several classes are merged in order
+        OtherElement other = new OtherElement();
+        other.setName("IT0005");
+        model.put(other);
+        assertThat(model.stream(Element.class, element -> element.getName().startsWith("IT000")))
+                .containsExactly(turnouts.get(0), other);
+        assertThat(model.getCache(Element.class)).isNull();
+        assertThat(model.stream(AnotherElement.class, element -> true)).isEmpty();
+    }
+
+    @Test
+    void testGetByPrefix() {
+        Turnout north1 = model.create(Turnout.class, "North Boylan 1");
+        Turnout north2 = model.create(Turnout.class, "North Boylan 2");
+        model.create(Turnout.class, "North Boylano");
+        model.create(Turnout.class, "South Boylan 1");
+        assertThat(model.getByPrefix(Turnout.class, "North Boylan ")).containsExactly(north1, north2);
+        assertThat(model.getByPrefix(Turnout.class, "East")).isEmpty();
+    }
+
+    @Test
+    void testGetByState() {
+        Turnout turnout1 = model.create(Turnout.class, "foo");
+        Turnout turnout2 = model.create(Turnout.class, "bar");
+        assertThat(model.getByState(Turnout.class, Turnout.State.UNKNOWN)).containsExactly(turnout2, turnout1);
+        assertThat(model.getByState(Turnout.class, Turnout.State.THROWN)).isEmpty();
+        // changing state moves between sets
+        turnout1.setState(Turnout.State.THROWN);
+        Set<Turnout> thrown = model.getByState(Turnout.class, Turnout.State.THROWN);
+        assertThat(thrown).containsExactly(turnout1);
+        assertThat(model.getByState(Turnout.class, Turnout.State.THROWN)).isSameAs(thrown);
+        assertThat(model.getByState(Turnout.class, Turnout.State.UNKNOWN)).containsExactly(turnout2);
+        // renaming keeps sort order
+        turnout2.setState(Turnout.State.THROWN);
+        turnout1.setName("alpha");
+        assertThat(model.getByState(Turnout.class, Turnout.State.THROWN)).containsExactly(turnout1, turnout2);
+        assertThat(thrown).containsExactly(turnout1);
+        // changing delegate changes state
+        TestTurnoutDelegate delegate = new TestTurnoutDelegate();
+        delegate.setState(Turnout.State.CLOSED);
+        turnout2.setDelegate(delegate);
+        assertThat(model.getByState(Turnout.class, Turnout.State.THROWN)).containsExactly(turnout1);
+        assertThat(model.getByState(Turnout.class, Turnout.State.CLOSED)).containsExactly(turnout2);
+        // changes in delegate state are reflected
+        delegate.setState(Turnout.State.CONFLICTED);
+        assertThat(model.getByState(Turnout.class, Turnout.State.CLOSED)).isEmpty();
+        assertThat(model.getByState(Turnout.class, Turnout.State.CONFLICTED)).containsExactly(turnout2);
+        // elements of other types in same state
+        OtherElement other = new OtherElement();
+        other.setName("baz");
+        other.setState(Turnout.State.THROWN);
+        model.put(other);
+        assertThat(model.getByState(Turnout.class, Turnout.State.THROWN)).containsExactly(turnout1);
+        assertThat(model.getByState(OtherElement.class, Turnout.State.THROWN)).containsExactly(other);
+        assertThat(model.getByState(DiscreteStateElement.class, Turnout.State.THROWN)).containsExactly(turnout1, other);
+        // removed elements are unindexed and no longer listened to
+        model.remove(turnout1);
+        assertThat(model.getByState(Turnout.class, Turnout.State.THROWN)).isEmpty();
+        assertThat(turnout1.getPropertyChangeListeners("state")).isEmpty();
+        assertThat(turnout1.getPropertyChangeListeners("delegate")).isEmpty();
+        turnout1.setState(Turnout.State.CLOSED);
+        assertThat(model.getByState(Turnout.class, Turnout.State.CLOSED)).isEmpty();
+        // bulk additions are indexed
+        Turnout turnout3 = new Turnout().setName("qux");
+        turnout3.setState(Turnout.State.CLOSED);
+        model.putAll(Arrays.asList(turnout1, turnout3));
+        assertThat(model.getByState(Turnout.class, Turnout.State.CLOSED)).containsExactly(turnout1, turnout3);
+    }
+
+    @Test
+    void testCountByState() {
+        Turnout turnout1 = model.create(Turnout.class, "foo");
+        model.create(Turnout.class, "bar");
+        assertThat(model.countByState(Turnout.class, Turnout.State.UNKNOWN)).isEqualTo(2);
+        assertThat(model.countByState(Turnout.class, Turnout.State.THROWN)).isZero();
+        turnout1.setState(Turnout.State.THROWN);
+        assertThat(model.countByState(Turnout.class, Turnout.State.UNKNOWN)).isEqualTo(1);
+        assertThat(model.countByState(Turnout.class, Turnout.State.THROWN)).isEqualTo(1);
+        OtherElement other = new OtherElement();
+        other.setName("baz");
+        other.setState(Turnout.State.THROWN);
+        model.put(other);
+        assertThat(model.countByState(Turnout.class, Turnout.State.THROWN)).isEqualTo(1);
+        assertThat(model.countByState(DiscreteStateElement.class, Turnout.State.THROWN)).isEqualTo(2);
+    }
+
+    @Test
+    void testStateStore() {
+        PackedStateStore<Turnout.State> store = new PackedStateStore<>(Turnout.State.values());
+        model = new DefaultModel(Lookups.fixed(new TurnoutFactory(), store));
+        Turnout turnout1 = model.create(Turnout.class, "foo");
+        Turnout turnout2 = new Turnout().setName("bar");
+        turnout2.setState(Turnout.State.THROWN);
+        model.putAll(Arrays.asList(turnout2));
+        assertThat(turnout1.getStateStore()).isEqualTo(store);
+        assertThat(turnout2.getStateStore()).isEqualTo(store);
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.count(Turnout.State.THROWN)).isEqualTo(1);
+        turnout1.setState(Turnout.State.THROWN);
+        assertThat(store.count(Turnout.State.THROWN)).isEqualTo(2);
+        assertThat(model.getByState(Turnout.class, Turnout.State.THROWN)).containsExactly(turnout2, turnout1);
+        // elements with null states are not bound
+        OtherElement other = new OtherElement();
+        other.setName("baz");
+        model.put(other);
+        assertThat(other.getStateStore()).isNull();
+        // removed elements take their state with them
+        model.remove(turnout1);
+        assertThat(turnout1.getStateStore()).isNull();
+        assertThat(turnout1.getState()).isEqualTo(Turnout.State.THROWN);
+        assertThat(store.size()).isEqualTo(1);
+        // elements bound to other stores are left alone
+        PackedStateStore<Turnout.State> other2 = new PackedStateStore<>(Turnout.State.values());
+        turnout1.setStateStore(other2);
+        model.put(turnout1);
+        model.remove(turnout1);
+        assertThat(turnout1.getStateStore()).isEqualTo(other2);
+    }
+
+    @Test
+    void testHandles() {
+        Turnout turnout1 = model.create(Turnout.class, "foo");
+        Turnout turnout2 = new Turnout().setName("bar");
+        model.putAll(Arrays.asList(turnout2));
+        int handle1 = model.getHandle(turnout1);
+        int handle2 = model.getHandle(turnout2);
+        assertThat(handle1).isNotEqualTo(handle2).isNotNegative();
+        assertThat(handle2).isNotNegative();
+        assertThat(model.getElement(handle1)).isSameAs(turnout1);
+        model.setState(handle1, Turnout.State.THROWN.ordinal());
+        assertThat(turnout1.getState()).isEqualTo(Turnout.State.THROWN);
+        assertThat(model.getState(handle1)).isEqualTo(Turnout.State.THROWN.ordinal());
+        assertThat(model.getByState(Turnout.class, Turnout.State.THROWN)).containsExactly(turnout1);
+        // the model listens without property change events
+        assertThat(turnout1.getPropertyChangeListeners("state")).isEmpty();
+        long version = model.getVersion();
+        model.setState(handle1, Turnout.State.CLOSED.ordinal());
+        model.setState(handle2, Turnout.State.CLOSED.ordinal());
+        assertThat(model.countByState(Turnout.class, Turnout.State.CLOSED)).isEqualTo(2);
+        assertThat(model.getVersion()).isGreaterThan(version);
+        assertThat(model.getChanges(version).getStateChanges()).containsOnlyKeys("foo", "bar");
+        // handles are stable across renames
+        turnout1.setName("alpha");
+        assertThat(model.getHandle(turnout1)).isEqualTo(handle1);
+        // handles are released on removal
+        model.remove(turnout1);
+        assertThat(model.getHandle(turnout1)).isEqualTo(-1);
+        assertThatCode(() -> model.getState(handle1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
     @Test
     void testGet() {
         assertThat(model.get(Turnout.class, "foo")).isNull();
@@ -125,13 +485,148 @@ class DefaultModelTest {
         assertThat(model.getAll(Turnout.class)).isEmpty();
         assertThat(model.getCache(Turnout.class)).isNotNull();
         assertThat(model.put(turnout)).isExactlyInstanceOf(DefaultModel.class).isEqualTo(model);
-        assertThat(model.getCache(Turnout.class)).isNull();
+        assertThat(model.getCache(Turnout.class)).containsExactly(turnout);
         assertThat(model.getAll(Turnout.class)).containsExactly(turnout);
         assertThat(turnout.getPropertyChangeListeners()).doesNotContain(model);
         assertThat(turnout.getVetoableChangeListeners()).doesNotContain(model);
         assertThat(turnout.getPropertyChangeListeners("name")).containsExactly(model);
         assertThat(turnout.getVetoableChangeListeners("name")).containsExactly(model);
         assertThatCode(() -> model.put(turnout)).isInstanceOf(IllegalStateException.class);
+        // listeners are notified
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        model.addPropertyChangeListener(events::add);
+        Turnout other = new Turnout().setName("bar");
+        model.put(other);
+        assertThat(events).hasSize(1);
+        assertThat(((ElementsChangeEvent) events.get(0)).getAdded()).containsExactly(other);
+        assertThat(((ElementsChangeEvent) events.get(0)).getRemoved()).isEmpty();
+    }
+
+    @Test
+    void testRename_EventExecutor() {
+        List<Runnable> tasks = new ArrayList<>();
+        Turnout turnout = model.create(Turnout.class, "foo");
+        turnout.setEventExecutor(tasks::add, true);
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        turnout.addPropertyChangeListener("name", events::add);
+        turnout.setName("bar");
+        // the model is reindexed before setName returns
+        assertThat(model.get(Turnout.class, "bar")).isSameAs(turnout);
+        assertThat(model.get(Turnout.class, "foo")).isNull();
+        assertThat(events).isEmpty();
+        tasks.forEach(Runnable::run);
+        assertThat(events).hasSize(1);
+    }
+
+    @Test
+    void testElementsChange_Conflating() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        model.setEventExecutor(tasks::add, true);
+        model.addPropertyChangeListener(ElementsChangeEvent.ELEMENTS, events::add);
+        Turnout foo = model.create(Turnout.class, "foo");
+        Turnout bar = model.create(Turnout.class, "bar");
+        model.remove(foo);
+        tasks.forEach(Runnable::run);
+        // membership changes are never conflated
+        assertThat(events).hasSize(3).allMatch(ElementsChangeEvent.class::isInstance);
+        assertThat(((ElementsChangeEvent) events.get(0)).getAdded()).containsExactly(foo);
+        assertThat(((ElementsChangeEvent) events.get(1)).getAdded()).containsExactly(bar);
+        assertThat(((ElementsChangeEvent) events.get(2)).getRemoved()).containsExactly(foo);
+    }
+
+    @Test
+    void testPutAll() {
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        model.addPropertyChangeListener(events::add);
+        Turnout turnout1 = new Turnout().setName("foo");
+        Turnout turnout2 = new Turnout().setName("bar");
+        OtherElement other = new OtherElement();
+        other.setName("baz");
+        Set<Element> elements = model.getAll(Element.class);
+        Set<OtherElement> others = model.getAll(OtherElement.class);
+        assertThat((Object) model.putAll(Arrays.asList(turnout1, turnout2, other))).isEqualTo(model);
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnout2, turnout1);
+        assertThat(elements).isEmpty();
+        assertThat(others).isEmpty();
+        assertThat(model.getAll(Element.class)).containsExactly(turnout2, other, turnout1);
+        assertThat(model.getAll(OtherElement.class)).containsExactly(other);
+        assertThat(turnout1.getPropertyChangeListeners("name")).containsExactly(model);
+        assertThat(turnout1.getVetoableChangeListeners("name")).containsExactly(model);
+        // a single notification
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0)).isInstanceOf(ElementsChangeEvent.class);
+        ElementsChangeEvent event = (ElementsChangeEvent) events.get(0);
+        assertThat(event.getAdded()).containsExactly(turnout1, turnout2, other);
+        assertThat(event.getRemoved()).isEmpty();
+        assertThat(event.getElementClasses()).containsExactlyInAnyOrder(Turnout.class, OtherElement.class);
+        // names in use
+        Turnout turnout3 = new Turnout().setName("qux");
+        assertThatCode(() -> model.putAll(Arrays.asList(turnout3, new Turnout().setName("foo"))))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatCode(() -> model.putAll(Arrays.asList(turnout3, new Turnout().setName("qux"))))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(model.get(Turnout.class, "qux")).isNull();
+        assertThat(events).hasSize(1);
+        // empty collection does not notify
+        model.putAll(Collections.emptyList());
+        assertThat(events).hasSize(1);
+    }
+
+    @Test
+    void testCreateAll() {
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        model.addPropertyChangeListener(events::add);
+        List<Turnout> turnouts = model.createAll(Turnout.class, Arrays.asList("foo", "bar"), Lookup.EMPTY);
+        assertThat(turnouts).extracting(Element::getName).containsExactly("foo", "bar");
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnouts.get(1), turnouts.get(0));
+        assertThat(events).hasSize(1);
+        // name is in use
+        assertThatCode(() -> model.createAll(Turnout.class, Arrays.asList("baz", "foo"), Lookup.EMPTY))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(model.get(Turnout.class, "baz")).isNull();
+        // no factory for Element
+        assertThatCode(() -> model.createAll(Element.class, Arrays.asList("baz"), Lookup.EMPTY))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(events).hasSize(1);
+    }
+
+    @Test
+    void testBatch() {
+        List<ElementsChangeEvent> events = new ArrayList<>();
+        model.addPropertyChangeListener(ElementsChangeEvent.ELEMENTS, evt -> events.add((ElementsChangeEvent) evt));
+        Turnout turnout1 = model.create(Turnout.class, "foo");
+        Turnout turnout2 = model.create(Turnout.class, "bar");
+        assertThat(events).hasSize(2);
+        events.clear();
+        model.batch(() -> {
+            model.create(Turnout.class, "baz");
+            // added then removed
+            Turnout turnout3 = model.create(Turnout.class, "qux");
+            model.batch(() -> model.remove(turnout3));
+            model.remove(turnout1);
+            // removed then put back
+            model.remove(turnout2);
+            model.put(turnout2);
+            assertThat(events).isEmpty();
+        });
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).getAdded()).extracting(Element::getName).containsExactly("baz");
+        assertThat(events.get(0).getRemoved()).containsExactly(turnout1);
+        // empty batch does not notify
+        events.clear();
+        model.batch(() -> {
+            model.put(turnout1);
+            model.remove(turnout1);
+        });
+        assertThat(events).isEmpty();
+        // changes made before an exception are notified
+        assertThatCode(() -> model.batch(() -> {
+            model.put(turnout1);
+            throw new IllegalStateException();
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).getAdded()).containsExactly(turnout1);
     }
 
     @Test
@@ -144,18 +639,38 @@ class DefaultModelTest {
         assertThat(model.remove(turnout)).isExactlyInstanceOf(DefaultModel.class).isEqualTo(model);
         assertThat(turnout.getPropertyChangeListeners("name")).isEmpty();
         assertThat(turnout.getVetoableChangeListeners("name")).isEmpty();
-        assertThat(model.getCache(Turnout.class)).isNull();
+        assertThat(model.getCache(Turnout.class)).isEmpty();
         assertThat(model.getAll(Turnout.class)).isEmpty();
+        // listeners are notified only if removed
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        model.addPropertyChangeListener(events::add);
+        model.remove(turnout);
+        assertThat(events).isEmpty();
+        turnout = model.create(Turnout.class, "foo");
+        events.clear();
+        model.remove(turnout);
+        assertThat(events).hasSize(1);
+        assertThat(((ElementsChangeEvent) events.get(0)).getAdded()).isEmpty();
+        assertThat(((ElementsChangeEvent) events.get(0)).getRemoved()).containsExactly(turnout);
     }
 
     @Test
     void testPropertyChange() {
         Turnout turnout = model.create(Turnout.class, "foo");
+        Turnout other = model.create(Turnout.class, "baz");
         assertThat(model.get(Element.class, "foo")).isEqualTo(turnout);
         assertThat(model.get(Element.class, "bar")).isNull();
+        assertThat(model.getAll(Turnout.class)).containsExactly(other, turnout);
         turnout.setName("bar");
         assertThat(model.get(Element.class, "foo")).isNull();
         assertThat(model.get(Element.class, "bar")).isEqualTo(turnout);
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnout, other);
+        // stale notifications and notifications from other elements are ignored
+        model.propertyChange(new PropertyChangeEvent(turnout, "name", "foo", "bar"));
+        model.propertyChange(new PropertyChangeEvent(other, "name", "bar", "baz"));
+        assertThat(model.get(Element.class, "bar")).isEqualTo(turnout);
+        assertThat(model.get(Element.class, "baz")).isEqualTo(other);
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnout, other);
         // TODO: how to assert DefaultModel ignores changes to properties other
         // than name?
         model.propertyChange(new PropertyChangeEvent(turnout, "state", Turnout.State.UNKNOWN, Turnout.State.CLOSED));
@@ -163,8 +678,192 @@ class DefaultModelTest {
         assertThat(model.get(Element.class, "bar")).isEqualTo(turnout);
     }
 
+    @Test
+    void testApplyStates() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            names.add("IT" + i);
+        }
+        List<Turnout> turnouts = model.createAll(Turnout.class, names, Lookup.EMPTY);
+        Turnout delegated = turnouts.get(0);
+        TestTurnoutDelegate delegate = new TestTurnoutDelegate();
+        delegate.setState(Turnout.State.CLOSED);
+        delegated.setDelegate(delegate);
+        Turnout unchanged = turnouts.get(1);
+        unchanged.setState(Turnout.State.THROWN);
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        model.addPropertyChangeListener(StatesChangeEvent.STATES, events::add);
+        long version = model.getVersion();
+        Map<Turnout, Turnout.State> states = new HashMap<>();
+        turnouts.forEach(turnout -> states.put(turnout, Turnout.State.THROWN));
+        model.applyStates(states);
+        assertThat(turnouts).allMatch(turnout -> turnout.getState() == Turnout.State.THROWN);
+        assertThat(model.getByState(Turnout.class, Turnout.State.THROWN)).hasSize(1000);
+        assertThat(model.countByState(Turnout.class, Turnout.State.UNKNOWN)).isZero();
+        assertThat(model.getChanges(version).getStateChanges()).hasSize(999);
+        // one notification of the changed states
+        assertThat(events).hasSize(1);
+        StatesChangeEvent event = (StatesChangeEvent) events.get(0);
+        assertThat(event.getElements()).hasSize(999).doesNotContain(unchanged);
+        assertThat(event.getOldValue()).containsEntry(delegated, Turnout.State.CLOSED);
+        assertThat(event.getNewValue()).containsEntry(delegated, Turnout.State.THROWN);
+        // later changes are indexed
+        delegated.setState(Turnout.State.CLOSED);
+        assertThat(model.getByState(Turnout.class, Turnout.State.CLOSED)).containsExactly(delegated);
+        // elements not in the model are rejected
+        assertThatCode(() -> model.applyStates(Collections.singletonMap(new Turnout().setName("foo"), Turnout.State.CLOSED)))
+                .isInstanceOf(IllegalArgumentException.class);
+        // no changes, no notification
+        model.applyStates(Collections.singletonMap(delegated, Turnout.State.CLOSED));
+        assertThat(events).hasSize(1);
+    }
+
+    @Test
+    void testApplyStates_StateStore() {
+        PackedStateStore<Turnout.State> store = new PackedStateStore<>(Turnout.State.values());
+        model = new DefaultModel(Lookups.fixed(new TurnoutFactory(), store));
+        Map<Turnout, Turnout.State> states = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            states.put(model.create(Turnout.class, "IT" + i), Turnout.State.CLOSED);
+        }
+        model.applyStates(states);
+        assertThat(store.count(Turnout.State.CLOSED)).isEqualTo(1000);
+        assertThat(model.countByState(Turnout.class, Turnout.State.CLOSED)).isEqualTo(1000);
+    }
+
+    @Test
+    void testGetChanges() {
+        Turnout foo = model.create(Turnout.class, "foo");
+        Turnout bar = model.create(Turnout.class, "bar");
+        long version = model.getVersion();
+        assertThat(model.getChanges(version).isEmpty()).isTrue();
+        Turnout baz = model.create(Turnout.class, "baz");
+        model.remove(bar);
+        foo.setName("qux");
+        foo.setState(Turnout.State.THROWN);
+        ModelDelta delta = model.getChanges(version);
+        assertThat(delta.getAdded()).containsExactly(baz);
+        assertThat(delta.getRemoved()).containsExactly("bar");
+        assertThat(delta.getRenamed()).containsExactly(entry("foo", "qux"));
+        assertThat(delta.getStateChanges()).containsExactly(entry("qux", Turnout.State.THROWN));
+        assertThat(model.getVersion()).isGreaterThan(version);
+        assertThat(model.getChanges(model.getVersion()).isEmpty()).isTrue();
+    }
+
+    @Test
+    void testGetChanges_Coalesced() {
+        Turnout foo = model.create(Turnout.class, "foo");
+        long version = model.getVersion();
+        // added then removed
+        model.remove(model.create(Turnout.class, "bar"));
+        // renamed and changed back
+        foo.setName("baz");
+        foo.setName("foo");
+        Turnout.State state = foo.getState();
+        foo.setState(Turnout.State.THROWN);
+        foo.setState(state);
+        assertThat(model.getChanges(version).isEmpty()).isTrue();
+        // changes to added elements are part of the addition
+        Turnout bar = model.create(Turnout.class, "bar");
+        bar.setName("qux");
+        bar.setState(Turnout.State.CLOSED);
+        ModelDelta delta = model.getChanges(version);
+        assertThat(delta.getAdded()).containsExactly(bar);
+        assertThat(delta.getRenamed()).isEmpty();
+        assertThat(delta.getStateChanges()).isEmpty();
+    }
+
+    @Test
+    void testGetChanges_Invalid() {
+        model.create(Turnout.class, "foo");
+        long version = model.getVersion();
+        assertThatCode(() -> model.getChanges(version + 1)).isInstanceOf(IllegalArgumentException.class);
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i <= ChangeLog.DEFAULT_CAPACITY; i++) {
+            names.add("IT" + i);
+        }
+        model.createAll(Turnout.class, names, Lookup.EMPTY);
+        assertThatCode(() -> model.getChanges(version)).isInstanceOf(IllegalStateException.class);
+        assertThat(model.getChanges(model.getVersion() - 1).getAdded()).hasSize(1);
+    }
+
+    @Test
+    void testApplyTo() {
+        DefaultModel copy = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+        Turnout foo = model.create(Turnout.class, "foo");
+        Turnout bar = model.create(Turnout.class, "bar");
+        model.getChanges(0).applyTo(copy);
+        assertThat(copy.getAll(Turnout.class)).extracting(Element::getName).containsExactly("bar", "foo");
+        long version = model.getVersion();
+        // swap names
+        foo.setName("tmp");
+        bar.setName("foo");
+        foo.setName("bar");
+        foo.setState(Turnout.State.THROWN);
+        model.create(Turnout.class, "baz").setState(Turnout.State.CLOSED);
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        copy.addPropertyChangeListener(ElementsChangeEvent.ELEMENTS, events::add);
+        Turnout copyFoo = copy.get(Turnout.class, "foo");
+        model.getChanges(version).applyTo(copy);
+        assertThat(copy.get(Turnout.class, "bar")).isSameAs(copyFoo);
+        assertThat(copyFoo.getState()).isEqualTo(Turnout.State.THROWN);
+        assertThat(copy.get(Turnout.class, "baz").getState()).isEqualTo(Turnout.State.CLOSED);
+        assertThat(events).hasSize(1);
+        assertThat(ModelDelta.between(model, copy).isEmpty()).isTrue();
+    }
+
+    @Test
+    void testBetween() {
+        DefaultModel other = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+        model.create(Turnout.class, "foo");
+        model.create(Turnout.class, "bar");
+        Turnout baz = other.create(Turnout.class, "baz");
+        other.create(Turnout.class, "foo").setState(Turnout.State.THROWN);
+        ModelDelta delta = ModelDelta.between(model, other);
+        assertThat(delta.getAdded()).containsExactly(baz);
+        assertThat(delta.getRemoved()).containsExactly("bar");
+        assertThat(delta.getRenamed()).isEmpty();
+        assertThat(delta.getStateChanges()).containsExactly(entry("foo", Turnout.State.THROWN));
+        delta.applyTo(model);
+        assertThat(ModelDelta.between(model, other).isEmpty()).isTrue();
+    }
+
     @Test
     void testGetCreatableClasses() {
         assertThat(model.getCreatableClasses()).containsExactly(Turnout.class);
     }
+
+    private static class OtherElement extends AbstractDelegatingDiscreteStateElement {
+
+        @Override
+        public OtherElement getSelf() {
+            return this;
+        }
+
+        @Override
+        public int compareTo(Object o) {
+            return getName().compareTo(((Element) o).getName());
+        }
+    }
+
+    private static class TestTurnoutDelegate extends AbstractDiscreteStateDelegate<Turnout.State, Turnout> implements TurnoutDelegate {
+
+        @Override
+        protected boolean isValidName(String name) {
+            return true;
+        }
+
+        @Override
+        public TestTurnoutDelegate getSelf() {
+            return this;
+        }
+    }
+
+    private static class AnotherElement extends OtherElement {
+
+        @Override
+        public AnotherElement getSelf() {
+            return this;
+        }
+    }
 }
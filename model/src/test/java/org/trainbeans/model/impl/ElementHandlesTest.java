@@ -0,0 +1,174 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.trainbeans.beans.VetoableBean;
+import org.trainbeans.model.api.DiscreteState;
+import org.trainbeans.model.api.DiscreteStateElement;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.Turnout;
+
+/**
+ *
+ * @author rhwood
+ */
+class ElementHandlesTest {
+
+    private ElementHandles handles;
+    private Turnout turnout;
+
+    @BeforeEach
+    void setUp() {
+        handles = new ElementHandles();
+        turnout = new Turnout().setName("foo");
+    }
+
+    @Test
+    void testAssignAndRelease() {
+        assertThat(handles.getHandle(turnout)).isEqualTo(-1);
+        int handle = handles.assign(turnout);
+        assertThat(handle).isZero();
+        assertThat(handles.assign(turnout)).isEqualTo(handle);
+        assertThat(handles.getHandle(turnout)).isEqualTo(handle);
+        assertThat(handles.getElement(handle)).isSameAs(turnout);
+        handles.release(turnout);
+        assertThat(handles.getHandle(turnout)).isEqualTo(-1);
+        assertThatCode(() -> handles.getElement(handle)).isInstanceOf(IllegalArgumentException.class);
+        // released handles are reused
+        Turnout other = new Turnout().setName("bar");
+        assertThat(handles.assign(other)).isEqualTo(handle);
+        // releasing an element without a handle has no effect
+        handles.release(turnout);
+        assertThat(handles.getElement(handle)).isSameAs(other);
+    }
+
+    @Test
+    void testAssign_Dense() {
+        List<Turnout> turnouts = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Turnout t = new Turnout().setName("t" + i);
+            turnouts.add(t);
+            assertThat(handles.assign(t)).isEqualTo(i);
+        }
+        for (int i = 0; i < 200; i++) {
+            assertThat(handles.getElement(i)).isSameAs(turnouts.get(i));
+        }
+        assertThatCode(() -> handles.getElement(200)).isInstanceOf(IllegalArgumentException.class);
+        assertThatCode(() -> handles.getElement(-1)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testGetAndSetState() {
+        int handle = handles.assign(turnout);
+        assertThat(handles.getState(handle)).isEqualTo(Turnout.State.UNKNOWN.ordinal());
+        handles.setState(handle, Turnout.State.THROWN.ordinal());
+        assertThat(turnout.getState()).isEqualTo(Turnout.State.THROWN);
+        assertThat(handles.getState(handle)).isEqualTo(Turnout.State.THROWN.ordinal());
+        assertThatCode(() -> handles.setState(handle, -1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatCode(() -> handles.setState(handle, Turnout.State.values().length)).isInstanceOf(IllegalArgumentException.class);
+        // null state
+        turnout.setState(null);
+        assertThat(handles.getState(handle)).isEqualTo(-1);
+        handles.setState(handle, Turnout.State.CLOSED.ordinal());
+        assertThat(turnout.getState()).isEqualTo(Turnout.State.CLOSED);
+        // element without state
+        int plain = handles.assign(new PlainElement());
+        assertThat(handles.getState(plain)).isEqualTo(-1);
+        assertThatCode(() -> handles.setState(plain, 0)).isInstanceOf(IllegalArgumentException.class);
+        // element that has never had a state uses its declared type of state
+        Turnout stateless = new Turnout().setName("bar");
+        stateless.setState(null);
+        int declared = handles.assign(stateless);
+        handles.setState(declared, Turnout.State.THROWN.ordinal());
+        assertThat(stateless.getState()).isEqualTo(Turnout.State.THROWN);
+        assertThatCode(() -> handles.setState(declared, Turnout.State.values().length)).isInstanceOf(IllegalArgumentException.class);
+        // element without a state or a declared type of state
+        int unknown = handles.assign(new GenericElement<Turnout.State>());
+        assertThatCode(() -> handles.setState(unknown, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testChanged() {
+        List<Element> drained = new ArrayList<>();
+        assertThat(handles.changed(turnout)).isFalse();
+        handles.assign(turnout);
+        Turnout other = new Turnout().setName("bar");
+        handles.assign(other);
+        Turnout removed = new Turnout().setName("baz");
+        handles.assign(removed);
+        // each changed element is drained once
+        assertThat(handles.changed(other)).isTrue();
+        assertThat(handles.changed(turnout)).isTrue();
+        assertThat(handles.changed(other)).isTrue();
+        assertThat(handles.changed(removed)).isTrue();
+        handles.release(removed);
+        handles.drainChanged(drained::add);
+        assertThat(drained).containsExactly(other, turnout);
+        drained.clear();
+        handles.drainChanged(drained::add);
+        assertThat(drained).isEmpty();
+        // changes can be recorded again after draining
+        handles.changed(turnout);
+        handles.drainChanged(drained::add);
+        assertThat(drained).containsExactly(turnout);
+    }
+
+    private static class PlainElement extends VetoableBean implements Element {
+
+        @Override
+        public String getName() {
+            return "plain";
+        }
+
+        @Override
+        public PlainElement setName(String name) {
+            return this;
+        }
+
+        @Override
+        public PlainElement getSelf() {
+            return this;
+        }
+    }
+
+    private static class GenericElement<S extends DiscreteState> extends PlainElement implements DiscreteStateElement<S> {
+
+        private S state;
+
+        @Override
+        public S getState() {
+            return state;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends DiscreteStateElement> T setState(S newState) {
+            state = newState;
+            return (T) this;
+        }
+
+        @Override
+        public S getRequestedState() {
+            return state;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.Iterator;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.entry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.trainbeans.model.api.Turnout;
+
+/**
+ *
+ * @author rhwood
+ */
+class ElementSetTest {
+
+    private Turnout foo;
+    private Turnout bar;
+    private Turnout baz;
+
+    @BeforeEach
+    void setUp() {
+        foo = new Turnout().setName("foo");
+        bar = new Turnout().setName("bar");
+        baz = new Turnout().setName("baz");
+    }
+
+    @Test
+    void testConstructor_SortedMap() {
+        SortedMap<String, Turnout> map = new TreeMap<>();
+        map.put(foo.getName(), foo);
+        map.put(bar.getName(), bar);
+        ElementSet<Turnout> set = new ElementSet<>(map);
+        assertThat(set).containsExactly(bar, foo);
+        // set is a copy of the map
+        map.put(baz.getName(), baz);
+        assertThat(set).containsExactly(bar, foo);
+    }
+
+    @Test
+    void testIndexAndUnindex() {
+        ElementSet<Turnout> set = new ElementSet<>();
+        assertThat(set).isEmpty();
+        set.index(foo.getName(), foo);
+        set.index(baz.getName(), baz);
+        set.index(bar.getName(), bar);
+        assertThat(set).containsExactly(bar, baz, foo);
+        set.unindex(baz.getName());
+        assertThat(set).containsExactly(bar, foo);
+        SortedMap<String, Turnout> map = new TreeMap<>();
+        map.put(baz.getName(), baz);
+        set.indexAll(map);
+        assertThat(set).containsExactly(bar, baz, foo);
+    }
+
+    @Test
+    void testContains() {
+        ElementSet<Turnout> set = new ElementSet<>();
+        set.index(foo.getName(), foo);
+        assertThat(set.contains(foo)).isTrue();
+        assertThat(set.contains(bar)).isFalse();
+        assertThat(set.contains(new Turnout().setName("foo"))).isFalse();
+        assertThat(set.contains("foo")).isFalse();
+    }
+
+    @Test
+    void testIterator() {
+        ElementSet<Turnout> set = new ElementSet<>();
+        set.index(foo.getName(), foo);
+        Iterator<Turnout> iterator = set.iterator();
+        assertThat(iterator.next()).isEqualTo(foo);
+        assertThatCode(iterator::remove).isInstanceOf(UnsupportedOperationException.class);
+        assertThatCode(() -> set.add(bar)).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    void testRange() {
+        ElementSet<Turnout> set = new ElementSet<>();
+        set.index(foo.getName(), foo);
+        set.index(baz.getName(), baz);
+        set.index(bar.getName(), bar);
+        assertThat(set.range("bar", "c")).containsExactly(bar, baz);
+        assertThat(set.range(null, null)).isSameAs(set.snapshot());
+        assertThatCode(() -> set.range("c", "bar")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testAsMap() {
+        ElementSet<Turnout> set = new ElementSet<>();
+        set.index(foo.getName(), foo);
+        set.index(bar.getName(), bar);
+        assertThat(set.asMap()).containsExactly(entry("bar", bar), entry("foo", foo));
+        assertThatCode(() -> set.asMap().clear()).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    void testSnapshot() {
+        ElementSet<Turnout> set = new ElementSet<>();
+        ElementSnapshot<Turnout> snapshot = set.snapshot();
+        assertThat(snapshot).isEmpty();
+        assertThat(set.snapshot()).isSameAs(snapshot);
+        set.index(foo.getName(), foo);
+        assertThat(snapshot).isEmpty();
+        snapshot = set.snapshot();
+        assertThat(snapshot).containsExactly(foo);
+        // removing an element not in the set keeps the snapshot
+        set.unindex(bar.getName());
+        assertThat(set.snapshot()).isSameAs(snapshot);
+        set.unindex(foo.getName());
+        assertThat(set.snapshot()).isNotSameAs(snapshot).isEmpty();
+        SortedMap<String, Turnout> map = new TreeMap<>();
+        map.put(baz.getName(), baz);
+        snapshot = set.snapshot();
+        set.indexAll(map);
+        assertThat(set.snapshot()).isNotSameAs(snapshot).containsExactly(baz);
+    }
+}
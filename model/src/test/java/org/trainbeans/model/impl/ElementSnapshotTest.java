@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.trainbeans.model.api.Turnout;
+
+/**
+ *
+ * @author rhwood
+ */
+class ElementSnapshotTest {
+
+    private Turnout foo;
+    private Turnout bar;
+    private Turnout baz;
+    private SortedMap<String, Turnout> map;
+
+    @BeforeEach
+    void setUp() {
+        foo = new Turnout().setName("foo");
+        bar = new Turnout().setName("bar");
+        baz = new Turnout().setName("baz");
+        map = new TreeMap<>();
+        map.put(foo.getName(), foo);
+        map.put(bar.getName(), bar);
+    }
+
+    @Test
+    void testConstructor() {
+        ElementSnapshot<Turnout> snapshot = new ElementSnapshot<>(map);
+        assertThat(snapshot).containsExactly(bar, foo);
+        assertThat(snapshot.toArray()).containsExactly(bar, foo);
+        // snapshot is a copy of the map
+        map.put(baz.getName(), baz);
+        assertThat(snapshot).hasSize(2).containsExactly(bar, foo);
+        assertThat(new ElementSnapshot<>(new TreeMap<>())).isEmpty();
+    }
+
+    @Test
+    void testContains() {
+        ElementSnapshot<Turnout> snapshot = new ElementSnapshot<>(map);
+        assertThat(snapshot.contains(foo)).isTrue();
+        assertThat(snapshot.contains(baz)).isFalse();
+        assertThat(snapshot.contains(new Turnout().setName("foo"))).isFalse();
+        assertThat(snapshot.contains("foo")).isFalse();
+        // renamed element
+        foo.setName("qux");
+        assertThat(snapshot.contains(foo)).isTrue();
+        assertThat(snapshot.contains(baz)).isFalse();
+        // renamed to the name of another element in the snapshot
+        foo.setName("bar");
+        assertThat(snapshot.contains(foo)).isTrue();
+        assertThat(snapshot.contains(bar)).isTrue();
+    }
+
+    @Test
+    void testGet() {
+        ElementSnapshot<Turnout> snapshot = new ElementSnapshot<>(map);
+        foo.setName("qux");
+        // names are those when the snapshot was taken
+        assertThat(snapshot.getName(1)).isEqualTo("foo");
+        assertThat(snapshot.get(1)).isEqualTo(foo);
+        assertThat(snapshot.getName(0)).isEqualTo("bar");
+        assertThat(snapshot.get(0)).isEqualTo(bar);
+    }
+
+    @Test
+    void testIterator() {
+        ElementSnapshot<Turnout> snapshot = new ElementSnapshot<>(map);
+        Iterator<Turnout> iterator = snapshot.iterator();
+        assertThat(iterator.next()).isEqualTo(bar);
+        assertThatCode(iterator::remove).isInstanceOf(UnsupportedOperationException.class);
+        assertThat(iterator.next()).isEqualTo(foo);
+        assertThat(iterator.hasNext()).isFalse();
+        assertThatCode(iterator::next).isInstanceOf(NoSuchElementException.class);
+        assertThatCode(() -> snapshot.add(baz)).isInstanceOf(UnsupportedOperationException.class);
+        assertThatCode(() -> snapshot.remove(foo)).isInstanceOf(UnsupportedOperationException.class);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.concurrent.TimeUnit;
+import org.openide.util.Lookup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trainbeans.model.api.AbstractDiscreteStateDelegate;
+import org.trainbeans.model.api.Turnout;
+import org.trainbeans.model.api.TurnoutDelegate;
+
+/**
+ * Benchmark of changing the state of a {@link Turnout}, with and without a
+ * delegate, that is or is not observed. Changing the state of an unobserved
+ * turnout without a delegate should not allocate, even with escape analysis
+ * disabled. A delegate is always observed by its turnout, so changing the
+ * state of a delegated turnout allocates the event fired by the delegate,
+ * but not the event the turnout would propagate.
+ *
+ * This is not run as part of the tests. To run it, compile the tests and run
+ * {@code org.openjdk.jmh.Main FireBenchmark -prof gc} with the test classpath
+ * of this module; {@code gc.alloc.rate.norm} is the number of bytes allocated
+ * per change.
+ *
+ * @author rhwood
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FireBenchmark {
+
+    @Param({"false", "true"})
+    public boolean observed;
+
+    @Param({"false", "true"})
+    public boolean delegated;
+
+    private Turnout turnout;
+    private boolean thrown;
+
+    @Setup
+    public void setUp() {
+        turnout = new TurnoutFactory().create("IT1", Lookup.EMPTY);
+        if (delegated) {
+            turnout.setDelegate(new BenchmarkTurnoutDelegate());
+        }
+        if (observed) {
+            turnout.addPropertyChangeListener("state", evt -> {
+                // nothing to do
+            });
+        }
+        thrown = false;
+    }
+
+    @Benchmark
+    public Turnout setState() {
+        thrown = !thrown;
+        return turnout.setState(thrown ? Turnout.State.THROWN : Turnout.State.CLOSED);
+    }
+
+    private static class BenchmarkTurnoutDelegate extends AbstractDiscreteStateDelegate<Turnout.State, Turnout> implements TurnoutDelegate {
+
+        @Override
+        protected boolean isValidName(String name) {
+            return true;
+        }
+
+        @Override
+        public BenchmarkTurnoutDelegate getSelf() {
+            return this;
+        }
+    }
+}
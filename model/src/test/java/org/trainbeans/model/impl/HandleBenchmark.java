@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.concurrent.TimeUnit;
+import org.openide.util.lookup.Lookups;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trainbeans.model.api.Turnout;
+
+/**
+ * Benchmark of setting the states of {@link Turnout}s in a
+ * {@link DefaultModel} by handle. Setting a state by handle should not
+ * allocate, even with escape analysis disabled, since the model records the
+ * change without an event and reindexes the turnout only when queried.
+ *
+ * This is not run as part of the tests. To run it, compile the tests and run
+ * {@code org.openjdk.jmh.Main HandleBenchmark -prof gc} with the test
+ * classpath of this module; {@code gc.alloc.rate.norm} is the number of bytes
+ * allocated per change.
+ *
+ * @author rhwood
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandleBenchmark {
+
+    private static final int TURNOUTS = 10000;
+
+    private DefaultModel model;
+    private int[] handles;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        model = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+        handles = new int[TURNOUTS];
+        for (int i = 0; i < TURNOUTS; i++) {
+            handles[i] = model.getHandle(model.create(Turnout.class, "IT" + i));
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    public int setState() {
+        int handle = handles[next++ % TURNOUTS];
+        model.setState(handle, (next & 1) == 0 ? Turnout.State.THROWN.ordinal() : Turnout.State.CLOSED.ordinal());
+        return handle;
+    }
+
+    @Benchmark
+    public int setStateAndCount() {
+        setState();
+        return model.countByState(Turnout.class, Turnout.State.THROWN);
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.beans.PropertyChangeEvent;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openide.util.Lookup;
+import org.openide.util.lookup.Lookups;
+import org.trainbeans.model.api.AbstractDiscreteStateDelegate;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.ElementsChangeEvent;
+import org.trainbeans.model.api.Turnout;
+import org.trainbeans.model.api.TurnoutDelegate;
+
+/**
+ *
+ * @author rhwood
+ */
+class LazyModelTest {
+
+    @TempDir
+    Path directory;
+    Path path;
+    LazyModel model;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        DefaultModel source = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            names.add(String.format("IT%04d", i));
+        }
+        source.createAll(Turnout.class, names, Lookup.EMPTY);
+        source.get(Turnout.class, "IT0001").setState(Turnout.State.THROWN);
+        path = directory.resolve("model");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ModelSnapshot.write(source, channel);
+        }
+        model = new LazyModel(Lookups.fixed(new TurnoutFactory()), path);
+    }
+
+    @Test
+    void testOpen() {
+        assertThat(model.getLoadedCount()).isZero();
+        assertThat(model.getCreatableClasses()).containsExactly(Turnout.class);
+    }
+
+    @Test
+    void testOpen_Invalid() throws IOException {
+        assertThatCode(() -> new LazyModel(Lookup.EMPTY, path)).isInstanceOf(IOException.class);
+        Files.write(path, new byte[]{1, 2, 3});
+        assertThatCode(() -> new LazyModel(Lookups.fixed(new TurnoutFactory()), path)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void testOpen_Sections() throws IOException {
+        DefaultModel even = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+        DefaultModel odd = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            names.add(String.format("IT%04d", i));
+            (i % 2 == 0 ? even : odd).create(Turnout.class, names.get(i));
+        }
+        odd.get(Turnout.class, "IT0001").setState(Turnout.State.THROWN);
+        // the sorted sections are merged into one index
+        Path sections = directory.resolve("sections");
+        Files.write(sections, concatenate(write(even), write(odd)));
+        LazyModel merged = new LazyModel(Lookups.fixed(new TurnoutFactory()), sections);
+        assertThat(merged.getAll(Turnout.class)).extracting(Element::getName).containsExactlyElementsOf(names);
+        assertThat(merged.get(Turnout.class, "IT0001").getState()).isEqualTo(Turnout.State.THROWN);
+        assertThat(merged.get(Turnout.class, "IT0002").getState()).isEqualTo(Turnout.State.UNKNOWN);
+        // a name in more than one section is rejected
+        Files.write(sections, concatenate(write(even), write(even)));
+        assertThatCode(() -> new LazyModel(Lookups.fixed(new TurnoutFactory()), sections))
+                .isInstanceOf(IOException.class)
+                .hasMessage("Element \"IT0000\" is in the snapshot more than once.");
+    }
+
+    @Test
+    void testGet() {
+        Turnout turnout = model.get(Turnout.class, "IT0001");
+        assertThat(turnout.getName()).isEqualTo("IT0001");
+        assertThat(turnout.getState()).isEqualTo(Turnout.State.THROWN);
+        assertThat(model.getLoadedCount()).isEqualTo(1);
+        // same element while held
+        assertThat(model.get(Element.class, "IT0001")).isSameAs(turnout);
+        assertThat(model.getLoadedCount()).isEqualTo(1);
+        assertThat(model.get(Turnout.class, "foo")).isNull();
+        assertThat(model.getLoadedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void testGetAll() {
+        Set<Turnout> all = model.getAll(Turnout.class);
+        assertThat(all).hasSize(1000);
+        assertThat(model.getLoadedCount()).isZero();
+        Iterator<Turnout> iterator = all.iterator();
+        assertThat(iterator.next().getName()).isEqualTo("IT0000");
+        assertThat(iterator.next().getName()).isEqualTo("IT0001");
+        assertThat(model.getLoadedCount()).isEqualTo(2);
+        // put elements are merged in order
+        model.create(Turnout.class, "IT0000a");
+        assertThat(model.getRange(Turnout.class, "IT0000", "IT0002")).extracting(Element::getName)
+                .containsExactly("IT0000", "IT0000a", "IT0001");
+        assertThat(model.getByPrefix(Turnout.class, "IT099")).hasSize(10);
+    }
+
+    @Test
+    void testEvict() {
+        Turnout unchanged = model.get(Turnout.class, "IT0001");
+        Turnout changed = model.get(Turnout.class, "IT0002");
+        changed.setState(Turnout.State.CLOSED);
+        assertThat(model.getLoadedCount()).isEqualTo(2);
+        model.evict();
+        assertThat(model.getLoadedCount()).isEqualTo(1);
+        // changed elements are held
+        assertThat(model.get(Turnout.class, "IT0002")).isSameAs(changed);
+        // evicted elements are recreated from the snapshot
+        Turnout recreated = model.get(Turnout.class, "IT0001");
+        assertThat(recreated).isNotSameAs(unchanged);
+        assertThat(recreated.getState()).isEqualTo(Turnout.State.THROWN);
+    }
+
+    @Test
+    void testEvict_Bound() throws IOException {
+        Turnout listened = model.get(Turnout.class, "IT0003");
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        listened.addPropertyChangeListener("state", events::add);
+        model.get(Turnout.class, "IT0004");
+        model.evict();
+        // elements with listeners are held
+        assertThat(model.getLoadedCount()).isEqualTo(1);
+        assertThat(model.get(Turnout.class, "IT0003")).isSameAs(listened);
+        // elements with a delegate are held
+        TestTurnoutDelegate delegate = new TestTurnoutDelegate();
+        delegate.setName("IT1");
+        DefaultModel source = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+        source.create(Turnout.class, "foo").setDelegate(delegate);
+        Path delegated = directory.resolve("delegated");
+        try (FileChannel channel = FileChannel.open(delegated, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ModelSnapshot.write(source, channel);
+        }
+        LazyModel lazy = new LazyModel(Lookups.fixed(new TurnoutFactory(), delegate), delegated);
+        Turnout foo = lazy.get(Turnout.class, "foo");
+        assertThat(foo.getDelegate()).isSameAs(delegate);
+        lazy.evict();
+        assertThat(lazy.get(Turnout.class, "foo")).isSameAs(foo);
+    }
+
+    @Test
+    void testGetAll_Size() {
+        Set<Turnout> all = model.getAll(Turnout.class);
+        model.remove(model.get(Turnout.class, "IT0005"));
+        model.get(Turnout.class, "IT0006").setName("foo");
+        // size agrees with iteration without creating elements
+        int loaded = model.getLoadedCount();
+        assertThat(all.size()).isEqualTo(998);
+        assertThat(model.getLoadedCount()).isEqualTo(loaded);
+        assertThat(all.stream().count()).isEqualTo(998);
+    }
+
+    @Test
+    void testPutAndRemove() {
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        model.addPropertyChangeListener(ElementsChangeEvent.ELEMENTS, events::add);
+        assertThatCode(() -> model.create(Turnout.class, "IT0005")).isInstanceOf(IllegalStateException.class);
+        assertThat(model.getLoadedCount()).isZero();
+        Turnout foo = model.create(Turnout.class, "foo");
+        assertThat(model.get(Turnout.class, "foo")).isSameAs(foo);
+        Turnout turnout = model.get(Turnout.class, "IT0005");
+        model.remove(turnout);
+        assertThat(model.get(Turnout.class, "IT0005")).isNull();
+        assertThat(model.getAll(Turnout.class)).hasSize(1000);
+        assertThat(events).hasSize(2);
+        // removed names can be reused
+        Turnout replacement = model.create(Turnout.class, "IT0005");
+        assertThat(model.get(Turnout.class, "IT0005")).isSameAs(replacement);
+        // removing an element not in the model has no effect
+        model.remove(turnout);
+        assertThat(model.get(Turnout.class, "IT0005")).isSameAs(replacement);
+    }
+
+    @Test
+    void testPutAll() {
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        model.addPropertyChangeListener(ElementsChangeEvent.ELEMENTS, events::add);
+        Turnout foo = new Turnout().setName("foo");
+        // names in the snapshot are checked without loading elements
+        assertThatCode(() -> model.putAll(Arrays.asList(foo, new Turnout().setName("IT0005"))))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(model.getLoadedCount()).isZero();
+        assertThat(model.get(Turnout.class, "foo")).isNull();
+        model.putAll(Arrays.asList(foo, new Turnout().setName("bar")));
+        assertThat(model.get(Turnout.class, "foo")).isSameAs(foo);
+        assertThat(model.getAll(Turnout.class)).hasSize(1002);
+        assertThat(events).hasSize(1);
+        // created elements are put together
+        List<Turnout> created = model.createAll(Turnout.class, Arrays.asList("baz", "qux"), Lookup.EMPTY);
+        assertThat(model.get(Turnout.class, "qux")).isSameAs(created.get(1));
+        assertThat(events).hasSize(2);
+        assertThatCode(() -> model.createAll(Turnout.class, Arrays.asList("quux", "IT0006"), Lookup.EMPTY))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(model.get(Turnout.class, "quux")).isNull();
+        // only the elements put are held
+        assertThat(model.getLoadedCount()).isEqualTo(4);
+    }
+
+    @Test
+    void testRename() {
+        Turnout turnout = model.get(Turnout.class, "IT0001");
+        assertThatCode(() -> turnout.setName("IT0002")).isInstanceOf(IllegalStateException.class);
+        turnout.setName("foo");
+        assertThat(model.get(Turnout.class, "IT0001")).isNull();
+        assertThat(model.get(Turnout.class, "foo")).isSameAs(turnout);
+        model.evict();
+        assertThat(model.get(Turnout.class, "foo")).isSameAs(turnout);
+        assertThat(model.getAll(Turnout.class)).hasSize(1000);
+    }
+
+    private static class TestTurnoutDelegate extends AbstractDiscreteStateDelegate<Turnout.State, Turnout> implements TurnoutDelegate {
+
+        @Override
+        protected boolean isValidName(String name) {
+            return true;
+        }
+
+        @Override
+        public TestTurnoutDelegate getSelf() {
+            return this;
+        }
+    }
+
+    private static byte[] write(DefaultModel source) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ModelSnapshot.write(source, Channels.newChannel(stream));
+        return stream.toByteArray();
+    }
+
+    private static byte[] concatenate(byte[] first, byte[] second) {
+        // both snapshots have one section
+        // header is magic, version, and section count
+        int header = Integer.BYTES + Short.BYTES + Integer.BYTES;
+        ByteBuffer both = ByteBuffer.allocate(first.length + second.length - header);
+        both.put(first, 0, header - Integer.BYTES).putInt(2);
+        both.put(first, header, first.length - header);
+        both.put(second, header, second.length - header);
+        return both.array();
+    }
+}
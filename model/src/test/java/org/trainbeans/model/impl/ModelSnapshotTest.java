@@ -0,0 +1,221 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openide.util.Lookup;
+import org.openide.util.lookup.Lookups;
+import org.trainbeans.model.api.AbstractDiscreteStateDelegate;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.ElementsChangeEvent;
+import org.trainbeans.model.api.Turnout;
+import org.trainbeans.model.api.TurnoutDelegate;
+
+/**
+ *
+ * @author rhwood
+ */
+class ModelSnapshotTest {
+
+    DefaultModel model;
+
+    @BeforeEach
+    void setUp() {
+        model = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+    }
+
+    @Test
+    void testWriteAndRead() throws IOException {
+        TestTurnoutDelegate delegate = new TestTurnoutDelegate();
+        delegate.setName("IT1");
+        delegate.setState(Turnout.State.CLOSED);
+        model.create(Turnout.class, "foo").setState(Turnout.State.THROWN);
+        model.create(Turnout.class, "bar").setState(null);
+        model.create(Turnout.class, "baz").setDelegate(delegate);
+        byte[] snapshot = write(model);
+
+        DefaultModel loaded = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+        List<PropertyChangeEvent> events = new ArrayList<>();
+        loaded.addPropertyChangeListener(events::add);
+        List<PropertyChangeEvent> requests = new ArrayList<>();
+        delegate.addPropertyChangeListener(requests::add);
+        read(loaded, snapshot, Lookups.fixed(delegate));
+        assertThat(loaded.getAll(Element.class)).extracting(Element::getName)
+                .containsExactly("bar", "baz", "foo");
+        assertThat(loaded.get(Turnout.class, "foo").getState()).isEqualTo(Turnout.State.THROWN);
+        assertThat(loaded.get(Turnout.class, "bar").getState()).isNull();
+        assertThat(loaded.get(Turnout.class, "baz").getDelegate()).isEqualTo(delegate);
+        assertThat(loaded.get(Turnout.class, "baz").getState()).isEqualTo(Turnout.State.CLOSED);
+        // one event for the one class of element
+        assertThat(events).hasSize(1);
+        // loading does not request changes of delegates
+        assertThat(requests).isEmpty();
+    }
+
+    @Test
+    void testRead_MissingDelegate() throws IOException {
+        TestTurnoutDelegate delegate = new TestTurnoutDelegate();
+        delegate.setName("IT1");
+        model.create(Turnout.class, "foo").setDelegate(delegate);
+        DefaultModel loaded = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+        read(loaded, write(model), Lookup.EMPTY);
+        assertThat(loaded.get(Turnout.class, "foo").getDelegate()).isNull();
+    }
+
+    @Test
+    void testWriteAndRead_Large() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            names.add("IT" + i);
+        }
+        model.createAll(Turnout.class, names, Lookup.EMPTY)
+                .forEach(turnout -> turnout.setState(Turnout.State.CLOSED));
+        DefaultModel loaded = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+        read(loaded, write(model), Lookup.EMPTY);
+        assertThat(loaded.getAll(Turnout.class)).hasSize(100000);
+        assertThat(loaded.countByState(Turnout.class, Turnout.State.CLOSED)).isEqualTo(100000);
+    }
+
+    @Test
+    void testRead_Invalid() throws IOException {
+        model.create(Turnout.class, "foo");
+        byte[] snapshot = write(model);
+        // not a snapshot
+        byte[] invalid = Arrays.copyOf(snapshot, snapshot.length);
+        invalid[0] = 0;
+        assertThatCode(() -> read(new DefaultModel(Lookups.fixed(new TurnoutFactory())), invalid, Lookup.EMPTY))
+                .isInstanceOf(IOException.class);
+        // unsupported version
+        byte[] version = Arrays.copyOf(snapshot, snapshot.length);
+        ByteBuffer.wrap(version).putShort(Integer.BYTES, (short) (ModelSnapshot.VERSION + 1));
+        assertThatCode(() -> read(new DefaultModel(Lookups.fixed(new TurnoutFactory())), version, Lookup.EMPTY))
+                .isInstanceOf(IOException.class);
+        // truncated
+        byte[] truncated = Arrays.copyOf(snapshot, snapshot.length - 1);
+        assertThatCode(() -> read(new DefaultModel(Lookups.fixed(new TurnoutFactory())), truncated, Lookup.EMPTY))
+                .isInstanceOf(EOFException.class);
+        // cannot create elements
+        DefaultModel empty = new DefaultModel(Lookup.EMPTY);
+        assertThatCode(() -> read(empty, snapshot, Lookup.EMPTY)).isInstanceOf(IOException.class);
+        assertThat(empty.getAll(Element.class)).isEmpty();
+        // conflicting names
+        assertThatCode(() -> read(model, snapshot, Lookup.EMPTY)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void testRead_Atomic() throws IOException {
+        TestTurnoutDelegate delegate = new TestTurnoutDelegate();
+        delegate.setName("IT1");
+        model.create(Turnout.class, "foo").setDelegate(delegate);
+        byte[] snapshot = write(model);
+        // header is magic, version, and section count
+        int header = Integer.BYTES + Short.BYTES + Integer.BYTES;
+        // an invalid state in the last record is found before loading
+        byte[] invalid = Arrays.copyOf(snapshot, snapshot.length);
+        invalid[snapshot.length - Short.BYTES - "IT1".length() - 1] = (byte) 0xFF;
+        DefaultModel loaded = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+        assertThatCode(() -> read(loaded, invalid, Lookups.fixed(delegate))).isInstanceOf(IOException.class);
+        assertThat(loaded.getAll(Element.class)).isEmpty();
+        // a name in more than one section is found before loading
+        ByteBuffer twice = ByteBuffer.allocate(snapshot.length * 2 - header);
+        twice.put(snapshot, 0, header - Integer.BYTES).putInt(2);
+        twice.put(snapshot, header, snapshot.length - header);
+        twice.put(snapshot, header, snapshot.length - header);
+        assertThatCode(() -> read(loaded, twice.array(), Lookups.fixed(delegate))).isInstanceOf(IOException.class);
+        assertThat(loaded.getAll(Element.class)).isEmpty();
+        // a failure loading a later section removes the earlier sections
+        byte[] sections = Arrays.copyOf(twice.array(), twice.capacity());
+        int second = snapshot.length;
+        while (sections[second] != 'f') {
+            second++;
+        }
+        sections[second] = 'g';
+        AtomicInteger notified = new AtomicInteger();
+        PropertyChangeListener failSecond = evt -> {
+            if (notified.incrementAndGet() == 2) {
+                throw new IllegalStateException();
+            }
+        };
+        loaded.addPropertyChangeListener(ElementsChangeEvent.ELEMENTS, failSecond);
+        assertThatCode(() -> read(loaded, sections, Lookups.fixed(delegate))).isInstanceOf(IllegalStateException.class);
+        loaded.removePropertyChangeListener(ElementsChangeEvent.ELEMENTS, failSecond);
+        assertThat(notified.get()).isGreaterThanOrEqualTo(2);
+        assertThat(loaded.getAll(Element.class)).isEmpty();
+        // and unbinds them from their delegates
+        assertThat(delegate.getPropertyChangeListeners()).hasSize(1);
+        // elements put by a createAll that fails part way are removed
+        AtomicBoolean fail = new AtomicBoolean(true);
+        loaded.addPropertyChangeListener(ElementsChangeEvent.ELEMENTS, evt -> {
+            if (fail.getAndSet(false)) {
+                throw new IllegalStateException();
+            }
+        });
+        assertThatCode(() -> read(loaded, snapshot, Lookups.fixed(delegate))).isInstanceOf(IllegalStateException.class);
+        assertThat(fail).isFalse();
+        assertThat(loaded.getAll(Element.class)).isEmpty();
+        // elements with names in the snapshot are not replaced or removed
+        Turnout foo = loaded.create(Turnout.class, "foo");
+        assertThatCode(() -> read(loaded, snapshot, Lookups.fixed(delegate))).isInstanceOf(IllegalStateException.class);
+        assertThat(loaded.getAll(Element.class)).containsExactly(foo);
+    }
+
+    @Test
+    void testWrite_LongName() {
+        char[] name = new char[0x10000];
+        Arrays.fill(name, 'a');
+        model.create(Turnout.class, new String(name));
+        assertThatCode(() -> write(model)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static byte[] write(DefaultModel model) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ModelSnapshot.write(model, Channels.newChannel(stream));
+        return stream.toByteArray();
+    }
+
+    private static void read(DefaultModel model, byte[] snapshot, Lookup lookup) throws IOException {
+        ModelSnapshot.read(model, Channels.newChannel(new ByteArrayInputStream(snapshot)), lookup);
+    }
+
+    private static class TestTurnoutDelegate extends AbstractDiscreteStateDelegate<Turnout.State, Turnout> implements TurnoutDelegate {
+
+        @Override
+        protected boolean isValidName(String name) {
+            return true;
+        }
+
+        @Override
+        public TestTurnoutDelegate getSelf() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import org.junit.jupiter.api.Test;
+import org.trainbeans.model.api.AbstractDiscreteStateDelegate;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.PackedStateStore;
+import org.trainbeans.model.api.Turnout;
+import org.trainbeans.model.api.TurnoutDelegate;
+
+/**
+ *
+ * @author rhwood
+ */
+class ParallelStatesTest {
+
+    @Test
+    void testGroup() {
+        PackedStateStore<Turnout.State> store = new PackedStateStore<>(Turnout.State.values());
+        List<Turnout> turnouts = new ArrayList<>();
+        for (int i = 0; i < ParallelStates.GROUP_SIZE + 10; i++) {
+            turnouts.add(new Turnout().setName("IT" + i));
+        }
+        Turnout stored1 = new Turnout().setName("foo");
+        stored1.setStateStore(store);
+        Turnout stored2 = new Turnout().setName("bar");
+        stored2.setStateStore(store);
+        List<Element> elements = new ArrayList<>(turnouts);
+        elements.add(1, stored1);
+        elements.add(stored2);
+        List<List<Element>> groups = ParallelStates.group(elements);
+        // elements sharing a store are chunked like independent elements
+        assertThat(groups).hasSize(2);
+        assertThat(groups.get(0)).hasSize(ParallelStates.GROUP_SIZE).contains(stored1);
+        assertThat(groups.get(1)).hasSize(12).contains(stored2);
+        assertThat(ParallelStates.group(Collections.emptyList())).isEmpty();
+    }
+
+    @Test
+    void testApply() {
+        Map<Turnout, Turnout.State> states = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            states.put(new Turnout().setName("IT" + i), i % 2 == 0 ? Turnout.State.THROWN : Turnout.State.CLOSED);
+        }
+        ParallelStates.apply(states);
+        assertThat(states).allSatisfy((turnout, state) -> assertThat(turnout.getState()).isEqualTo(state));
+        // failures are propagated
+        Turnout turnout = new Turnout().setName("foo");
+        turnout.addPropertyChangeListener(evt -> {
+            throw new IllegalStateException();
+        });
+        states.put(turnout, Turnout.State.THROWN);
+        assertThatCode(() -> ParallelStates.apply(states)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void testApply_SharedDelegate() {
+        TestTurnoutDelegate shared = new TestTurnoutDelegate();
+        shared.setName("IT1");
+        Turnout inside = new Turnout().setName("inside");
+        inside.setDelegate(shared);
+        Turnout outside = new Turnout().setName("outside");
+        outside.setDelegate(shared);
+        TestTurnoutDelegate own = new TestTurnoutDelegate();
+        own.setName("IT2");
+        Turnout owned = new Turnout().setName("owned");
+        owned.setDelegate(own);
+        Map<Turnout, Turnout.State> states = new HashMap<>();
+        for (int i = 0; i < ParallelStates.GROUP_SIZE * 8; i++) {
+            states.put(new Turnout().setName("IT" + i), Turnout.State.THROWN);
+        }
+        states.put(inside, Turnout.State.THROWN);
+        states.put(owned, Turnout.State.THROWN);
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        outside.addPropertyChangeListener("state", evt -> threads.add(Thread.currentThread()));
+        ParallelStates.apply(states);
+        assertThat(owned.getState()).isEqualTo(Turnout.State.THROWN);
+        // elements not being set are notified on the calling thread
+        assertThat(outside.getState()).isEqualTo(Turnout.State.THROWN);
+        assertThat(threads).isNotEmpty().containsOnly(Thread.currentThread());
+    }
+
+    private static class TestTurnoutDelegate extends AbstractDiscreteStateDelegate<Turnout.State, Turnout> implements TurnoutDelegate {
+
+        @Override
+        protected boolean isValidName(String name) {
+            return true;
+        }
+
+        @Override
+        public TestTurnoutDelegate getSelf() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.concurrent.TimeUnit;
+import org.openide.util.Lookup;
+import org.openide.util.lookup.Lookups;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.trainbeans.model.api.Turnout;
+
+/**
+ * Benchmark of renaming an element in a {@link DefaultModel} of increasing
+ * size. The cost of a rename should grow only logarithmically with the size
+ * of the model.
+ *
+ * This is not run as part of the tests. To run it, compile the tests and run
+ * {@code org.openjdk.jmh.Main RenameBenchmark} with the test classpath of this
+ * module.
+ *
+ * @author rhwood
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenameBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private DefaultModel model;
+    private Turnout turnout;
+    private boolean renamed;
+
+    @Setup
+    public void setUp() {
+        model = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+        for (int i = 0; i < size; i++) {
+            model.create(Turnout.class, "IT" + i, Lookup.EMPTY);
+        }
+        // cache a set so renames also update cached sets
+        model.getAll(Turnout.class);
+        turnout = model.get(Turnout.class, "IT" + (size / 2));
+        renamed = false;
+    }
+
+    @Benchmark
+    public Turnout rename() {
+        renamed = !renamed;
+        return turnout.setName(renamed ? "renamed" : "IT" + (size / 2));
+    }
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyVetoException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openide.util.Lookup;
+import org.openide.util.lookup.Lookups;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.ElementPage;
+import org.trainbeans.model.api.ElementsChangeEvent;
+import org.trainbeans.model.api.StatesChangeEvent;
+import org.trainbeans.model.api.Turnout;
+import org.trainbeans.model.api.TurnoutDelegate;
+
+/**
+ *
+ * @author rhwood
+ */
+class ShardedModelTest {
+
+    ShardedModel model;
+
+    @BeforeEach
+    void setUp() {
+        model = new ShardedModel(Lookups.fixed(new TurnoutFactory()), 4);
+    }
+
+    @Test
+    void testConstructor() {
+        assertThatCode(() -> new ShardedModel(Lookup.EMPTY, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(new ShardedModel(Lookup.EMPTY).getCreatableClasses()).isEmpty();
+    }
+
+    @Test
+    void testCreate() {
+        assertThat(model.get(Turnout.class, "foo")).isNull();
+        Turnout turnout1 = model.create(Turnout.class, "foo", Lookup.EMPTY);
+        assertThat(model.get(Turnout.class, "foo")).isEqualTo(turnout1);
+        // name is in use
+        assertThatCode(() -> model.create(Element.class, "foo", Lookup.EMPTY)).isInstanceOf(IllegalStateException.class);
+        // no factory for Element
+        assertThatCode(() -> model.create(Element.class, "bar", Lookup.EMPTY)).isInstanceOf(IllegalArgumentException.class);
+        Turnout turnout2 = model.getOrCreate(Turnout.class, "bar", null);
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnout2, turnout1);
+    }
+
+    @Test
+    void testGetAll() {
+        assertThat(model.getAll(Turnout.class)).isEmpty();
+        List<Turnout> turnouts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            turnouts.add(model.create(Turnout.class, String.format("IT%03d", i)));
+        }
+        Set<Turnout> snapshot = model.getAll(Turnout.class);
+        Turnout other = model.create(Turnout.class, "foo");
+        // merged from every shard in order
+        assertThat(snapshot).containsExactlyElementsOf(turnouts);
+        assertThat(snapshot).contains(turnouts.get(50)).doesNotContain(other);
+        assertThat(model.getAll(Element.class)).hasSize(101).endsWith(other);
+        Iterator<Turnout> iterator = model.getRange(Turnout.class, "IT098", "IT100").iterator();
+        iterator.next();
+        iterator.next();
+        assertThatCode(iterator::next).isInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    void testGetRange() {
+        Turnout north1 = model.create(Turnout.class, "North Boylan 1");
+        Turnout north2 = model.create(Turnout.class, "North Boylan 2");
+        Turnout south1 = model.create(Turnout.class, "South Boylan 1");
+        assertThat(model.getRange(Turnout.class, "North", "South")).containsExactly(north1, north2);
+        assertThat(model.getRange(Element.class, "North Boylan 2", null)).containsExactly(north2, south1);
+        assertThat(model.getRange(Element.class, null, "North Boylan 2")).containsExactly(north1);
+        assertThat(model.getByPrefix(Turnout.class, "North Boylan ")).containsExactly(north1, north2);
+        assertThatCode(() -> model.getRange(Turnout.class, "South", "North"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testGetPage() {
+        List<Turnout> turnouts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            turnouts.add(model.create(Turnout.class, "IT" + i));
+        }
+        ElementPage<Turnout> page = model.getPage(Turnout.class, null, 4);
+        assertThat(page.getElements()).containsExactlyElementsOf(turnouts.subList(0, 4));
+        assertThat(page.getNextKey()).isEqualTo("IT3");
+        // elements added before the resume key do not shift later pages
+        model.create(Turnout.class, "IT0a");
+        Turnout added = model.create(Turnout.class, "IT5a");
+        model.remove(turnouts.get(4));
+        page = model.getPage(Turnout.class, page.getNextKey(), 4);
+        assertThat(page.getElements()).containsExactly(turnouts.get(5), added, turnouts.get(6), turnouts.get(7));
+        page = model.getPage(Turnout.class, page.getNextKey(), 4);
+        assertThat(page.getElements()).containsExactly(turnouts.get(8), turnouts.get(9));
+        assertThat(page.hasNext()).isFalse();
+        // the resume key need not be the name of an element
+        assertThat(model.getPage(Element.class, "IT8x", 4).getElements()).containsExactly(turnouts.get(9));
+        assertThat(model.getPage(Turnout.class, "IT9", 4).getElements()).isEmpty();
+        assertThatCode(() -> model.getPage(Turnout.class, null, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testGetOrCreate() {
+        Turnout turnout1 = model.getOrCreate(Turnout.class, "foo", Lookup.EMPTY);
+        assertThat(turnout1).isNotNull();
+        assertThat(model.getOrCreate(Turnout.class, "foo", Lookup.EMPTY)).isEqualTo(turnout1);
+        // name is in use by an element of an incompatible type
+        assertThatCode(() -> model.getOrCreate(TurnoutDelegate.class, "foo", Lookup.EMPTY)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void testPut() {
+        Turnout turnout = new Turnout();
+        turnout.setName("foo");
+        assertThat(model.put(turnout)).isExactlyInstanceOf(ShardedModel.class).isEqualTo(model);
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnout);
+        assertThat(turnout.getPropertyChangeListeners("name")).containsExactly(model);
+        assertThat(turnout.getVetoableChangeListeners("name")).containsExactly(model);
+        assertThatCode(() -> model.put(turnout)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void testPutAll() {
+        List<ElementsChangeEvent> events = new ArrayList<>();
+        model.addPropertyChangeListener(ElementsChangeEvent.ELEMENTS, evt -> events.add((ElementsChangeEvent) evt));
+        Turnout turnout1 = new Turnout().setName("foo");
+        Turnout turnout2 = new Turnout().setName("bar");
+        assertThat((Object) model.putAll(Arrays.asList(turnout1, turnout2))).isEqualTo(model);
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnout2, turnout1);
+        assertThat(turnout1.getPropertyChangeListeners("name")).containsExactly(model);
+        assertThat(turnout1.getVetoableChangeListeners("name")).containsExactly(model);
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).getAdded()).containsExactly(turnout1, turnout2);
+        // names in use, or repeated, put nothing
+        Turnout turnout3 = new Turnout().setName("qux");
+        assertThatCode(() -> model.putAll(Arrays.asList(turnout3, new Turnout().setName("foo"))))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatCode(() -> model.putAll(Arrays.asList(turnout3, new Turnout().setName("qux"))))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(model.get(Turnout.class, "qux")).isNull();
+        assertThat(turnout3.getPropertyChangeListeners("name")).isEmpty();
+        assertThat(events).hasSize(1);
+        // empty collection does not notify
+        model.putAll(Collections.emptyList());
+        assertThat(events).hasSize(1);
+    }
+
+    @Test
+    void testCreateAll() {
+        List<ElementsChangeEvent> events = new ArrayList<>();
+        model.addPropertyChangeListener(ElementsChangeEvent.ELEMENTS, evt -> events.add((ElementsChangeEvent) evt));
+        List<Turnout> turnouts = model.createAll(Turnout.class, Arrays.asList("foo", "bar"), Lookup.EMPTY);
+        assertThat(turnouts).extracting(Element::getName).containsExactly("foo", "bar");
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnouts.get(1), turnouts.get(0));
+        assertThat(events).hasSize(1);
+        // name is in use
+        assertThatCode(() -> model.createAll(Turnout.class, Arrays.asList("baz", "foo"), Lookup.EMPTY))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(model.get(Turnout.class, "baz")).isNull();
+        // no factory for Element
+        assertThatCode(() -> model.createAll(Element.class, Arrays.asList("baz"), Lookup.EMPTY))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(events).hasSize(1);
+    }
+
+    @Test
+    void testRemove() {
+        Turnout turnout = model.create(Turnout.class, "foo");
+        assertThat(model.remove(turnout)).isExactlyInstanceOf(ShardedModel.class).isEqualTo(model);
+        assertThat(turnout.getPropertyChangeListeners("name")).isEmpty();
+        assertThat(turnout.getVetoableChangeListeners("name")).isEmpty();
+        assertThat(model.getAll(Turnout.class)).isEmpty();
+        assertThat(model.get(Turnout.class, "foo")).isNull();
+        assertThatCode(() -> model.remove(null)).doesNotThrowAnyException();
+    }
+
+    @Test
+    void testElementsChange() {
+        List<ElementsChangeEvent> events = new ArrayList<>();
+        model.addPropertyChangeListener(ElementsChangeEvent.ELEMENTS, evt -> events.add((ElementsChangeEvent) evt));
+        Turnout turnout = model.create(Turnout.class, "foo");
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).getAdded()).containsExactly(turnout);
+        model.remove(turnout);
+        assertThat(events).hasSize(2);
+        assertThat(events.get(1).getRemoved()).containsExactly(turnout);
+        // not in model
+        model.remove(turnout);
+        assertThat(events).hasSize(2);
+    }
+
+    @Test
+    void testPartition() {
+        // partition by the district before the colon
+        model = new ShardedModel(Lookups.fixed(new TurnoutFactory()), 3,
+                name -> name.startsWith("North:") ? 1 : name.startsWith("South:") ? 2 : 0);
+        Turnout north = model.create(Turnout.class, "North:1");
+        Turnout south = model.create(Turnout.class, "South:1");
+        Turnout yard = model.create(Turnout.class, "Yard:1");
+        assertThat(model.getShardSize(0)).isEqualTo(1);
+        assertThat(model.getShardSize(1)).isEqualTo(1);
+        assertThat(model.getShardSize(2)).isEqualTo(1);
+        assertThat(model.getAll(Turnout.class)).containsExactly(north, south, yard);
+        // renaming moves an element between shards
+        yard.setName("North:2");
+        assertThat(model.getShardSize(0)).isZero();
+        assertThat(model.getShardSize(1)).isEqualTo(2);
+        assertThat(model.getAll(Turnout.class)).containsExactly(north, yard, south);
+        assertThat(model.getRange(Turnout.class, "North:", "North;")).containsExactly(north, yard);
+        model.remove(yard);
+        assertThat(model.getShardSize(1)).isEqualTo(1);
+    }
+
+    @Test
+    void testRename() {
+        Turnout turnout = model.create(Turnout.class, "foo");
+        Turnout other = model.create(Turnout.class, "baz");
+        turnout.setName("bar");
+        assertThat(model.get(Element.class, "foo")).isNull();
+        assertThat(model.get(Element.class, "bar")).isEqualTo(turnout);
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnout, other);
+        // name in use is vetoed
+        assertThatCode(() -> turnout.setName("baz")).isInstanceOf(IllegalStateException.class);
+        PropertyVetoException ex = catchThrowableOfType(() -> model.vetoableChange(
+                new PropertyChangeEvent(turnout, "name", "bar", "baz")), PropertyVetoException.class);
+        assertThat(ex.getMessage()).isEqualTo("Element with name \"baz\" already exists.");
+        // rename from a name other than the indexed name is vetoed
+        ex = catchThrowableOfType(() -> model.vetoableChange(
+                new PropertyChangeEvent(turnout, "name", "foo", "qux")), PropertyVetoException.class);
+        assertThat(ex.getMessage()).isEqualTo("Element \"foo\" is already being renamed.");
+        assertThat(turnout.getName()).isEqualTo("bar");
+        assertThat(model.get(Element.class, "baz")).isEqualTo(other);
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnout, other);
+    }
+
+    @Test
+    void testRename_VetoedElsewhere() {
+        Turnout turnout = model.create(Turnout.class, "foo");
+        turnout.addVetoableChangeListener(evt -> {
+            if ("bar".equals(evt.getNewValue())) {
+                throw new PropertyVetoException("test", evt);
+            }
+        });
+        assertThatCode(() -> turnout.setName("bar")).isInstanceOf(IllegalStateException.class);
+        // the reservation of the vetoed name is released
+        assertThat(model.get(Element.class, "bar")).isNull();
+        assertThat(model.get(Element.class, "foo")).isEqualTo(turnout);
+        assertThat(model.getAll(Turnout.class)).containsExactly(turnout);
+    }
+
+    @Test
+    void testApplyStates() {
+        Map<Turnout, Turnout.State> states = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            states.put(model.create(Turnout.class, "IT" + i), Turnout.State.THROWN);
+        }
+        Turnout unchanged = model.get(Turnout.class, "IT0");
+        unchanged.setState(Turnout.State.THROWN);
+        List<StatesChangeEvent> events = new ArrayList<>();
+        model.addPropertyChangeListener(StatesChangeEvent.STATES, evt -> events.add((StatesChangeEvent) evt));
+        model.applyStates(states);
+        assertThat(states.keySet()).allMatch(turnout -> turnout.getState() == Turnout.State.THROWN);
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).getElements()).hasSize(999).doesNotContain(unchanged);
+        assertThatCode(() -> model.applyStates(Collections.singletonMap(new Turnout().setName("foo"), Turnout.State.CLOSED)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testUpdateConcurrently() throws Exception {
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        String name = thread + ":" + i;
+                        Turnout turnout = model.getOrCreate(Turnout.class, name);
+                        turnout.setState(Turnout.State.THROWN);
+                        if (i % 2 == 0) {
+                            turnout.setName(name + "r");
+                        }
+                        if (i % 5 == 0) {
+                            model.remove(turnout);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Set<Turnout> all = model.getAll(Turnout.class);
+        assertThat(all).hasSize(threads * 400);
+        assertThat(all).allMatch(turnout -> model.get(Turnout.class, turnout.getName()) == turnout);
+        assertThat(all).extracting(Element::getName).isSorted();
+    }
+
+    @Test
+    void testGetRange_Renaming() throws Exception {
+        ShardedModel sharded = new ShardedModel(Lookups.fixed(new TurnoutFactory()), 2,
+                name -> name.startsWith("b") ? 1 : 0);
+        Turnout turnout = sharded.create(Turnout.class, "a");
+        sharded.create(Turnout.class, "c");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> renamer = executor.submit(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    turnout.setName(i % 2 == 0 ? "b" : "a");
+                }
+            });
+            int anomalies = 0;
+            while (!renamer.isDone()) {
+                // an element renamed between shards is never missed or duplicated
+                if (sharded.getAll(Turnout.class).size() != 2) {
+                    anomalies++;
+                }
+            }
+            renamer.get();
+            assertThat(anomalies).isZero();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testGetCreatableClasses() {
+        assertThat(model.getCreatableClasses()).containsExactly(Turnout.class);
+        assertThatCode(() -> model.getCreatableClasses().clear()).isInstanceOf(UnsupportedOperationException.class);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author rhwood
+ */
+class SortedMapsTest {
+
+    private SortedMap<String, Integer> map;
+
+    @BeforeEach
+    void setUp() {
+        map = new TreeMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("c", 3);
+    }
+
+    @Test
+    void testSubMap() {
+        assertThat(SortedMaps.subMap(map, "b", "c")).containsOnlyKeys("b");
+        assertThat(SortedMaps.subMap(map, "b", null)).containsOnlyKeys("b", "c");
+        assertThat(SortedMaps.subMap(map, null, "b")).containsOnlyKeys("a");
+        assertThat(SortedMaps.subMap(map, null, null)).isSameAs(map);
+        assertThatCode(() -> SortedMaps.subMap(map, "c", "b")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testMerge() {
+        SortedMap<String, Integer> other = new TreeMap<>();
+        other.put("aa", 11);
+        other.put("d", 4);
+        Iterator<Integer> iterator = SortedMaps.merge(Arrays.asList(map, other, new TreeMap<>()));
+        List<Integer> values = new ArrayList<>();
+        iterator.forEachRemaining(values::add);
+        assertThat(values).containsExactly(1, 11, 2, 3, 4);
+        assertThat(iterator.hasNext()).isFalse();
+        assertThatCode(iterator::next).isInstanceOf(NoSuchElementException.class);
+        assertThat(SortedMaps.merge(Collections.emptyList()).hasNext()).isFalse();
+    }
+}
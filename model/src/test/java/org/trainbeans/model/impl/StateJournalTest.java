@@ -0,0 +1,294 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.beans.PropertyChangeEvent;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openide.util.Lookup;
+import org.openide.util.lookup.Lookups;
+import org.trainbeans.model.api.AbstractDiscreteStateDelegate;
+import org.trainbeans.model.api.Turnout;
+import org.trainbeans.model.api.TurnoutDelegate;
+
+/**
+ *
+ * @author rhwood
+ */
+class StateJournalTest {
+
+    @TempDir
+    Path directory;
+    Path path;
+    DefaultModel model;
+
+    @BeforeEach
+    void setUp() {
+        path = directory.resolve("journal");
+        model = createModel();
+    }
+
+    @Test
+    void testReplay() throws IOException {
+        try (StateJournal journal = new StateJournal(path)) {
+            journal.attach(model);
+            model.get(Turnout.class, "IT1").setState(Turnout.State.THROWN);
+            model.get(Turnout.class, "IT2").setState(Turnout.State.CLOSED);
+            model.get(Turnout.class, "IT2").setState(null);
+            // elements added after attaching are journaled
+            model.create(Turnout.class, "IT4").setState(Turnout.State.THROWN);
+            journal.flush();
+        }
+        DefaultModel restored = createModel();
+        restored.create(Turnout.class, "IT4");
+        try (StateJournal journal = new StateJournal(path)) {
+            assertThat(journal.replay(restored)).isEqualTo(4);
+        }
+        assertThat(restored.get(Turnout.class, "IT1").getState()).isEqualTo(Turnout.State.THROWN);
+        assertThat(restored.get(Turnout.class, "IT2").getState()).isNull();
+        assertThat(restored.get(Turnout.class, "IT3").getState()).isEqualTo(Turnout.State.UNKNOWN);
+        assertThat(restored.get(Turnout.class, "IT4").getState()).isEqualTo(Turnout.State.THROWN);
+    }
+
+    @Test
+    void testReplay_Rename() throws IOException {
+        try (StateJournal journal = new StateJournal(path)) {
+            journal.attach(model);
+            model.get(Turnout.class, "IT1").setName("foo");
+            model.get(Turnout.class, "foo").setState(Turnout.State.CLOSED);
+        }
+        DefaultModel restored = createModel();
+        try (StateJournal journal = new StateJournal(path)) {
+            assertThat(journal.replay(restored)).isEqualTo(2);
+        }
+        assertThat(restored.get(Turnout.class, "IT1")).isNull();
+        assertThat(restored.get(Turnout.class, "foo").getState()).isEqualTo(Turnout.State.CLOSED);
+    }
+
+    @Test
+    void testAppend() throws IOException {
+        try (StateJournal journal = new StateJournal(path)) {
+            journal.attach(model);
+            model.get(Turnout.class, "IT1").setState(Turnout.State.THROWN);
+        }
+        try (StateJournal journal = new StateJournal(path)) {
+            journal.attach(model);
+            model.get(Turnout.class, "IT2").setState(Turnout.State.THROWN);
+        }
+        DefaultModel restored = createModel();
+        try (StateJournal journal = new StateJournal(path)) {
+            assertThat(journal.replay(restored)).isEqualTo(2);
+        }
+        assertThat(restored.get(Turnout.class, "IT1").getState()).isEqualTo(Turnout.State.THROWN);
+        assertThat(restored.get(Turnout.class, "IT2").getState()).isEqualTo(Turnout.State.THROWN);
+    }
+
+    @Test
+    void testAppend_Grow() throws IOException {
+        try (StateJournal journal = new StateJournal(path)) {
+            journal.attach(model);
+            Turnout turnout = model.get(Turnout.class, "IT1");
+            for (int i = 0; i < 50000; i++) {
+                turnout.setState(i % 2 == 0 ? Turnout.State.THROWN : Turnout.State.CLOSED);
+            }
+        }
+        assertThat(Files.size(path)).isGreaterThan(0x100000);
+        DefaultModel restored = createModel();
+        try (StateJournal journal = new StateJournal(path)) {
+            assertThat(journal.replay(restored)).isEqualTo(50000);
+        }
+        assertThat(restored.get(Turnout.class, "IT1").getState()).isEqualTo(Turnout.State.CLOSED);
+    }
+
+    @Test
+    void testRecover_TornRecord() throws IOException {
+        try (StateJournal journal = new StateJournal(path)) {
+            journal.attach(model);
+            model.get(Turnout.class, "IT1").setState(Turnout.State.THROWN);
+            journal.flush();
+            model.get(Turnout.class, "IT2").setState(Turnout.State.THROWN);
+        }
+        // corrupt the last byte of the last record
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+            channel.read(bytes, 0);
+            int end = bytes.capacity() - 1;
+            while (bytes.get(end) == 0) {
+                end--;
+            }
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) (bytes.get(end) + 1)}), end);
+        }
+        DefaultModel restored = createModel();
+        try (StateJournal journal = new StateJournal(path)) {
+            assertThat(journal.replay(restored)).isEqualTo(1);
+            // appending after recovery replaces the torn record
+            journal.attach(restored);
+            restored.get(Turnout.class, "IT3").setState(Turnout.State.CLOSED);
+        }
+        DefaultModel again = createModel();
+        try (StateJournal journal = new StateJournal(path)) {
+            assertThat(journal.replay(again)).isEqualTo(2);
+        }
+        assertThat(again.get(Turnout.class, "IT1").getState()).isEqualTo(Turnout.State.THROWN);
+        assertThat(again.get(Turnout.class, "IT2").getState()).isEqualTo(Turnout.State.UNKNOWN);
+        assertThat(again.get(Turnout.class, "IT3").getState()).isEqualTo(Turnout.State.CLOSED);
+    }
+
+    @Test
+    void testReset() throws IOException {
+        try (StateJournal journal = new StateJournal(path)) {
+            journal.attach(model);
+            model.get(Turnout.class, "IT1").setState(Turnout.State.THROWN);
+            journal.reset();
+            model.get(Turnout.class, "IT2").setState(Turnout.State.THROWN);
+        }
+        DefaultModel restored = createModel();
+        try (StateJournal journal = new StateJournal(path)) {
+            assertThat(journal.replay(restored)).isEqualTo(1);
+        }
+        assertThat(restored.get(Turnout.class, "IT1").getState()).isEqualTo(Turnout.State.UNKNOWN);
+        assertThat(restored.get(Turnout.class, "IT2").getState()).isEqualTo(Turnout.State.THROWN);
+    }
+
+    @Test
+    void testReset_Crash() throws IOException {
+        byte[] reset;
+        try (StateJournal journal = new StateJournal(path)) {
+            journal.attach(model);
+            for (int i = 0; i < 10; i++) {
+                model.get(Turnout.class, "IT1").setState(i % 2 == 0 ? Turnout.State.THROWN : Turnout.State.CLOSED);
+                journal.flush();
+            }
+            journal.reset();
+            reset = Files.readAllBytes(path);
+            model.get(Turnout.class, "IT2").setState(Turnout.State.THROWN);
+            journal.flush();
+        }
+        // simulate a crash in which the records were stored but the bytes
+        // after them were not, leaving what was stored by the reset
+        byte[] crashed = Files.readAllBytes(path);
+        ByteBuffer records = ByteBuffer.wrap(crashed);
+        int end = Integer.BYTES + Short.BYTES;
+        while (records.getInt(end) != 0) {
+            end += Integer.BYTES * 2 + records.getInt(end);
+        }
+        System.arraycopy(reset, end, crashed, end, reset.length - end);
+        Files.write(path, crashed);
+        // records discarded by the reset are not replayed
+        DefaultModel restored = createModel();
+        try (StateJournal journal = new StateJournal(path)) {
+            assertThat(journal.replay(restored)).isEqualTo(1);
+        }
+        assertThat(restored.get(Turnout.class, "IT1").getState()).isEqualTo(Turnout.State.UNKNOWN);
+        assertThat(restored.get(Turnout.class, "IT2").getState()).isEqualTo(Turnout.State.THROWN);
+    }
+
+    @Test
+    void testReplay_Delegated() throws IOException {
+        try (StateJournal journal = new StateJournal(path)) {
+            journal.attach(model);
+            model.get(Turnout.class, "IT1").setState(Turnout.State.THROWN);
+            journal.flush();
+        }
+        DefaultModel restored = createModel();
+        TestTurnoutDelegate delegate = new TestTurnoutDelegate();
+        delegate.setName("IT1");
+        delegate.setState(Turnout.State.CLOSED);
+        restored.get(Turnout.class, "IT1").setDelegate(delegate);
+        List<PropertyChangeEvent> requests = new ArrayList<>();
+        delegate.addPropertyChangeListener(requests::add);
+        try (StateJournal journal = new StateJournal(path)) {
+            assertThat(journal.replay(restored)).isEqualTo(1);
+        }
+        // replaying does not request changes of delegates
+        assertThat(requests).isEmpty();
+        assertThat(restored.get(Turnout.class, "IT1").getState()).isEqualTo(Turnout.State.CLOSED);
+        restored.get(Turnout.class, "IT1").setDelegate(null);
+        assertThat(restored.get(Turnout.class, "IT1").getState()).isEqualTo(Turnout.State.THROWN);
+    }
+
+    @Test
+    void testDetach() throws IOException {
+        try (StateJournal journal = new StateJournal(path)) {
+            journal.attach(model);
+            journal.detach(model);
+            model.get(Turnout.class, "IT1").setState(Turnout.State.THROWN);
+            model.create(Turnout.class, "IT4").setState(Turnout.State.THROWN);
+        }
+        try (StateJournal journal = new StateJournal(path)) {
+            assertThat(journal.replay(createModel())).isZero();
+        }
+    }
+
+    @Test
+    void testClose_Failed() throws IOException {
+        StateJournal journal = new StateJournal(path);
+        // a change the writer thread cannot append stops it
+        Turnout unnamed = new Turnout();
+        unnamed.setDelegate(new TestTurnoutDelegate());
+        journal.propertyChange(new PropertyChangeEvent(unnamed, "state", null, Turnout.State.THROWN));
+        assertThatCode(journal::flush).isInstanceOf(IOException.class);
+        // closing after the failure still closes and reports the failure
+        assertThatCode(journal::close).isInstanceOf(IOException.class);
+        assertThatCode(journal::close).doesNotThrowAnyException();
+        // the journal file is closed, so it can be opened again
+        try (StateJournal reopened = new StateJournal(path)) {
+            assertThat(reopened.replay(model)).isZero();
+        }
+    }
+
+    @Test
+    void testOpen_NotJournal() throws IOException {
+        Files.write(path, "not a journal".getBytes());
+        assertThatCode(() -> new StateJournal(path)).isInstanceOf(IOException.class);
+        // file is not changed
+        assertThat(Files.size(path)).isEqualTo(13);
+    }
+
+    private static class TestTurnoutDelegate extends AbstractDiscreteStateDelegate<Turnout.State, Turnout> implements TurnoutDelegate {
+
+        @Override
+        protected boolean isValidName(String name) {
+            return true;
+        }
+
+        @Override
+        public TestTurnoutDelegate getSelf() {
+            return this;
+        }
+    }
+
+    private static DefaultModel createModel() {
+        DefaultModel model = new DefaultModel(Lookups.fixed(new TurnoutFactory()));
+        List<String> names = new ArrayList<>();
+        names.add("IT1");
+        names.add("IT2");
+        names.add("IT3");
+        model.createAll(Turnout.class, names, Lookup.EMPTY);
+        return model;
+    }
+}
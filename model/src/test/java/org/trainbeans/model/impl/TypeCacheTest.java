@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 rhwood.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trainbeans.model.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+import org.trainbeans.model.api.DiscreteStateElement;
+import org.trainbeans.model.api.Element;
+import org.trainbeans.model.api.Turnout;
+
+/**
+ *
+ * @author rhwood
+ */
+class TypeCacheTest {
+
+    @Test
+    void testUnbounded() {
+        TypeCache cache = new TypeCache(CachePolicy.unbounded());
+        ElementSet<Element> set = new ElementSet<>();
+        assertThat(cache.get(Turnout.class)).isNull();
+        cache.put(Turnout.class, set, 10);
+        assertThat(cache.get(Turnout.class)).isSameAs(set);
+        assertThat(cache.peek(Turnout.class)).isSameAs(set);
+        CacheStatistics statistics = cache.getStatistics();
+        assertThat(statistics.getHitCount()).isEqualTo(1);
+        assertThat(statistics.getMissCount()).isEqualTo(1);
+        assertThat(statistics.getRebuildCount()).isEqualTo(1);
+        assertThat(statistics.getRebuildNanos()).isEqualTo(10);
+        assertThat(statistics.getEvictionCount()).isZero();
+        assertThat(statistics.getSize()).isEqualTo(1);
+        // soft references are not cleared
+        cache.clearReferences();
+        assertThat(cache.peek(Turnout.class)).isSameAs(set);
+    }
+
+    @Test
+    void testLeastRecentlyUsed() {
+        TypeCache cache = new TypeCache(CachePolicy.leastRecentlyUsed(2));
+        cache.put(Turnout.class, new ElementSet<>(), 1);
+        cache.put(Element.class, new ElementSet<>(), 1);
+        // Turnout becomes most recently used
+        cache.get(Turnout.class);
+        cache.put(DiscreteStateElement.class, new ElementSet<>(), 1);
+        assertThat(cache.peek(Element.class)).isNull();
+        assertThat(cache.peek(Turnout.class)).isNotNull();
+        assertThat(cache.peek(DiscreteStateElement.class)).isNotNull();
+        assertThat(cache.getStatistics().getEvictionCount()).isEqualTo(1);
+        assertThat(cache.getStatistics().getSize()).isEqualTo(2);
+    }
+
+    @Test
+    void testSoftReferences() {
+        TypeCache cache = new TypeCache(CachePolicy.softReferences());
+        ElementSet<Element> set = new ElementSet<>();
+        cache.put(Turnout.class, set, 1);
+        cache.put(Element.class, new ElementSet<>(), 1);
+        List<ElementSet<Element>> visited = new ArrayList<>();
+        cache.forEach((type, cached) -> visited.add(cached));
+        assertThat(visited).hasSize(2).contains(set);
+        cache.clearReferences();
+        // collected sets are evicted when found
+        visited.clear();
+        cache.forEach((type, cached) -> visited.add(cached));
+        assertThat(visited).isEmpty();
+        assertThat(cache.getStatistics().getEvictionCount()).isEqualTo(2);
+        assertThat(cache.getStatistics().getSize()).isZero();
+        cache.put(Turnout.class, set, 1);
+        cache.clearReferences();
+        assertThat(cache.get(Turnout.class)).isNull();
+        assertThat(cache.getStatistics().getEvictionCount()).isEqualTo(3);
+        assertThat(cache.getStatistics().getMissCount()).isEqualTo(1);
+    }
+}